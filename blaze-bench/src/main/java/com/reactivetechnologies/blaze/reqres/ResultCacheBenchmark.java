@@ -0,0 +1,93 @@
+/**
+ * Copyright 2017 esutdal
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+package com.reactivetechnologies.blaze.reqres;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.reactivetechnologies.mq.data.TextData;
+/**
+ * {@linkplain ResultCache} set and get of replies, shared across request threads. Each thread works on its own
+ * correlation ids, so a get never waits. Both orders are measured: the reply arriving before the get, and the get
+ * arriving before the reply.
+ * @author esutdal
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@Threads(4)
+public class ResultCacheBenchmark {
+
+	@State(Scope.Thread)
+	public static class Replies
+	{
+		private final String prefix = "corr-" + Thread.currentThread().getId() + "-";
+		private long seq;
+		TextData next()
+		{
+			return new TextData("reply", "bench-queue", prefix + (seq++));
+		}
+	}
+
+	private ResultCache cache;
+
+	@Setup
+	public void setup()
+	{
+		cache = new ResultCache();
+	}
+	@TearDown
+	public void tearDown() throws IOException
+	{
+		cache.close();
+	}
+
+	@Benchmark
+	public Object setThenGet(Replies replies)
+	{
+		TextData reply = replies.next();
+		cache.set(reply);
+		return cache.getNow(reply.getCorrelationID());
+	}
+
+	@Benchmark
+	public Object getThenSet(Replies replies)
+	{
+		TextData reply = replies.next();
+		Object none = cache.getNow(reply.getCorrelationID());
+		cache.set(reply);
+		//consume the reply placed, to keep the cache from growing
+		cache.getNow(reply.getCorrelationID());
+		return none;
+	}
+}
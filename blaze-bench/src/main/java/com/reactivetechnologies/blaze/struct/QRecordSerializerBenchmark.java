@@ -0,0 +1,74 @@
+/**
+ * Copyright 2017 esutdal
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+package com.reactivetechnologies.blaze.struct;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.reactivetechnologies.mq.data.TextData;
+/**
+ * Redis value codec of {@linkplain QRecord}, for a range of payload sizes.
+ * @author esutdal
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class QRecordSerializerBenchmark {
+
+	@Param({"64", "1024", "16384"})
+	private int payloadSize;
+
+	private final QRecordSerializer serializer = new QRecordSerializer();
+	private QRecord record;
+	private byte[] serialized;
+
+	@Setup
+	public void setup()
+	{
+		char[] payload = new char[payloadSize];
+		java.util.Arrays.fill(payload, 'x');
+		record = QRecord.transformData(new TextData(new String(payload), "bench-queue"), "bench-exchange", "bench-queue");
+		record.setCorrId("bench-corr-id");
+		serialized = serializer.serialize(record);
+	}
+
+	@Benchmark
+	public byte[] serialize()
+	{
+		return serializer.serialize(record);
+	}
+
+	@Benchmark
+	public QRecord deserialize()
+	{
+		return serializer.deserialize(serialized);
+	}
+}
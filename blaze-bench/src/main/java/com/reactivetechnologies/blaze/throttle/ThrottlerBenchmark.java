@@ -0,0 +1,110 @@
+/**
+ * Copyright 2017 esutdal
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+package com.reactivetechnologies.blaze.throttle;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.reactivetechnologies.blaze.handlers.ThrottlingCommandHandler;
+import com.reactivetechnologies.blaze.handlers.ThrottlingCommandHandlerFactory;
+/**
+ * {@linkplain DefaultConsumerThrottler} as invoked by the fetching tasks of a container, with a shared throttler
+ * under contention. Each operation is a consume check followed by a count increment, as done per message fetched.
+ * @author esutdal
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ThrottlerBenchmark {
+
+	/**
+	 * A threshold high enough to not throttle, so that the full check path is measured.
+	 */
+	private static final int THROTTLE_TPS = Integer.MAX_VALUE;
+
+	@Param({"1000"})
+	private long throttlerPeriod;
+
+	private DefaultConsumerThrottler throttler;
+
+	@Setup
+	public void setup()
+	{
+		throttler = new DefaultConsumerThrottler();
+		throttler.setEnabled(true);
+		throttler.setThrottlerPeriod(throttlerPeriod);
+		throttler.otherCommands = new ThrottlingCommandHandlerFactory() {
+
+			@Override
+			public List<ThrottlingCommandHandler> getCommands() {
+				return Collections.emptyList();
+			}
+		};
+		throttler.init();
+	}
+	@TearDown
+	public void tearDown()
+	{
+		throttler.destroy();
+	}
+
+	@Benchmark
+	@Threads(1)
+	public boolean allowAndCount_1()
+	{
+		return allowAndCount();
+	}
+
+	@Benchmark
+	@Threads(4)
+	public boolean allowAndCount_4()
+	{
+		return allowAndCount();
+	}
+
+	@Benchmark
+	@Threads(16)
+	public boolean allowAndCount_16()
+	{
+		return allowAndCount();
+	}
+
+	private boolean allowAndCount()
+	{
+		boolean allowed = throttler.allowMessageConsume(THROTTLE_TPS);
+		throttler.incrementCount();
+		return allowed;
+	}
+}
@@ -0,0 +1,133 @@
+/**
+ * Copyright 2017 esutdal
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+package com.reactivetechnologies.mq.data;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.reactivetechnologies.mq.Data;
+/**
+ * Stream serialization of the {@linkplain Data} types, as done when a message is transformed to a record on produce,
+ * and read back on consume. {@linkplain ObjectData} includes the JSON conversion on creation.
+ * @author esutdal
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class DataBenchmark {
+
+	public static class Item
+	{
+		private String name;
+		private int[] values;
+		public Item() {
+		}
+		Item(String name, int[] values) {
+			this.name = name;
+			this.values = values;
+		}
+		public String getName() {
+			return name;
+		}
+		public void setName(String name) {
+			this.name = name;
+		}
+		public int[] getValues() {
+			return values;
+		}
+		public void setValues(int[] values) {
+			this.values = values;
+		}
+	}
+
+	@Param({"64", "1024"})
+	private int payloadSize;
+
+	private String payload;
+	private Item item;
+	private TextData textData;
+	private byte[] textBytes;
+	private byte[] objectBytes;
+
+	private static byte[] write(Data d) throws IOException
+	{
+		ByteArrayOutputStream bos = new ByteArrayOutputStream();
+		d.writeData(new DataOutputStream(bos));
+		return bos.toByteArray();
+	}
+	@Setup
+	public void setup() throws IOException
+	{
+		char[] chars = new char[payloadSize];
+		Arrays.fill(chars, 'x');
+		payload = new String(chars);
+		int[] values = new int[payloadSize / 8];
+		Arrays.fill(values, 12345);
+		item = new Item("bench-item", values);
+		textData = new TextData(payload, "bench-queue", "bench-corr-id");
+		textBytes = write(textData);
+		objectBytes = write(new ObjectData<Item>(item, "bench-queue", "bench-corr-id"));
+	}
+
+	@Benchmark
+	public byte[] textDataWrite() throws IOException
+	{
+		return write(textData);
+	}
+
+	@Benchmark
+	public TextData textDataRead() throws IOException
+	{
+		TextData d = new TextData();
+		d.readData(new DataInputStream(new ByteArrayInputStream(textBytes)));
+		return d;
+	}
+
+	@Benchmark
+	public byte[] objectDataCreateAndWrite() throws IOException
+	{
+		return write(new ObjectData<Item>(item, "bench-queue", "bench-corr-id"));
+	}
+
+	@Benchmark
+	public ObjectData<Item> objectDataRead() throws IOException
+	{
+		ObjectData<Item> d = new ObjectData<>();
+		d.readData(new DataInputStream(new ByteArrayInputStream(objectBytes)));
+		return d;
+	}
+}
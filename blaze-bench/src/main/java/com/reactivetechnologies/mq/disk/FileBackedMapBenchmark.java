@@ -0,0 +1,97 @@
+/**
+ * Copyright 2017 esutdal
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+package com.reactivetechnologies.mq.disk;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+/**
+ * {@linkplain FileBackedMap} write and read over a fixed key space. The key space is larger than the
+ * index cache, so that the reads are a mix of cache hits and disk lookups.
+ * @author esutdal
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class FileBackedMapBenchmark {
+
+	@Param({"5000"})
+	private int keySpace;
+
+	@Param({"256"})
+	private int valueSize;
+
+	private Path dir;
+	private FileBackedMap map;
+	private String[] keys;
+	private byte[] value;
+
+	@Setup
+	public void setup() throws IOException
+	{
+		dir = Files.createTempDirectory("blaze-bench");
+		map = new FileBackedMap(dir.toString(), "bench");
+		value = new byte[valueSize];
+		Arrays.fill(value, (byte) 1);
+		keys = new String[keySpace];
+		for (int i = 0; i < keySpace; i++) {
+			keys[i] = "key-" + i;
+			map.write(keys[i], value);
+		}
+	}
+	@TearDown
+	public void tearDown() throws IOException
+	{
+		map.destroy();
+		Files.deleteIfExists(dir);
+	}
+	private String nextKey()
+	{
+		return keys[ThreadLocalRandom.current().nextInt(keySpace)];
+	}
+
+	@Benchmark
+	public byte[] write() throws IOException
+	{
+		return map.write(nextKey(), value);
+	}
+
+	@Benchmark
+	public byte[] read() throws IOException
+	{
+		return map.read(nextKey());
+	}
+}
@@ -0,0 +1,78 @@
+/**
+ * Copyright 2017 esutdal
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+package com.reactivetechnologies.mq.disk;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+/**
+ * {@linkplain FileBackedQueue} add to tail and get from head. The queue is kept at a steady size by pairing
+ * each add with a get. Memory mapped I/O is not covered, being unsupported as yet.
+ * @author esutdal
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class FileBackedQueueBenchmark {
+
+	@Param({"64", "1024"})
+	private int itemSize;
+
+	private Path dir;
+	private FileBackedQueue queue;
+	private byte[] item;
+
+	@Setup
+	public void setup() throws IOException
+	{
+		dir = Files.createTempDirectory("blaze-bench");
+		queue = new FileBackedQueue(dir.toString(), "bench", true);
+		item = new byte[itemSize];
+		Arrays.fill(item, (byte) 1);
+	}
+	@TearDown
+	public void tearDown() throws IOException
+	{
+		queue.delete();
+		Files.deleteIfExists(dir);
+	}
+
+	@Benchmark
+	public byte[] addTailGetHead() throws IOException
+	{
+		queue.addTail(item);
+		return queue.getHead();
+	}
+}
@@ -4,6 +4,7 @@ import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.data.redis.connection.RedisConnectionFactory;
 import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
 
 import com.reactivetechnologies.blaze.ops.BlazeRedisTemplate;
 
@@ -37,5 +38,13 @@ public class RedisConfig {
 		return new StringRedisTemplate(connectionFactory);
 	}
 	
+	@Bean
+	RedisMessageListenerContainer listenerContainer(RedisConnectionFactory connectionFactory)
+	{
+		RedisMessageListenerContainer container = new RedisMessageListenerContainer();
+		container.setConnectionFactory(connectionFactory);
+		return container;
+	}
+	
 				
 }
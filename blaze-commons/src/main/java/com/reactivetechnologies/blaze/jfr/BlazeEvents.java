@@ -0,0 +1,193 @@
+/**
+ * Copyright 2017 esutdal
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+package com.reactivetechnologies.blaze.jfr;
+
+import com.reactivetechnologies.blaze.struct.QRecord;
+/**
+ * Entry point to emit JDK Flight Recorder events for the queue operations. The events can be
+ * recorded with the packaged 'jfr/blaze.jfc' settings, along with GC and lock contention events, so
+ * that broker level stalls can be correlated in a single recording.
+ * <p>
+ * The event classes are referenced only from here, and only when the jdk.jfr module is present, so that a runtime
+ * without JFR is not affected. A duration event is begun as an opaque handle, which is null if the event is disabled
+ * in the running recording (or there is none), and is to be passed on to the corresponding end method. So with
+ * JFR disabled, the cost is a null check.
+ * @author esutdal
+ *
+ */
+public final class BlazeEvents {
+
+	private BlazeEvents() {
+	}
+	private static final boolean AVAILABLE = isAvailable();
+	private static boolean isAvailable()
+	{
+		try {
+			Class.forName("jdk.jfr.Event", false, BlazeEvents.class.getClassLoader());
+			return true;
+		} catch (ClassNotFoundException | LinkageError e) {
+			return false;
+		}
+	}
+	private static long payloadBytes(QRecord qr)
+	{
+		return qr != null && qr.getPayload() != null ? qr.getPayload().remaining() : 0;
+	}
+	/**
+	 * Begin an enqueue event.
+	 * @return handle, or null if disabled
+	 */
+	public static Object beginEnqueue()
+	{
+		if(!AVAILABLE)
+			return null;
+		EnqueueEvent e = new EnqueueEvent();
+		if(!e.isEnabled())
+			return null;
+		e.begin();
+		return e;
+	}
+	/**
+	 * End an enqueue event.
+	 * @param handle
+	 * @param queue
+	 * @param items
+	 */
+	public static void endEnqueue(Object handle, String queue, QRecord[] items)
+	{
+		if(handle == null)
+			return;
+		EnqueueEvent e = (EnqueueEvent) handle;
+		e.end();
+		if(e.shouldCommit())
+		{
+			long bytes = 0;
+			for(QRecord qr : items)
+				bytes += payloadBytes(qr);
+			e.queue = queue;
+			e.count = items.length;
+			e.bytes = bytes;
+			e.commit();
+		}
+	}
+	/**
+	 * Begin a dequeue event.
+	 * @return handle, or null if disabled
+	 */
+	public static Object beginDequeue()
+	{
+		if(!AVAILABLE)
+			return null;
+		DequeueEvent e = new DequeueEvent();
+		if(!e.isEnabled())
+			return null;
+		e.begin();
+		return e;
+	}
+	/**
+	 * End a dequeue event.
+	 * @param handle
+	 * @param queue
+	 * @param fetched the record fetched, or null
+	 */
+	public static void endDequeue(Object handle, String queue, QRecord fetched)
+	{
+		if(handle == null)
+			return;
+		DequeueEvent e = (DequeueEvent) handle;
+		e.end();
+		if(e.shouldCommit())
+		{
+			e.queue = queue;
+			e.fetched = fetched != null;
+			e.bytes = payloadBytes(fetched);
+			e.commit();
+		}
+	}
+	/**
+	 * Begin a commit event.
+	 * @return handle, or null if disabled
+	 */
+	public static Object beginCommit()
+	{
+		if(!AVAILABLE)
+			return null;
+		CommitEvent e = new CommitEvent();
+		if(!e.isEnabled())
+			return null;
+		e.begin();
+		return e;
+	}
+	/**
+	 * End a commit event.
+	 * @param handle
+	 * @param queue
+	 * @param qr
+	 * @param rollback
+	 */
+	public static void endCommit(Object handle, String queue, QRecord qr, boolean rollback)
+	{
+		if(handle == null)
+			return;
+		CommitEvent e = (CommitEvent) handle;
+		e.end();
+		if(e.shouldCommit())
+		{
+			e.queue = queue;
+			e.rollback = rollback;
+			e.redeliveryCount = qr.getRedeliveryCount();
+			e.commit();
+		}
+	}
+	/**
+	 * Emit a rollback scheduled event.
+	 * @param queue
+	 * @param qr
+	 * @param delayMillis
+	 */
+	public static void rollbackScheduled(String queue, QRecord qr, long delayMillis)
+	{
+		if(!AVAILABLE)
+			return;
+		RollbackScheduledEvent e = new RollbackScheduledEvent();
+		if(e.shouldCommit())
+		{
+			e.queue = queue;
+			e.delay = delayMillis;
+			e.redeliveryCount = qr.getRedeliveryCount();
+			e.commit();
+		}
+	}
+	/**
+	 * Emit a throttling decision event.
+	 * @param queue
+	 * @param allowed
+	 * @param tps
+	 */
+	public static void throttled(String queue, boolean allowed, int tps)
+	{
+		if(!AVAILABLE)
+			return;
+		ThrottleEvent e = new ThrottleEvent();
+		if(e.shouldCommit())
+		{
+			e.queue = queue;
+			e.allowed = allowed;
+			e.tps = tps;
+			e.commit();
+		}
+	}
+}
@@ -0,0 +1,44 @@
+/**
+ * Copyright 2017 esutdal
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+package com.reactivetechnologies.blaze.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Timespan;
+/**
+ * A rollback scheduled after a backoff delay.
+ * @author esutdal
+ *
+ */
+@Name("blaze.RollbackScheduled")
+@Label("Rollback Scheduled")
+@Description("A rollback scheduled after a backoff delay.")
+@Category({"Blaze", "Queue"})
+@StackTrace(false)
+class RollbackScheduledEvent extends Event {
+
+	@Label("Queue")
+	String queue;
+	@Label("Delay")
+	@Timespan(Timespan.MILLISECONDS)
+	long delay;
+	@Label("Redelivery Count")
+	short redeliveryCount;
+}
@@ -0,0 +1,42 @@
+/**
+ * Copyright 2017 esutdal
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+package com.reactivetechnologies.blaze.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+/**
+ * A throttling decision of a consumer, before fetching the queue head.
+ * @author esutdal
+ *
+ */
+@Name("blaze.Throttle")
+@Label("Throttle")
+@Description("A throttling decision of a consumer, before fetching the queue head.")
+@Category({"Blaze", "Queue"})
+@StackTrace(false)
+class ThrottleEvent extends Event {
+
+	@Label("Queue")
+	String queue;
+	@Label("Allowed")
+	boolean allowed;
+	@Label("Threshold TPS")
+	int tps;
+}
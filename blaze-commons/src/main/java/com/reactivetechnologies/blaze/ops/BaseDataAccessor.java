@@ -15,11 +15,12 @@
  */
 package com.reactivetechnologies.blaze.ops;
 
-import java.util.Collections;
-import java.util.Iterator;
+import java.util.Arrays;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Properties;
 import java.util.Set;
+import java.util.UUID;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -27,15 +28,10 @@ import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.dao.DataAccessException;
 import org.springframework.data.redis.RedisConnectionFailureException;
 import org.springframework.data.redis.connection.RedisConnection;
-import org.springframework.data.redis.core.BoundListOperations;
-import org.springframework.data.redis.core.ListOperations;
 import org.springframework.data.redis.core.RedisCallback;
-import org.springframework.data.redis.core.RedisOperations;
-import org.springframework.data.redis.core.SessionCallback;
 import org.springframework.data.redis.core.StringRedisTemplate;
 import org.springframework.data.redis.serializer.StringRedisSerializer;
 
-import com.reactivetechnologies.blaze.struct.QRecord;
 import com.reactivetechnologies.mq.QueueService;
 import com.reactivetechnologies.mq.ops.BaseOperations;
 
@@ -46,6 +42,10 @@ public abstract class BaseDataAccessor implements BaseOperations {
 	public static final String QUEUE_PREFIX = "queues/";
 	public static final String QUEUE_PREFIX_PATTERN = QUEUE_PREFIX+"*";
 	public static final String STATS_SUFFIX = "$STAT";
+	static final String DEADLINE_SUFFIX = "$DEADLINE";
+	static final String GRAVEYARD_SUFFIX = "$GRAVE.";
+	static final String PROCESSED_PREFIX = "processed/";
+	static final String DEDUPE_SUFFIX = "$DEDUPE";
 	static final String LIST_KEY_JOIN_SEPARATOR = "-";
 	static final String INPROC_KEY_JOIN_SEPARATOR = ".";
 	private static final Logger log = LoggerFactory.getLogger(BaseDataAccessor.class);
@@ -83,6 +83,8 @@ public abstract class BaseDataAccessor implements BaseOperations {
 	protected RedisStatsRecorder statsRecorder;
 	@Autowired
 	protected InstanceInitializationService instanceService;
+	@Autowired
+	protected QueueCatalog queueCatalog;
 	@Override
 	public boolean isRedisAvailable() {
 		try {
@@ -123,18 +125,19 @@ public abstract class BaseDataAccessor implements BaseOperations {
 		});
 	}
 
+	/**
+	 * If the given key under the queue prefix is a queue, and not an auxiliary key.
+	 * @param key
+	 * @return
+	 */
+	static boolean isQueueKey(String key)
+	{
+		return !(key.contains(RPOPLPUSH_DESTN_SUFFIX) || key.contains(STATS_SUFFIX) || key.contains(GRAVEYARD_SUFFIX)
+				|| key.contains(DEDUPE_SUFFIX));
+	}
 	@Override
 	public Set<String> findQueueNames() {
-		Set<String> qList = redisTemplate.keys(QUEUE_PREFIX_PATTERN);
-		for(Iterator<String> iter = qList.iterator(); iter.hasNext();)
-		{
-			String qName = iter.next();
-			if(qName.contains(RPOPLPUSH_DESTN_SUFFIX) || qName.contains(STATS_SUFFIX))
-			{
-				iter.remove();
-			}
-		}
-		return qList;
+		return new HashSet<>(queueCatalog.getQueueNames());
 	}
 
 	//NOTE: Redis keys are data structure specific. So you cannot use the same key for hash and list.
@@ -151,67 +154,45 @@ public abstract class BaseDataAccessor implements BaseOperations {
 		//persistQueueName(name);
 		return name;
 	}
-	protected List<Object> invokeClearInPipeline(final String listKey)
-	{
-		StringRedisSerializer ser = (StringRedisSerializer) redisTemplate.getKeySerializer();
-		final byte[] keyBytes = ser.serialize(listKey);
-		final long llen = sizeOf(listKey);
-		return redisTemplate.executePipelined(new RedisCallback<Void>() {
-
-			@Override
-			public Void doInRedis(RedisConnection connection) throws DataAccessException {
-				if (llen > 0) {
-					for (long l = 0; l < llen; l++) {
-						connection.rPop(keyBytes);
-					}
-				}
-				return null;
-			}
-		});
-	}
-	protected List<Object> invokeClearInTransaction(final String listKey)
+	/**
+	 * Clear a key (list or sorted set) in O(1), by renaming it to a graveyard key and unlinking the latter in a script.
+	 * The memory is thus reclaimed in the background by the server. If the stats key is provided, the queue stats
+	 * are reset in the same script.
+	 * @param key
+	 * @param statsKey nullable
+	 * @return number of items cleared
+	 */
+	protected long invokeClearInScript(final String key, final String statsKey)
 	{
+		String graveyard = key + GRAVEYARD_SUFFIX + UUID.randomUUID();
+		List<String> keys = statsKey != null ? Arrays.asList(key, graveyard, statsKey) : Arrays.asList(key, graveyard);
+		Object[] fields = statsKey != null ? new Object[]{RedisStatsRecorder.STATS_ENQ, RedisStatsRecorder.STATS_DEQ} : new Object[0];
 		
-		return redisTemplate.execute(new SessionCallback<List<Object>>() {
-
-			@SuppressWarnings("unchecked")
-			@Override
-			public <K, V> List<Object> execute(RedisOperations<K,V> operations) throws DataAccessException {
-				try {
-					long llen = sizeOf(listKey);
-					if (llen > 0) {
-						ListOperations<K, V> ops = operations.opsForList();
-						operations.multi();
-						for (long l = 0; l < llen; l++) {
-							ops.rightPop((K) listKey);
-						}
-						return operations.exec();
-					}
-				} catch (Exception e) {
-					e.printStackTrace();
-				}
-				
-				return Collections.emptyList();
-			}
-		});
+		Long count = stringRedis.execute(RedisScripts.QUEUE_CLEAR, keys, fields);
+		if(count != null && count < 0)
+		{
+			//UNLINK not supported by server. The key is gone already, so this is not racing with producers.
+			log.debug("UNLINK unavailable. Deleting "+graveyard);
+			stringRedis.delete(graveyard);
+			count = -count;
+		}
+		return count != null ? count : 0;
 	}
 	@Override
 	public boolean clear(String xchangeKey, String routeKey) {
 		final String listKey = prepareListKey(xchangeKey, routeKey);
 
-		//it is better to run clear in pipeline for faster execution
-		//anyway we return a boolean to confirm
-		//so clients higher up can do a compare and set type operation.
-		List<Object> removed = invokeClearInPipeline(listKey);
-		
-		log.debug("Removed items: "+removed);
-		log.info("Removed items count: "+removed.size());
-		return sizeOf(listKey) == 0;
+		//the queue is swapped out atomically, so items enqueued concurrently
+		//would go to a fresh queue and would not be lost
+		statsRecorder.discardPending(listKey);
+		long removed = invokeClearInScript(listKey, listKey + STATS_SUFFIX);
+		log.info("Removed items count: "+removed);
+		return true;
 	}
 
 	@Override
 	public Long sizeOf(String listKey) {
-		return boundListOps(listKey).size();
+		return redisTemplate.opsForList().size(listKey);
 	}
 
 	@Override
@@ -219,14 +200,4 @@ public abstract class BaseDataAccessor implements BaseOperations {
 		return (StringRedisSerializer) redisTemplate.getKeySerializer();
 	}
 
-	@Override
-	public BoundListOperations<String, QRecord> boundListOps(String prepareKey) {
-		return redisTemplate.boundListOps(prepareKey);
-	}
-
-	@Override
-	public void executePipelined(RedisCallback<Integer> redisCallback) {
-		redisTemplate.executePipelined(redisCallback);
-	}
-
 }
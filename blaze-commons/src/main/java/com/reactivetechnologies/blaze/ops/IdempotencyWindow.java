@@ -0,0 +1,106 @@
+/**
+ * Copyright 2017 esutdal
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+package com.reactivetechnologies.blaze.ops;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+/**
+ * The idempotency keys enqueued recently on this instance, per queue, within a time window. The keys are held
+ * in stripes of bounded maps in the order of enqueue, so the oldest are evicted first, on expiry or on overflow.
+ * An evicted key is only forgotten locally, and is still a duplicate if the window is kept in Redis.
+ * @author esutdal
+ *
+ */
+final class IdempotencyWindow {
+
+	private static final int STRIPES = 16;
+
+	private static final class Stripe extends LinkedHashMap<String, Long>
+	{
+		private static final long serialVersionUID = 1L;
+		private final int capacity;
+		private final long windowMillis;
+		private Stripe(int capacity, long windowMillis) {
+			this.capacity = capacity;
+			this.windowMillis = windowMillis;
+		}
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<String, Long> eldest) {
+			return size() > capacity || eldest.getValue() <= System.currentTimeMillis() - windowMillis;
+		}
+	}
+
+	private final Stripe[] stripes = new Stripe[STRIPES];
+	private final long windowMillis;
+	/**
+	 *
+	 * @param capacity max keys held
+	 * @param windowMillis time a key is held for
+	 */
+	IdempotencyWindow(int capacity, long windowMillis) {
+		this.windowMillis = windowMillis;
+		int perStripe = Math.max(capacity / STRIPES, 1);
+		for (int i = 0; i < STRIPES; i++) {
+			stripes[i] = new Stripe(perStripe, windowMillis);
+		}
+	}
+	private static String entryOf(String preparedKey, String idempotencyKey)
+	{
+		return preparedKey + '\u0000' + idempotencyKey;
+	}
+	private Stripe stripeOf(String entry)
+	{
+		int h = entry.hashCode();
+		return stripes[(h ^ (h >>> 16)) & (STRIPES - 1)];
+	}
+	/**
+	 * If the key was enqueued to the queue within the window.
+	 * @param preparedKey
+	 * @param idempotencyKey
+	 * @param now
+	 * @return
+	 */
+	boolean contains(String preparedKey, String idempotencyKey, long now)
+	{
+		String entry = entryOf(preparedKey, idempotencyKey);
+		Stripe stripe = stripeOf(entry);
+		synchronized (stripe) {
+			Long time = stripe.get(entry);
+			return time != null && time > now - windowMillis;
+		}
+	}
+	/**
+	 * Record the key as enqueued to the queue, unless it is within the window already.
+	 * @param preparedKey
+	 * @param idempotencyKey
+	 * @param now
+	 * @return false if the key is within the window
+	 */
+	boolean add(String preparedKey, String idempotencyKey, long now)
+	{
+		String entry = entryOf(preparedKey, idempotencyKey);
+		Stripe stripe = stripeOf(entry);
+		synchronized (stripe) {
+			Long time = stripe.get(entry);
+			if(time != null && time > now - windowMillis)
+				return false;
+			//re-inserted, to be ordered by the latest time
+			stripe.remove(entry);
+			stripe.put(entry, now);
+			return true;
+		}
+	}
+}
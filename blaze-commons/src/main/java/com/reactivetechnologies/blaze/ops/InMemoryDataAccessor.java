@@ -0,0 +1,485 @@
+/**
+ * Copyright 2017 esutdal
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+package com.reactivetechnologies.blaze.ops;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.annotation.PostConstruct;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Profile;
+import org.springframework.data.redis.serializer.StringRedisSerializer;
+import org.springframework.stereotype.Component;
+import org.springframework.util.StringUtils;
+
+import com.reactivetechnologies.blaze.jfr.BlazeEvents;
+import com.reactivetechnologies.blaze.struct.MessageTrace.Hop;
+import com.reactivetechnologies.blaze.struct.QRecord;
+import com.reactivetechnologies.mq.ops.ConsumerOperations;
+import com.reactivetechnologies.mq.ops.ProducerOperations;
+/**
+ * An in-memory backend for the producer and consumer operations, active with the {@value #PROFILE} profile. This is
+ * meant to measure the framework overhead without a Redis roundtrip, and to run the producer and the container embedded
+ * in a single JVM. Nothing is persisted, and nothing is shared across instances.
+ * <p>
+ * The SOURCE and INPROC queues are blocking deques, keyed the same as the Redis lists, with head being the first element.
+ * So an enqueue is an offer at head, and a dequeue is a (blocking) poll from tail of SOURCE, followed by an offer at head of
+ * INPROC. The records are held by reference, so an INPROC item is matched by identity on commit or expiry.
+ * @author esutdal
+ *
+ */
+@Component
+@Profile(InMemoryDataAccessor.PROFILE)
+public class InMemoryDataAccessor implements ProducerOperations, ConsumerOperations {
+
+	public static final String PROFILE = "inmemory";
+	private static final Logger log = LoggerFactory.getLogger(InMemoryDataAccessor.class);
+	private static final StringRedisSerializer KEY_SERIALIZER = new StringRedisSerializer();
+
+	@Autowired
+	private RedisStatsRecorder statsRecorder;
+	@Autowired
+	private InstanceInitializationService instanceService;
+	@Autowired
+	private QueueWakeup wakeup;
+	@Value("${producer.trace.sample.every:0}")
+	private int traceSampleEvery;
+	@Value("${producer.dedupe.enable:false}")
+	private boolean dedupe;
+	@Value("${producer.dedupe.window.millis:300000}")
+	private long dedupeWindowMillis;
+	@Value("${producer.dedupe.local.size:100000}")
+	private int dedupeLocalSize;
+	/**
+	 * The idempotency keys enqueued within the dedupe window, if enabled.
+	 */
+	private IdempotencyWindow idempotencyWindow;
+
+	private final ConcurrentMap<String, LinkedBlockingDeque<QRecord>> lists = new ConcurrentHashMap<>();
+	/**
+	 * Visibility deadline of in-process items, keyed by INPROC queue.
+	 */
+	private final ConcurrentMap<String, ConcurrentMap<QRecord, Long>> deadlines = new ConcurrentHashMap<>();
+	/**
+	 * Visibility timeout, keyed by source queue.
+	 */
+	private final Map<String, Long> visibilityTimeouts = new ConcurrentHashMap<>();
+	/**
+	 * Expiry of the processed marks, keyed by message id.
+	 */
+	private final ConcurrentMap<UUID, Long> processed = new ConcurrentHashMap<>();
+	private final AtomicInteger processedMarks = new AtomicInteger();
+
+	private LinkedBlockingDeque<QRecord> list(String key)
+	{
+		LinkedBlockingDeque<QRecord> list = lists.get(key);
+		if(list == null)
+		{
+			lists.putIfAbsent(key, new LinkedBlockingDeque<QRecord>());
+			list = lists.get(key);
+		}
+		return list;
+	}
+	private ConcurrentMap<QRecord, Long> deadlines(String inprocKey)
+	{
+		ConcurrentMap<QRecord, Long> map = deadlines.get(inprocKey);
+		if(map == null)
+		{
+			deadlines.putIfAbsent(inprocKey, new ConcurrentHashMap<QRecord, Long>());
+			map = deadlines.get(inprocKey);
+		}
+		return map;
+	}
+	private void clearDeadline(String inprocKey, QRecord qr)
+	{
+		ConcurrentMap<QRecord, Long> map = deadlines.get(inprocKey);
+		if(map != null)
+			map.remove(qr);
+	}
+	private String prepareInProcKey(String preparedKey)
+	{
+		return preparedKey + BaseDataAccessor.RPOPLPUSH_DESTN_SUFFIX + BaseDataAccessor.INPROC_KEY_JOIN_SEPARATOR + instanceService.getInstanceId();
+	}
+	@Override
+	public String prepareInProcKey(String exchange, String key) {
+		return prepareInProcKey(prepareListKey(exchange, key));
+	}
+	@Override
+	public String prepareListKey(String exchange, String key) {
+		return new StringBuilder(BaseDataAccessor.QUEUE_PREFIX).append(exchange).append(BaseDataAccessor.LIST_KEY_JOIN_SEPARATOR).append(key).toString();
+	}
+	@Override
+	public boolean isRedisAvailable() {
+		return true;
+	}
+
+	@Override
+	public Properties getServerInfo() {
+		Properties props = new Properties();
+		props.setProperty("blaze_backend", PROFILE);
+		props.setProperty("blaze_lists", String.valueOf(lists.size()));
+		return props;
+	}
+
+	@Override
+	public Set<String> findQueueNames() {
+		Set<String> names = new HashSet<>();
+		for(String key : lists.keySet())
+		{
+			if(BaseDataAccessor.isQueueKey(key))
+				names.add(key);
+		}
+		return names;
+	}
+
+	@Override
+	public boolean clear(String xchangeKey, String routeKey) {
+		String listKey = prepareListKey(xchangeKey, routeKey);
+		LinkedBlockingDeque<QRecord> list = lists.get(listKey);
+		int removed = 0;
+		if(list != null)
+		{
+			removed = list.size();
+			list.clear();
+		}
+		statsRecorder.reset(listKey);
+		log.info("Removed items count: "+removed);
+		return true;
+	}
+
+	@Override
+	public Long sizeOf(String listKey) {
+		LinkedBlockingDeque<QRecord> list = lists.get(listKey);
+		return list != null ? (long) list.size() : 0L;
+	}
+
+	@Override
+	public long size(String xchangeKey, String routeKey) {
+		return sizeOf(prepareListKey(xchangeKey, routeKey));
+	}
+
+	@Override
+	public StringRedisSerializer getKeySerializer() {
+		return KEY_SERIALIZER;
+	}
+
+	@Override
+	public void enqueue(String preparedKey, QRecord... values) {
+		Object event = BlazeEvents.beginEnqueue();
+		lpushAll(preparedKey, values);
+		BlazeEvents.endEnqueue(event, preparedKey, values);
+	}
+
+	@PostConstruct
+	private void init()
+	{
+		if(dedupe)
+			idempotencyWindow = new IdempotencyWindow(dedupeLocalSize, dedupeWindowMillis);
+	}
+	@Override
+	public void lpushAll(String preparedKey, QRecord[] items) {
+		LinkedBlockingDeque<QRecord> list = list(preparedKey);
+		boolean wasEmpty = list.isEmpty();
+		long now = System.currentTimeMillis();
+		int pushed = 0;
+		for(QRecord qr : items)
+		{
+			//the window is the only one, with no Redis behind it
+			if(idempotencyWindow != null && StringUtils.hasText(qr.getIdempotencyKey()) && !idempotencyWindow.add(preparedKey, qr.getIdempotencyKey(), now))
+				continue;
+			if(traceSampleEvery > 0 && ThreadLocalRandom.current().nextInt(traceSampleEvery) == 0)
+				qr.traceEnqueue();
+			list.offerFirst(qr);
+			pushed++;
+		}
+		if(wasEmpty && pushed > 0)
+			wakeup.wake(preparedKey);
+		statsRecorder.recordEnqueu(preparedKey, pushed);
+		if(pushed < items.length)
+			statsRecorder.recordDuplicate(preparedKey, items.length - pushed);
+	}
+	/**
+	 * Append at tail of the SOURCE queue.
+	 * @param key
+	 * @param qr
+	 */
+	private void requeue(String key, QRecord qr)
+	{
+		LinkedBlockingDeque<QRecord> list = list(key);
+		boolean wasEmpty = list.isEmpty();
+		list.offerLast(qr);
+		if(wasEmpty)
+			wakeup.wake(key);
+	}
+	/**
+	 * Poll from tail, waiting up to the given time. A non-positive wait blocks till an item is available, as BRPOP does.
+	 * @param list
+	 * @param await
+	 * @param unit
+	 * @return item, or null on timeout or interrupt
+	 */
+	private static QRecord pollLast(LinkedBlockingDeque<QRecord> list, long await, TimeUnit unit)
+	{
+		try {
+			return await > 0 ? list.pollLast(await, unit) : list.takeLast();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			return null;
+		}
+	}
+	@Override
+	public void endCommit(QRecord qr, String key, boolean enqueueAgain) {
+		Object event = BlazeEvents.beginCommit();
+		String inprocKey = prepareInProcKey(key);
+		clearDeadline(inprocKey, qr);
+		boolean removed = list(inprocKey).removeLastOccurrence(qr);
+		if(!removed)
+		{
+			log.warn("Message was not removed from inproc on endCommit. Was it expired by visibility timeout?");
+		}
+		//a tracked message not found has been requeued by the reaper already
+		if(removed || !visibilityTimeouts.containsKey(key))
+		{
+			if(enqueueAgain)
+				requeue(key, qr);
+			else
+				statsRecorder.recordDequeu(key);
+		}
+		BlazeEvents.endCommit(event, key, qr, enqueueAgain);
+	}
+
+	@Override
+	public QRecord dequeue(String xchng, String route, long await, TimeUnit unit) {
+		String preparedKey = prepareListKey(xchng, route);
+		String inprocKey = prepareInProcKey(preparedKey);
+		Object event = BlazeEvents.beginDequeue();
+		QRecord qr = pollLast(list(preparedKey), await, unit);
+		if(qr != null)
+		{
+			list(inprocKey).offerFirst(qr);
+		}
+		BlazeEvents.endDequeue(event, preparedKey, qr);
+		if(qr != null && qr.getTrace() != null)
+			qr.getTrace().stamp(Hop.DEQUEUED);
+		Long timeout = visibilityTimeouts.get(preparedKey);
+		if(qr != null && timeout != null)
+		{
+			deadlines(inprocKey).put(qr, System.currentTimeMillis() + timeout);
+		}
+		return qr;
+	}
+
+	@Override
+	public List<QRecord> dequeue(String xchng, String route, int max, long await, TimeUnit unit) {
+		List<QRecord> batch = dequeueAvailable(prepareListKey(xchng, route), max);
+		if(batch.isEmpty())
+		{
+			//nothing available. wait for the next one
+			QRecord qr = dequeue(xchng, route, await, unit);
+			if(qr != null)
+				batch.add(qr);
+		}
+		return batch;
+	}
+
+	@Override
+	public List<QRecord> dequeueAny(String xchng, List<String> routes, int max) {
+		for(String route : routes)
+		{
+			List<QRecord> batch = dequeueAvailable(prepareListKey(xchng, route), max);
+			if(!batch.isEmpty())
+				return batch;
+		}
+		return new ArrayList<>(0);
+	}
+	/**
+	 * Move up to max items available in the SOURCE queue to the INPROC queue, without waiting.
+	 * @param preparedKey
+	 * @param max
+	 * @return
+	 */
+	private List<QRecord> dequeueAvailable(String preparedKey, int max) {
+		String inprocKey = prepareInProcKey(preparedKey);
+		LinkedBlockingDeque<QRecord> list = list(preparedKey);
+		List<QRecord> batch = new ArrayList<>();
+		Object event = BlazeEvents.beginDequeue();
+		QRecord qr;
+		while(batch.size() < max && (qr = list.pollLast()) != null)
+		{
+			list(inprocKey).offerFirst(qr);
+			batch.add(qr);
+		}
+		if(batch.isEmpty())
+		{
+			BlazeEvents.endDequeue(event, preparedKey, null);
+			return batch;
+		}
+		BlazeEvents.endDequeue(event, preparedKey, batch.get(0));
+		Long timeout = visibilityTimeouts.get(preparedKey);
+		for(QRecord each : batch)
+		{
+			if(each.getTrace() != null)
+				each.getTrace().stamp(Hop.DEQUEUED);
+			if(timeout != null)
+				deadlines(inprocKey).put(each, System.currentTimeMillis() + timeout);
+		}
+		return batch;
+	}
+
+	@Override
+	public QRecord pop(String xchng, String route, long await, TimeUnit unit) {
+		String preparedKey = prepareListKey(xchng, route);
+		QRecord qr = pollLast(list(preparedKey), await, unit);
+		if(qr != null)
+		{
+			statsRecorder.recordDequeu(preparedKey);
+		}
+		return qr;
+	}
+
+	@Override
+	public boolean reverseDequeue(String xchng, String route) {
+		String preparedKey = prepareListKey(xchng, route);
+		String inprocKey = prepareInProcKey(preparedKey);
+		QRecord qr = list(inprocKey).pollLast();
+		if(qr != null)
+		{
+			clearDeadline(inprocKey, qr);
+			list(preparedKey).offerFirst(qr);
+		}
+		return qr != null;
+	}
+
+	@Override
+	public boolean clearInproc(String xchangeKey, String routeKey) {
+		String inprocKey = prepareInProcKey(xchangeKey, routeKey);
+		LinkedBlockingDeque<QRecord> list = lists.get(inprocKey);
+		int removed = 0;
+		if(list != null)
+		{
+			removed = list.size();
+			list.clear();
+		}
+		deadlines.remove(inprocKey);
+		log.info("Removed items count: "+removed);
+		return true;
+	}
+	/**
+	 * No-op. The in-process items are not visible to any other instance.
+	 */
+	@Override
+	public void registerInproc(String xchangeKey, String routeKey) {
+
+	}
+
+	@Override
+	public void trackVisibility(String xchangeKey, String routeKey, long timeoutMillis) {
+		String preparedKey = prepareListKey(xchangeKey, routeKey);
+		if(timeoutMillis > 0)
+			visibilityTimeouts.put(preparedKey, timeoutMillis);
+		else
+			visibilityTimeouts.remove(preparedKey);
+	}
+
+	@Override
+	public List<QRecord> fetchExpired(String xchangeKey, String routeKey, int max) {
+		ConcurrentMap<QRecord, Long> map = deadlines.get(prepareInProcKey(xchangeKey, routeKey));
+		if(map == null)
+			return new ArrayList<>();
+		long now = System.currentTimeMillis();
+		List<Map.Entry<QRecord, Long>> expired = new ArrayList<>();
+		for(Map.Entry<QRecord, Long> entry : map.entrySet())
+		{
+			if(entry.getValue() <= now)
+				expired.add(entry);
+		}
+		Collections.sort(expired, new Comparator<Map.Entry<QRecord, Long>>() {
+
+			@Override
+			public int compare(Map.Entry<QRecord, Long> o1, Map.Entry<QRecord, Long> o2) {
+				return Long.compare(o1.getValue(), o2.getValue());
+			}
+		});
+		List<QRecord> records = new ArrayList<>(Math.min(max, expired.size()));
+		for(int i = 0; i < expired.size() && i < max; i++)
+		{
+			records.add(expired.get(i).getKey());
+		}
+		return records;
+	}
+
+	@Override
+	public boolean expireInproc(QRecord qr, boolean requeue) {
+		String preparedKey = prepareListKey(qr.getKey().getExchange(), qr.getKey().getRoutingKey());
+		String inprocKey = prepareInProcKey(preparedKey);
+		clearDeadline(inprocKey, qr);
+		if(!list(inprocKey).removeLastOccurrence(qr))
+		{
+			return false;
+		}
+		if(requeue)
+		{
+			qr.incrDeliveryCount();
+			qr.setRedelivered(true);
+			requeue(preparedKey, qr);
+		}
+		else
+		{
+			statsRecorder.recordDequeu(preparedKey);
+		}
+		return true;
+	}
+
+	@Override
+	public void markProcessed(QRecord qr, long ttlMillis) {
+		long now = System.currentTimeMillis();
+		processed.put(qr.getKey().getTimeuid(), now + ttlMillis);
+		//sweep the expired marks now and then, as a Redis key would expire
+		if(processedMarks.incrementAndGet() % 1024 == 0)
+		{
+			for(Iterator<Long> iter = processed.values().iterator(); iter.hasNext();)
+			{
+				if(iter.next() <= now)
+					iter.remove();
+			}
+		}
+	}
+
+	@Override
+	public boolean isProcessed(QRecord qr) {
+		Long expiry = processed.get(qr.getKey().getTimeuid());
+		return expiry != null && expiry > System.currentTimeMillis();
+	}
+
+}
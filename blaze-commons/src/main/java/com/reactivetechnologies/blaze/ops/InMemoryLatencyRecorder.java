@@ -0,0 +1,62 @@
+/**
+ * Copyright 2017 esutdal
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+package com.reactivetechnologies.blaze.ops;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.springframework.context.annotation.Profile;
+import org.springframework.stereotype.Component;
+/**
+ * Publishes the latency histograms to an in-process map, for the {@linkplain InMemoryDataAccessor}. The reads
+ * are then local to this instance.
+ * @author esutdal
+ *
+ */
+@Component
+@Profile(InMemoryDataAccessor.PROFILE)
+public class InMemoryLatencyRecorder extends RedisLatencyRecorder {
+
+	private final ConcurrentMap<String, Map<Object, Object>> hashes = new ConcurrentHashMap<>();
+	
+	@Override
+	protected void write(Map<String, Map<String, String>> fields) {
+		for(Map.Entry<String, Map<String, String>> entry : fields.entrySet())
+		{
+			Map<Object, Object> hash = hashes.get(entry.getKey());
+			if(hash == null)
+			{
+				hashes.putIfAbsent(entry.getKey(), new ConcurrentHashMap<Object, Object>());
+				hash = hashes.get(entry.getKey());
+			}
+			hash.putAll(entry.getValue());
+		}
+	}
+	@Override
+	protected void remove(String hash, Collection<String> fields) {
+		Map<Object, Object> map = hashes.get(hash);
+		if(map != null)
+			map.keySet().removeAll(fields);
+	}
+	@Override
+	protected Map<Object, Object> entries(String hash) {
+		Map<Object, Object> fields = hashes.get(hash);
+		return fields != null ? new HashMap<>(fields) : new HashMap<Object, Object>();
+	}
+}
@@ -0,0 +1,94 @@
+/**
+ * Copyright 2017 esutdal
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+package com.reactivetechnologies.blaze.ops;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.springframework.context.annotation.Profile;
+import org.springframework.stereotype.Component;
+/**
+ * Keeps the enqueue, dequeue and duplicate counts in-process, for the {@linkplain InMemoryDataAccessor}. The counts follow the
+ * same conventions as the Redis stats hash.
+ * @author esutdal
+ *
+ */
+@Component
+@Profile(InMemoryDataAccessor.PROFILE)
+public class InMemoryStatsRecorder extends RedisStatsRecorder {
+
+	private static final class Counts
+	{
+		private final LongAdder enqueued = new LongAdder();
+		private final LongAdder dequeued = new LongAdder();
+		private final LongAdder duplicates = new LongAdder();
+	}
+	private final ConcurrentMap<String, Counts> counts = new ConcurrentHashMap<>();
+	
+	private Counts counts(String key)
+	{
+		Counts c = counts.get(key);
+		if(c == null)
+		{
+			counts.putIfAbsent(key, new Counts());
+			c = counts.get(key);
+		}
+		return c;
+	}
+	/**
+	 * No-op. There is nothing to flush.
+	 */
+	@Override
+	public void flush() {
+		
+	}
+	@Override
+	public void discardPending(String key) {
+		
+	}
+	@Override
+	public void recordEnqueu(String key, long c) {
+		counts(key).enqueued.add(c);
+	}
+	@Override
+	public long getEnqueuStats(String key) {
+		Counts c = counts.get(key);
+		return c != null ? c.enqueued.sum() : 0;
+	}
+	@Override
+	public long getDequeuStats(String key) {
+		Counts c = counts.get(key);
+		return c != null ? c.dequeued.sum() : 0;
+	}
+	@Override
+	public void recordDequeu(String key, int decr) {
+		counts(key).dequeued.add(Math.negateExact(decr));
+	}
+	@Override
+	public void recordDuplicate(String key, long c) {
+		counts(key).duplicates.add(c);
+	}
+	@Override
+	public long getDuplicateStats(String key) {
+		Counts c = counts.get(key);
+		return c != null ? c.duplicates.sum() : 0;
+	}
+	@Override
+	public void reset(String key) {
+		counts.remove(key);
+	}
+}
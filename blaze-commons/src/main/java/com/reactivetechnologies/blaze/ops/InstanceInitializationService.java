@@ -16,9 +16,16 @@
 package com.reactivetechnologies.blaze.ops;
 
 import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
-import java.util.Optional;
 import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.CopyOnWriteArraySet;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -26,7 +33,6 @@ import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.dao.DataAccessException;
 import org.springframework.data.redis.connection.RedisConnection;
-import org.springframework.data.redis.core.BoundSetOperations;
 import org.springframework.data.redis.core.RedisCallback;
 import org.springframework.data.redis.core.StringRedisTemplate;
 import org.springframework.data.redis.core.types.RedisClientInfo;
@@ -34,12 +40,34 @@ import org.springframework.data.redis.serializer.RedisSerializer;
 import org.springframework.stereotype.Component;
 
 import com.reactivetechnologies.mq.exceptions.BlazeDuplicateInstanceException;
+/**
+ * Manages the identity of a running Blaze instance. Each instance holds a heartbeat lease in Redis, which
+ * is a key with a TTL that is renewed periodically. The INPROC queues of an instance are registered against
+ * its id, so that if the lease expires (the instance died without recovering them), a live instance can
+ * reclaim the pending items back to their SOURCE queues. Thus failover is bounded by the lease TTL.
+ * @author esutdal
+ *
+ */
 @Component
 class InstanceInitializationService
 {
 	private static final Logger log = LoggerFactory.getLogger(InstanceInitializationService.class);
 	
+	static final String LEASE_SUFFIX = "-LEASE";
+	static final String INPROC_KEYS_SUFFIX = "-KEYS";
+	/**
+	 * Max items moved by a reclaim script call.
+	 */
+	private static final int RECLAIM_BATCH = 1000;
+	
 	@Value("${blaze.instance.id}") private String instanceId;
+	@Value("${blaze.instance.lease.ttl.millis:30000}") private long leaseTtlMillis;
+	@Value("${blaze.instance.lease.reclaim.enable:true}") private boolean reclaimEnabled;
+	
+	private final String leaseToken = UUID.randomUUID().toString();
+	private final Set<String> inprocKeys = new CopyOnWriteArraySet<>();
+	private ScheduledExecutorService leaseTimer;
+	
 	public String getInstanceId() {
 		return instanceId;
 	}
@@ -65,11 +93,39 @@ class InstanceInitializationService
 		
 	}
 
-	
+	private static String leaseKey(String id)
+	{
+		return BaseDataAccessor.RPOPLPUSH_DESTN_SUFFIX + LEASE_SUFFIX + BaseDataAccessor.INPROC_KEY_JOIN_SEPARATOR + id;
+	}
+	private static String inprocKeysKey(String id)
+	{
+		return BaseDataAccessor.RPOPLPUSH_DESTN_SUFFIX + INPROC_KEYS_SUFFIX + BaseDataAccessor.INPROC_KEY_JOIN_SEPARATOR + id;
+	}
+	private static String inprocSuffix(String id)
+	{
+		return BaseDataAccessor.RPOPLPUSH_DESTN_SUFFIX + BaseDataAccessor.INPROC_KEY_JOIN_SEPARATOR + id;
+	}
+	/**
+	 * Register an INPROC queue of this instance, so that it can be reclaimed by a live instance
+	 * in case this instance dies.
+	 * @param inprocKey
+	 */
+	public void registerInProcKey(String inprocKey)
+	{
+		if(inprocKeys.add(inprocKey))
+		{
+			stringRedis.boundSetOps(inprocKeysKey(instanceId)).add(inprocKey);
+		}
+	}
+	/**
+	 * Stop the heartbeat and release the lease held by this instance.
+	 */
 	public void removeInstanceId()
 	{
-		BoundSetOperations<String, String> setOps = stringRedis.boundSetOps(BaseDataAccessor.RPOPLPUSH_DESTN_SET);
-		setOps.remove(instanceId);
+		if (leaseTimer != null) {
+			leaseTimer.shutdownNow();
+		}
+		stringRedis.execute(RedisScripts.LEASE_RELEASE, Collections.singletonList(leaseKey(instanceId)), leaseToken);
 	}
 
 	public void setInstanceId(String instanceId) {
@@ -90,39 +146,142 @@ class InstanceInitializationService
 		});
 	}
 
-	
-	private Long setInstanceId()
+	private boolean acquireLease(boolean force)
 	{
-		return setInstanceId(Optional.ofNullable(null));
+		Long acquired = stringRedis.execute(RedisScripts.LEASE_ACQUIRE,
+				Arrays.asList(leaseKey(instanceId), BaseDataAccessor.RPOPLPUSH_DESTN_SET), leaseToken,
+				String.valueOf(leaseTtlMillis), instanceId, force ? "1" : "0");
+		return acquired != null && acquired == 1;
 	}
-	private Long setInstanceId(Optional<BoundSetOperations<String, String>> setOps)
+	private void compareAndSet()
 	{
-		return setOps.orElse(stringRedis.boundSetOps(BaseDataAccessor.RPOPLPUSH_DESTN_SET)).add(instanceId) ;
+		//an instance id is allowed only if there is no live lease for it. a crashed instance
+		//would have its lease expired, so it can be restarted without a force apply
+		if(!acquireLease(forceApply))
+			throw new BlazeDuplicateInstanceException("'"+instanceId+"' not allowed. There is a live instance holding the lease");
 	}
-	
-	private void compareAndSetInstanceId()
+	/**
+	 * Heartbeat task to renew the lease. If the lease was lost (say, on a long GC pause), it will
+	 * try to acquire it afresh and re-register the INPROC queues.
+	 */
+	private void renewLease()
 	{
-		BoundSetOperations<String, String> setOps = stringRedis.boundSetOps(BaseDataAccessor.RPOPLPUSH_DESTN_SET);
-		if(setOps.isMember(instanceId))
+		try 
 		{
-			throw new BlazeDuplicateInstanceException("'"+instanceId+"' not allowed");
+			Long renewed = stringRedis.execute(RedisScripts.LEASE_RENEW, Collections.singletonList(leaseKey(instanceId)),
+					leaseToken, String.valueOf(leaseTtlMillis));
+			if (renewed == null || renewed == 0) 
+			{
+				log.error("Lease was lost for instance '" + instanceId + "'. In-flight messages may have been reclaimed by another instance");
+				if (acquireLease(false)) 
+				{
+					if (!inprocKeys.isEmpty()) {
+						stringRedis.boundSetOps(inprocKeysKey(instanceId)).add(inprocKeys.toArray(new String[inprocKeys.size()]));
+					}
+					log.info("Lease re-acquired for instance '" + instanceId + "'");
+				}
+				else
+					log.error("Unable to re-acquire lease. Instance '"+instanceId+"' is held by another process!");
+			} 
+		} 
+		catch (Exception e) {
+			log.warn("Unable to renew lease => "+e.getMessage());
+			log.debug("", e);
 		}
-		long c = setInstanceId(Optional.of(setOps));
-		if(c == 0)
-			throw new BlazeDuplicateInstanceException("'"+instanceId+"' not allowed");
 	}
-	private void compareAndSet()
+	/**
+	 * Reclaim the INPROC queues of an instance, if its lease has expired. Each queue is moved in batches, a script
+	 * call each, so that Redis is not blocked for the whole of a large queue.
+	 * @param id
+	 * @return the number of items moved, or -1 if the lease is alive
+	 */
+	private long reclaim(String id)
 	{
-		if(forceApply){
-			setInstanceId();
-			return;
+		String lease = leaseKey(id);
+		if(Boolean.TRUE.equals(stringRedis.hasKey(lease)))
+			return -1;
+		String keySet = inprocKeysKey(id);
+		String suffix = inprocSuffix(id);
+		long moved = 0;
+		for(String inproc : stringRedis.boundSetOps(keySet).members())
+		{
+			String source = inproc.substring(0, inproc.length() - suffix.length());
+			List<String> keys = Arrays.asList(lease, inproc, source, inproc + BaseDataAccessor.DEADLINE_SUFFIX, keySet);
+			Long n;
+			do
+			{
+				n = stringRedis.execute(RedisScripts.LEASE_RECLAIM, keys, String.valueOf(RECLAIM_BATCH), QueueWakeup.CHANNEL);
+				if(n == null || n < 0)
+					//the instance is back
+					return -1;
+				moved += n;
+			}
+			while(n == RECLAIM_BATCH);
+		}
+		stringRedis.execute(RedisScripts.LEASE_FORGET, Arrays.asList(BaseDataAccessor.RPOPLPUSH_DESTN_SET, lease, keySet), id);
+		return moved;
+	}
+	/**
+	 * Reclaim the INPROC queues of instances whose lease has expired.
+	 */
+	void reclaimOrphans()
+	{
+		try 
+		{
+			Set<String> ids = stringRedis.boundSetOps(BaseDataAccessor.RPOPLPUSH_DESTN_SET).members();
+			for(String id : ids)
+			{
+				if(id.equals(instanceId))
+					continue;
+				
+				long moved = reclaim(id);
+				if(moved >= 0)
+				{
+					log.warn("Lease expired for instance '"+id+"'. Reclaimed "+moved+" in-flight items to source queues");
+				}
+			}
+		} 
+		catch (Exception e) {
+			log.warn("Unable to reclaim orphaned in-flight queues => "+e.getMessage());
+			log.debug("", e);
+		}
+	}
+	private void startHeartbeat()
+	{
+		leaseTimer = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+			
+			@Override
+			public Thread newThread(Runnable r) {
+				Thread t = new Thread(r, "Blaze.LeaseHeartbeat");
+				t.setDaemon(true);
+				return t;
+			}
+		});
+		long period = Math.max(leaseTtlMillis / 3, 1);
+		leaseTimer.scheduleAtFixedRate(new Runnable() {
+			
+			@Override
+			public void run() {
+				renewLease();
+			}
+		}, period, period, TimeUnit.MILLISECONDS);
+		
+		if (reclaimEnabled) {
+			leaseTimer.scheduleWithFixedDelay(new Runnable() {
+
+				@Override
+				public void run() {
+					reclaimOrphans();
+				}
+			}, 0, leaseTtlMillis, TimeUnit.MILLISECONDS);
 		}
-		compareAndSetInstanceId();
+		log.info("Instance '"+instanceId+"' holding lease with ttl "+leaseTtlMillis+" millis");
 	}
 	public void verifyInstanceId() {
 
 		compareAndSet();
 		setClientId();
+		startHeartbeat();
 		
 		List<RedisClientInfo> clients = redisTemplate.getClientList();
 		log.info("No of connected clients -> "+clients.size());
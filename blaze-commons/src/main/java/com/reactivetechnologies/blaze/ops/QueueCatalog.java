@@ -0,0 +1,200 @@
+/**
+ * Copyright 2017 esutdal
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+package com.reactivetechnologies.blaze.ops;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import javax.annotation.PostConstruct;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Profile;
+import org.springframework.dao.DataAccessException;
+import org.springframework.data.redis.connection.Message;
+import org.springframework.data.redis.connection.MessageListener;
+import org.springframework.data.redis.connection.RedisConnection;
+import org.springframework.data.redis.core.Cursor;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.ScanOptions;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.listener.ChannelTopic;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
+import org.springframework.stereotype.Component;
+/**
+ * A registry of the queues. The catalog is a Redis hash of queue key to its creation time, which is updated
+ * atomically with the first enqueue to a queue. This avoids a KEYS scan over the keyspace to discover the queues.
+ * <p>
+ * A locally cached view of the catalog is kept, which is updated on a registration notification published over
+ * the catalog channel. The view is reloaded periodically as well, to cover for missed notifications. If the catalog
+ * is found empty on a load, it is migrated from the existing queues by an incremental (cursor based) SCAN. The
+ * migration is run once, recorded by a marker key.
+ * @author esutdal
+ *
+ */
+@Component
+@Profile("!" + InMemoryDataAccessor.PROFILE)
+public class QueueCatalog implements MessageListener
+{
+	private static final Logger log = LoggerFactory.getLogger(QueueCatalog.class);
+
+	public static final String CATALOG_KEY = "blaze$QUEUES";
+	public static final String CATALOG_CHANNEL = CATALOG_KEY + ".changed";
+	/**
+	 * Marker key set once the existing queues have been migrated to the catalog.
+	 */
+	static final String MIGRATED_KEY = CATALOG_KEY + ".migrated";
+	/**
+	 * Notification message to reload the full catalog.
+	 */
+	static final String RELOAD_ALL = "*";
+	private static final int SCAN_BATCH = 1000;
+
+	@Autowired
+	private StringRedisTemplate stringRedis;
+	@Autowired
+	private RedisMessageListenerContainer listenerContainer;
+	@Value("${blaze.catalog.refresh.millis:60000}")
+	private long refreshMillis;
+
+	private final Set<String> queueNames = Collections.newSetFromMap(new ConcurrentHashMap<>());
+	private volatile long loadedAt;
+	private volatile boolean migrated;
+
+	@PostConstruct
+	private void init()
+	{
+		listenerContainer.addMessageListener(this, new ChannelTopic(CATALOG_CHANNEL));
+	}
+	/**
+	 * The queues registered in the catalog, from the local view.
+	 * @return an unmodifiable view
+	 */
+	public Set<String> getQueueNames()
+	{
+		if(System.currentTimeMillis() - loadedAt > refreshMillis)
+		{
+			reload();
+		}
+		return Collections.unmodifiableSet(queueNames);
+	}
+	/**
+	 * If the queue is present in the local view. A false does not imply that the queue is not registered.
+	 * @param queue prepared list key
+	 * @return
+	 */
+	public boolean isRegistered(String queue)
+	{
+		return queueNames.contains(queue);
+	}
+	/**
+	 * Add to the local view a queue that has been registered.
+	 * @param queue
+	 */
+	void registered(String queue)
+	{
+		queueNames.add(queue);
+	}
+	/**
+	 * Reload the local view from Redis, migrating the existing queues if the catalog is empty and
+	 * has not been migrated yet.
+	 */
+	public synchronized void reload()
+	{
+		Set<Object> names = stringRedis.opsForHash().keys(CATALOG_KEY);
+		if((names == null || names.isEmpty()) && !isMigrated())
+		{
+			migrate();
+			names = stringRedis.opsForHash().keys(CATALOG_KEY);
+		}
+		for(Object name : names)
+		{
+			queueNames.add(name.toString());
+		}
+		loadedAt = System.currentTimeMillis();
+		log.debug("Queue catalog loaded with "+queueNames.size()+" entries");
+	}
+	private boolean isMigrated()
+	{
+		if(!migrated)
+		{
+			migrated = stringRedis.hasKey(MIGRATED_KEY);
+		}
+		return migrated;
+	}
+	/**
+	 * Build the catalog from the queues existing in the keyspace. This is done by a SCAN, which does not block
+	 * the server unlike KEYS, and is idempotent across instances running it concurrently. The marker key is set
+	 * on completion, so that an empty catalog is not scanned for again.
+	 */
+	private void migrate()
+	{
+		final String created = String.valueOf(System.currentTimeMillis());
+		Long count = stringRedis.execute(new RedisCallback<Long>() {
+
+			@Override
+			public Long doInRedis(RedisConnection connection) throws DataAccessException {
+				byte[] catalog = CATALOG_KEY.getBytes(StandardCharsets.UTF_8);
+				byte[] value = created.getBytes(StandardCharsets.UTF_8);
+				long c = 0;
+				try(Cursor<byte[]> cursor = connection.scan(ScanOptions.scanOptions().match(BaseDataAccessor.QUEUE_PREFIX_PATTERN).count(SCAN_BATCH).build()))
+				{
+					while(cursor.hasNext())
+					{
+						byte[] key = cursor.next();
+						if(BaseDataAccessor.isQueueKey(new String(key, StandardCharsets.UTF_8)) && connection.hSetNX(catalog, key, value))
+						{
+							c++;
+						}
+					}
+				} catch (IOException e) {
+					log.debug("Closing scan cursor", e);
+				}
+				return c;
+			}
+		});
+		if(count != null && count > 0)
+		{
+			log.info("Migrated "+count+" existing queue/s to catalog");
+			stringRedis.convertAndSend(CATALOG_CHANNEL, RELOAD_ALL);
+		}
+		stringRedis.opsForValue().set(MIGRATED_KEY, created);
+		migrated = true;
+	}
+	@Override
+	public void onMessage(Message message, byte[] pattern) {
+		String queue = new String(message.getBody(), StandardCharsets.UTF_8);
+		log.debug("Catalog notification: "+queue);
+		if(RELOAD_ALL.equals(queue))
+			reload();
+		else
+			queueNames.add(queue);
+	}
+	/**
+	 * Metadata of the registered queues.
+	 * @return queue key to creation time in millis
+	 */
+	public Map<Object, Object> getQueueMetadata()
+	{
+		return stringRedis.opsForHash().entries(CATALOG_KEY);
+	}
+}
@@ -0,0 +1,175 @@
+/**
+ * Copyright 2017 esutdal
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+package com.reactivetechnologies.blaze.ops;
+
+import java.util.Collection;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.springframework.stereotype.Component;
+/**
+ * Wakeups of the consumers parked on an empty queue. A queue going from empty to non-empty is published over the
+ * {@value #CHANNEL} channel (or signalled locally, by the in-memory backend), which advances the generation of the queue
+ * here, and wakes the parked consumers.
+ * <p>
+ * To park without missing a wakeup, a consumer reads the generation <i>before</i> its fetch, and parks on that
+ * generation if the fetch finds the queue empty. A wakeup in between has already advanced the generation, so the
+ * park returns immediately.
+ * <p>
+ * A consumer of several queues parks on their combined generation instead, which advances with any of them.
+ * @author esutdal
+ *
+ */
+@Component
+public class QueueWakeup {
+
+	/**
+	 * The channel a queue key is published on, when the queue becomes non-empty.
+	 */
+	public static final String CHANNEL = "blaze$WAKEUP";
+
+	private static final class Gate
+	{
+		private final ReentrantLock lock = new ReentrantLock();
+		private final Condition advanced = lock.newCondition();
+		private volatile long generation;
+	}
+	private final ConcurrentMap<String, Gate> gates = new ConcurrentHashMap<>();
+	/**
+	 * Signalled on a wakeup of any queue, for the consumers parked on several.
+	 */
+	private final ReentrantLock anyLock = new ReentrantLock();
+	private final Condition anyAdvanced = anyLock.newCondition();
+
+	private Gate gate(String queue)
+	{
+		Gate gate = gates.get(queue);
+		if(gate == null)
+		{
+			gates.putIfAbsent(queue, new Gate());
+			gate = gates.get(queue);
+		}
+		return gate;
+	}
+	/**
+	 * The current generation of the queue, to be read before a fetch.
+	 * @param queue prepared list key
+	 * @return
+	 */
+	public long generation(String queue)
+	{
+		return gate(queue).generation;
+	}
+	/**
+	 * Park till the queue is woken after the given generation, or the timeout elapses.
+	 * @param queue prepared list key
+	 * @param generation as read before the fetch that found the queue empty
+	 * @param timeout
+	 * @param unit
+	 * @return true if woken, false on timeout
+	 * @throws InterruptedException
+	 */
+	public boolean await(String queue, long generation, long timeout, TimeUnit unit) throws InterruptedException
+	{
+		Gate gate = gate(queue);
+		long nanos = unit.toNanos(timeout);
+		gate.lock.lockInterruptibly();
+		try {
+			while(gate.generation == generation)
+			{
+				if(nanos <= 0)
+					return false;
+				nanos = gate.advanced.awaitNanos(nanos);
+			}
+			return true;
+		} finally {
+			gate.lock.unlock();
+		}
+	}
+	/**
+	 * The combined generation of the queues, to be read before a fetch from any of them.
+	 * @param queues prepared list keys
+	 * @return
+	 */
+	public long generation(Collection<String> queues)
+	{
+		long generation = 0;
+		for(String queue : queues)
+		{
+			generation += gate(queue).generation;
+		}
+		return generation;
+	}
+	/**
+	 * Park till any of the queues is woken after the given combined generation, or the timeout elapses.
+	 * @param queues prepared list keys
+	 * @param generation as read before the fetch that found the queues empty
+	 * @param timeout
+	 * @param unit
+	 * @return true if woken, false on timeout
+	 * @throws InterruptedException
+	 */
+	public boolean awaitAny(Collection<String> queues, long generation, long timeout, TimeUnit unit) throws InterruptedException
+	{
+		long nanos = unit.toNanos(timeout);
+		anyLock.lockInterruptibly();
+		try {
+			while(generation(queues) == generation)
+			{
+				if(nanos <= 0)
+					return false;
+				nanos = anyAdvanced.awaitNanos(nanos);
+			}
+			return true;
+		} finally {
+			anyLock.unlock();
+		}
+	}
+	/**
+	 * Wake the consumers parked on the queue.
+	 * @param queue prepared list key
+	 */
+	public void wake(String queue)
+	{
+		Gate gate = gate(queue);
+		gate.lock.lock();
+		try {
+			gate.generation++;
+			gate.advanced.signalAll();
+		} finally {
+			gate.lock.unlock();
+		}
+		anyLock.lock();
+		try {
+			anyAdvanced.signalAll();
+		} finally {
+			anyLock.unlock();
+		}
+	}
+	/**
+	 * Wake the consumers parked on any queue, as on a stop.
+	 */
+	public void wakeAll()
+	{
+		for(String queue : gates.keySet())
+		{
+			wake(queue);
+		}
+	}
+}
@@ -0,0 +1,380 @@
+/**
+ * Copyright 2017 esutdal
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+package com.reactivetechnologies.blaze.ops;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.Collection;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import javax.annotation.PreDestroy;
+
+import org.HdrHistogram.Histogram;
+import org.HdrHistogram.Recorder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Profile;
+import org.springframework.dao.DataAccessException;
+import org.springframework.data.redis.connection.RedisConnection;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.stereotype.Component;
+
+import com.reactivetechnologies.blaze.struct.MessageTrace;
+import com.reactivetechnologies.blaze.struct.MessageTrace.Hop;
+import com.reactivetechnologies.mq.LatencySnapshot;
+/**
+ * Records latency histograms per (exchange, route, listener) for the stages of message processing. Recording is
+ * wait-free on the worker threads. The histogram of each interval is published periodically to a latency hash beside
+ * the stats hash of the queue, one field per listener, stage, instance and interval. An interval with no recordings is
+ * not published. The reads merge the histograms of all intervals published within the recent window across all
+ * instances, and report the percentiles. Fields older than the window are trimmed by the publishing instance, and
+ * by the reads (for the instances that have gone away).
+ * <p>
+ * For messages sampled for tracing by the producer, the time before the onMessage callback is further split into
+ * the web tier, Redis residency and dispatch stages.
+ * @author esutdal
+ *
+ */
+@Component
+@Profile("!" + InMemoryDataAccessor.PROFILE)
+public class RedisLatencyRecorder {
+
+	private static final Logger log = LoggerFactory.getLogger(RedisLatencyRecorder.class);
+	static final String LATENCY_SUFFIX = BaseDataAccessor.STATS_SUFFIX + ".LAT";
+	private static final String FIELD_SEPARATOR = "|";
+	/**
+	 * Values are clamped to an hour. 2 significant digits keep each histogram to a few KB.
+	 */
+	private static final long HIGHEST_MICROS = TimeUnit.HOURS.toMicros(1);
+	private static final int SIGNIFICANT_DIGITS = 2;
+
+	public static enum Stage
+	{
+		/**
+		 * Enqueue to dequeue.
+		 */
+		WAIT,
+		/**
+		 * The onMessage callback.
+		 */
+		PROCESS,
+		/**
+		 * Commit on successful processing.
+		 */
+		COMMIT,
+		/**
+		 * Receipt at the web tier to push into Redis. Traced messages only.
+		 */
+		PRODUCE,
+		/**
+		 * Push into Redis to pop by a consumer. Traced messages only.
+		 */
+		RESIDENCY,
+		/**
+		 * Pop by a consumer to the onMessage callback. Traced messages only.
+		 */
+		DISPATCH
+	}
+	/**
+	 * Recorders of a listener, to be held by the caller to avoid lookups on the hot path.
+	 */
+	public static final class ListenerLatency
+	{
+		private final String queueKey;
+		private final String listener;
+		private final Recorder[] recorders = new Recorder[Stage.values().length];
+		private final Histogram[] recycled = new Histogram[Stage.values().length];
+		private ListenerLatency(String queueKey, String listener) {
+			this.queueKey = queueKey;
+			this.listener = listener;
+			for (int i = 0; i < recorders.length; i++) {
+				recorders[i] = new Recorder(HIGHEST_MICROS, SIGNIFICANT_DIGITS);
+			}
+		}
+		/**
+		 * Record a latency for the stage.
+		 * @param stage
+		 * @param micros
+		 */
+		public void record(Stage stage, long micros)
+		{
+			recorders[stage.ordinal()].recordValue(Math.max(0, Math.min(micros, HIGHEST_MICROS)));
+		}
+		/**
+		 * Record the stages between the hops of a traced message, that are not measured for every message.
+		 * @param trace
+		 */
+		public void record(MessageTrace trace)
+		{
+			recordElapsed(Stage.PRODUCE, trace.elapsed(Hop.PRODUCED, Hop.ENQUEUED));
+			recordElapsed(Stage.RESIDENCY, trace.elapsed(Hop.ENQUEUED, Hop.DEQUEUED));
+			recordElapsed(Stage.DISPATCH, trace.elapsed(Hop.DEQUEUED, Hop.HANDLER_START));
+		}
+		private void recordElapsed(Stage stage, long millis)
+		{
+			if(millis >= 0)
+				record(stage, TimeUnit.MILLISECONDS.toMicros(millis));
+		}
+		private Histogram intervalHistogram(Stage stage)
+		{
+			Histogram h = recorders[stage.ordinal()].getIntervalHistogram(recycled[stage.ordinal()]);
+			recycled[stage.ordinal()] = h;
+			return h;
+		}
+	}
+
+	@Autowired
+	private StringRedisTemplate stringRedis;
+	@Autowired
+	private InstanceInitializationService instanceService;
+	@Value("${blaze.latency.publish.millis:10000}")
+	private long publishMillis;
+	@Value("${blaze.latency.window.millis:60000}")
+	private long windowMillis;
+
+	private final ConcurrentMap<String, ListenerLatency> listeners = new ConcurrentHashMap<>();
+	/**
+	 * Fields published by this instance, oldest first, as {hash, field, publish time}. Accessed by the publisher only.
+	 */
+	private final Deque<String[]> published = new ArrayDeque<>();
+	private ScheduledExecutorService publisher;
+
+	/**
+	 * Get the recorders for a listener on the given queue. This starts the periodic publishing, if not started already.
+	 * @param queueKey prepared list key
+	 * @param listener listener identifier
+	 * @return
+	 */
+	public ListenerLatency forListener(String queueKey, String listener)
+	{
+		String key = queueKey + FIELD_SEPARATOR + listener;
+		ListenerLatency latency = listeners.get(key);
+		if(latency == null)
+		{
+			listeners.putIfAbsent(key, new ListenerLatency(queueKey, listener));
+			latency = listeners.get(key);
+			startPublisher();
+		}
+		return latency;
+	}
+	private synchronized void startPublisher()
+	{
+		if(publisher != null)
+			return;
+		publisher = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+
+			@Override
+			public Thread newThread(Runnable r) {
+				Thread t = new Thread(r, "Blaze.LatencyPublisher");
+				t.setDaemon(true);
+				return t;
+			}
+		});
+		publisher.scheduleWithFixedDelay(new Runnable() {
+
+			@Override
+			public void run() {
+				try {
+					publish();
+				} catch (Exception e) {
+					log.warn("Latency publish failed. Error => "+e.getMessage());
+					log.debug("", e);
+				}
+			}
+		}, publishMillis, publishMillis, TimeUnit.MILLISECONDS);
+	}
+	@PreDestroy
+	private synchronized void destroy()
+	{
+		if(publisher != null)
+			publisher.shutdown();
+	}
+	private static String encode(Histogram h)
+	{
+		ByteBuffer buf = ByteBuffer.allocate(h.getNeededByteBufferCapacity());
+		int len = h.encodeIntoCompressedByteBuffer(buf);
+		return Base64.getEncoder().encodeToString(Arrays.copyOf(buf.array(), len));
+	}
+	/**
+	 * Publish the interval histograms of all listeners, and trim the fields published before the window.
+	 */
+	void publish()
+	{
+		final long now = System.currentTimeMillis();
+		final String instanceId = instanceService.getInstanceId();
+		trim(now - windowMillis);
+		Map<String, Map<String, String>> hashes = new HashMap<>();
+		for(ListenerLatency latency : listeners.values())
+		{
+			String hash = latency.queueKey + LATENCY_SUFFIX;
+			Map<String, String> fields = hashes.get(hash);
+			if(fields == null)
+			{
+				fields = new HashMap<>();
+				hashes.put(hash, fields);
+			}
+			for(Stage stage : Stage.values())
+			{
+				Histogram h = latency.intervalHistogram(stage);
+				if(h.getTotalCount() == 0)
+					continue;
+				String field = latency.listener + FIELD_SEPARATOR + stage + FIELD_SEPARATOR + instanceId + FIELD_SEPARATOR + now;
+				fields.put(field, now + FIELD_SEPARATOR + encode(h));
+				published.addLast(new String[]{hash, field, String.valueOf(now)});
+			}
+		}
+		write(hashes);
+	}
+	private void trim(long since)
+	{
+		Map<String, List<String>> stale = new HashMap<>();
+		while(!published.isEmpty() && Long.parseLong(published.peekFirst()[2]) < since)
+		{
+			String[] f = published.pollFirst();
+			List<String> fields = stale.get(f[0]);
+			if(fields == null)
+			{
+				fields = new ArrayList<>();
+				stale.put(f[0], fields);
+			}
+			fields.add(f[1]);
+		}
+		for(Map.Entry<String, List<String>> entry : stale.entrySet())
+		{
+			remove(entry.getKey(), entry.getValue());
+		}
+	}
+	/**
+	 * Write the encoded histograms to the latency hashes, in a pipeline. Each hash is set to expire after the window.
+	 * @param hashes fields keyed by hash
+	 */
+	protected void write(final Map<String, Map<String, String>> hashes)
+	{
+		stringRedis.executePipelined(new RedisCallback<Void>() {
+
+			@Override
+			public Void doInRedis(RedisConnection connection) throws DataAccessException {
+				for(Map.Entry<String, Map<String, String>> entry : hashes.entrySet())
+				{
+					byte[] hash = entry.getKey().getBytes(StandardCharsets.UTF_8);
+					for(Map.Entry<String, String> field : entry.getValue().entrySet())
+					{
+						connection.hSet(hash, field.getKey().getBytes(StandardCharsets.UTF_8), field.getValue().getBytes(StandardCharsets.UTF_8));
+					}
+					connection.pExpire(hash, windowMillis);
+				}
+				return null;
+			}
+		});
+	}
+	/**
+	 * Remove fields of a latency hash.
+	 * @param hash
+	 * @param fields
+	 */
+	protected void remove(String hash, Collection<String> fields)
+	{
+		stringRedis.opsForHash().delete(hash, fields.toArray());
+	}
+	/**
+	 * Read all fields of a latency hash.
+	 * @param hash
+	 * @return
+	 */
+	protected Map<Object, Object> entries(String hash)
+	{
+		return stringRedis.opsForHash().entries(hash);
+	}
+	/**
+	 * Read the latency percentiles for the given queue, merging the histograms of the intervals published within
+	 * the window across instances.
+	 * @param queueKey prepared list key
+	 * @return
+	 */
+	public List<LatencySnapshot> read(String queueKey)
+	{
+		String hash = queueKey + LATENCY_SUFFIX;
+		Map<Object, Object> fields = entries(hash);
+		Map<String, Histogram> merged = new LinkedHashMap<>();
+		List<String> stale = new ArrayList<>();
+		long since = System.currentTimeMillis() - windowMillis;
+		for(Map.Entry<Object, Object> entry : fields.entrySet())
+		{
+			String field = entry.getKey().toString();
+			String value = entry.getValue().toString();
+			int i = value.indexOf(FIELD_SEPARATOR);
+			if(i < 0 || Long.parseLong(value.substring(0, i)) < since)
+			{
+				stale.add(field);
+				continue;
+			}
+			try
+			{
+				Histogram h = Histogram.decodeFromCompressedByteBuffer(ByteBuffer.wrap(Base64.getDecoder().decode(value.substring(i+1))), 0);
+				//strip the instance and interval
+				String key = field.substring(0, field.lastIndexOf(FIELD_SEPARATOR));
+				key = key.substring(0, key.lastIndexOf(FIELD_SEPARATOR));
+				Histogram acc = merged.get(key);
+				if(acc == null)
+					merged.put(key, h);
+				else
+					acc.add(h);
+			} catch (Exception e) {
+				log.warn("Ignoring unreadable latency histogram "+field+". Error => "+e.getMessage());
+			}
+		}
+		if(!stale.isEmpty())
+		{
+			remove(hash, stale);
+		}
+		List<LatencySnapshot> snapshots = new ArrayList<>(merged.size());
+		for(Map.Entry<String, Histogram> entry : merged.entrySet())
+		{
+			String key = entry.getKey();
+			int i = key.lastIndexOf(FIELD_SEPARATOR);
+			snapshots.add(toSnapshot(key.substring(0, i), key.substring(i+1), entry.getValue()));
+		}
+		return snapshots;
+	}
+	private static LatencySnapshot toSnapshot(String listener, String stage, Histogram h)
+	{
+		LatencySnapshot s = new LatencySnapshot(listener, stage);
+		s.setCount(h.getTotalCount());
+		s.setP50(h.getValueAtPercentile(50));
+		s.setP99(h.getValueAtPercentile(99));
+		s.setP999(h.getValueAtPercentile(99.9));
+		s.setMax(h.getMaxValue());
+		s.setMean(h.getMean());
+		return s;
+	}
+}
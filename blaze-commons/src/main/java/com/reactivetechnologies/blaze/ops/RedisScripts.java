@@ -0,0 +1,54 @@
+/**
+ * Copyright 2017 esutdal
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+package com.reactivetechnologies.blaze.ops;
+
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.data.redis.core.script.RedisScript;
+import org.springframework.scripting.support.ResourceScriptSource;
+/**
+ * Lua scripts for operations that need to execute atomically on the Redis server. The script sources
+ * are kept under 'lua/' in the classpath. Scripts are executed by EVALSHA, falling back to EVAL on the first use.
+ * @author esutdal
+ *
+ */
+final class RedisScripts {
+
+	private RedisScripts() {
+	}
+	/**
+	 * Load a script from 'lua/{name}.lua' in the classpath.
+	 * @param name
+	 * @param resultType
+	 * @return
+	 */
+	static <T> RedisScript<T> load(String name, Class<T> resultType)
+	{
+		DefaultRedisScript<T> script = new DefaultRedisScript<>();
+		script.setScriptSource(new ResourceScriptSource(new ClassPathResource("lua/" + name + ".lua")));
+		script.setResultType(resultType);
+		return script;
+	}
+
+	static final RedisScript<Long> LEASE_ACQUIRE = load("lease_acquire", Long.class);
+	static final RedisScript<Long> LEASE_RENEW = load("lease_renew", Long.class);
+	static final RedisScript<Long> LEASE_RELEASE = load("lease_release", Long.class);
+	static final RedisScript<Long> LEASE_RECLAIM = load("lease_reclaim", Long.class);
+	static final RedisScript<Long> LEASE_FORGET = load("lease_forget", Long.class);
+	static final RedisScript<Long> QUEUE_CLEAR = load("queue_clear", Long.class);
+	static final RedisScript<Long> QUEUE_ENQUEUE = load("queue_enqueue", Long.class);
+	static final RedisScript<Long> QUEUE_ENQUEUE_DEDUPE = load("queue_enqueue_dedupe", Long.class);
+}
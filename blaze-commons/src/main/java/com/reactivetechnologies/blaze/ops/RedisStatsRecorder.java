@@ -15,24 +15,194 @@
  */
 package com.reactivetechnologies.blaze.ops;
 
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
 
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Profile;
 import org.springframework.dao.DataAccessException;
+import org.springframework.data.redis.connection.RedisConnection;
 import org.springframework.data.redis.core.BoundHashOperations;
+import org.springframework.data.redis.core.RedisCallback;
 import org.springframework.data.redis.core.RedisOperations;
 import org.springframework.data.redis.core.SessionCallback;
 import org.springframework.data.redis.core.StringRedisTemplate;
 import org.springframework.stereotype.Component;
+/**
+ * Records the enqueue, dequeue and duplicate counts of queues, in the stats hash of each queue. In buffered mode, the counts 
+ * are aggregated in-process and flushed to Redis in a single pipeline periodically, and on shutdown. The reads then merge
+ * the flushed and pending counts of this instance, while counts pending in other instances are stale by the flush interval at most.
+ * @author esutdal
+ *
+ */
 @Component
+@Profile("!" + InMemoryDataAccessor.PROFILE)
 public class RedisStatsRecorder {
 
+	private static final Logger log = LoggerFactory.getLogger(RedisStatsRecorder.class);
+	/**
+	 * Counts pending to be flushed for a queue.
+	 */
+	private static final class PendingCounts
+	{
+		private final LongAdder enqueued = new LongAdder();
+		private final LongAdder dequeued = new LongAdder();
+		private final LongAdder duplicates = new LongAdder();
+	}
+
 	
 	static final String STATS_ENQ = "STATS_ENQ";
 	static final String STATS_DEQ = "STATS_DEQ";
 	static final String STATS_LEN = "STATS_LEN";
+	static final String STATS_DUP = "STATS_DUP";
 	@Autowired
 	private StringRedisTemplate stringRedis;
+	@Value("${blaze.stats.buffered:false}")
+	private boolean buffered;
+	@Value("${blaze.stats.flush.millis:1000}")
+	private long flushMillis;
+	
+	private final ConcurrentMap<String, PendingCounts> pending = new ConcurrentHashMap<>();
+	private ScheduledExecutorService flusher;
+	
+	@PostConstruct
+	private void init()
+	{
+		if(buffered)
+		{
+			flusher = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+				
+				@Override
+				public Thread newThread(Runnable r) {
+					Thread t = new Thread(r, "Blaze.StatsFlusher");
+					t.setDaemon(true);
+					return t;
+				}
+			});
+			flusher.scheduleWithFixedDelay(new Runnable() {
+				
+				@Override
+				public void run() {
+					try {
+						flush();
+					} catch (Exception e) {
+						log.warn("Stats flush failed. Will be retried on next run. Error => "+e.getMessage());
+						log.debug("", e);
+					}
+				}
+			}, flushMillis, flushMillis, TimeUnit.MILLISECONDS);
+			log.info("Buffered stats enabled with flush interval "+flushMillis+" millis");
+		}
+	}
+	@PreDestroy
+	private void destroy()
+	{
+		if(flusher != null)
+		{
+			flusher.shutdown();
+			try {
+				flusher.awaitTermination(flushMillis, TimeUnit.MILLISECONDS);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+			flush();
+		}
+	}
+	private PendingCounts pendingCounts(String key)
+	{
+		PendingCounts counts = pending.get(key);
+		if(counts == null)
+		{
+			pending.putIfAbsent(key, new PendingCounts());
+			counts = pending.get(key);
+		}
+		return counts;
+	}
+	/**
+	 * Take the current count off the adder. Unlike {@linkplain LongAdder#sumThenReset()}, an increment concurrent
+	 * with the drain is not lost; it is either included in the returned count, or left in the adder.
+	 * @param adder
+	 * @return
+	 */
+	private static long drain(LongAdder adder)
+	{
+		long n = adder.sum();
+		adder.add(-n);
+		return n;
+	}
+	/**
+	 * Flush the pending counts to Redis, in a pipeline. If the flush fails, the counts are added back to be retried later.
+	 */
+	public void flush()
+	{
+		final Map<String, long[]> drained = new HashMap<>();
+		for(Map.Entry<String, PendingCounts> entry : pending.entrySet())
+		{
+			long enq = drain(entry.getValue().enqueued);
+			long deq = drain(entry.getValue().dequeued);
+			long dup = drain(entry.getValue().duplicates);
+			if(enq != 0 || deq != 0 || dup != 0)
+				drained.put(entry.getKey(), new long[]{enq, deq, dup});
+		}
+		if(drained.isEmpty())
+			return;
+		try 
+		{
+			stringRedis.executePipelined(new RedisCallback<Void>() {
+
+				@Override
+				public Void doInRedis(RedisConnection connection) throws DataAccessException {
+					byte[] enqField = STATS_ENQ.getBytes(StandardCharsets.UTF_8);
+					byte[] deqField = STATS_DEQ.getBytes(StandardCharsets.UTF_8);
+					byte[] dupField = STATS_DUP.getBytes(StandardCharsets.UTF_8);
+					for(Map.Entry<String, long[]> entry : drained.entrySet())
+					{
+						byte[] hash = hashKey(entry.getKey()).getBytes(StandardCharsets.UTF_8);
+						if(entry.getValue()[0] != 0)
+							connection.hIncrBy(hash, enqField, entry.getValue()[0]);
+						if(entry.getValue()[1] != 0)
+							connection.hIncrBy(hash, deqField, entry.getValue()[1]);
+						if(entry.getValue()[2] != 0)
+							connection.hIncrBy(hash, dupField, entry.getValue()[2]);
+					}
+					return null;
+				}
+			});
+		} 
+		catch (RuntimeException e) {
+			for(Map.Entry<String, long[]> entry : drained.entrySet())
+			{
+				PendingCounts counts = pendingCounts(entry.getKey());
+				counts.enqueued.add(entry.getValue()[0]);
+				counts.dequeued.add(entry.getValue()[1]);
+				counts.duplicates.add(entry.getValue()[2]);
+			}
+			throw e;
+		}
+	}
+	/**
+	 * Discard the counts pending to be flushed for the given queue.
+	 * @param key
+	 */
+	public void discardPending(String key)
+	{
+		pending.remove(key);
+	}
 	
 	private static String hashKey(String key)
 	{
@@ -45,7 +215,10 @@ public class RedisStatsRecorder {
 	}
 	public void recordEnqueu(String key, long c)
 	{
-		stringRedis.boundHashOps(hashKey(key)).increment(STATS_ENQ, c);
+		if(buffered)
+			pendingCounts(key).enqueued.add(c);
+		else
+			stringRedis.boundHashOps(hashKey(key)).increment(STATS_ENQ, c);
 	}
 	private long getStats(String key, String op)
 	{
@@ -61,11 +234,30 @@ public class RedisStatsRecorder {
 	}
 	public long getEnqueuStats(String key)
 	{
-		return getStats(key, STATS_ENQ);
+		PendingCounts counts = buffered ? pending.get(key) : null;
+		return getStats(key, STATS_ENQ) + (counts != null ? counts.enqueued.sum() : 0);
 	}
 	public long getDequeuStats(String key)
 	{
-		return getStats(key, STATS_DEQ);
+		PendingCounts counts = buffered ? pending.get(key) : null;
+		return getStats(key, STATS_DEQ) + (counts != null ? counts.dequeued.sum() : 0);
+	}
+	/**
+	 * Record messages not enqueued, being duplicates by idempotency key.
+	 * @param key
+	 * @param c
+	 */
+	public void recordDuplicate(String key, long c)
+	{
+		if(buffered)
+			pendingCounts(key).duplicates.add(c);
+		else
+			stringRedis.boundHashOps(hashKey(key)).increment(STATS_DUP, c);
+	}
+	public long getDuplicateStats(String key)
+	{
+		PendingCounts counts = buffered ? pending.get(key) : null;
+		return getStats(key, STATS_DUP) + (counts != null ? counts.duplicates.sum() : 0);
 	}
 	public void recordDequeu(String key)
 	{
@@ -73,19 +265,24 @@ public class RedisStatsRecorder {
 	}
 	public void recordDequeu(String key, int decr)
 	{
-		stringRedis.boundHashOps(hashKey(key)).increment(STATS_DEQ, Math.negateExact(decr));
+		if(buffered)
+			pendingCounts(key).dequeued.add(Math.negateExact(decr));
+		else
+			stringRedis.boundHashOps(hashKey(key)).increment(STATS_DEQ, Math.negateExact(decr));
 	}
 	public void reset(String key)
 	{
+		discardPending(key);
 		BoundHashOperations<String, Object, Object> ops = stringRedis.boundHashOps(hashKey(key));
 		stringRedis.execute(new SessionCallback<List<Object>>() {
 
 			@Override
 			public <K, V> List<Object> execute(RedisOperations<K, V> operations) throws DataAccessException {
 				operations.multi();
-				ops.delete(STATS_ENQ, STATS_DEQ);
+				ops.delete(STATS_ENQ, STATS_DEQ, STATS_DUP);
 				ops.increment(STATS_DEQ, 0);
 				ops.increment(STATS_ENQ, 0);
+				ops.increment(STATS_DUP, 0);
 				return operations.exec();
 			}
 		});
@@ -0,0 +1,50 @@
+/**
+ * Copyright 2017 esutdal
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+package com.reactivetechnologies.blaze.ops;
+
+import java.nio.charset.StandardCharsets;
+
+import org.springframework.data.redis.serializer.RedisSerializer;
+import org.springframework.data.redis.serializer.SerializationException;
+
+import com.reactivetechnologies.blaze.struct.QRecord;
+import com.reactivetechnologies.blaze.struct.QRecordSerializer;
+/**
+ * Serializer for arguments of a Lua script, which can be a mix of {@linkplain QRecord}, raw bytes
+ * and plain strings (or numbers).
+ * @author esutdal
+ *
+ */
+class ScriptArgsSerializer implements RedisSerializer<Object> {
+
+	private final QRecordSerializer recordSerializer = new QRecordSerializer();
+	@Override
+	public byte[] serialize(Object t) throws SerializationException {
+		if(t == null)
+			return new byte[0];
+		if(t instanceof byte[])
+			return (byte[]) t;
+		if(t instanceof QRecord)
+			return recordSerializer.serialize((QRecord) t);
+		return t.toString().getBytes(StandardCharsets.UTF_8);
+	}
+
+	@Override
+	public Object deserialize(byte[] bytes) throws SerializationException {
+		return bytes == null ? null : new String(bytes, StandardCharsets.UTF_8);
+	}
+
+}
@@ -0,0 +1,101 @@
+/**
+ * Copyright 2017 esutdal
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+package com.reactivetechnologies.blaze.struct;
+
+import java.util.Arrays;
+/**
+ * Stage timestamps of a sampled message, in epoch millis. The producer side stamps are carried across
+ * processes in the serialized {@linkplain QRecord} ({@linkplain QRecord#getT0TS() t0TS} and {@linkplain QRecord#getTnTS() tnTS}),
+ * while the consumer side stamps are written in memory as the message moves through the container.
+ * <p>
+ * Since the stamps are taken on different hosts, the produce to dequeue interval includes any clock skew between them.
+ * @author esutdal
+ *
+ */
+public final class MessageTrace {
+
+	public static enum Hop
+	{
+		/**
+		 * Received at the web tier.
+		 */
+		PRODUCED,
+		/**
+		 * Pushed to the Redis queue.
+		 */
+		ENQUEUED,
+		/**
+		 * Popped by a consumer.
+		 */
+		DEQUEUED,
+		/**
+		 * Handed over to the listener callback.
+		 */
+		HANDLER_START,
+		/**
+		 * Returned from the listener callback.
+		 */
+		HANDLER_END,
+		/**
+		 * Committed.
+		 */
+		ACKED
+	}
+	private final long[] stamps = new long[Hop.values().length];
+
+	MessageTrace(long produced, long enqueued) {
+		Arrays.fill(stamps, -1);
+		stamps[Hop.PRODUCED.ordinal()] = produced;
+		stamps[Hop.ENQUEUED.ordinal()] = enqueued;
+	}
+	/**
+	 * Stamp the current time for the hop.
+	 * @param hop
+	 */
+	public void stamp(Hop hop)
+	{
+		stamps[hop.ordinal()] = System.currentTimeMillis();
+	}
+	/**
+	 * The time stamped for the hop, or -1 if not stamped.
+	 * @param hop
+	 * @return
+	 */
+	public long get(Hop hop)
+	{
+		return stamps[hop.ordinal()];
+	}
+	/**
+	 * Elapsed millis between two hops, or -1 if either is not stamped.
+	 * @param from
+	 * @param to
+	 * @return
+	 */
+	public long elapsed(Hop from, Hop to)
+	{
+		long f = get(from), t = get(to);
+		return f < 0 || t < 0 ? -1 : t - f;
+	}
+	@Override
+	public String toString() {
+		StringBuilder s = new StringBuilder("MessageTrace [");
+		for(Hop hop : Hop.values())
+		{
+			s.append(hop).append('=').append(get(hop)).append(hop.ordinal() < stamps.length-1 ? ", " : "]");
+		}
+		return s.toString();
+	}
+}
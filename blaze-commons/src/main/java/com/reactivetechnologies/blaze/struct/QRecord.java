@@ -1,7 +1,5 @@
 package com.reactivetechnologies.blaze.struct;
 
-import java.io.ByteArrayOutputStream;
-import java.io.DataOutputStream;
 import java.io.IOException;
 import java.io.Serializable;
 import java.nio.ByteBuffer;
@@ -10,6 +8,7 @@ import java.util.UUID;
 import java.util.concurrent.atomic.AtomicInteger;
 
 import com.reactivetechnologies.mq.Data;
+import com.reactivetechnologies.mq.DataCodec;
 import com.reactivetechnologies.mq.QueueService;
 import com.reactivetechnologies.mq.exceptions.BlazeInternalException;
 
@@ -18,7 +17,7 @@ public class QRecord implements Serializable{
 	@Override
 	public String toString() {
 		return "QRecord [key=" + key + ", replyTo=" + replyTo + ", redelivered=" + redelivered + ", expiryMillis="
-				+ expiryMillis + ", corrId=" + corrId + ", t0TS=" + t0TS + ", tnTS=" + tnTS + "]";
+				+ expiryMillis + ", corrId=" + corrId + ", groupKey=" + groupKey + ", t0TS=" + t0TS + ", tnTS=" + tnTS + "]";
 	}
 	public QRecord(){
 		setKey(new QKey());
@@ -34,6 +33,55 @@ public class QRecord implements Serializable{
 		copy.setRedeliveryCount((short) (this.getRedeliveryCount()-1));
 		return copy;
 	}
+	/**
+	 * Return the state of this record as it was last read from the store, discarding any delivery count
+	 * increment or redelivered flag set since. The returned instance serializes to the same bytes as the stored one, and
+	 * hence can be used to match the record in a remove operation.
+	 * @return
+	 */
+	public QRecord asStored()
+	{
+		if(storedRedeliveryCount < 0 || (storedRedeliveryCount == getRedeliveryCount() && storedRedelivered == isRedelivered()))
+			return this;
+		QRecord copy = new QRecord(this);
+		copy.setRedeliveryCount(storedRedeliveryCount);
+		copy.setRedelivered(storedRedelivered);
+		return copy;
+	}
+	/**
+	 * Mark the current state as read from the store.
+	 */
+	void markStored()
+	{
+		storedRedeliveryCount = getRedeliveryCount();
+		storedRedelivered = isRedelivered();
+	}
+	/**
+	 * Mark this record to be traced, stamping the enqueue time. To be invoked by the producer just before
+	 * the record is pushed to Redis.
+	 */
+	public void traceEnqueue()
+	{
+		setTnTS(new Date());
+		startTrace();
+	}
+	/**
+	 * Start the in-memory trace if this record was sampled for tracing by the producer. The enqueue
+	 * time ({@linkplain #getTnTS()}) is set only on sampled records.
+	 */
+	void startTrace()
+	{
+		if(getTnTS() != null)
+			trace = new MessageTrace(getT0TS() != null ? getT0TS().getTime() : -1, getTnTS().getTime());
+	}
+	/**
+	 * The stage timestamps, if this record has been sampled for tracing.
+	 * @return trace, or null
+	 */
+	public MessageTrace getTrace()
+	{
+		return trace;
+	}
 	/**
 	 * Transform an instance of {@linkplain Data} to a {@linkplain QRecord}.
 	 * @param t
@@ -70,13 +118,18 @@ public class QRecord implements Serializable{
 	{
 		this.setKey(q.getKey());
 		this.setCorrId(q.getCorrId());
+		this.setGroupKey(q.getGroupKey());
+		this.setIdempotencyKey(q.getIdempotencyKey());
 		this.setExpiryMillis(q.getExpiryMillis());
 		this.setPayload(q.getPayload());
 		this.setRedelivered(q.isRedelivered());
 		this.setRedeliveryCount(q.getRedeliveryCount());
 		this.setReplyTo(q.getReplyTo());
 		this.setT0TS(q.getT0TS());
-		this.setTnTS(getTnTS());
+		this.setTnTS(q.getTnTS());
+		this.storedRedeliveryCount = q.storedRedeliveryCount;
+		this.storedRedelivered = q.storedRedelivered;
+		this.trace = q.trace;
 	}
 	public QRecord(Data md)
 	{
@@ -86,17 +139,20 @@ public class QRecord implements Serializable{
 			setCorrId(md.getCorrelationID());
 		}
 		setReplyTo(md.getReplyTo());
+		setGroupKey(md.getGroupKey());
+		setIdempotencyKey(md.getIdempotencyKey());
 		setExpiryMillis(md.getExpiryMillis());
 		setRedelivered(md.isRedelivered());
-		ByteArrayOutputStream bos = new ByteArrayOutputStream();
 		try {
-			md.writeData(new DataOutputStream(bos));
+			setPayload(DataCodec.write(md));
 		} catch (IOException e) {
 			throw new BlazeInternalException("Unable to serialize message", e);
 		}
-		setPayload(ByteBuffer.wrap(bos.toByteArray()));
 	}
 	private AtomicInteger redeliveryCount = new AtomicInteger();
+	private transient short storedRedeliveryCount = -1;
+	private transient boolean storedRedelivered;
+	private transient MessageTrace trace;
 	/**
 	 * 
 	 */
@@ -121,6 +177,26 @@ public class QRecord implements Serializable{
 		this.corrId = corrId;
 	}
 	private QKey key;
+	/**
+	 * The ordering key, as set on the {@linkplain Data}.
+	 * @return key, or null
+	 */
+	public String getGroupKey() {
+		return groupKey;
+	}
+	public void setGroupKey(String groupKey) {
+		this.groupKey = groupKey;
+	}
+	/**
+	 * The deduplication key, as set on the {@linkplain Data}. It is used on enqueue only, and is not serialized.
+	 * @return key, or null
+	 */
+	public String getIdempotencyKey() {
+		return idempotencyKey;
+	}
+	public void setIdempotencyKey(String idempotencyKey) {
+		this.idempotencyKey = idempotencyKey;
+	}
 	public String getReplyTo() {
 		return replyTo;
 	}
@@ -144,6 +220,8 @@ public class QRecord implements Serializable{
 	private long expiryMillis = 0;
 	private ByteBuffer payload;
 	private String corrId = "";
+	private String groupKey;
+	private transient String idempotencyKey;
 	private Date t0TS;
 	public Date getT0TS() {
 		return t0TS;
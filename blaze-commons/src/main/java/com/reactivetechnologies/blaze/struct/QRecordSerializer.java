@@ -28,6 +28,17 @@ import org.springframework.data.redis.serializer.SerializationException;
 
 public class QRecordSerializer implements RedisSerializer<QRecord> {
 
+	/**
+	 * Flags, written in place of the redelivered boolean of the earlier format, which reads the same as REDELIVERED.
+	 * So records of the earlier format are read as is.
+	 */
+	private static final int REDELIVERED = 1;
+	/**
+	 * Followed by the group key. A reader of the earlier format would read this as a boolean, and the group key as
+	 * part of the payload. Hence producers write group keys only once enabled, after the consumers are upgraded.
+	 */
+	private static final int GROUP_KEY = 2;
+
 	@Override
 	public byte[] serialize(QRecord t) throws SerializationException {
 		ByteArrayOutputStream out = new ByteArrayOutputStream();
@@ -46,8 +57,12 @@ public class QRecordSerializer implements RedisSerializer<QRecord> {
 				d.writeUTF(t.getKey().getRoutingKey());
 				d.writeUTF(t.getCorrId());
 				d.writeUTF(t.getReplyTo());
-				d.writeBoolean(t.isRedelivered());
-				d.write(t.getPayload().array());
+				int flags = (t.isRedelivered() ? REDELIVERED : 0) | (t.getGroupKey() != null ? GROUP_KEY : 0);
+				d.writeByte(flags);
+				if(t.getGroupKey() != null)
+					d.writeUTF(t.getGroupKey());
+				ByteBuffer payload = t.getPayload();
+				d.write(payload.array(), payload.arrayOffset() + payload.position(), payload.remaining());
 			}
 			
 		} 
@@ -80,12 +95,16 @@ public class QRecordSerializer implements RedisSerializer<QRecord> {
 				qr.setKey(qk);
 				qr.setCorrId(in.readUTF());
 				qr.setReplyTo(in.readUTF());
-				qr.setRedelivered(in.readBoolean());
+				int flags = in.readUnsignedByte();
+				qr.setRedelivered((flags & REDELIVERED) != 0);
+				if((flags & GROUP_KEY) != 0)
+					qr.setGroupKey(in.readUTF());
 				int len = in.available();
 				byte[] b = new byte[len];
 				in.readFully(b);
 				qr.setPayload(ByteBuffer.wrap(b));
-				
+				qr.markStored();
+				qr.startTrace();
 				return qr;
 			}
 			
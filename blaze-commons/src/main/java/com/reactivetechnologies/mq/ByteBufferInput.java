@@ -0,0 +1,126 @@
+/**
+ * Copyright 2017 esutdal
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+package com.reactivetechnologies.mq;
+
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+/**
+ * A {@linkplain DataInput} reading directly off a buffer. The buffer is big endian, as written by a
+ * {@linkplain java.io.DataOutputStream}.
+ * @author esutdal
+ *
+ */
+class ByteBufferInput implements DataInput {
+
+	private final ByteBuffer buffer;
+	ByteBufferInput(ByteBuffer buffer) {
+		this.buffer = buffer;
+	}
+	private void require(int n) throws EOFException
+	{
+		if(buffer.remaining() < n)
+			throw new EOFException();
+	}
+	@Override
+	public void readFully(byte[] b) throws IOException {
+		readFully(b, 0, b.length);
+	}
+	@Override
+	public void readFully(byte[] b, int off, int len) throws IOException {
+		require(len);
+		buffer.get(b, off, len);
+	}
+	@Override
+	public int skipBytes(int n) throws IOException {
+		int skip = Math.max(Math.min(n, buffer.remaining()), 0);
+		buffer.position(buffer.position() + skip);
+		return skip;
+	}
+	@Override
+	public boolean readBoolean() throws IOException {
+		return readByte() != 0;
+	}
+	@Override
+	public byte readByte() throws IOException {
+		require(1);
+		return buffer.get();
+	}
+	@Override
+	public int readUnsignedByte() throws IOException {
+		return readByte() & 0xff;
+	}
+	@Override
+	public short readShort() throws IOException {
+		require(2);
+		return buffer.getShort();
+	}
+	@Override
+	public int readUnsignedShort() throws IOException {
+		return readShort() & 0xffff;
+	}
+	@Override
+	public char readChar() throws IOException {
+		require(2);
+		return buffer.getChar();
+	}
+	@Override
+	public int readInt() throws IOException {
+		require(4);
+		return buffer.getInt();
+	}
+	@Override
+	public long readLong() throws IOException {
+		require(8);
+		return buffer.getLong();
+	}
+	@Override
+	public float readFloat() throws IOException {
+		require(4);
+		return buffer.getFloat();
+	}
+	@Override
+	public double readDouble() throws IOException {
+		require(8);
+		return buffer.getDouble();
+	}
+	@Override
+	public String readLine() throws IOException {
+		if(!buffer.hasRemaining())
+			return null;
+		StringBuilder line = new StringBuilder();
+		while(buffer.hasRemaining())
+		{
+			char c = (char) (buffer.get() & 0xff);
+			if(c == '\n')
+				break;
+			if(c == '\r')
+			{
+				if(buffer.hasRemaining() && buffer.get(buffer.position()) == '\n')
+					buffer.get();
+				break;
+			}
+			line.append(c);
+		}
+		return line.toString();
+	}
+	@Override
+	public String readUTF() throws IOException {
+		return DataInputStream.readUTF(this);
+	}
+}
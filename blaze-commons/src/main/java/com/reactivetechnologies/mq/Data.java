@@ -15,6 +15,8 @@ public abstract class Data implements DataSerializable{
 	private String replyTo = "";
 	private boolean redelivered;
 	private long expiryMillis = 0;
+	private String groupKey;
+	private String idempotencyKey;
 	
 	@Override
 	public void writeData(DataOutput out) throws IOException {
@@ -83,6 +85,30 @@ public abstract class Data implements DataSerializable{
 	public void setExpiryMillis(long expiryMillis) {
 		this.expiryMillis = expiryMillis;
 	}
+	/**
+	 * The ordering key of the message, such as an account id. The messages with the same key are processed in the
+	 * order enqueued, by a listener that is {@linkplain com.reactivetechnologies.mq.consume.AbstractQueueListener#orderedByKey() ordered by key}.
+	 * This is carried by the queue record, and not written by {@link #writeData(DataOutput)}.
+	 * @return the key, or null if unordered
+	 */
+	public String getGroupKey() {
+		return groupKey;
+	}
+	public void setGroupKey(String groupKey) {
+		this.groupKey = groupKey;
+	}
+	/**
+	 * The key by which a retried enqueue of the message is deduplicated, such as the Idempotency-Key of a request.
+	 * This is apart from the correlation id, which can legitimately repeat. It is used only on enqueue, and not
+	 * written by {@link #writeData(DataOutput)}.
+	 * @return the key, or null if not deduplicated
+	 */
+	public String getIdempotencyKey() {
+		return idempotencyKey;
+	}
+	public void setIdempotencyKey(String idempotencyKey) {
+		this.idempotencyKey = idempotencyKey;
+	}
 	/**
 	 * 
 	 */
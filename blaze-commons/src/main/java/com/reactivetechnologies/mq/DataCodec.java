@@ -0,0 +1,170 @@
+/**
+ * Copyright 2017 esutdal
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+package com.reactivetechnologies.mq;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Modifier;
+import java.nio.ByteBuffer;
+
+import com.reactivetechnologies.mq.exceptions.BlazeInternalException;
+/**
+ * Creates and reads the instances of a {@linkplain DataSerializable} type, without reflection per message. The no-arg
+ * constructor of the type is resolved once to a method handle, and the fields are read directly off the payload buffer,
+ * without copying it to a stream. The payload is written to a buffer wrapping the written bytes, without a copy.
+ * <p>
+ * The codecs are registered per class, and held by the class itself. So a type loaded from a deployed jar
+ * is not kept from being unloaded along with its class loader.
+ * @author esutdal
+ *
+ * @param <T>
+ */
+public final class DataCodec<T extends DataSerializable> {
+
+	private static final MethodType FACTORY_TYPE = MethodType.methodType(Object.class);
+	private static final ClassValue<DataCodec<?>> REGISTRY = new ClassValue<DataCodec<?>>() {
+
+		@SuppressWarnings({ "unchecked", "rawtypes" })
+		@Override
+		protected DataCodec<?> computeValue(Class<?> type) {
+			return new DataCodec(type);
+		}
+	};
+	/**
+	 * A byte array output exposing its buffer, to be wrapped without a copy.
+	 */
+	private static final class Output extends ByteArrayOutputStream
+	{
+		private Output() {
+			super(256);
+		}
+		private ByteBuffer toByteBuffer()
+		{
+			return ByteBuffer.wrap(buf, 0, count);
+		}
+	}
+	/**
+	 * The codec of the given type, resolved on the first lookup.
+	 * @param type
+	 * @return
+	 * @throws IllegalArgumentException if the type has no no-arg constructor
+	 */
+	@SuppressWarnings("unchecked")
+	public static <T extends DataSerializable> DataCodec<T> of(Class<T> type)
+	{
+		return (DataCodec<T>) REGISTRY.get(type);
+	}
+	/**
+	 * Write an instance to a buffer.
+	 * @param data
+	 * @return a heap buffer, positioned at the first byte written
+	 * @throws IOException
+	 */
+	public static ByteBuffer write(DataSerializable data) throws IOException
+	{
+		Output out = new Output();
+		data.writeData(new DataOutputStream(out));
+		return out.toByteBuffer();
+	}
+	/**
+	 * Write an instance to a byte array of the exact length.
+	 * @param data
+	 * @return
+	 * @throws IOException
+	 */
+	public static byte[] toBytes(DataSerializable data) throws IOException
+	{
+		ByteArrayOutputStream out = new ByteArrayOutputStream(256);
+		data.writeData(new DataOutputStream(out));
+		return out.toByteArray();
+	}
+
+	private final Class<T> type;
+	private final MethodHandle factory;
+
+	private DataCodec(Class<T> type) {
+		this.type = type;
+		this.factory = resolveFactory(type);
+	}
+	private static MethodHandle resolveFactory(Class<?> type)
+	{
+		if(Modifier.isAbstract(type.getModifiers()))
+			throw new IllegalArgumentException("Not a concrete type "+type.getName());
+		try
+		{
+			Constructor<?> constructor = type.getDeclaredConstructor();
+			//a non-public type or constructor, as an inner class of a listener can be
+			constructor.setAccessible(true);
+			return MethodHandles.lookup().unreflectConstructor(constructor).asType(FACTORY_TYPE);
+		}
+		catch (NoSuchMethodException | IllegalAccessException | SecurityException e) {
+			throw new IllegalArgumentException("No accessible no-arg constructor for "+type.getName(), e);
+		}
+	}
+	public Class<T> getType() {
+		return type;
+	}
+	/**
+	 * A new instance, by the no-arg constructor.
+	 * @return
+	 */
+	@SuppressWarnings("unchecked")
+	public T newInstance()
+	{
+		try {
+			//invoked exactly as typed, for the handle to be inlined
+			Object data = factory.invokeExact();
+			return (T) data;
+		}
+		catch (RuntimeException | Error e) {
+			throw e;
+		}
+		catch (Throwable e) {
+			throw new BlazeInternalException("Unable to instantiate "+type.getName(), e);
+		}
+	}
+	/**
+	 * Read the fields of an instance from the remaining bytes of the buffer. The position of the buffer is not changed.
+	 * @param buffer
+	 * @param data
+	 * @throws IOException
+	 */
+	public void read(ByteBuffer buffer, T data) throws IOException
+	{
+		data.readData(new ByteBufferInput(buffer.duplicate()));
+	}
+	/**
+	 * A new instance, read from the remaining bytes of the buffer. The position of the buffer is not changed.
+	 * @param buffer
+	 * @return
+	 * @throws IOException
+	 */
+	public T read(ByteBuffer buffer) throws IOException
+	{
+		T data = newInstance();
+		read(buffer, data);
+		return data;
+	}
+	@Override
+	public String toString() {
+		return "DataCodec [" + type.getName() + "]";
+	}
+}
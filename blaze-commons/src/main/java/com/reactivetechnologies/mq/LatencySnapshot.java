@@ -0,0 +1,97 @@
+/**
+ * Copyright 2017 esutdal
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+package com.reactivetechnologies.mq;
+/**
+ * Latency percentiles of a processing stage of a queue listener, over the recent window.
+ * All values are in microseconds.
+ * @author esutdal
+ *
+ */
+public class LatencySnapshot {
+
+	private String listener;
+	private String stage;
+	private long count;
+	private long p50;
+	private long p99;
+	private long p999;
+	private long max;
+	private double mean;
+
+	public LatencySnapshot() {
+	}
+	public LatencySnapshot(String listener, String stage) {
+		this.listener = listener;
+		this.stage = stage;
+	}
+	@Override
+	public String toString() {
+		return "LatencySnapshot [listener=" + listener + ", stage=" + stage + ", count=" + count + ", p50=" + p50
+				+ ", p99=" + p99 + ", p999=" + p999 + ", max=" + max + ", mean=" + mean + "]";
+	}
+	public String getListener() {
+		return listener;
+	}
+	public void setListener(String listener) {
+		this.listener = listener;
+	}
+	/**
+	 * One of WAIT (enqueue to dequeue), PROCESS (onMessage) or COMMIT.
+	 * @return
+	 */
+	public String getStage() {
+		return stage;
+	}
+	public void setStage(String stage) {
+		this.stage = stage;
+	}
+	public long getCount() {
+		return count;
+	}
+	public void setCount(long count) {
+		this.count = count;
+	}
+	public long getP50() {
+		return p50;
+	}
+	public void setP50(long p50) {
+		this.p50 = p50;
+	}
+	public long getP99() {
+		return p99;
+	}
+	public void setP99(long p99) {
+		this.p99 = p99;
+	}
+	public long getP999() {
+		return p999;
+	}
+	public void setP999(long p999) {
+		this.p999 = p999;
+	}
+	public long getMax() {
+		return max;
+	}
+	public void setMax(long max) {
+		this.max = max;
+	}
+	public double getMean() {
+		return mean;
+	}
+	public void setMean(double mean) {
+		this.mean = mean;
+	}
+}
@@ -15,6 +15,8 @@
  */
 package com.reactivetechnologies.mq;
 
+import java.util.List;
+
 public interface MetricService {
 
 	long getDequeueCount(String route);
@@ -33,6 +35,14 @@ public interface MetricService {
 	 */
 	long getEnqueueCount(String exchange, String route);
 	long getEnqueueCount(String route);
+	/**
+	 * Messages not enqueued, being duplicates by idempotency key within the dedupe window.
+	 * @param exchange
+	 * @param route
+	 * @return
+	 */
+	long getDuplicateCount(String exchange, String route);
+	long getDuplicateCount(String route);
 	/**
 	 * 
 	 * @param exchange
@@ -40,4 +50,12 @@ public interface MetricService {
 	 */
 	void resetCounts(String exchange, String route);
 	void resetCounts(String route);
+	/**
+	 * Latency percentiles per listener and processing stage, over the recent window.
+	 * @param exchange
+	 * @param route
+	 * @return
+	 */
+	List<LatencySnapshot> getLatencies(String exchange, String route);
+	List<LatencySnapshot> getLatencies(String route);
 }
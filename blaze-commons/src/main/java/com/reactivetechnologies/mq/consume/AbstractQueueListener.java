@@ -28,17 +28,19 @@ SOFTWARE.
 */
 package com.reactivetechnologies.mq.consume;
 
-import java.io.ByteArrayInputStream;
-import java.io.DataInputStream;
 import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.reactivetechnologies.blaze.struct.QKey;
 import com.reactivetechnologies.blaze.struct.QRecord;
 import com.reactivetechnologies.mq.Data;
+import com.reactivetechnologies.mq.DataCodec;
 import com.reactivetechnologies.mq.DataSerializable;
 import com.reactivetechnologies.mq.QueueService;
 import com.reactivetechnologies.mq.container.QueueContainer;
@@ -50,6 +52,8 @@ import com.reactivetechnologies.mq.exceptions.BlazeMessagingException;
  * @see QueueContainer#register(QueueListener)
  */
 public abstract class AbstractQueueListener<T extends Data> implements QueueListener<T>{
+	private DataCodec<T> codec;
+	private final ConcurrentMap<String, String> destinations = new ConcurrentHashMap<>();
 	/*
 	 * (non-Javadoc)
 	 * @see java.lang.Object#hashCode()
@@ -88,6 +92,17 @@ public abstract class AbstractQueueListener<T extends Data> implements QueueList
 	{
 		return true;
 	}
+	/**
+	 * The visibility timeout for a message being processed by this consumer. If the message is not committed
+	 * or rolled back within this time, it will be expired from process and redelivered (or dead lettered,
+	 * if {@link #allowRedelivery(boolean, short, Data)} returns false). Not applied to a listener
+	 * {@linkplain #orderedByKey() ordered by key}, as the expired message would be requeued behind the later messages of its key.
+	 * @return timeout in millis. Default 0, to use the container level setting.
+	 */
+	public long visibilityTimeoutMillis()
+	{
+		return 0;
+	}
 	private static final Logger log = LoggerFactory.getLogger(AbstractQueueListener.class);
 	/*
 	 * (non-Javadoc)
@@ -140,13 +155,74 @@ public abstract class AbstractQueueListener<T extends Data> implements QueueList
 	}
 
 	/**
-	 * To be overridden to increase concurrency.
+	 * To be overridden to increase concurrency. This is the number of worker loops fetching and processing messages
+	 * for this listener, hence the max number of messages in process at a time.
 	 * 
 	 * @return
 	 */
 	public int concurrency() {
 		return 1;
 	}
+	/**
+	 * To be overridden to let the container adapt the concurrency of this listener, between this value and
+	 * {@link #concurrency()}, by the queue backlog and the onMessage latency. Default is {@link #concurrency()},
+	 * i.e a fixed concurrency.
+	 * 
+	 * @return
+	 */
+	public int minConcurrency() {
+		return concurrency();
+	}
+	/**
+	 * To be overridden to change the share of the workers of this listener, relative to the other listeners,
+	 * if the container is fair scheduling the shared pool. Default 1.
+	 * 
+	 * @return
+	 */
+	public int weight() {
+		return 1;
+	}
+	/**
+	 * To be overridden to reserve workers for this listener, if the container is fair scheduling the shared pool.
+	 * The listener is served first while it has fewer messages in process. Default 0, no reservation.
+	 * 
+	 * @return
+	 */
+	public int minShare() {
+		return 0;
+	}
+	/**
+	 * To be overridden to consume from several routes of the exchange, with a single set of workers. Messages are
+	 * fetched from whichever of the queues has items, in turn. The {@link #routing()} then only labels this listener,
+	 * and is not consumed from unless listed. Default null, to consume from {@link #routing()}.
+	 * 
+	 * @return
+	 */
+	public String[] routes() {
+		return null;
+	}
+	/**
+	 * To be overridden to consume from the routes of the exchange matching a glob pattern, where '*' matches any
+	 * characters and '?' a single one. The pattern is resolved against the existing queues, and re-resolved periodically
+	 * to join the queues created later. Takes precedence over {@link #routes()}. Default null.
+	 * 
+	 * @return
+	 */
+	public String routePattern() {
+		return null;
+	}
+	/**
+	 * To be overridden to process the messages with the same {@linkplain Data#getGroupKey() group key} serially, in the
+	 * order enqueued, while the messages of different keys are processed in parallel up to the {@link #concurrency()}.
+	 * A failed message is redelivered in place, holding back the later messages of its key. The visibility timeout is
+	 * not applied, so a hung message holds back its key till it completes. Messages without a key are processed in any
+	 * order. The group keys are enqueued only if enabled at the producer, by 'producer.group.key.enable'. Default false.
+	 * 
+	 * @return
+	 */
+	public boolean orderedByKey() {
+		return false;
+	}
 	@Override
 	public short maxDeliveryAttempts(){
 		return 3;
@@ -162,28 +238,65 @@ public abstract class AbstractQueueListener<T extends Data> implements QueueList
 		}
 		return true;
 	}
+	/**
+	 * The codec of the {@linkplain #dataType() data type}, resolved on the first use. The container resolves it on
+	 * registration, so that a type that cannot be instantiated fails the registration, rather than each message.
+	 * @return
+	 */
+	public final DataCodec<T> codec()
+	{
+		DataCodec<T> c = codec;
+		if(c == null)
+		{
+			c = DataCodec.of(dataType());
+			codec = c;
+		}
+		return c;
+	}
+	/**
+	 * The destination of a message, as 'exchange.route'. Built once per route.
+	 * @param key
+	 * @return
+	 */
+	private String destinationOf(QKey key)
+	{
+		String destination = destinations.get(key.getRoutingKey());
+		if(destination == null)
+		{
+			destinations.putIfAbsent(key.getRoutingKey(), key.getExchange()+"."+key.getRoutingKey());
+			destination = destinations.get(key.getRoutingKey());
+		}
+		return destination;
+	}
+	/**
+	 * The message of a queue record, as delivered to {@link #onMessage(Data)}.
+	 * @param obs
+	 * @return
+	 * @throws IOException if the payload cannot be read as the {@linkplain #dataType() data type}
+	 */
+	public final T decode(QRecord obs) throws IOException
+	{
+		T obj = codec().newInstance();
+		readData(obs.getPayload(), obj);
+		obj.setCorrelationID(obs.getCorrId());
+		obj.setDestination(destinationOf(obs.getKey()));
+		obj.setExpiryMillis(obs.getExpiryMillis());
+		obj.setRedelivered(obs.isRedelivered());
+		obj.setGroupKey(obs.getGroupKey());
+		obj.setReplyTo(obs.getReplyTo());
+		obj.setTimestamp(obs.getT0TS().getTime());
+		return obj;
+	}
 	/**
 	 * Used internally.
 	 * 
-	 * @param arg0
-	 * @param arg1
-	 * @throws IllegalAccessException 
-	 * @throws InstantiationException 
-	 * @throws IOException 
+	 * @param obs
 	 * @throws BlazeMessagingException 
-	 * @throws Exception
 	 */
 	public final void fireOnMessage(QRecord obs) throws BlazeMessagingException  {
 		try 
 		{
-			T obj = dataType().newInstance();
-			readData(obs.getPayload(), obj);
-			obj.setCorrelationID(obs.getCorrId());
-			obj.setDestination(exchange()+"."+routing());
-			obj.setExpiryMillis(obs.getExpiryMillis());
-			obj.setRedelivered(obs.isRedelivered());
-			obj.setReplyTo(obs.getReplyTo());
-			obj.setTimestamp(obs.getT0TS().getTime());
+			T obj = decode(obs);
 			
 			try {
 				onMessage(obj);
@@ -192,29 +305,20 @@ public abstract class AbstractQueueListener<T extends Data> implements QueueList
 				ce.setRecord(obj);
 				throw ce;
 			}
-		} catch (InstantiationException | IllegalAccessException | IOException e) {
+		} catch (IOException e) {
 			throw new BlazeInternalException("Fatal error", e);
 		}
 	}
 	/**
-	 * Deserialize the payload bytes to an instance of {@linkplain DataSerializable}.
+	 * Deserialize the payload bytes to an instance of {@linkplain DataSerializable}. The fields are read directly off
+	 * the buffer, by the {@linkplain #codec() codec}.
 	 * @param b
 	 * @param obj
 	 * @throws IOException
 	 */
 	protected void readData(ByteBuffer b, T obj) throws IOException
 	{
-		byte[] bytes;
-		if(b.hasArray())
-		{
-			bytes = b.array();
-		}
-		else
-		{
-			bytes = new byte[b.limit()];
-			b.get(bytes);
-		}
-		obj.readData(new DataInputStream(new ByteArrayInputStream(bytes)));
+		codec().read(b, obj);
 	}
 	/*
 	 * (non-Javadoc)
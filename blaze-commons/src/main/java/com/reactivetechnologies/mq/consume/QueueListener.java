@@ -23,7 +23,7 @@ public interface QueueListener<T extends Data> extends Consumer<T> {
 	 */
 	String identifier();
 	/**
-	 * Max parallelism to achieve
+	 * Max parallelism to achieve. The number of messages processed concurrently by this listener.
 	 * @return
 	 */
 	int concurrency();
@@ -45,7 +45,7 @@ public interface QueueListener<T extends Data> extends Consumer<T> {
 		
 	/**
 	 * Check if a record is eligible for re-delivery based on expiration/delivery count. The {@linkplain Data} instance
-	 * may be null.
+	 * is the message as delivered, including for a message expired by visibility timeout.
 	 * @param expired
 	 * @param redeliveryCount
 	 * @param d
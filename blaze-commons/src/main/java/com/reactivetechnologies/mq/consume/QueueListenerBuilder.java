@@ -13,12 +13,19 @@ import com.reactivetechnologies.mq.Data;
 public class QueueListenerBuilder {
 
 	private int concurrency = -1;
+	private int minConcurrency = -1;
+	private int weight = -1;
+	private int minShare = -1;
 	private short maxDelivery = -1;
 	private String route;
+	private String[] routes;
+	private String routePattern;
 	private String exchange, identifier;
 	private Class<? extends Data> data;
 	private Consumer<? extends Data> consumer;
 	private boolean useSharedPool = true;
+	private boolean orderedByKey;
+	private long visibilityTimeout = -1;
 	
 	public QueueListenerBuilder() {
 	}
@@ -32,6 +39,36 @@ public class QueueListenerBuilder {
 		this.concurrency = c;
 		return this;
 	}
+	/**
+	 * Adapt the concurrency between the given min and {@link #concurrency(int)}.
+	 * @param c
+	 * @return
+	 */
+	public QueueListenerBuilder minConcurrency(int c)
+	{
+		this.minConcurrency = c;
+		return this;
+	}
+	/**
+	 * The share of the workers relative to the other listeners, if the container is fair scheduling.
+	 * @param w
+	 * @return
+	 */
+	public QueueListenerBuilder weight(int w)
+	{
+		this.weight = w;
+		return this;
+	}
+	/**
+	 * The workers reserved for this listener, if the container is fair scheduling.
+	 * @param c
+	 * @return
+	 */
+	public QueueListenerBuilder minShare(int c)
+	{
+		this.minShare = c;
+		return this;
+	}
 	public QueueListenerBuilder maxDelivery(short c)
 	{
 		this.maxDelivery = c;
@@ -42,11 +79,52 @@ public class QueueListenerBuilder {
 		this.route = r;
 		return this;
 	}
+	/**
+	 * Consume from several routes of the exchange.
+	 * @param r
+	 * @return
+	 */
+	public QueueListenerBuilder routes(String... r)
+	{
+		this.routes = r;
+		return this;
+	}
+	/**
+	 * Consume from the routes of the exchange matching a glob pattern.
+	 * @param p
+	 * @return
+	 */
+	public QueueListenerBuilder routePattern(String p)
+	{
+		this.routePattern = p;
+		return this;
+	}
+	/**
+	 * Process the messages of each group key serially, in order. The visibility timeout does not apply to such a
+	 * listener, as an expired message would be requeued behind the later messages of its key.
+	 * @param o
+	 * @return
+	 */
+	public QueueListenerBuilder orderedByKey(boolean o)
+	{
+		this.orderedByKey = o;
+		return this;
+	}
 	public QueueListenerBuilder sharedPool(boolean r)
 	{
 		this.useSharedPool = r;
 		return this;
 	}
+	/**
+	 * The visibility timeout of the messages in process. Ignored if {@linkplain #orderedByKey(boolean) ordered by key}.
+	 * @param millis
+	 * @return
+	 */
+	public QueueListenerBuilder visibilityTimeout(long millis)
+	{
+		this.visibilityTimeout = millis;
+		return this;
+	}
 	public QueueListenerBuilder exchange(String e)
 	{
 		this.exchange = e;
@@ -96,9 +174,21 @@ public class QueueListenerBuilder {
 		public int concurrency() {
 			return concurrency != -1 ? concurrency : super.concurrency();
 		}
+		public int minConcurrency() {
+			return minConcurrency != -1 ? minConcurrency : super.minConcurrency();
+		}
+		public int weight() {
+			return weight != -1 ? weight : super.weight();
+		}
+		public int minShare() {
+			return minShare != -1 ? minShare : super.minShare();
+		}
 		public short maxDeliveryAttempts() {
 			return maxDelivery != -1 ? maxDelivery : super.maxDeliveryAttempts();
 		}
+		public long visibilityTimeoutMillis() {
+			return visibilityTimeout != -1 ? visibilityTimeout : super.visibilityTimeoutMillis();
+		}
 		@Override
 		public void onMessage(T m) throws Exception {
 			this.consumer.onMessage(m);
@@ -106,7 +196,18 @@ public class QueueListenerBuilder {
 
 		@Override
 		public String routing() {
-			return route;
+			if(route != null)
+				return route;
+			return routePattern != null ? routePattern : routes[0];
+		}
+		public String[] routes() {
+			return routes;
+		}
+		public String routePattern() {
+			return routePattern;
+		}
+		public boolean orderedByKey() {
+			return orderedByKey;
 		}
 
 		public void setConsumer(Consumer<T> consumer2) {
@@ -123,7 +224,8 @@ public class QueueListenerBuilder {
 	public <T extends Data> QueueListener<T> build()
 	{
 		Assert.notNull(data, "dataType() is reqd for QueueListener");
-		Assert.notNull(route, "routing() is reqd for QueueListener");
+		Assert.isTrue(route != null || routePattern != null || (routes != null && routes.length > 0),
+				"routing() or routes() or routePattern() is reqd for QueueListener");
 		Assert.notNull(consumer, "consumer() is reqd for QueueListener");
 		
 		DefaultQueueListener<T> qListener = new DefaultQueueListener<>();
@@ -0,0 +1,145 @@
+/**
+ * Copyright 2017 esutdal
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+package com.reactivetechnologies.mq.container;
+
+import java.util.List;
+/**
+ * The runtime state of a registered queue listener, as seen by the container control api.
+ * @author esutdal
+ *
+ */
+public class ListenerStatus {
+
+	private String identifier;
+	private String exchange;
+	private String routing;
+	private List<String> routes;
+	private boolean paused;
+	private int concurrency;
+	private int minConcurrency;
+	private int maxConcurrency;
+	private int throttleTps;
+	private long pollIntervalMillis;
+	private int inflight;
+	private int prefetched;
+
+	public ListenerStatus() {
+	}
+	public ListenerStatus(String identifier, String exchange, String routing) {
+		this.identifier = identifier;
+		this.exchange = exchange;
+		this.routing = routing;
+	}
+	@Override
+	public String toString() {
+		return "ListenerStatus [identifier=" + identifier + ", exchange=" + exchange + ", routing=" + routing
+				+ ", routes=" + routes + ", paused=" + paused + ", concurrency=" + concurrency + ", minConcurrency=" + minConcurrency
+				+ ", maxConcurrency=" + maxConcurrency + ", throttleTps=" + throttleTps + ", pollIntervalMillis="
+				+ pollIntervalMillis + ", inflight=" + inflight + ", prefetched=" + prefetched + "]";
+	}
+	public String getIdentifier() {
+		return identifier;
+	}
+	public void setIdentifier(String identifier) {
+		this.identifier = identifier;
+	}
+	public String getExchange() {
+		return exchange;
+	}
+	public void setExchange(String exchange) {
+		this.exchange = exchange;
+	}
+	public String getRouting() {
+		return routing;
+	}
+	public void setRouting(String routing) {
+		this.routing = routing;
+	}
+	/**
+	 * The routes consumed from. More than the routing, for a listener on several routes.
+	 * @return
+	 */
+	public List<String> getRoutes() {
+		return routes;
+	}
+	public void setRoutes(List<String> routes) {
+		this.routes = routes;
+	}
+	/**
+	 * If fetching is paused. Messages in process complete regardless.
+	 * @return
+	 */
+	public boolean isPaused() {
+		return paused;
+	}
+	public void setPaused(boolean paused) {
+		this.paused = paused;
+	}
+	/**
+	 * The number of worker loops currently set to run.
+	 * @return
+	 */
+	public int getConcurrency() {
+		return concurrency;
+	}
+	public void setConcurrency(int concurrency) {
+		this.concurrency = concurrency;
+	}
+	public int getMinConcurrency() {
+		return minConcurrency;
+	}
+	public void setMinConcurrency(int minConcurrency) {
+		this.minConcurrency = minConcurrency;
+	}
+	public int getMaxConcurrency() {
+		return maxConcurrency;
+	}
+	public void setMaxConcurrency(int maxConcurrency) {
+		this.maxConcurrency = maxConcurrency;
+	}
+	public int getThrottleTps() {
+		return throttleTps;
+	}
+	public void setThrottleTps(int throttleTps) {
+		this.throttleTps = throttleTps;
+	}
+	public long getPollIntervalMillis() {
+		return pollIntervalMillis;
+	}
+	public void setPollIntervalMillis(long pollIntervalMillis) {
+		this.pollIntervalMillis = pollIntervalMillis;
+	}
+	/**
+	 * Messages being processed.
+	 * @return
+	 */
+	public int getInflight() {
+		return inflight;
+	}
+	public void setInflight(int inflight) {
+		this.inflight = inflight;
+	}
+	/**
+	 * Messages fetched into the local buffer, if prefetching.
+	 * @return
+	 */
+	public int getPrefetched() {
+		return prefetched;
+	}
+	public void setPrefetched(int prefetched) {
+		this.prefetched = prefetched;
+	}
+}
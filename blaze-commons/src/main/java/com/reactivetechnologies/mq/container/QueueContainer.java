@@ -15,6 +15,8 @@
  */
 package com.reactivetechnologies.mq.container;
 
+import java.util.List;
+
 import com.reactivetechnologies.blaze.struct.QRecord;
 import com.reactivetechnologies.mq.Data;
 import com.reactivetechnologies.mq.consume.QueueListener;
@@ -51,6 +53,54 @@ public interface QueueContainer extends Runnable{
 	 * @param pollInterval
 	 */
 	void setPollInterval(long pollInterval);
+	/**
+	 * The runtime state of the registered listeners.
+	 * @return
+	 */
+	List<ListenerStatus> listenerStatus();
+	/**
+	 * Stop fetching new messages for a listener. Messages in process complete, and messages prefetched are requeued.
+	 * @param identifier listener identifier
+	 * @throws IllegalArgumentException if no such listener is registered
+	 */
+	void pause(String identifier);
+	/**
+	 * Restart fetching for a paused listener.
+	 * @param identifier listener identifier
+	 * @throws IllegalArgumentException if no such listener is registered
+	 */
+	void resume(String identifier);
+	/**
+	 * Pause a listener, and wait till its messages in process complete. The listener stays paused.
+	 * @param identifier listener identifier
+	 * @param timeoutMillis
+	 * @return true if drained, false on timeout
+	 * @throws InterruptedException
+	 * @throws IllegalArgumentException if no such listener is registered
+	 */
+	boolean drain(String identifier, long timeoutMillis) throws InterruptedException;
+	/**
+	 * Change the concurrency bounds of a listener. Equal bounds set a fixed concurrency, else it is adapted between them.
+	 * @param identifier listener identifier
+	 * @param min
+	 * @param max
+	 * @throws IllegalArgumentException if no such listener is registered
+	 */
+	void setConcurrency(String identifier, int min, int max);
+	/**
+	 * Change the throttle threshold of a listener. Applies only if throttling is enabled.
+	 * @param identifier listener identifier
+	 * @param tps
+	 * @throws IllegalArgumentException if no such listener is registered
+	 */
+	void setThrottleTps(String identifier, int tps);
+	/**
+	 * Change the blocking wait of a listener on an empty queue.
+	 * @param identifier listener identifier
+	 * @param millis
+	 * @throws IllegalArgumentException if no such listener is registered
+	 */
+	void setPollInterval(String identifier, long millis);
 	/**
 	 * 
 	 */
@@ -31,7 +31,7 @@ public class ObjectData<T> extends TextData {
 	public T getObject() {
 		if(object == null){
 			try {
-				setObject(om.reader().readValue(getPayload()));
+				setObject(MAPPER.reader().readValue(getPayload()));
 			} catch (IOException e) {
 				throw new BlazeInternalException("Exception while deserializing from JSON", e);
 			}
@@ -45,7 +45,10 @@ public class ObjectData<T> extends TextData {
 	}
 
 	private transient T object;
-	private ObjectMapper om = new ObjectMapper();
+	/**
+	 * Shared, being thread safe once configured. An instance per message would be built on each dequeue.
+	 */
+	private static final ObjectMapper MAPPER = new ObjectMapper();
 	/**
 	 * 
 	 */
@@ -65,7 +68,7 @@ public class ObjectData<T> extends TextData {
 		this.object = object;
 		try 
 		{
-			String json = om.writer().writeValueAsString(object);
+			String json = MAPPER.writer().writeValueAsString(object);
 			setPayload(json);
 		} catch (JsonProcessingException e) {
 			throw new BlazeInternalException("Exception while serializing to JSON", e);
@@ -15,17 +15,15 @@
  */
 package com.reactivetechnologies.mq.disk;
 
-import java.io.ByteArrayInputStream;
-import java.io.ByteArrayOutputStream;
 import java.io.Closeable;
-import java.io.DataInputStream;
-import java.io.DataOutputStream;
 import java.io.File;
 import java.io.FilenameFilter;
 import java.io.IOException;
+import java.nio.ByteBuffer;
 import java.util.Collection;
 import java.util.NoSuchElementException;
 
+import com.reactivetechnologies.mq.DataCodec;
 import com.reactivetechnologies.mq.DataSerializable;
 import com.reactivetechnologies.mq.exceptions.BlazeInternalException;
 /**
@@ -79,7 +77,7 @@ public class LocalDurableQueue<E extends DataSerializable> implements Closeable{
 	 */
 	public LocalDurableQueue(Class<E> type, String fileName, String dir, boolean createIfAbsent) {
 		super();
-		this.type = type;
+		this.codec = DataCodec.of(type);
 		directory = dir;
 		try {
 			file = new FileBackedQueue(dir, fileName, createIfAbsent);
@@ -89,7 +87,7 @@ public class LocalDurableQueue<E extends DataSerializable> implements Closeable{
 	}
 
 	private FileBackedQueue file;
-	private final Class<E> type;
+	private final DataCodec<E> codec;
 	/**
 	 * Add all items one by one. This method simply invokes {@link #add()} iteratively.
 	 * @param items
@@ -142,22 +140,11 @@ public class LocalDurableQueue<E extends DataSerializable> implements Closeable{
 
 	private byte[] objectToBytes(E e) throws IOException
 	{
-		ByteArrayOutputStream out = new ByteArrayOutputStream();
-		if (e != null) {
-			e.writeData(new DataOutputStream(out));
-		}
-		byte[] b = out.toByteArray();
-		//System.out.println("LocalDurableQueue.objectToBytes() length: "+b.length);
-		return b;
+		return e != null ? DataCodec.toBytes(e) : new byte[0];
 	}
-	private E bytesToObject(byte[] b) throws InstantiationException, IllegalAccessException, ClassNotFoundException, IOException
+	private E bytesToObject(byte[] b) throws IOException
 	{
-		E e = type.newInstance();
-		if (b != null) {
-			//System.out.println("LocalDurableQueue.bytesToObject() length: "+b.length);
-			e.readData(new DataInputStream(new ByteArrayInputStream(b)));
-		}
-		return e;
+		return b != null ? codec.read(ByteBuffer.wrap(b)) : codec.newInstance();
 	}
 	/**
 	 * Dequeue and return the head of the queue if available, else return null.
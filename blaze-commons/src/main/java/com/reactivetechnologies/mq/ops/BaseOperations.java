@@ -18,12 +18,8 @@ package com.reactivetechnologies.mq.ops;
 import java.util.Properties;
 import java.util.Set;
 
-import org.springframework.data.redis.core.BoundListOperations;
-import org.springframework.data.redis.core.RedisCallback;
 import org.springframework.data.redis.serializer.StringRedisSerializer;
 
-import com.reactivetechnologies.blaze.struct.QRecord;
-
 public interface BaseOperations {
 
 	/**
@@ -40,15 +36,15 @@ public interface BaseOperations {
 
 	//TODO: Fetching queue names. Not being able to PERSIST
 	/**
-	 * Fetch the name of queues being maintained in Redis. Uses the KEYS
-	 * command and {@literal QUEUE_PREFIX_PATTERN}, with an O(n) complexity
+	 * Fetch the name of queues being maintained in Redis. The names are read from
+	 * a locally cached view of the queue catalog, so this does not scan the keyspace.
 	 * @return
 	 *
 	 */
 	Set<String> findQueueNames();
 
 	/**
-	 * Clears a given queue using a MULTI RPOP iteration.
+	 * Clears a given queue, and resets its stats, atomically in O(1). The items are freed lazily by the server.
 	 * @param xchangeKey
 	 * @param routeKey
 	 * @return true if cleared
@@ -62,20 +58,30 @@ public interface BaseOperations {
 	 */
 	Long sizeOf(String listKey);
 	/**
-	 * 
+	 * Size of the queue for the given exchange/route.
+	 * @param xchangeKey
+	 * @param routeKey
 	 * @return
 	 */
-	StringRedisSerializer getKeySerializer();
+	long size(String xchangeKey, String routeKey);
 	/**
-	 * Wrapper on {@linkplain RedisTemplate}
-	 * @param prepareKey
+	 * Prepare the key of the queue for the given exchange/route.
+	 * @param exchange
+	 * @param key
 	 * @return
 	 */
-	BoundListOperations<String, QRecord> boundListOps(String prepareKey);
+	String prepareListKey(String exchange, String key);
 	/**
-	 * Wrapper on {@linkplain RedisTemplate}
-	 * @param redisCallback
+	 * Prepare the key of the INPROC queue of this instance, for the given exchange/route.
+	 * @param exchange
+	 * @param key
+	 * @return
 	 */
-	void executePipelined(RedisCallback<Integer> redisCallback);
+	String prepareInProcKey(String exchange, String key);
+	/**
+	 * 
+	 * @return
+	 */
+	StringRedisSerializer getKeySerializer();
 
 }
\ No newline at end of file
@@ -15,6 +15,7 @@
  */
 package com.reactivetechnologies.mq.ops;
 
+import java.util.List;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
 
@@ -46,6 +47,28 @@ public interface ConsumerOperations extends BaseOperations{
 	 * @throws TimeoutException
 	 */
 	QRecord dequeue(String xchng, String route, long await, TimeUnit unit);
+	/**
+	 * Dequeue a batch of up to max items, in a single round trip if the SOURCE queue has items. Each item is moved
+	 * to the SINK queue head, as in {@link #dequeue(String, String, long, TimeUnit)}. If the SOURCE queue is empty,
+	 * this waits for the next item, up to the given time.
+	 * @param xchng
+	 * @param route
+	 * @param max
+	 * @param await
+	 * @param unit
+	 * @return dequeued items in order, or an empty list on timeout
+	 */
+	List<QRecord> dequeue(String xchng, String route, int max, long await, TimeUnit unit);
+	/**
+	 * Dequeue a batch of up to max items from the first of the given routes whose SOURCE queue has items, in a single
+	 * round trip, as {@link #dequeue(String, String, int, long, TimeUnit)} would for that route. This does not wait
+	 * if all the queues are empty.
+	 * @param xchng
+	 * @param routes in the order to be tried
+	 * @param max
+	 * @return dequeued items in order, all from the same route, or an empty list
+	 */
+	List<QRecord> dequeueAny(String xchng, List<String> routes, int max);
 
 	/**
 	 * RPOP operation. This method should be used in message polling scenario. For a reliable messaging,
@@ -72,5 +95,50 @@ public interface ConsumerOperations extends BaseOperations{
 	 * @return
 	 */
 	boolean clearInproc(String xchangeKey, String routeKey);
+	/**
+	 * Register the INPROC queue of this instance against its heartbeat lease. If this instance dies
+	 * without recovering the queue, a live instance will reclaim the pending items once the lease expires.
+	 * @param xchangeKey
+	 * @param routeKey
+	 */
+	void registerInproc(String xchangeKey, String routeKey);
+	/**
+	 * Enable visibility timeout for messages dequeued from the given exchange/route. Each message
+	 * dequeued henceforth is stamped with a deadline, which is cleared when the message is committed
+	 * or rolled back. A timeout &lt;= 0 disables the tracking.
+	 * @param xchangeKey
+	 * @param routeKey
+	 * @param timeoutMillis
+	 */
+	void trackVisibility(String xchangeKey, String routeKey, long timeoutMillis);
+	/**
+	 * Fetch in-process messages whose visibility deadline has passed. The messages are not removed.
+	 * @param xchangeKey
+	 * @param routeKey
+	 * @param max
+	 * @return
+	 */
+	List<QRecord> fetchExpired(String xchangeKey, String routeKey, int max);
+	/**
+	 * Atomically remove an expired message from the INPROC queue. If requeue is true, the message
+	 * is appended at tail of the source queue with an incremented delivery count.
+	 * @param qr the message as fetched by {@link #fetchExpired(String, String, int)}
+	 * @param requeue
+	 * @return false if the message was not in process anymore, i.e it was committed meanwhile
+	 */
+	boolean expireInproc(QRecord qr, boolean requeue);
+
+	/**
+	 * Mark a message as processed, so that a redelivery of it can be detected by any instance till the given time elapses.
+	 * @param qr
+	 * @param ttlMillis
+	 */
+	void markProcessed(QRecord qr, long ttlMillis);
+	/**
+	 * If the message has been {@linkplain #markProcessed(QRecord, long) marked} as processed, and the mark has not expired.
+	 * @param qr
+	 * @return
+	 */
+	boolean isProcessed(QRecord qr);
 
-}
\ No newline at end of file
+}
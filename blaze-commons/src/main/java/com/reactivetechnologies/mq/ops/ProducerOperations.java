@@ -46,6 +46,4 @@ public interface ProducerOperations extends BaseOperations{
 	 */
 	void lpushAll(String preparedKey, QRecord[] items);
 
-	String prepareListKey(String exchange, String key);
-
 }
\ No newline at end of file
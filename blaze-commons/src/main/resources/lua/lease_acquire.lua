@@ -0,0 +1,14 @@
+-- Acquire the heartbeat lease of a Blaze instance, and add the instance to the registry set.
+-- KEYS[1] lease key, KEYS[2] instance registry set
+-- ARGV[1] lease token, ARGV[2] lease ttl millis, ARGV[3] instance id, ARGV[4] '1' to force
+local acquired
+if ARGV[4] == '1' then
+  acquired = redis.call('SET', KEYS[1], ARGV[1], 'PX', ARGV[2])
+else
+  acquired = redis.call('SET', KEYS[1], ARGV[1], 'PX', ARGV[2], 'NX')
+end
+if not acquired then
+  return 0
+end
+redis.call('SADD', KEYS[2], ARGV[3])
+return 1
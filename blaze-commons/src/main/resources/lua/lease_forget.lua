@@ -0,0 +1,9 @@
+-- Remove an instance whose lease has expired from the registry, once all its INPROC queues are reclaimed.
+-- KEYS[1] instance registry set, KEYS[2] lease key, KEYS[3] INPROC key set of the instance
+-- ARGV[1] instance id
+-- Returns 1 if removed, else 0.
+if redis.call('EXISTS', KEYS[2]) == 1 or redis.call('SCARD', KEYS[3]) > 0 then
+  return 0
+end
+redis.call('SREM', KEYS[1], ARGV[1])
+return 1
@@ -0,0 +1,27 @@
+-- Reclaim a batch of items from an INPROC queue of an instance whose lease has expired. Items are
+-- popped from the head (latest fetched) and appended to the tail of the SOURCE queue, so that the
+-- oldest ends up at the tail, the next to be popped. Once the INPROC queue is drained, it is deleted
+-- along with its deadline set, and removed from the INPROC key set of the instance. A reclaim to an empty
+-- SOURCE queue is published over the wakeup channel.
+-- KEYS[1] lease key, KEYS[2] INPROC key, KEYS[3] SOURCE key, KEYS[4] deadline key, KEYS[5] INPROC key set of the instance
+-- ARGV[1] max items to move, ARGV[2] wakeup channel
+-- Returns -1 if the lease is alive, else the number of items moved.
+if redis.call('EXISTS', KEYS[1]) == 1 then
+  return -1
+end
+local moved = 0
+for i = 1, tonumber(ARGV[1]) do
+  local item = redis.call('LPOP', KEYS[2])
+  if not item then
+    break
+  end
+  if redis.call('RPUSH', KEYS[3], item) == 1 then
+    redis.call('PUBLISH', ARGV[2], KEYS[3])
+  end
+  moved = moved + 1
+end
+if redis.call('LLEN', KEYS[2]) == 0 then
+  redis.call('DEL', KEYS[2], KEYS[4])
+  redis.call('SREM', KEYS[5], KEYS[2])
+end
+return moved
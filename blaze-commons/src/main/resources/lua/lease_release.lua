@@ -0,0 +1,8 @@
+-- Release the heartbeat lease, only if it is still held by the given token. The instance is
+-- left in the registry set, so that any pending INPROC items are reclaimed by a live instance.
+-- KEYS[1] lease key
+-- ARGV[1] lease token
+if redis.call('GET', KEYS[1]) == ARGV[1] then
+  return redis.call('DEL', KEYS[1])
+end
+return 0
@@ -0,0 +1,7 @@
+-- Extend the heartbeat lease, only if it is still held by the given token.
+-- KEYS[1] lease key
+-- ARGV[1] lease token, ARGV[2] lease ttl millis
+if redis.call('GET', KEYS[1]) == ARGV[1] then
+  return redis.call('PEXPIRE', KEYS[1], ARGV[2])
+end
+return 0
@@ -0,0 +1,27 @@
+-- Clear a queue in O(1). The key is renamed to a unique graveyard key, which is then UNLINKed so that the
+-- memory is reclaimed lazily in a background thread of the server. The stats hash, if given, is reset.
+-- KEYS[1] queue key, KEYS[2] graveyard key, KEYS[3] stats hash (optional)
+-- ARGV stats fields to be reset
+-- Returns the number of items cleared. A negative count means UNLINK is not available on the
+-- server (Redis < 4), and the graveyard key is left to be deleted by the caller.
+if #KEYS > 2 then
+  for _, field in ipairs(ARGV) do
+    redis.call('HSET', KEYS[3], field, 0)
+  end
+end
+local keytype = redis.call('TYPE', KEYS[1]).ok
+if keytype == 'none' then
+  return 0
+end
+local count = 0
+if keytype == 'list' then
+  count = redis.call('LLEN', KEYS[1])
+elseif keytype == 'zset' then
+  count = redis.call('ZCARD', KEYS[1])
+end
+redis.call('RENAME', KEYS[1], KEYS[2])
+local unlinked = redis.pcall('UNLINK', KEYS[2])
+if type(unlinked) == 'table' and unlinked.err then
+  return -count
+end
+return count
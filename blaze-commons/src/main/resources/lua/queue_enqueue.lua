@@ -0,0 +1,12 @@
+-- Enqueue items to a queue, registering the queue in the catalog if it is new. A registration is
+-- notified over the catalog channel.
+-- KEYS[1] queue key, KEYS[2] catalog hash
+-- ARGV[1] creation time, ARGV[2] catalog channel, ARGV[3..] items
+-- Returns the number of items pushed.
+for i = 3, #ARGV, 1000 do
+  redis.call('LPUSH', KEYS[1], unpack(ARGV, i, math.min(i + 999, #ARGV)))
+end
+if redis.call('HSETNX', KEYS[2], KEYS[1], ARGV[1]) == 1 then
+  redis.call('PUBLISH', ARGV[2], KEYS[1])
+end
+return #ARGV - 2
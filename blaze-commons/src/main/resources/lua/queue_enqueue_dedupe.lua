@@ -0,0 +1,36 @@
+-- Enqueue items to a queue, skipping those whose idempotency key was enqueued within the dedupe window. The keys
+-- are held in a sorted set scored by the Redis server time, so that the window does not depend on the clocks of the
+-- producers, and trimmed to the window on each call. The queue is registered in the catalog if it is new, and the
+-- consumers are woken if the queue was empty.
+-- KEYS[1] queue key, KEYS[2] catalog hash, KEYS[3] dedupe set
+-- ARGV[1] catalog channel, ARGV[2] window millis, ARGV[3] wakeup channel or empty,
+-- ARGV[4..] pairs of idempotency key (empty if none) and item
+-- Returns the number of items pushed.
+-- replicate the effects, as the writes follow the non-deterministic TIME on servers before 5.0
+redis.replicate_commands()
+local t = redis.call('TIME')
+local now = tonumber(t[1]) * 1000 + math.floor(tonumber(t[2]) / 1000)
+local window = tonumber(ARGV[2])
+redis.call('ZREMRANGEBYSCORE', KEYS[3], '-inf', now - window)
+local empty = redis.call('LLEN', KEYS[1]) == 0
+local pushed = 0
+for i = 4, #ARGV, 2 do
+  local key = ARGV[i]
+  if key == '' or not redis.call('ZSCORE', KEYS[3], key) then
+    if key ~= '' then
+      redis.call('ZADD', KEYS[3], now, key)
+    end
+    redis.call('LPUSH', KEYS[1], ARGV[i + 1])
+    pushed = pushed + 1
+  end
+end
+if pushed > 0 then
+  redis.call('PEXPIRE', KEYS[3], window)
+end
+if redis.call('HSETNX', KEYS[2], KEYS[1], now) == 1 then
+  redis.call('PUBLISH', ARGV[1], KEYS[1])
+end
+if empty and pushed > 0 and ARGV[3] ~= '' then
+  redis.call('PUBLISH', ARGV[3], KEYS[1])
+end
+return pushed
@@ -0,0 +1,262 @@
+/**
+ * Copyright 2017 esutdal
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+package com.reactivetechnologies.blaze.control;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.reactivetechnologies.mq.container.ListenerStatus;
+import com.reactivetechnologies.mq.container.QueueContainer;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+/**
+ * Runtime control of the registered listeners, to pause and resume fetching, drain before a deployment, and retune the
+ * concurrency, throttle and poll interval without a restart. The operations are exported as an MBean, and over http
+ * if a port is configured. The http endpoint has no authentication, hence it binds to the loopback address by default.
+ * <pre>
+ * GET  /listeners                                    state of all listeners, as json
+ * POST /listeners/{id}/pause
+ * POST /listeners/{id}/resume
+ * POST /listeners/{id}/drain?timeoutMillis=30000     200 if drained, 409 on timeout
+ * POST /listeners/{id}/concurrency?min=1&amp;max=8
+ * POST /listeners/{id}/throttle?tps=500
+ * POST /listeners/{id}/poll?millis=100
+ * </pre>
+ * An unknown listener is a 404, and an invalid parameter a 400.
+ * @author esutdal
+ *
+ */
+@Component
+public class ContainerControl implements ContainerControlMBean {
+
+	private static final Logger log = LoggerFactory.getLogger(ContainerControl.class);
+	private static final String PATH = "/listeners";
+	private static final long DEFAULT_DRAIN_MILLIS = 30000;
+
+	@Autowired
+	private QueueContainer container;
+	@Value("${consumer.metrics.jmx.domain:blaze}")
+	private String jmxDomain;
+	@Value("${consumer.control.port:0}")
+	private int port;
+	@Value("${consumer.control.host:127.0.0.1}")
+	private String host;
+
+	private final ObjectMapper om = new ObjectMapper();
+	private ObjectName objectName;
+	private HttpServer server;
+
+	@PostConstruct
+	private void init() throws IOException, JMException
+	{
+		MBeanServer mbs = ManagementFactory.getPlatformMBeanServer();
+		objectName = new ObjectName(jmxDomain + ":type=ContainerControl");
+		if(!mbs.isRegistered(objectName))
+			mbs.registerMBean(this, objectName);
+		if(port > 0)
+		{
+			server = HttpServer.create(new InetSocketAddress(host, port), 0);
+			server.createContext(PATH, new HttpHandler() {
+
+				@Override
+				public void handle(HttpExchange exchange) throws IOException {
+					dispatch(exchange);
+				}
+			});
+			server.start();
+			log.info("Container control endpoint at http://"+host+":"+port+PATH);
+		}
+	}
+	@PreDestroy
+	private void destroy()
+	{
+		if(server != null)
+			server.stop(0);
+		try {
+			ManagementFactory.getPlatformMBeanServer().unregisterMBean(objectName);
+		} catch (JMException e) {
+			log.debug("", e);
+		}
+	}
+	private static Map<String, String> queryOf(URI uri)
+	{
+		Map<String, String> params = new HashMap<>();
+		String query = uri.getRawQuery();
+		if(query == null)
+			return params;
+		for(String pair : query.split("&"))
+		{
+			int i = pair.indexOf('=');
+			if(i > 0)
+				params.put(pair.substring(0, i), pair.substring(i+1));
+		}
+		return params;
+	}
+	private static String required(Map<String, String> params, String name)
+	{
+		String value = params.get(name);
+		if(value == null)
+			throw new IllegalArgumentException("Missing parameter '"+name+"'");
+		return value;
+	}
+	private void respond(HttpExchange exchange, int status, Object body) throws IOException
+	{
+		byte[] bytes = om.writeValueAsBytes(body);
+		exchange.getResponseHeaders().set("Content-Type", "application/json; charset=utf-8");
+		exchange.sendResponseHeaders(status, bytes.length);
+		try(OutputStream out = exchange.getResponseBody())
+		{
+			out.write(bytes);
+		}
+	}
+	private ListenerStatus statusOf(String identifier)
+	{
+		for(ListenerStatus s : container.listenerStatus())
+		{
+			if(s.getIdentifier().equals(identifier))
+				return s;
+		}
+		return null;
+	}
+	private void dispatch(HttpExchange exchange) throws IOException
+	{
+		try
+		{
+			String path = exchange.getRequestURI().getPath();
+			String[] parts = path.substring(PATH.length()).split("/");
+			//parts[0] is empty, being before the leading slash
+			if(parts.length <= 1)
+			{
+				if(!"GET".equals(exchange.getRequestMethod()))
+				{
+					respond(exchange, 405, "Method not allowed");
+					return;
+				}
+				respond(exchange, 200, container.listenerStatus());
+				return;
+			}
+			if(parts.length != 3 || !"POST".equals(exchange.getRequestMethod()))
+			{
+				respond(exchange, parts.length != 3 ? 404 : 405, "Expected POST "+PATH+"/{id}/{operation}");
+				return;
+			}
+			String id = URLDecoder.decode(parts[1], "UTF-8");
+			if(statusOf(id) == null)
+			{
+				respond(exchange, 404, "No listener registered with identifier '"+id+"'");
+				return;
+			}
+			Map<String, String> params = queryOf(exchange.getRequestURI());
+			switch(parts[2])
+			{
+				case "pause":
+					container.pause(id);
+					break;
+				case "resume":
+					container.resume(id);
+					break;
+				case "drain":
+					String timeout = params.get("timeoutMillis");
+					if(!container.drain(id, timeout != null ? Long.parseLong(timeout) : DEFAULT_DRAIN_MILLIS))
+					{
+						respond(exchange, 409, statusOf(id));
+						return;
+					}
+					break;
+				case "concurrency":
+					container.setConcurrency(id, Integer.parseInt(required(params, "min")), Integer.parseInt(required(params, "max")));
+					break;
+				case "throttle":
+					container.setThrottleTps(id, Integer.parseInt(required(params, "tps")));
+					break;
+				case "poll":
+					container.setPollInterval(id, Long.parseLong(required(params, "millis")));
+					break;
+				default:
+					respond(exchange, 404, "Unknown operation '"+parts[2]+"'");
+					return;
+			}
+			respond(exchange, 200, statusOf(id));
+		}
+		catch (IllegalArgumentException e) {
+			respond(exchange, 400, e.getMessage());
+		}
+		catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			respond(exchange, 503, "Interrupted");
+		}
+		catch (Exception e) {
+			log.error("Control request failed", e);
+			respond(exchange, 500, e.getMessage());
+		}
+	}
+	@Override
+	public String[] getListeners()
+	{
+		List<ListenerStatus> status = container.listenerStatus();
+		String[] lines = new String[status.size()];
+		for (int i = 0; i < lines.length; i++) {
+			lines[i] = status.get(i).toString();
+		}
+		return lines;
+	}
+	@Override
+	public void pause(String identifier) {
+		container.pause(identifier);
+	}
+	@Override
+	public void resume(String identifier) {
+		container.resume(identifier);
+	}
+	@Override
+	public boolean drain(String identifier, long timeoutMillis) throws InterruptedException {
+		return container.drain(identifier, timeoutMillis);
+	}
+	@Override
+	public void setConcurrency(String identifier, int min, int max) {
+		container.setConcurrency(identifier, min, max);
+	}
+	@Override
+	public void setThrottleTps(String identifier, int tps) {
+		container.setThrottleTps(identifier, tps);
+	}
+	@Override
+	public void setPollInterval(String identifier, long millis) {
+		container.setPollInterval(identifier, millis);
+	}
+}
@@ -0,0 +1,42 @@
+/**
+ * Copyright 2017 esutdal
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+package com.reactivetechnologies.blaze.control;
+/**
+ * JMX operations to control the registered listeners at runtime. Listeners are addressed by their identifier.
+ * @author esutdal
+ *
+ */
+public interface ContainerControlMBean {
+
+	/**
+	 * The state of each registered listener, one per line.
+	 * @return
+	 */
+	String[] getListeners();
+	void pause(String identifier);
+	void resume(String identifier);
+	/**
+	 * Pause and wait till the messages in process complete.
+	 * @param identifier
+	 * @param timeoutMillis
+	 * @return true if drained
+	 * @throws InterruptedException
+	 */
+	boolean drain(String identifier, long timeoutMillis) throws InterruptedException;
+	void setConcurrency(String identifier, int min, int max);
+	void setThrottleTps(String identifier, int tps);
+	void setPollInterval(String identifier, long millis);
+}
@@ -16,12 +16,15 @@
 package com.reactivetechnologies.blaze.core;
 
 import java.util.Iterator;
+import java.util.List;
 import java.util.NoSuchElementException;
 import java.util.concurrent.TimeUnit;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.reactivetechnologies.blaze.jfr.BlazeEvents;
+import com.reactivetechnologies.blaze.ops.QueueWakeup;
 import com.reactivetechnologies.blaze.struct.QRecord;
 import com.reactivetechnologies.blaze.throttle.ConsumerThrottler;
 import com.reactivetechnologies.mq.ops.ConsumerOperations;
@@ -46,7 +49,7 @@ class BlazeQueueIterator implements Iterator<QRecord>{
 		this.redisOps = redisOps;
 	}
 	private final ConsumerThrottler throttler;
-	private int throttleTps;
+	private volatile int throttleTps;
 	private final ConsumerOperations redisOps;
 	private String routing;
 	public String getRouting() {
@@ -61,6 +64,12 @@ class BlazeQueueIterator implements Iterator<QRecord>{
 	public void setExchange(String exchange) {
 		this.exchange = exchange;
 	}
+	public int getThrottleTps() {
+		return throttleTps;
+	}
+	public void setThrottleTps(int throttleTps) {
+		this.throttleTps = throttleTps;
+	}
 	public long getPollIntervalMillis() {
 		return pollIntervalMillis;
 	}
@@ -68,7 +77,43 @@ class BlazeQueueIterator implements Iterator<QRecord>{
 		this.pollIntervalMillis = pollIntervalMillis;
 	}
 	private String exchange;
-	private long pollIntervalMillis;
+	private volatile long pollIntervalMillis;
+	private QueuePrefetcher prefetcher;
+	private QueueRoutes routes;
+	private QueueWakeup wakeup;
+	private String queue;
+	private long parkMillis;
+	/**
+	 * Fetch from the local buffer of a prefetcher, instead of Redis.
+	 * @param prefetcher
+	 */
+	public void setPrefetcher(QueuePrefetcher prefetcher) {
+		this.prefetcher = prefetcher;
+	}
+	public QueuePrefetcher getPrefetcher() {
+		return prefetcher;
+	}
+	/**
+	 * The routes of the listener. Fetched through, instead of the single routing, if there are several.
+	 * @param routes
+	 */
+	public void setRoutes(QueueRoutes routes) {
+		this.routes = routes;
+	}
+	public QueueRoutes getRoutes() {
+		return routes;
+	}
+	/**
+	 * Park on an empty queue till it is woken, or the given max time elapses, instead of fetching again.
+	 * @param wakeup
+	 * @param queue prepared list key
+	 * @param maxMillis
+	 */
+	public void setParking(QueueWakeup wakeup, String queue, long maxMillis) {
+		this.wakeup = wakeup;
+		this.queue = queue;
+		this.parkMillis = maxMillis;
+	}
 	
 	/**
 	 * Returns the next element in the iteration. The queue head in this case.
@@ -89,7 +134,17 @@ class BlazeQueueIterator implements Iterator<QRecord>{
 	@Override
 	public boolean hasNext()
 	{
-		return throttler.allowMessageConsume(throttleTps);
+		boolean allowed = throttler.allowMessageConsume(throttleTps);
+		BlazeEvents.throttled(routing, allowed, throttleTps);
+		return allowed;
+	}
+	/**
+	 * Count a message taken off the prefetcher other than by {@link #next()}, as by the fair scheduler after
+	 * {@link #hasNext()} allowed it.
+	 */
+	void countConsumed()
+	{
+		throttler.incrementCount();
 	}
 	private QRecord fetchAndIncrement(String exchange, String routing, long pollInterval) {
 		log.debug("Allowed fetching head");
@@ -100,10 +155,41 @@ class BlazeQueueIterator implements Iterator<QRecord>{
 		return qr;
 	}
 	private QRecord fetchHead(String exchange, String routing, long pollInterval) {
+		if(prefetcher != null)
+			return fetchPrefetched(pollInterval);
+		if(routes != null && routes.isMultiple())
+			return fetchRoutes(pollInterval);
+		long generation = wakeup != null ? wakeup.generation(queue) : 0;
 		QRecord qr = redisOps.dequeue(exchange, routing,
 				pollInterval, TimeUnit.MILLISECONDS);
+		if(qr == null && wakeup != null)
+			park(generation);
 		
 		return qr;
 	}
+	private void park(long generation) {
+		try {
+			wakeup.await(queue, generation, parkMillis, TimeUnit.MILLISECONDS);
+		} catch (InterruptedException e) {
+			//a late interrupt meant for the previous message, by the visibility reaper
+		}
+	}
+	private QRecord fetchRoutes(long pollInterval) {
+		try {
+			List<QRecord> batch = routes.fetch(1, pollInterval);
+			return batch.isEmpty() ? null : batch.get(0);
+		} catch (InterruptedException e) {
+			//a late interrupt meant for the previous message, by the visibility reaper
+			return null;
+		}
+	}
+	private QRecord fetchPrefetched(long pollInterval) {
+		try {
+			return prefetcher.poll(pollInterval, TimeUnit.MILLISECONDS);
+		} catch (InterruptedException e) {
+			//a late interrupt meant for the previous message, by the visibility reaper
+			return null;
+		}
+	}
 		
 }
@@ -0,0 +1,240 @@
+/**
+ * Copyright 2017 esutdal
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+package com.reactivetechnologies.blaze.core;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.reactivetechnologies.blaze.metrics.ListenerMetrics;
+import com.reactivetechnologies.mq.consume.AbstractQueueListener;
+/**
+ * Controls the worker loops of a listener. The number of loops is fixed at the concurrency of the listener, unless it
+ * has a lower {@linkplain AbstractQueueListener#minConcurrency() min concurrency}. Then it is adapted between the min
+ * and the {@linkplain AbstractQueueListener#concurrency() max}, by an AIMD rule evaluated periodically.
+ * <ul>
+ * <li>If the mean onMessage latency of the period exceeds the baseline by the tolerance factor, the concurrency is
+ * cut by the backoff factor, so as not to overload a downstream that is slowing down.</li>
+ * <li>Else, if there is a backlog that is growing, or larger than the concurrency, one loop is added.</li>
+ * <li>Else, if the queue is empty, one loop is retired.</li>
+ * </ul>
+ * The backlog is that of all the routes of the listener.
+ * The baseline is the lowest latency observed, drifting up slowly so that a permanent change in the handler cost
+ * is learnt. New loops are started on the executor of the listener. Excess loops retire on their next iteration.
+ * <p>
+ * The bounds can be changed at runtime, and the loops can be paused from fetching.
+ * <p>
+ * For a listener dispatched by the {@linkplain FairScheduler}, there are no loops to start, and the concurrency
+ * is the cap on the messages in process of the listener instead.
+ * @author esutdal
+ *
+ */
+class ConcurrencyController implements Runnable {
+
+	private static final Logger log = LoggerFactory.getLogger(ConcurrencyController.class);
+	/**
+	 * Drift of the latency baseline per period.
+	 */
+	private static final double BASELINE_DRIFT = 1.05;
+
+	private final String identifier;
+	private final QueueRoutes routes;
+	private final ListenerMetrics metrics;
+	private volatile int min;
+	private volatile int max;
+	private volatile boolean paused;
+	private final double tolerance;
+	private final double backoff;
+
+	private final LongAdder processedNanos = new LongAdder();
+	private final LongAdder processed = new LongAdder();
+	private final AtomicInteger loops = new AtomicInteger();
+	private volatile int limit;
+	private long lastDepth;
+	private double baselineNanos;
+
+	private QueueContainerTaskImpl<?> task;
+	private Executor executor;
+	/**
+	 *
+	 * @param listener
+	 * @param routes
+	 * @param metrics
+	 * @param tolerance latency increase over the baseline to back off at
+	 * @param backoff multiplicative decrease factor
+	 */
+	ConcurrencyController(AbstractQueueListener<?> listener, QueueRoutes routes, ListenerMetrics metrics, double tolerance, double backoff) {
+		this.identifier = listener.identifier();
+		this.routes = routes;
+		this.metrics = metrics;
+		this.max = Math.max(listener.concurrency(), 1);
+		this.min = Math.min(Math.max(listener.minConcurrency(), 1), max);
+		this.tolerance = tolerance;
+		this.backoff = backoff;
+	}
+	/**
+	 * Start the min number of worker loops.
+	 * @param task the task to copy the loops from
+	 * @param executor
+	 */
+	void start(QueueContainerTaskImpl<?> task, Executor executor)
+	{
+		this.task = task;
+		this.executor = executor;
+		task.setExecutor(executor);
+		limit = min;
+		metrics.onConcurrency(min);
+		launch(min);
+	}
+	/**
+	 * Start adapting the concurrency, for a listener dispatched by the {@linkplain FairScheduler}.
+	 */
+	void startScheduled()
+	{
+		limit = min;
+		metrics.onConcurrency(min);
+	}
+	/**
+	 * If the concurrency is adapted between bounds.
+	 * @return
+	 */
+	boolean isAdaptive()
+	{
+		return min < max;
+	}
+	int getMin() {
+		return min;
+	}
+	int getMax() {
+		return max;
+	}
+	/**
+	 * The current number of loops to run.
+	 * @return
+	 */
+	int getLimit() {
+		return limit;
+	}
+	/**
+	 * Change the bounds of the concurrency. A fixed concurrency is set by equal bounds. Loops are started or retired
+	 * to bring the current concurrency within the bounds.
+	 * @param min
+	 * @param max
+	 */
+	synchronized void setBounds(int min, int max)
+	{
+		this.max = Math.max(max, 1);
+		this.min = Math.min(Math.max(min, 1), this.max);
+		update(Math.max(this.min, Math.min(this.max, limit)));
+	}
+	/**
+	 * Stop or restart fetching. Messages in process are not affected.
+	 * @param paused
+	 */
+	void setPaused(boolean paused) {
+		this.paused = paused;
+	}
+	boolean isPaused() {
+		return paused;
+	}
+	private void update(int next)
+	{
+		limit = next;
+		metrics.onConcurrency(next);
+		//scheduled, if there is no task
+		int missing = next - loops.get();
+		if(task != null && missing > 0)
+			launch(missing);
+	}
+	private void launch(int count)
+	{
+		for (int i = 0; i < count; i++) {
+			loops.incrementAndGet();
+			executor.execute(task.newLoop());
+		}
+	}
+	/**
+	 * Record the onMessage latency of a message.
+	 * @param nanos
+	 */
+	void onProcessed(long nanos)
+	{
+		processedNanos.add(nanos);
+		processed.increment();
+	}
+	/**
+	 * To be checked by a worker loop on each iteration. A loop in excess of the current limit is retired.
+	 * @return false if the calling loop should exit
+	 */
+	boolean keepLoop()
+	{
+		while(true)
+		{
+			int n = loops.get();
+			if(n <= limit)
+				return true;
+			if(loops.compareAndSet(n, n - 1))
+				return false;
+		}
+	}
+	/**
+	 * The next limit, given the observations of the last period.
+	 * @param depth
+	 * @param growth
+	 * @param count
+	 * @param nanos
+	 * @return
+	 */
+	private int nextLimit(long depth, long growth, long count, long nanos)
+	{
+		if(count > 0)
+		{
+			double latency = (double) nanos / count;
+			baselineNanos = baselineNanos == 0 ? latency : Math.min(latency, baselineNanos * BASELINE_DRIFT);
+			if(latency > baselineNanos * tolerance)
+				return (int) (limit * backoff);
+		}
+		if(depth > 0 && (growth > 0 || depth > limit))
+			return limit + 1;
+		if(depth == 0)
+			return limit - 1;
+		return limit;
+	}
+	@Override
+	public synchronized void run() {
+		if(!isAdaptive() || paused)
+			return;
+		try
+		{
+			long depth = routes.depth();
+			long growth = depth - lastDepth;
+			lastDepth = depth;
+			int next = Math.max(min, Math.min(max, nextLimit(depth, growth, processed.sumThenReset(), processedNanos.sumThenReset())));
+			if(next == limit)
+				return;
+			if(log.isDebugEnabled())
+				log.debug("["+identifier+"] Concurrency "+limit+" -> "+next+", queue depth "+depth+" ("+(growth >= 0 ? "+" : "")+growth+")");
+			update(next);
+		}
+		catch (Exception e) {
+			log.warn("["+identifier+"] Concurrency update failed. Error => "+e.getMessage());
+			log.debug("", e);
+		}
+	}
+}
@@ -0,0 +1,195 @@
+/**
+ * Copyright 2017 esutdal
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+package com.reactivetechnologies.blaze.core;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ForkJoinPool;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.reactivetechnologies.blaze.metrics.ListenerMetrics;
+import com.reactivetechnologies.blaze.struct.QRecord;
+import com.reactivetechnologies.mq.ops.ConsumerOperations;
+/**
+ * Detects the redelivery of a message already processed, so that it can be committed without invoking the listener
+ * again. A message is redelivered after it was processed, if the commit was lost to a crash or a connection failure
+ * (recovery of the INPROC queue), or if it was expired by the visibility timeout while the listener completed it.
+ * <p>
+ * The ids of the processed messages are kept in a bounded local cache, evicting the least recently processed. With
+ * Redis enabled, each id is marked in Redis as well for a time, so that a redelivery to another instance is detected.
+ * The Redis lookup is made only on a local miss, but it is still a round trip per message, plus one for the mark.
+ * A negative from a local filter cannot tell whether another instance processed the message, so it is not used to
+ * skip the Redis lookup.
+ * <p>
+ * The id is marked after the listener returns, and before the commit. A crash in between is thus covered, but a
+ * crash during processing is not, and the message is processed again as before.
+ * @author esutdal
+ *
+ */
+class DedupeFilter {
+
+	private static final Logger log = LoggerFactory.getLogger(DedupeFilter.class);
+	private static final int STRIPES = 16;
+
+	/**
+	 * A stripe of the local cache, evicting the least recently processed.
+	 */
+	private static final class Stripe extends LinkedHashMap<UUID, Boolean>
+	{
+		private static final long serialVersionUID = 1L;
+		private final int capacity;
+		private Stripe(int capacity) {
+			super(16, 0.75f, true);
+			this.capacity = capacity;
+		}
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<UUID, Boolean> eldest) {
+			return size() > capacity;
+		}
+	}
+	/**
+	 * Runs a Redis call as a blocking operation managed by the pool, as the commit is.
+	 */
+	private abstract static class RedisCall implements ForkJoinPool.ManagedBlocker
+	{
+		private boolean done;
+		boolean result;
+		abstract boolean call();
+		@Override
+		public boolean block() throws InterruptedException {
+			result = call();
+			done = true;
+			return true;
+		}
+		@Override
+		public boolean isReleasable() {
+			return done;
+		}
+		boolean run()
+		{
+			try {
+				ForkJoinPool.managedBlock(this);
+			} catch (InterruptedException e) {
+				//the call does not throw it
+				Thread.currentThread().interrupt();
+			}
+			return result;
+		}
+	}
+
+	private final ConsumerOperations redisOps;
+	private final Stripe[] stripes = new Stripe[STRIPES];
+	private final boolean redisEnabled;
+	private final long ttlMillis;
+	/**
+	 *
+	 * @param redisOps
+	 * @param localSize max ids held locally
+	 * @param redisEnabled mark the ids in Redis as well
+	 * @param ttlMillis time the Redis marks are kept for
+	 */
+	DedupeFilter(ConsumerOperations redisOps, int localSize, boolean redisEnabled, long ttlMillis) {
+		this.redisOps = redisOps;
+		this.redisEnabled = redisEnabled;
+		this.ttlMillis = ttlMillis;
+		int perStripe = Math.max(localSize / STRIPES, 1);
+		for (int i = 0; i < STRIPES; i++) {
+			stripes[i] = new Stripe(perStripe);
+		}
+	}
+	private Stripe stripeOf(UUID id)
+	{
+		int h = id.hashCode();
+		return stripes[(h ^ (h >>> 16)) & (STRIPES - 1)];
+	}
+	private boolean isLocal(UUID id)
+	{
+		Stripe stripe = stripeOf(id);
+		synchronized (stripe) {
+			return stripe.get(id) != null;
+		}
+	}
+	/**
+	 * If the message has been processed already. The lookup is counted on the metrics of the listener.
+	 * @param qr
+	 * @param metrics
+	 * @return
+	 */
+	boolean isDuplicate(final QRecord qr, ListenerMetrics metrics)
+	{
+		if(isLocal(qr.getKey().getTimeuid()))
+		{
+			metrics.onDuplicate(false);
+			return true;
+		}
+		if(redisEnabled)
+		{
+			try
+			{
+				boolean found = new RedisCall() {
+					@Override
+					boolean call() {
+						return redisOps.isProcessed(qr);
+					}
+				}.run();
+				if(found)
+				{
+					metrics.onDuplicate(true);
+					return true;
+				}
+			}
+			catch (Exception e) {
+				//processed again, rather than lost
+				log.warn("Dedupe lookup failed for message "+qr.getKey().getTimeuid()+". Error => "+e.getMessage());
+				log.debug("", e);
+			}
+		}
+		metrics.onUnique();
+		return false;
+	}
+	/**
+	 * Record the message as processed. To be invoked before it is committed.
+	 * @param qr
+	 */
+	void onProcessed(final QRecord qr)
+	{
+		UUID id = qr.getKey().getTimeuid();
+		Stripe stripe = stripeOf(id);
+		synchronized (stripe) {
+			stripe.put(id, Boolean.TRUE);
+		}
+		if(redisEnabled)
+		{
+			try
+			{
+				new RedisCall() {
+					@Override
+					boolean call() {
+						redisOps.markProcessed(qr, ttlMillis);
+						return true;
+					}
+				}.run();
+			}
+			catch (Exception e) {
+				log.warn("Dedupe mark failed for message "+id+". Error => "+e.getMessage());
+				log.debug("", e);
+			}
+		}
+	}
+}
@@ -21,7 +21,7 @@ import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
 
 import com.reactivetechnologies.blaze.handlers.ConsumerRecoveryHandler;
-import com.reactivetechnologies.blaze.ops.ConsumerDataAccessor;
+import com.reactivetechnologies.mq.ops.ConsumerOperations;
 
 /**
  * 
@@ -41,7 +41,7 @@ public class DefaultConsumerRecoveryHandler implements ConsumerRecoveryHandler {
 	private RedisDataAccessor redisOps;*/
 	
 	@Autowired
-	private ConsumerDataAccessor redisOps;
+	private ConsumerOperations redisOps;
 	
 	private static final Logger log = LoggerFactory.getLogger(DefaultConsumerRecoveryHandler.class);
 	
@@ -0,0 +1,305 @@
+/**
+ * Copyright 2017 esutdal
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+package com.reactivetechnologies.blaze.core;
+
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.reactivetechnologies.blaze.struct.QRecord;
+import com.reactivetechnologies.mq.consume.AbstractQueueListener;
+/**
+ * Multiplexes many listeners onto a fixed set of worker loops, by deficit round robin over the prefetch buffers of
+ * the listeners. A listener is served up to its {@linkplain AbstractQueueListener#weight() weight} of messages on
+ * each turn, so the share of the workers of each busy listener is proportional to its weight, while an idle
+ * listener does not hold any worker.
+ * <ul>
+ * <li>A listener with messages, and less than its {@linkplain AbstractQueueListener#minShare() min share} of
+ * messages in process, is served first. This is a guarantee only as long as the min shares add up to at most the
+ * number of workers.</li>
+ * <li>A listener is not served beyond the concurrency limit of its controller, which caps its messages in process.</li>
+ * <li>A paused listener is skipped, and so is a listener throttled by its {@linkplain BlazeQueueIterator iterator}.</li>
+ * </ul>
+ * Each worker dispatches through its own copy of the task of a listener, so the visibility tracking of a message
+ * in process is per worker, as with the dedicated worker loops.
+ * @author esutdal
+ *
+ */
+class FairScheduler {
+
+	private static final Logger log = LoggerFactory.getLogger(FairScheduler.class);
+	/**
+	 * Wait of an idle worker, before checking the listeners again. Workers are signalled on new messages, so this
+	 * only bounds the delay after a change in the concurrency limits.
+	 */
+	private static final long IDLE_WAIT_NANOS = TimeUnit.MILLISECONDS.toNanos(100);
+
+	/**
+	 * A listener being scheduled.
+	 */
+	private static final class Slot
+	{
+		private final QueueContainerTaskImpl<?> task;
+		private final BlazeQueueIterator iterator;
+		private final QueuePrefetcher prefetcher;
+		private final ConcurrencyController controller;
+		private final int weight;
+		private final int minShare;
+		/**
+		 * Messages in process.
+		 */
+		private int running;
+		/**
+		 * Messages left to serve in the current turn.
+		 */
+		private int remaining;
+		private Slot(QueueContainerTaskImpl<?> task, BlazeQueueIterator iterator, ConcurrencyController controller,
+				int weight, int minShare) {
+			this.task = task;
+			this.iterator = iterator;
+			this.prefetcher = iterator.getPrefetcher();
+			this.controller = controller;
+			this.weight = Math.max(weight, 1);
+			this.minShare = Math.max(minShare, 0);
+			this.remaining = this.weight;
+		}
+	}
+	/**
+	 * A worker loop. The wait for the next message is run as a blocking operation managed by the pool.
+	 */
+	private final class Worker implements Runnable, ForkJoinPool.ManagedBlocker
+	{
+		private final Map<Slot, QueueContainerTaskImpl<?>> tasks = new IdentityHashMap<>();
+		private Slot slot;
+		private QRecord record;
+		private boolean done;
+
+		private QueueContainerTaskImpl<?> taskOf(Slot s)
+		{
+			QueueContainerTaskImpl<?> task = tasks.get(s);
+			if(task == null)
+			{
+				task = s.task.copy();
+				tasks.put(s, task);
+			}
+			return task;
+		}
+		@Override
+		public boolean block() throws InterruptedException {
+			lock.lock();
+			try {
+				if(!pick(this))
+					ready.awaitNanos(IDLE_WAIT_NANOS);
+			} finally {
+				lock.unlock();
+			}
+			done = true;
+			return true;
+		}
+		@Override
+		public boolean isReleasable() {
+			return done;
+		}
+		@Override
+		public void run() {
+			while(container.isRunning())
+			{
+				slot = null;
+				record = null;
+				done = false;
+				try {
+					ForkJoinPool.managedBlock(this);
+				} catch (InterruptedException e) {
+					//cleared, as the worker may be interrupted by the visibility reaper
+					continue;
+				}
+				if(record == null)
+					continue;
+				boolean keep = true;
+				try {
+					keep = taskOf(slot).dispatch(record);
+				}
+				finally {
+					release(slot);
+				}
+				//an abandoned worker has already been replaced
+				if(!keep)
+					break;
+			}
+		}
+	}
+
+	private final QueueContainerImpl container;
+	private final Executor executor;
+	private final List<Slot> slots = new ArrayList<>();
+	private int cursor;
+	private int reserveCursor;
+	private final ReentrantLock lock = new ReentrantLock();
+	private final Condition ready = lock.newCondition();
+	private int workers;
+	/**
+	 *
+	 * @param container
+	 * @param executor to run the worker loops
+	 */
+	FairScheduler(QueueContainerImpl container, Executor executor) {
+		this.container = container;
+		this.executor = executor;
+	}
+	Executor getExecutor() {
+		return executor;
+	}
+	/**
+	 * Start the worker loops.
+	 * @param count
+	 */
+	void start(int count)
+	{
+		workers = Math.max(count, 1);
+		for (int i = 0; i < workers; i++) {
+			executor.execute(newWorker());
+		}
+	}
+	/**
+	 * A new worker loop, to replace one abandoned on a hung message.
+	 * @return
+	 */
+	Runnable newWorker()
+	{
+		return new Worker();
+	}
+	/**
+	 * Schedule a listener. Its task, with the controller and executor set, is the template for the task copies of the
+	 * workers. The messages are taken off the prefetcher of the iterator, as allowed by its throttler. The prefetcher
+	 * should be {@linkplain QueuePrefetcher#setOnReady(Runnable) signalling} this scheduler.
+	 * @param task
+	 * @param iterator
+	 * @param controller
+	 * @param weight
+	 * @param minShare
+	 */
+	void add(QueueContainerTaskImpl<?> task, BlazeQueueIterator iterator, ConcurrencyController controller, int weight, int minShare)
+	{
+		Slot slot = new Slot(task, iterator, controller, weight, minShare);
+		lock.lock();
+		try {
+			slots.add(slot);
+			int reserved = 0;
+			for(Slot s : slots)
+			{
+				reserved += s.minShare;
+			}
+			if(reserved > workers)
+				log.warn("Min shares add up to "+reserved+", more than the "+workers+" workers. Min shares are not guaranteed");
+		} finally {
+			lock.unlock();
+		}
+	}
+	/**
+	 * Wake up the idle workers, on messages being available.
+	 */
+	void signal()
+	{
+		lock.lock();
+		try {
+			ready.signalAll();
+		} finally {
+			lock.unlock();
+		}
+	}
+	private void release(Slot slot)
+	{
+		lock.lock();
+		try {
+			slot.running--;
+			ready.signal();
+		} finally {
+			lock.unlock();
+		}
+	}
+	/**
+	 * Take the next message of a listener for the worker, if the listener can be served.
+	 * @param s
+	 * @param w
+	 * @return
+	 */
+	private boolean take(Slot s, Worker w)
+	{
+		if(s.controller.isPaused() || s.running >= s.controller.getLimit())
+			return false;
+		if(!s.iterator.hasNext())
+		{
+			s.task.fireOnThrottled();
+			return false;
+		}
+		QRecord qr;
+		try {
+			qr = s.prefetcher.poll(0, TimeUnit.MILLISECONDS);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			return false;
+		}
+		if(qr == null)
+			return false;
+		s.iterator.countConsumed();
+		s.running++;
+		w.slot = s;
+		w.record = qr;
+		return true;
+	}
+	/**
+	 * Pick the next message to dispatch, to be invoked holding the lock.
+	 * @param w
+	 * @return true if a message was assigned to the worker
+	 */
+	private boolean pick(Worker w)
+	{
+		int n = slots.size();
+		if(n == 0)
+			return false;
+		//guaranteed shares first
+		for (int i = 0; i < n; i++) {
+			int j = (reserveCursor + i) % n;
+			Slot s = slots.get(j);
+			if(s.running < s.minShare && take(s, w))
+			{
+				reserveCursor = (j + 1) % n;
+				return true;
+			}
+		}
+		//deficit round robin. a listener that cannot be served forfeits the rest of its turn
+		for (int i = 0; i <= n; i++) {
+			Slot s = slots.get(cursor % n);
+			if(s.remaining > 0 && take(s, w))
+			{
+				s.remaining--;
+				return true;
+			}
+			cursor = (cursor + 1) % n;
+			slots.get(cursor).remaining = slots.get(cursor).weight;
+		}
+		return false;
+	}
+}
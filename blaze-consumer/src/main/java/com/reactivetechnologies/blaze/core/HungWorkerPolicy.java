@@ -0,0 +1,37 @@
+/**
+ * Copyright 2017 esutdal
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+package com.reactivetechnologies.blaze.core;
+/**
+ * What the container should do with a worker still processing a message whose visibility timeout
+ * has expired. In any case, the late outcome of such a worker is ignored, since the message has already
+ * been redelivered or dead lettered.
+ * @author esutdal
+ *
+ */
+public enum HungWorkerPolicy {
+	/**
+	 * Let the worker complete.
+	 */
+	NONE,
+	/**
+	 * Interrupt the worker thread.
+	 */
+	INTERRUPT,
+	/**
+	 * Leave the worker as is, and schedule a replacement worker so that the consumer concurrency is maintained.
+	 */
+	ABANDON
+}
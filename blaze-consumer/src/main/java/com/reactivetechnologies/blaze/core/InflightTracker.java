@@ -0,0 +1,81 @@
+/**
+ * Copyright 2017 esutdal
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+package com.reactivetechnologies.blaze.core;
+
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executor;
+
+import com.reactivetechnologies.blaze.struct.QRecord;
+/**
+ * Keeps track of the messages being processed by the workers of a consumer, so that a worker
+ * can be acted upon when its message is expired by visibility timeout.
+ * @author esutdal
+ *
+ */
+class InflightTracker {
+
+	static final class Inflight
+	{
+		final Thread worker;
+		final QueueContainerTaskImpl<?> task;
+		final Executor executor;
+		/**
+		 * The message has been expired from process. Its outcome should be ignored.
+		 */
+		volatile boolean reaped;
+		/**
+		 * A replacement worker loop has been scheduled. The task should exit its loop.
+		 */
+		volatile boolean abandoned;
+		private Inflight(QueueContainerTaskImpl<?> task) {
+			this.worker = Thread.currentThread();
+			this.task = task;
+			this.executor = task.executor();
+		}
+	}
+	private final ConcurrentMap<UUID, Inflight> inflights = new ConcurrentHashMap<>();
+	/**
+	 * Mark the message being processed by the given task, in the current thread.
+	 * @param qr
+	 * @param task
+	 * @return
+	 */
+	Inflight begin(QRecord qr, QueueContainerTaskImpl<?> task)
+	{
+		Inflight in = new Inflight(task);
+		inflights.put(qr.getKey().getTimeuid(), in);
+		return in;
+	}
+	/**
+	 * Mark the message processing complete.
+	 * @param qr
+	 */
+	void end(QRecord qr)
+	{
+		inflights.remove(qr.getKey().getTimeuid());
+	}
+	/**
+	 * Get the worker processing the given message, or null.
+	 * @param qr
+	 * @return
+	 */
+	Inflight get(QRecord qr)
+	{
+		return inflights.get(qr.getKey().getTimeuid());
+	}
+}
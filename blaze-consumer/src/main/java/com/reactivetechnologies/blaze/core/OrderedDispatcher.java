@@ -0,0 +1,202 @@
+/**
+ * Copyright 2017 esutdal
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+package com.reactivetechnologies.blaze.core;
+
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.LockSupport;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.reactivetechnologies.blaze.struct.QRecord;
+import com.reactivetechnologies.mq.consume.AbstractQueueListener;
+/**
+ * Dispatches the messages of a listener {@linkplain AbstractQueueListener#orderedByKey() ordered by key} to a fixed
+ * set of lanes, by the hash of the group key. A lane processes its messages serially, in the order dispatched, on the
+ * executor of the listener. So the messages of a key are processed in order, and the keys of different lanes in parallel.
+ * Messages without a key are spread over the lanes.
+ * <p>
+ * The messages are fetched and dispatched by a single thread, through the iterator of the listener (and its prefetcher
+ * with a single fetcher, if prefetching), so the dispatch order is the queue order. A lane is a lock-free queue, drained
+ * by at most one worker at a time. A failed message to be redelivered is retried in place after the rollback backoff,
+ * and the lane is not drained meanwhile.
+ * <p>
+ * The messages dispatched but not yet processed are bounded, and the dispatch waits for room beyond that. Hence a slow
+ * key can hold back the other keys, once the bound is reached.
+ * @author esutdal
+ *
+ */
+class OrderedDispatcher implements Runnable {
+
+	private static final Logger log = LoggerFactory.getLogger(OrderedDispatcher.class);
+	/**
+	 * Wait between checks while the listener is paused.
+	 */
+	private static final long PAUSE_PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(100);
+	/**
+	 * Back off on being throttled, rather than spin on the throttler.
+	 */
+	private static final long THROTTLE_PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(1);
+	/**
+	 * Messages a lane processes before yielding its worker to the other lanes.
+	 */
+	private static final int LANE_BATCH = 64;
+
+	private final class Lane implements Runnable
+	{
+		private final ConcurrentLinkedQueue<QRecord> queue = new ConcurrentLinkedQueue<>();
+		private final AtomicBoolean scheduled = new AtomicBoolean();
+		private final QueueContainerTaskImpl<?> task;
+		private final Runnable retry = new Runnable() {
+			
+			@Override
+			public void run() {
+				executor.execute(Lane.this);
+			}
+		};
+		private Lane(QueueContainerTaskImpl<?> task) {
+			this.task = task;
+		}
+		private void offer(QRecord qr)
+		{
+			queue.offer(qr);
+			schedule();
+		}
+		private void schedule()
+		{
+			if(scheduled.compareAndSet(false, true))
+				executor.execute(this);
+		}
+		@Override
+		public void run() {
+			for (int i = 0; i < LANE_BATCH; i++) {
+				QRecord qr = queue.peek();
+				if(qr == null)
+					break;
+				long delay = task.dispatchInPlace(qr);
+				if(delay >= 0)
+				{
+					//stays scheduled till retried
+					if(delay > 0)
+						container.scheduleTaskAfter(retry, delay, TimeUnit.MILLISECONDS);
+					else
+						executor.execute(this);
+					return;
+				}
+				queue.poll();
+				room.release();
+			}
+			scheduled.set(false);
+			//an offer that found the lane still scheduled
+			if(!queue.isEmpty())
+				schedule();
+		}
+	}
+
+	private final QueueContainerImpl container;
+	private final BlazeQueueIterator iterator;
+	private final ConcurrencyController controller;
+	private final Executor executor;
+	private final Semaphore room;
+	private final Lane[] lanes;
+	/**
+	 *
+	 * @param task the task to copy the lanes from
+	 * @param iterator
+	 * @param controller
+	 * @param container
+	 * @param executor
+	 * @param lanes number of lanes
+	 * @param maxPending max messages dispatched and not yet processed
+	 */
+	OrderedDispatcher(QueueContainerTaskImpl<?> task, BlazeQueueIterator iterator, ConcurrencyController controller,
+			QueueContainerImpl container, Executor executor, int lanes, int maxPending) {
+		this.container = container;
+		this.iterator = iterator;
+		this.controller = controller;
+		this.executor = executor;
+		this.room = new Semaphore(Math.max(maxPending, 1));
+		this.lanes = new Lane[Math.max(lanes, 1)];
+		task.setOrdered(true);
+		for (int i = 0; i < this.lanes.length; i++) {
+			this.lanes[i] = new Lane(task.copy());
+		}
+	}
+	/**
+	 * Start the dispatching thread.
+	 * @param name thread name prefix
+	 */
+	void start(String name)
+	{
+		Thread t = new Thread(this, name + ".Dispatcher");
+		t.setDaemon(true);
+		t.start();
+	}
+	private int laneOf(QRecord qr)
+	{
+		String key = qr.getGroupKey();
+		int h = key != null ? key.hashCode() : qr.getKey().getTimeuid().hashCode();
+		h ^= (h >>> 16);
+		return (h & Integer.MAX_VALUE) % lanes.length;
+	}
+	/**
+	 * Fetch the next message, if not throttled.
+	 * @return message, or null
+	 */
+	private QRecord fetch()
+	{
+		if(!iterator.hasNext())
+		{
+			LockSupport.parkNanos(THROTTLE_PARK_NANOS);
+			return null;
+		}
+		return iterator.next();
+	}
+	@Override
+	public void run() {
+		while(container.isRunning())
+		{
+			if(controller.isPaused())
+			{
+				LockSupport.parkNanos(PAUSE_PARK_NANOS);
+				continue;
+			}
+			QRecord qr = null;
+			try
+			{
+				if(!room.tryAcquire(iterator.getPollIntervalMillis(), TimeUnit.MILLISECONDS))
+					continue;
+				qr = fetch();
+			}
+			catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				break;
+			}
+			catch (Exception e) {
+				log.error("Ordered dispatch failed. Error => "+e.getMessage());
+				log.debug("", e);
+			}
+			if(qr != null)
+				lanes[laneOf(qr)].offer(qr);
+			else
+				room.release();
+		}
+	}
+}
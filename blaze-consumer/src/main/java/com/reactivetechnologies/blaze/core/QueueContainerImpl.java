@@ -3,7 +3,12 @@ package com.reactivetechnologies.blaze.core;
 import java.lang.Thread.UncaughtExceptionHandler;
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.IdentityHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executor;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ForkJoinPool;
@@ -27,14 +32,21 @@ import org.springframework.util.Assert;
 
 import com.reactivetechnologies.blaze.handlers.ConsumerRecoveryHandler;
 import com.reactivetechnologies.blaze.handlers.DeadLetterHandler;
-import com.reactivetechnologies.blaze.ops.ConsumerDataAccessor;
+import com.reactivetechnologies.blaze.jfr.BlazeEvents;
+import com.reactivetechnologies.blaze.metrics.ContainerMetrics;
+import com.reactivetechnologies.blaze.metrics.ListenerMetrics;
+import com.reactivetechnologies.blaze.ops.QueueWakeup;
+import com.reactivetechnologies.blaze.ops.RedisLatencyRecorder;
+import com.reactivetechnologies.blaze.ops.RedisLatencyRecorder.ListenerLatency;
 import com.reactivetechnologies.blaze.struct.QRecord;
 import com.reactivetechnologies.blaze.throttle.ConsumerThrottlerFactoryBean;
 import com.reactivetechnologies.mq.Data;
 import com.reactivetechnologies.mq.consume.AbstractQueueListener;
 import com.reactivetechnologies.mq.consume.QueueListener;
+import com.reactivetechnologies.mq.container.ListenerStatus;
 import com.reactivetechnologies.mq.container.QueueContainer;
 import com.reactivetechnologies.mq.exceptions.BlazeInternalException;
+import com.reactivetechnologies.mq.ops.ConsumerOperations;
 /**
  * The core container that manages listener task execution. This class
  * is responsible for scheduling the worker threads amongst the listeners and
@@ -46,18 +58,95 @@ import com.reactivetechnologies.mq.exceptions.BlazeInternalException;
 public class QueueContainerImpl implements Runnable, QueueContainer{
 
 	private static final Logger log = LoggerFactory.getLogger(QueueContainerImpl.class);
+	private static final long DRAIN_CHECK_MILLIS = 10;
+	/**
+	 * The runtime controls of a registered listener.
+	 */
+	private static final class ListenerControl
+	{
+		private final AbstractQueueListener<? extends Data> listener;
+		private final ConcurrencyController controller;
+		private final BlazeQueueIterator iterator;
+		private final ListenerMetrics metrics;
+		private ListenerControl(AbstractQueueListener<? extends Data> listener, ConcurrencyController controller,
+				BlazeQueueIterator iterator, ListenerMetrics metrics) {
+			this.listener = listener;
+			this.controller = controller;
+			this.iterator = iterator;
+			this.metrics = metrics;
+		}
+	}
 	private ExecutorService asyncTasks;
 	private ScheduledExecutorService scheduledTasks;
 	@Autowired
-	private ConsumerDataAccessor redisOps;
+	private ConsumerOperations redisOps;
 	
 	private ExecutorService threadPool;
 	@Value("${consumer.worker.thread:0}")
 	private int fjWorkers;
+	@Value("${consumer.worker.virtual:false}")
+	private boolean virtualWorkers;
+	@Value("${consumer.prefetch.enable:false}")
+	private boolean prefetch;
+	@Value("${consumer.prefetch.count:256}")
+	private int prefetchCount;
+	@Value("${consumer.prefetch.bytes:8388608}")
+	private long prefetchBytes;
+	@Value("${consumer.prefetch.batch:64}")
+	private int prefetchBatch;
+	@Value("${consumer.prefetch.fetchers:1}")
+	private int prefetchFetchers;
+	@Value("${consumer.adaptive.period.millis:1000}")
+	private long adaptivePeriod;
+	@Value("${consumer.adaptive.latency.tolerance:2.0}")
+	private double adaptiveTolerance;
+	@Value("${consumer.adaptive.backoff:0.75}")
+	private double adaptiveBackoff;
+	@Value("${consumer.idle.park.enable:false}")
+	private boolean idleParking;
+	@Value("${consumer.idle.park.max.millis:30000}")
+	private long idleParkMillis;
+	@Value("${consumer.routes.resolve.millis:5000}")
+	private long routesResolveMillis;
+	@Value("${consumer.ordered.max.pending:1024}")
+	private int orderedMaxPending;
+	@Value("${consumer.dedupe.enable:false}")
+	private boolean dedupeEnabled;
+	@Value("${consumer.dedupe.local.size:100000}")
+	private int dedupeLocalSize;
+	@Value("${consumer.dedupe.redis.enable:false}")
+	private boolean dedupeRedis;
+	@Value("${consumer.dedupe.ttl.millis:3600000}")
+	private long dedupeTtlMillis;
+	/**
+	 * Suppresses the redelivery of processed messages, if enabled.
+	 */
+	private DedupeFilter dedupeFilter;
+	@Autowired
+	private QueueWakeup wakeup;
+	@Value("${consumer.scheduler.fair.enable:false}")
+	private boolean fairScheduling;
+	@Value("${consumer.scheduler.fair.workers:0}")
+	private int fairWorkers;
+	/**
+	 * Dispatches the listeners on the shared pool, if fair scheduling is enabled.
+	 */
+	private FairScheduler fairScheduler;
+	private final List<QueuePrefetcher> prefetchers = Collections.synchronizedList(new ArrayList<>());
+	/**
+	 * Runs each worker loop on a virtual thread, if enabled and supported.
+	 */
+	private ExecutorService virtualThreadPool;
 	@Value("${consumer.redelivery.delay.millis:1000}")
 	private long backoffRollbackDelay;
 	@Value("${consumer.redelivery.delay.backoffExp:0}")
 	private int backoffRollbackExponent;
+	@Value("${consumer.visibility.timeout.millis:0}")
+	private long visibilityTimeout;
+	@Value("${consumer.visibility.reaper.millis:1000}")
+	private long reaperPeriod;
+	@Value("${consumer.visibility.onTimeout:NONE}")
+	private HungWorkerPolicy hungWorkerPolicy;
 	private List<ExecutorService> threadPools;
 	private static ForkJoinPool newFJPool(int coreThreads, String name)
 	{
@@ -82,6 +171,15 @@ public class QueueContainerImpl implements Runnable, QueueContainer{
 		      }
 		    }, true);
 	}
+	/**
+	 * The delay to redeliver a message after, as per the rollback backoff.
+	 * @param qr
+	 * @return delay in millis, 0 if not backing off
+	 */
+	final long rollbackDelayOf(QRecord qr)
+	{
+		return backoffRollbackDelay > 0 ? backoffRollbackDelay + (qr.getRedeliveryCount() * backoffRollbackExponent) : 0;
+	}
 	/**
 	 * Perform a backing off rollback (exponentially if required), so that the message
 	 * gets (re)delivered only after a delay. This is done in message oriented middle-wares 
@@ -91,14 +189,20 @@ public class QueueContainerImpl implements Runnable, QueueContainer{
 	final void scheduleRollback(QRecord qr)
 	{
 		if(backoffRollbackDelay > 0){
-			long delay = backoffRollbackDelay + (qr.getRedeliveryCount() * backoffRollbackExponent);
+			long delay = rollbackDelayOf(qr);
 			log.info("Backing off redlivery by "+delay+" millis");
+			BlazeEvents.rollbackScheduled(redisOps.prepareListKey(qr.getKey().getExchange(), qr.getKey().getRoutingKey()), qr, delay);
 			
+			containerMetrics.rollbackScheduled();
 			scheduleTaskAfter(new Runnable() {
 				
 				@Override
 				public void run() {
-					rollback(qr);
+					try {
+						rollback(qr);
+					} finally {
+						containerMetrics.rollbackExecuted();
+					}
 				}
 			}, delay, TimeUnit.MILLISECONDS);
 		}
@@ -124,6 +228,7 @@ public class QueueContainerImpl implements Runnable, QueueContainer{
 		
 		threadPool = newFJPool(coreThreads, "BlazeSharedPool");
 		threadPools.add(threadPool);
+		containerMetrics.bindPool((ForkJoinPool) threadPool, "BlazeSharedPool");
 		
 		asyncTasks = Executors.newCachedThreadPool(new ThreadFactory() {
 			int n=1;
@@ -146,7 +251,38 @@ public class QueueContainerImpl implements Runnable, QueueContainer{
 		});
 		threadPools.add(scheduledTasks);
 		
+		if(virtualWorkers)
+		{
+			virtualThreadPool = VirtualThreads.newThreadPerTaskExecutor("BlazeVirtualWorker.");
+			if(virtualThreadPool != null)
+			{
+				threadPools.add(virtualThreadPool);
+				log.info("Worker loops will run on virtual threads");
+			}
+			else
+				log.warn("Virtual threads are not supported in this runtime (JDK 21+ needed). Worker loops will run on fork-join pools");
+		}
+		if(dedupeEnabled)
+		{
+			dedupeFilter = new DedupeFilter(redisOps, dedupeLocalSize, dedupeRedis, dedupeTtlMillis);
+			log.info("Redelivered messages will be deduplicated, over the last "+dedupeLocalSize+" processed locally"
+					+ (dedupeRedis ? ", and the last "+dedupeTtlMillis+" ms in Redis" : ""));
+		}
+		if(fairScheduling)
+		{
+			fairScheduler = new FairScheduler(this, virtualThreadPool != null ? virtualThreadPool : threadPool);
+			//started after the container is running, below
+		}
+		
 		running = true;
+		if(fairScheduler != null)
+		{
+			int workers = fairWorkers > 0 ? fairWorkers : coreThreads;
+			fairScheduler.start(workers);
+			log.info("Listeners on the shared pool will be fair scheduled on "+workers+" workers");
+		}
+		if(idleParking)
+			log.info("Listeners will park on an empty queue for up to "+idleParkMillis+" millis, till woken");
 		log.info("Container initialized with parallelism "+((ForkJoinPool) threadPool).getParallelism() + ", coreThreads "+coreThreads);
 		
 		run();
@@ -167,6 +303,11 @@ public class QueueContainerImpl implements Runnable, QueueContainer{
 	public void destroy()
 	{
 		running = false;
+		wakeup.wakeAll();
+		for(QueuePrefetcher prefetcher : prefetchers)
+		{
+			prefetcher.stop();
+		}
 		shutdownPools();
 		for(AbstractQueueListener<? extends Data> l : listeners)
 		{
@@ -177,8 +318,21 @@ public class QueueContainerImpl implements Runnable, QueueContainer{
 		log.info("Container stopped..");
 	}
 	private final List<AbstractQueueListener<? extends Data>> listeners = Collections.synchronizedList(new ArrayList<>());
+	private final Map<AbstractQueueListener<? extends Data>, ListenerMetrics> listenerMetrics = Collections.synchronizedMap(new IdentityHashMap<>());
+	private final Map<AbstractQueueListener<? extends Data>, String> labels = new IdentityHashMap<>();
+	private final ConcurrentMap<String, ListenerControl> controls = new ConcurrentHashMap<>();
+	@Autowired
+	private ContainerMetrics containerMetrics;
 		
 	private volatile boolean running;
+	/**
+	 * If the container is started and not yet stopped. The worker loops run till then.
+	 * @return
+	 */
+	boolean isRunning()
+	{
+		return running;
+	}
 	/* (non-Javadoc)
 	 * @see com.reactivetech.messaging.cmq.core.IQueueListenerContainer#register(com.reactivetech.messaging.cmq.core.AbstractQueueListener)
 	 */
@@ -187,6 +341,8 @@ public class QueueContainerImpl implements Runnable, QueueContainer{
 	{
 		Assert.isInstanceOf(AbstractQueueListener.class, listener);
 		AbstractQueueListener<T> aListener = (AbstractQueueListener<T>) listener;
+		//resolve the data type once, failing the registration if it cannot be instantiated
+		aListener.codec();
 		register0(aListener);
 				
 		log.info("* Added listener "+listener);
@@ -194,12 +350,59 @@ public class QueueContainerImpl implements Runnable, QueueContainer{
 	private <T extends Data> void register0(AbstractQueueListener<T> aListener)
 	{
 		listeners.add(aListener);
-		run(aListener);
 		recordToStats(aListener, true);
+		run(aListener);
 	}
 	private <T extends Data> void recordToStats(AbstractQueueListener<T> aListener, boolean isRegistered) {
-		// TODO recordToStats consumer
-		
+		if(isRegistered)
+		{
+			listenerMetrics.put(aListener, containerMetrics.forListener(labelOf(aListener),
+					redisOps.prepareListKey(aListener.exchange(), aListener.routing()), throttleTps));
+		}
+		else
+		{
+			ListenerMetrics metrics = listenerMetrics.remove(aListener);
+			if(metrics != null)
+				containerMetrics.remove(metrics);
+			synchronized (labels) {
+				labels.remove(aListener);
+			}
+		}
+	}
+	/**
+	 * The label of a listener for metrics. Resolved once per listener registration, since the default listener
+	 * identifier is not stable across invocations. Listeners are keyed by identity for the same reason.
+	 * @param listener
+	 * @return
+	 */
+	private String labelOf(AbstractQueueListener<? extends Data> listener)
+	{
+		synchronized (labels) {
+			String label = labels.get(listener);
+			if(label == null)
+			{
+				label = listener.identifier();
+				labels.put(listener, label);
+			}
+			return label;
+		}
+	}
+	/**
+	 * The meters for a registered listener.
+	 * @param listener
+	 * @return
+	 */
+	ListenerMetrics metricsOf(AbstractQueueListener<? extends Data> listener)
+	{
+		return listenerMetrics.get(listener);
+	}
+	/**
+	 * The filter of processed messages, shared by the listeners.
+	 * @return the filter, or null if disabled
+	 */
+	DedupeFilter dedupeFilter()
+	{
+		return dedupeFilter;
 	}
 
 	/* (non-Javadoc)
@@ -221,14 +424,48 @@ public class QueueContainerImpl implements Runnable, QueueContainer{
 	@Value("${consumer.throttle.enable:true}")
 	private boolean enabled;
 	
-	private void initConsumer(AbstractQueueListener<? extends Data> task)
+	/**
+	 * Join the routes of the listener, and initialize it.
+	 * @param task
+	 * @return the routes, to be fetched from
+	 */
+	private QueueRoutes initConsumer(final AbstractQueueListener<? extends Data> task)
 	{
-		runRecoveryHandler(task.exchange(), task.routing());
+		final long timeout = visibilityTimeoutOf(task);
+		if(task.orderedByKey() && (task.visibilityTimeoutMillis() > 0 || visibilityTimeout > 0))
+			log.warn("Consumer "+task.identifier()+" is ordered by key. Visibility timeout is disabled, so as to keep the order of its keys");
+		QueueRoutes routes = new QueueRoutes(task, redisOps, routesResolveMillis);
+		if(idleParking)
+			routes.setParking(wakeup, idleParkMillis);
+		//a route resolved from a pattern later, is joined from the fetch path
+		routes.start(new QueueRoutes.JoinHandler() {
+			
+			@Override
+			public void joined(String route) {
+				redisOps.registerInproc(task.exchange(), route);
+				runRecoveryHandler(task.exchange(), route);
+				if(timeout > 0)
+					redisOps.trackVisibility(task.exchange(), route, timeout);
+			}
+		});
 		try {
 			task.init();
 		} catch (Exception e) {
 			throw new BeanInitializationException("Exception on consumer init for task "+task.identifier(), e);
 		}
+		return routes;
+	}
+	/**
+	 * The visibility timeout of the listener, or 0 if not tracked. Not tracked for a listener ordered by key, since an
+	 * expired message would be requeued behind the later messages of its key.
+	 * @param task
+	 * @return
+	 */
+	private long visibilityTimeoutOf(AbstractQueueListener<? extends Data> task)
+	{
+		if(task.orderedByKey())
+			return 0;
+		return task.visibilityTimeoutMillis() > 0 ? task.visibilityTimeoutMillis() : visibilityTimeout;
 	}
 	@Autowired
 	private ConsumerRecoveryHandler recoveryHdlr;
@@ -236,50 +473,195 @@ public class QueueContainerImpl implements Runnable, QueueContainer{
 		recoveryHdlr.handle(exchange, routing);
 	}
 
-	private BlazeQueueIterator newQueueIterator(AbstractQueueListener<? extends Data> task) throws Exception
+	private BlazeQueueIterator newQueueIterator(AbstractQueueListener<? extends Data> task, QueueRoutes routes) throws Exception
 	{
 		BlazeQueueIterator iter = new BlazeQueueIterator(throttlerFactory.getObject(throttlerPeriod, enabled), throttleTps, redisOps);
 		iter.setExchange(task.exchange());
 		iter.setRouting(task.routing());
+		iter.setRoutes(routes);
 		iter.setPollIntervalMillis(getPollInterval());
+		if(idleParking)
+			iter.setParking(wakeup, redisOps.prepareListKey(task.exchange(), task.routing()), idleParkMillis);
 		
 		return iter;
 	}
-	private QueueContainerTaskImpl<? extends Data> prepareTask(AbstractQueueListener<? extends Data> task) throws Exception
+	/**
+	 * Start a prefetcher for the queues of the listener.
+	 * @param task
+	 * @param routes
+	 * @return
+	 */
+	private QueuePrefetcher startPrefetcher(AbstractQueueListener<? extends Data> task, QueueRoutes routes)
+	{
+		QueuePrefetcher prefetcher = new QueuePrefetcher(redisOps, task.exchange(), task.routing(), prefetchCount, prefetchBytes,
+				prefetchBatch, getPollInterval());
+		if(routes.isMultiple())
+			prefetcher.setRoutes(routes);
+		else if(idleParking)
+			prefetcher.setParking(wakeup, idleParkMillis);
+		prefetcher.setVisibilityTimeout(visibilityTimeoutOf(task));
+		if(isFairScheduled(task))
+		{
+			prefetcher.setOnReady(new Runnable() {
+				
+				@Override
+				public void run() {
+					fairScheduler.signal();
+				}
+			});
+		}
+		//a single fetcher keeps the queue order in the buffer
+		prefetcher.start(task.orderedByKey() ? 1 : prefetchFetchers, labelOf(task));
+		prefetchers.add(prefetcher);
+		log.info("Consumer "+task.identifier()+" prefetching up to "+prefetchCount+" messages, in batches of "+prefetchBatch);
+		return prefetcher;
+	}
+	private QueueContainerTaskImpl<? extends Data> prepareTask(AbstractQueueListener<? extends Data> task, BlazeQueueIterator iter)
 	{
-		BlazeQueueIterator iter = newQueueIterator(task);
-		QueueContainerTaskImpl<? extends Data> runnable = new QueueContainerTaskImpl<>(task, this, iter);
+		long timeout = visibilityTimeoutOf(task);
+		QueueContainerTaskImpl<? extends Data> runnable = timeout > 0 ? prepareTrackedTask(task, iter, timeout)
+				: new QueueContainerTaskImpl<>(task, this, iter);
+		//after the visibility tracking is set, if any. the prefetch buffer is the ready queue of a fair scheduled listener
+		if(prefetch || isFairScheduled(task))
+			iter.setPrefetcher(startPrefetcher(task, iter.getRoutes()));
 		
 		return runnable;
 	}
+	/**
+	 * Prepare a task whose messages in process are expired after the visibility timeout, by a periodic reaper.
+	 * @param task
+	 * @param iter
+	 * @param timeout
+	 * @return
+	 */
+	private QueueContainerTaskImpl<? extends Data> prepareTrackedTask(AbstractQueueListener<? extends Data> task, BlazeQueueIterator iter, long timeout)
+	{
+		//the visibility is tracked on the routes as joined
+		InflightTracker tracker = new InflightTracker();
+		scheduledTasks.scheduleWithFixedDelay(new VisibilityReaper(task, iter.getRoutes(), tracker, redisOps, this, hungWorkerPolicy, metricsOf(task)),
+				reaperPeriod, reaperPeriod, TimeUnit.MILLISECONDS);
+		log.info("Consumer "+task.identifier() + " with visibility timeout "+timeout+" millis, on timeout "+hungWorkerPolicy);
+		return new QueueContainerTaskImpl<>(task, this, iter, tracker);
+	}
 	/**
 	 * This will create dedicated fork-join pools for each consumer.
 	 * @param task
-	 * @param runnable
+	 * @return
 	 */
-	private void executeInNewPool(AbstractQueueListener<? extends Data> task, QueueContainerTaskImpl<? extends Data> runnable)
+	private ForkJoinPool newListenerPool(AbstractQueueListener<? extends Data> task)
 	{
 		//CAVEAT: On a test laptop with 4 core processors, it was found that multiple fork-join pools in the same jvm
 		//is not a good idea and the work stealing approach did not scale in this case. Worst still, it was
 		//found that threads across pool instances were getting starved, and not getting a chance to run at all!
 		//This is why the default mode is to use a shared pool, and from application perspective we would suggest
 		//to consider the framework as a lightweight micro-container for single consumer per jvm.
+		//The worker loops now block on the fetch through ForkJoinPool.managedBlock, so a pool compensates with spare
+		//threads while its workers wait on Redis, rather than leaving the forked loops queued behind them.
+		//To isolate many listeners from each other on a single pool, enable the fair scheduling of the shared pool.
 		
 		String name = task.identifier().length() > 20 ? task.identifier().substring(0, 20) : task.identifier();
 		ForkJoinPool pool = newFJPool(Runtime.getRuntime().availableProcessors(), name);
-		pool.execute(runnable);
+		containerMetrics.bindPool(pool, name);
 		threadPools.add(pool);
+		return pool;
 	}
-	private void execute(AbstractQueueListener<? extends Data> task) throws Exception
+	/**
+	 * Start the worker loops of a listener through its concurrency controller, and schedule the periodic adaption
+	 * of their number. The adaption is a no-op unless the listener has a min concurrency, or the bounds are changed
+	 * at runtime.
+	 * @param task
+	 * @param routes
+	 * @param runnable
+	 * @param executor
+	 * @return
+	 */
+	private ConcurrencyController startLoops(AbstractQueueListener<? extends Data> task, QueueRoutes routes, QueueContainerTaskImpl<? extends Data> runnable, Executor executor)
 	{
-		QueueContainerTaskImpl<? extends Data> runnable = prepareTask(task);
+		ConcurrencyController controller = new ConcurrencyController(task, routes, metricsOf(task), adaptiveTolerance, adaptiveBackoff);
+		runnable.setController(controller);
+		controller.start(runnable, executor);
+		scheduledTasks.scheduleWithFixedDelay(controller, adaptivePeriod, adaptivePeriod, TimeUnit.MILLISECONDS);
+		if(controller.isAdaptive())
+			log.info("Consumer "+task.identifier()+" with adaptive concurrency between "+controller.getMin()+" and "+controller.getMax());
+		return controller;
+	}
+	/**
+	 * If the listener is dispatched by the fair scheduler, rather than worker loops of its own. A listener ordered by
+	 * key is dispatched to lanes of its own instead.
+	 * @param task
+	 * @return
+	 */
+	private boolean isFairScheduled(AbstractQueueListener<? extends Data> task)
+	{
+		return fairScheduler != null && task.useSharedPool() && !task.orderedByKey();
+	}
+	/**
+	 * Add a listener to the fair scheduler. Its controller caps the messages in process, and adapts the cap if the
+	 * listener has a min concurrency.
+	 * @param task
+	 * @param routes
+	 * @param runnable
+	 * @param iterator
+	 * @return
+	 */
+	private ConcurrencyController schedule(AbstractQueueListener<? extends Data> task, QueueRoutes routes, QueueContainerTaskImpl<? extends Data> runnable, BlazeQueueIterator iterator)
+	{
+		ConcurrencyController controller = new ConcurrencyController(task, routes, metricsOf(task), adaptiveTolerance, adaptiveBackoff);
+		runnable.setController(controller);
+		runnable.setExecutor(fairScheduler.getExecutor());
+		runnable.setScheduler(fairScheduler);
+		controller.startScheduled();
+		scheduledTasks.scheduleWithFixedDelay(controller, adaptivePeriod, adaptivePeriod, TimeUnit.MILLISECONDS);
+		fairScheduler.add(runnable, iterator, controller, task.weight(), task.minShare());
+		log.info("Consumer "+task.identifier()+" fair scheduled with weight "+task.weight()+", min share "+task.minShare()
+				+ ", max in process "+task.concurrency());
+		return controller;
+	}
+	private ExecutorService executorOf(AbstractQueueListener<? extends Data> task)
+	{
+		if(virtualThreadPool != null)
+			return virtualThreadPool;
+		else if(task.useSharedPool())
+			return threadPool;
+		else
+			return newListenerPool(task);
+	}
+	/**
+	 * Dispatch the messages of a listener ordered by key to lanes on the executor of the listener, one per unit of
+	 * its concurrency. The concurrency is fixed, since a change in the number of lanes would move the keys across.
+	 * @param task
+	 * @param routes
+	 * @param runnable
+	 * @param iter
+	 * @param executor
+	 * @return
+	 */
+	private ConcurrencyController dispatchOrdered(AbstractQueueListener<? extends Data> task, QueueRoutes routes,
+			QueueContainerTaskImpl<? extends Data> runnable, BlazeQueueIterator iter, Executor executor)
+	{
+		ConcurrencyController controller = new ConcurrencyController(task, routes, metricsOf(task), adaptiveTolerance, adaptiveBackoff);
+		runnable.setController(controller);
+		runnable.setExecutor(executor);
+		controller.startScheduled();
+		new OrderedDispatcher(runnable, iter, controller, this, executor, task.concurrency(), orderedMaxPending).start(labelOf(task));
+		log.info("Consumer "+task.identifier()+" ordered by key, on "+task.concurrency()+" lanes");
+		return controller;
+	}
+	private void execute(AbstractQueueListener<? extends Data> task, QueueRoutes routes) throws Exception
+	{
+		BlazeQueueIterator iter = newQueueIterator(task, routes);
+		QueueContainerTaskImpl<? extends Data> runnable = prepareTask(task, iter);
 		log.debug("SUBMITTING TASK FOR ------------------- "+task);
-		if(task.useSharedPool())
-			((ForkJoinPool) threadPool).execute(runnable);
+		ConcurrencyController controller;
+		if(isFairScheduled(task))
+			controller = schedule(task, routes, runnable, iter);
+		else if(task.orderedByKey())
+			controller = dispatchOrdered(task, routes, runnable, iter, executorOf(task));
 		else
-		{
-			executeInNewPool(task, runnable);
-		}
+			controller = startLoops(task, routes, runnable, executorOf(task));
+		String label = labelOf(task);
+		if(controls.putIfAbsent(label, new ListenerControl(task, controller, iter, metricsOf(task))) != null)
+			log.warn("Duplicate listener identifier '"+label+"'. Runtime control will apply to the first listener only");
 	}
 	//Consider pool per listener? ForkJoinPool doesn't seem to be efficient 
 	//in multiple listener environment. Can there be scenario for a listener
@@ -291,7 +673,7 @@ public class QueueContainerImpl implements Runnable, QueueContainer{
 	private void run(AbstractQueueListener<? extends Data> task) {
 		if(running)
 		{
-			initConsumer(task);
+			QueueRoutes routes = initConsumer(task);
 			try 
 			{
 				if(enabled)
@@ -299,7 +681,7 @@ public class QueueContainerImpl implements Runnable, QueueContainer{
 					log.info("Consumer "+task.identifier() + " to be throttled @TPS "+throttleTps);
 				}
 
-				execute(task);
+				execute(task, routes);
 				
 			} 
 			catch (Exception e) {
@@ -314,22 +696,42 @@ public class QueueContainerImpl implements Runnable, QueueContainer{
 	@Override
 	public void commit(QRecord qr, boolean success) {
 		String preparedKey = redisOps.prepareListKey(qr.getKey().getExchange(), qr.getKey().getRoutingKey());
+		long start = System.nanoTime();
 		redisOps.endCommit(qr, preparedKey, false);
+		containerMetrics.recordCommit(System.nanoTime() - start);
 		if(!success)
 		{
-			asyncTasks.submit(new Runnable() {
-				
-				@Override
-				public void run() {
-					//message being lost
-					recordDeadLetter(qr);
-				}
-			});
-			
+			scheduleDeadLetter(qr);
 		}
 	}
+	/**
+	 * Record a discarded message to dead letter, asynchronously.
+	 * @param qr
+	 */
+	void scheduleDeadLetter(QRecord qr)
+	{
+		asyncTasks.submit(new Runnable() {
+			
+			@Override
+			public void run() {
+				//message being lost
+				recordDeadLetter(qr);
+			}
+		});
+	}
 	@Autowired
 	private DeadLetterHandler deadLetterService;
+	@Autowired
+	private RedisLatencyRecorder latencyRecorder;
+	/**
+	 * The latency recorders for the listener.
+	 * @param listener
+	 * @return
+	 */
+	ListenerLatency latencyOf(AbstractQueueListener<? extends Data> listener)
+	{
+		return latencyRecorder.forListener(redisOps.prepareListKey(listener.exchange(), listener.routing()), labelOf(listener));
+	}
 	/**
 	 * Handle messages discarded after retry limit exceeded or expiration or unknown cause.
 	 * @param qr
@@ -345,7 +747,104 @@ public class QueueContainerImpl implements Runnable, QueueContainer{
 		String preparedKey = redisOps.prepareListKey(qr.getKey().getExchange(), qr.getKey().getRoutingKey());
 		//redisOps.endCommit(qr, preparedKey);
 		//redisOps.reEnqueue(qr, preparedKey);
+		long start = System.nanoTime();
 		redisOps.endCommit(qr, preparedKey, true);
+		containerMetrics.recordRollback(System.nanoTime() - start);
+	}
+	private ListenerControl controlOf(String identifier)
+	{
+		ListenerControl control = controls.get(identifier);
+		Assert.notNull(control, "No listener registered with identifier '"+identifier+"'");
+		return control;
+	}
+	@Override
+	public List<ListenerStatus> listenerStatus()
+	{
+		List<ListenerStatus> status = new ArrayList<>();
+		for(Map.Entry<String, ListenerControl> e : controls.entrySet())
+		{
+			ListenerControl c = e.getValue();
+			ListenerStatus s = new ListenerStatus(e.getKey(), c.listener.exchange(), c.listener.routing());
+			s.setRoutes(c.iterator.getRoutes().routes());
+			s.setPaused(c.controller.isPaused());
+			s.setConcurrency(c.controller.getLimit());
+			s.setMinConcurrency(c.controller.getMin());
+			s.setMaxConcurrency(c.controller.getMax());
+			s.setThrottleTps(c.iterator.getThrottleTps());
+			s.setPollIntervalMillis(c.iterator.getPollIntervalMillis());
+			s.setInflight(c.metrics.inflight());
+			s.setPrefetched(c.iterator.getPrefetcher() != null ? c.iterator.getPrefetcher().size() : 0);
+			status.add(s);
+		}
+		return status;
+	}
+	@Override
+	public void pause(String identifier)
+	{
+		ListenerControl c = controlOf(identifier);
+		c.controller.setPaused(true);
+		if(c.iterator.getPrefetcher() != null)
+			c.iterator.getPrefetcher().pause();
+		c.metrics.onPaused(true);
+		log.info("["+identifier+"] Consumer paused");
+	}
+	@Override
+	public void resume(String identifier)
+	{
+		ListenerControl c = controlOf(identifier);
+		if(c.iterator.getPrefetcher() != null)
+			c.iterator.getPrefetcher().resume();
+		c.controller.setPaused(false);
+		c.metrics.onPaused(false);
+		log.info("["+identifier+"] Consumer resumed");
+	}
+	@Override
+	public boolean drain(String identifier, long timeoutMillis) throws InterruptedException
+	{
+		ListenerControl c = controlOf(identifier);
+		pause(identifier);
+		long start = System.currentTimeMillis();
+		//a fetch in progress at the pause completes within the poll wait
+		long settled = start + c.iterator.getPollIntervalMillis();
+		while(true)
+		{
+			long now = System.currentTimeMillis();
+			if(now >= settled && c.metrics.inflight() == 0)
+			{
+				log.info("["+identifier+"] Consumer drained");
+				return true;
+			}
+			if(now - start >= timeoutMillis)
+			{
+				log.warn("["+identifier+"] Consumer not drained in "+timeoutMillis+" millis, "+c.metrics.inflight()+" messages in process");
+				return false;
+			}
+			Thread.sleep(DRAIN_CHECK_MILLIS);
+		}
+	}
+	@Override
+	public void setConcurrency(String identifier, int min, int max)
+	{
+		Assert.isTrue(min > 0 && min <= max, "Expected 0 < min <= max. Found min="+min+", max="+max);
+		ListenerControl c = controlOf(identifier);
+		c.controller.setBounds(min, max);
+		log.info("["+identifier+"] Consumer concurrency set between "+min+" and "+max);
+	}
+	@Override
+	public void setThrottleTps(String identifier, int tps)
+	{
+		Assert.isTrue(tps > 0, "Expected a positive tps. Found "+tps);
+		ListenerControl c = controlOf(identifier);
+		c.iterator.setThrottleTps(tps);
+		c.metrics.onThrottleTps(tps);
+		log.info("["+identifier+"] Consumer throttle set @TPS "+tps);
+	}
+	@Override
+	public void setPollInterval(String identifier, long millis)
+	{
+		Assert.isTrue(millis > 0, "Expected a positive poll interval. Found "+millis);
+		controlOf(identifier).iterator.setPollIntervalMillis(millis);
+		log.info("["+identifier+"] Consumer poll interval set to "+millis+" millis");
 	}
 	@Value("${consumer.poll.await.millis:100}")
 	private long pollInterval;
@@ -1,11 +1,21 @@
 package com.reactivetechnologies.blaze.core;
 
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
 import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
+import java.util.concurrent.locks.LockSupport;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.reactivetechnologies.blaze.metrics.ListenerMetrics;
+import com.reactivetechnologies.blaze.ops.RedisLatencyRecorder.ListenerLatency;
+import com.reactivetechnologies.blaze.ops.RedisLatencyRecorder.Stage;
+import com.reactivetechnologies.blaze.struct.MessageTrace;
+import com.reactivetechnologies.blaze.struct.MessageTrace.Hop;
 import com.reactivetechnologies.blaze.struct.QRecord;
 import com.reactivetechnologies.mq.Data;
 import com.reactivetechnologies.mq.consume.AbstractQueueListener;
@@ -14,18 +24,97 @@ import com.reactivetechnologies.mq.exceptions.BlazeInternalException;
 import com.reactivetechnologies.mq.exceptions.BlazeMessagingException;
 import com.reactivetechnologies.mq.exceptions.MessageThrottledException;
 /**
- * The task class that works in a work-stealing thread pool.
+ * The task class that works in a work-stealing thread pool. The {@linkplain ConcurrencyController} of the listener
+ * starts copies of the task as long-lived worker loops, up to the {@linkplain AbstractQueueListener#concurrency() concurrency},
+ * each fetching and dispatching messages till the container is stopped. The fetch is a blocking call to Redis, and is run as a {@linkplain ForkJoinPool.ManagedBlocker} so that the
+ * pool can compensate with a spare thread while a worker is blocked, and the other loops are not starved.
  * @author esutdal
  *
  */
 class QueueContainerTaskImpl<T extends Data> extends RecursiveAction implements QueueContainerTask
 {
 	private static final Logger log = LoggerFactory.getLogger(QueueContainerTaskImpl.class);
-	private final int concurrency;
+	/**
+	 * Back off on being throttled, rather than spin on the throttler.
+	 */
+	private static final long THROTTLE_PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(1);
+	/**
+	 * Wait between checks while the listener is paused.
+	 */
+	private static final long PAUSE_PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(100);
 	private final AbstractQueueListener<T> consumer;
 	private final QueueContainerImpl container;
 	private final BlazeQueueIterator queueIterator;
+	private final InflightTracker tracker;
+	private final ListenerLatency latency;
+	private final ListenerMetrics metrics;
+	/**
+	 * Filters the messages processed already, if enabled.
+	 */
+	private final DedupeFilter dedupe;
+	private InflightTracker.Inflight inflight;
+	private final HeadFetcher fetcher = new HeadFetcher();
+	/**
+	 * The executor running the worker loops.
+	 */
+	private Executor executor;
+	/**
+	 * Starts, retires and pauses the worker loops.
+	 */
+	private ConcurrencyController controller;
+	/**
+	 * Dispatches the messages to copies of this task, if the listener is fair scheduled. There are no worker loops
+	 * of the listener then.
+	 */
+	private FairScheduler scheduler;
+	/**
+	 * If this is a lane of a listener ordered by key. A message to be redelivered is then retried in place.
+	 */
+	private boolean ordered;
+	/**
+	 * The delay to retry the message dispatched last after, or -1 if done with.
+	 */
+	private long retryDelay = -1;
 	
+	/**
+	 * Fetches the queue head, as a blocking operation managed by the pool.
+	 */
+	private final class HeadFetcher implements ForkJoinPool.ManagedBlocker
+	{
+		private QRecord record;
+		private boolean throttled;
+		private boolean done;
+		
+		private void reset()
+		{
+			record = null;
+			throttled = false;
+			done = false;
+		}
+		@Override
+		public boolean block() throws InterruptedException {
+			if(controller != null && controller.isPaused())
+			{
+				LockSupport.parkNanos(PAUSE_PARK_NANOS);
+			}
+			else if(queueIterator.hasNext())
+			{
+				record = queueIterator.next();
+			}
+			else
+			{
+				throttled = true;
+				LockSupport.parkNanos(THROTTLE_PARK_NANOS);
+			}
+			done = true;
+			return true;
+		}
+
+		@Override
+		public boolean isReleasable() {
+			return done;
+		}
+	}
 	/**
 	 * Instantiates a new task with concurrency level as set in the consumer. This constructor is kept
 	 * public to schedule the first shot of task from the container.
@@ -33,19 +122,31 @@ class QueueContainerTaskImpl<T extends Data> extends RecursiveAction implements
 	 * @param ql
 	 */
 	public QueueContainerTaskImpl(AbstractQueueListener<T> ql, QueueContainerImpl container, BlazeQueueIterator headPopper) {
-		this(ql, ql.concurrency(), container, headPopper);
+		this(ql, container, headPopper, null, container.latencyOf(ql), container.metricsOf(ql));
+	}
+	/**
+	 * Instantiates a new task with concurrency level as set in the consumer, and with the messages
+	 * in process being tracked for visibility timeout.
+	 * @param ql
+	 * @param container
+	 * @param headPopper
+	 * @param tracker
+	 */
+	public QueueContainerTaskImpl(AbstractQueueListener<T> ql, QueueContainerImpl container, BlazeQueueIterator headPopper, InflightTracker tracker) {
+		this(ql, container, headPopper, tracker, container.latencyOf(ql), container.metricsOf(ql));
 	}
 	/**
-	 * Fork new parallel tasks to be scheduled in a work stealing pool. This constructor will be invoked from within
-	 * the {@linkplain RecursiveAction} compute, to fork new tasks.
+	 * A new worker loop, sharing the state of the listener.
 	 * @param ql
-	 * @param concurrency
 	 */
-	private QueueContainerTaskImpl(AbstractQueueListener<T> ql, int concurrency, QueueContainerImpl container, BlazeQueueIterator headPopper) {
-		this.concurrency = concurrency;
+	private QueueContainerTaskImpl(AbstractQueueListener<T> ql, QueueContainerImpl container, BlazeQueueIterator headPopper, InflightTracker tracker, ListenerLatency latency, ListenerMetrics metrics) {
 		this.consumer = ql;
 		this.container = container;
 		this.queueIterator = headPopper;
+		this.tracker = tracker;
+		this.latency = latency;
+		this.metrics = metrics;
+		this.dedupe = container.dedupeFilter();
 	}
 	
 	/**
@@ -56,34 +157,89 @@ class QueueContainerTaskImpl<T extends Data> extends RecursiveAction implements
 	@Override
 	protected final void compute() {
 		//log.debug("Fetching next record..compute");
-		if (concurrency > 1) 
-		{
-			forkTasks(concurrency);
-		} 
-		else 
+		run();
+	}
+	/**
+	 * A new task for the listener, sharing its state.
+	 * @return
+	 */
+	QueueContainerTaskImpl<T> copy()
+	{
+		QueueContainerTaskImpl<T> b = new QueueContainerTaskImpl<T>(consumer, container, queueIterator, tracker, latency, metrics);
+		b.executor = executor;
+		b.controller = controller;
+		b.scheduler = scheduler;
+		b.ordered = ordered;
+		return b;
+	}
+	/**
+	 * Set the controller of the loops. To be set before the loops are started.
+	 * @param controller
+	 */
+	void setController(ConcurrencyController controller)
+	{
+		this.controller = controller;
+	}
+	/**
+	 * Set the scheduler dispatching to this task. To be set before the task is scheduled.
+	 * @param scheduler
+	 */
+	void setScheduler(FairScheduler scheduler)
+	{
+		this.scheduler = scheduler;
+	}
+	/**
+	 * Set the task to be a lane of a listener ordered by key. To be set before the task is copied.
+	 * @param ordered
+	 */
+	void setOrdered(boolean ordered)
+	{
+		this.ordered = ordered;
+	}
+	/**
+	 * A new worker loop to replace this one, to be run on the same executor.
+	 * @return
+	 */
+	Runnable newLoop()
+	{
+		if(scheduler != null)
+			return scheduler.newWorker();
+		if(ordered)
 		{
-			run();
+			//a lane is not replaced, but waits out its hung message, to keep the order of the key
+			return new Runnable() {
+				
+				@Override
+				public void run() {
+					log.debug("Lane of "+consumer.identifier()+" not replaced on a hung message");
+				}
+			};
 		}
-
+		final QueueContainerTaskImpl<T> loop = copy();
+		return new Runnable() {
+			
+			@Override
+			public void run() {
+				loop.run();
+			}
+		};
 	}
-	private QueueContainerTaskImpl<T> copy()
+	/**
+	 * The executor running the worker loops. Either the fork-join pool of the current worker, or the executor
+	 * the loops were started on.
+	 * @return
+	 */
+	Executor executor()
 	{
-		QueueContainerTaskImpl<T> b = new QueueContainerTaskImpl<T>(consumer, 1, container, queueIterator);
-		return b;
+		return executor != null ? executor : ForkJoinTask.getPool();
 	}
 	/**
-	 * Fork parallel tasks based on the concurrency. 
-	 * These tasks should be available for work-stealing via FJpool.
-	 * @param parallelism
+	 * Set the executor the worker loops are started on.
+	 * @param executor
 	 */
-	private void forkTasks(int parallelism)
+	void setExecutor(Executor executor)
 	{
-		QueueContainerTaskImpl<T> qt = null;
-		for(int i=0; i<parallelism; i++)
-        {
-        	qt = copy();
-        	qt.fork();
-        }
+		this.executor = executor;
 	}
 	/* (non-Javadoc)
 	 * @see com.reactivetech.messaging.cmq.core.QueueContainerTask#fireOnMessage(com.reactivetech.messaging.cmq.dao.QRecord)
@@ -91,19 +247,116 @@ class QueueContainerTaskImpl<T extends Data> extends RecursiveAction implements
 	@Override
 	public void fireOnMessage(QRecord qr)
 	{
+		if(dedupe != null && dedupe.isDuplicate(qr, metrics))
+		{
+			//processed already, but the commit was lost. so only commit
+			log.debug("Committing message "+qr.getKey().getTimeuid()+", processed already");
+			commit(qr, true);
+			return;
+		}
+		if(tracker != null)
+			inflight = tracker.begin(qr, this);
+		metrics.onMessageStart();
+		if(qr.getT0TS() != null)
+			latency.record(Stage.WAIT, TimeUnit.MILLISECONDS.toMicros(System.currentTimeMillis() - qr.getT0TS().getTime()));
 		try 
 		{
+			MessageTrace trace = qr.getTrace();
+			if(trace != null)
+				trace.stamp(Hop.HANDLER_START);
+			long start = System.nanoTime();
 			consumer.fireOnMessage(qr);
-			container.commit(qr, true);
+			long end = System.nanoTime();
+			latency.record(Stage.PROCESS, TimeUnit.NANOSECONDS.toMicros(end - start));
+			if(controller != null)
+				controller.onProcessed(end - start);
+			if(trace != null)
+				trace.stamp(Hop.HANDLER_END);
+			//even if reaped, so that its redelivery is not processed again
+			if(dedupe != null)
+				dedupe.onProcessed(qr);
+			if(!isReaped())
+			{
+				commit(qr, true);
+				latency.record(Stage.COMMIT, TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - end));
+				metrics.onCommit();
+				if(trace != null)
+					onTraced(qr, trace);
+			}
 		}  
 		catch(Exception e)
 		{
-			handleException(qr, e);
+			if(!isReaped())
+				handleException(qr, e);
+			
+		}
+		finally
+		{
+			metrics.onMessageEnd();
+			if(tracker != null)
+			{
+				tracker.end(qr);
+				if(isReaped())
+				{
+					log.warn("Ignoring outcome of message "+qr.getKey().getTimeuid()+", expired by visibility timeout");
+					//clear any interrupt by the reaper
+					Thread.interrupted();
+				}
+			}
+		}
+	}
+	/**
+	 * Commit is a blocking call to Redis as well. With the messages prefetched, it is the only one on the worker.
+	 * @param qr
+	 * @param success
+	 */
+	private void commit(final QRecord qr, final boolean success)
+	{
+		ForkJoinPool.ManagedBlocker committer = new ForkJoinPool.ManagedBlocker() {
+			private boolean done;
+			@Override
+			public boolean block() throws InterruptedException {
+				container.commit(qr, success);
+				done = true;
+				return true;
+			}
 			
+			@Override
+			public boolean isReleasable() {
+				return done;
+			}
+		};
+		try {
+			ForkJoinPool.managedBlock(committer);
+		} catch (InterruptedException e) {
+			//the committer does not throw it
+			Thread.currentThread().interrupt();
 		}
 	}
+	/**
+	 * Record the stages of a traced message. A redelivered message is skipped, since its stamps would include
+	 * the earlier attempts.
+	 * @param qr
+	 * @param trace
+	 */
+	private void onTraced(QRecord qr, MessageTrace trace)
+	{
+		trace.stamp(Hop.ACKED);
+		if(qr.getRedeliveryCount() == 0)
+			latency.record(trace);
+		if(log.isDebugEnabled())
+			log.debug("Message "+qr.getKey().getTimeuid()+" "+trace);
+	}
+	/**
+	 * If the message being processed has been expired by visibility timeout.
+	 * @return
+	 */
+	private boolean isReaped()
+	{
+		return inflight != null && inflight.reaped;
+	}
 	protected void fireOnThrottled() {
-		// noop
+		metrics.onThrottled();
 		
 	}
 	protected void fireOnTimeout() {
@@ -113,7 +366,8 @@ class QueueContainerTaskImpl<T extends Data> extends RecursiveAction implements
 	private void discardMessage(QRecord qr, Throwable e)
 	{
 		log.error("* MESSAGE BEING DISCARDED. Check stacktrace for root cause.", e);
-		container.commit(qr, false);
+		metrics.onDeadLetter();
+		commit(qr, false);
 	}
 	/**
 	 * 
@@ -166,7 +420,15 @@ class QueueContainerTaskImpl<T extends Data> extends RecursiveAction implements
 	{
 		log.warn("Queue container caught error. Message will be redelivered. Error => "+e.getCause());
 		log.debug("", e);
-		container.scheduleRollback(qr);
+		metrics.onRedelivery();
+		if(ordered)
+		{
+			//keep it in process, to be retried before the later messages of its key
+			qr.setRedelivered(true);
+			retryDelay = container.rollbackDelayOf(qr);
+		}
+		else
+			container.scheduleRollback(qr);
 		if(d != null)
 		{
 			consumer.onExceptionCaught(e, d);
@@ -174,9 +436,57 @@ class QueueContainerTaskImpl<T extends Data> extends RecursiveAction implements
 		
 	}
 	/**
-	 * Fetch head if available.
+	 * Fetch and dispatch messages till the container is stopped, this loop has been abandoned on a hung message,
+	 * or retired by the concurrency controller.
 	 */
 	private void run() 
+	{
+		while(container.isRunning())
+		{
+			if(controller != null && !controller.keepLoop())
+				break;
+			inflight = null;
+			runOnce();
+			//an abandoned loop has already been replaced
+			if(inflight != null && inflight.abandoned)
+				break;
+		}
+	}
+	/**
+	 * Process a message fetched by the scheduler.
+	 * @param qr
+	 * @return false if the calling worker has been abandoned on a hung message, and should exit
+	 */
+	boolean dispatch(QRecord qr)
+	{
+		inflight = null;
+		try
+		{
+			fireOnMessage(qr);
+		}
+		catch(Exception e)
+		{
+			BlazeInternalException be = new BlazeInternalException("Unexpected error!", e);
+			log.error("Internal error: Check stacktrace", be);
+		}
+		return inflight == null || !inflight.abandoned;
+	}
+	/**
+	 * Process a message of an ordered lane. A message to be redelivered is kept in process, to be retried by the
+	 * lane before the later messages of its key.
+	 * @param qr
+	 * @return the delay in millis to retry the message after, or -1 if done with
+	 */
+	long dispatchInPlace(QRecord qr)
+	{
+		retryDelay = -1;
+		dispatch(qr);
+		return retryDelay;
+	}
+	/**
+	 * Fetch head if available.
+	 */
+	private void runOnce() 
 	{
 		//log.debug("Fetching next record..");
 		try 
@@ -200,11 +510,6 @@ class QueueContainerTaskImpl<T extends Data> extends RecursiveAction implements
 		{
 			BlazeInternalException be = new BlazeInternalException("Unexpected error!", e);
 			log.error("Internal error: Check stacktrace", be);
-			throw be;
-		}
-		finally 
-		{
-			forkTasks(1);//fork next corresponding task
 		}
 	}
 	
@@ -214,14 +519,20 @@ class QueueContainerTaskImpl<T extends Data> extends RecursiveAction implements
 	@Override
 	public QRecord fetchHead() throws TimeoutException, MessageThrottledException
 	{
-		if(queueIterator.hasNext())
-		{
-			QRecord qr = queueIterator.next();
-			if(qr == null)
-				throw new TimeoutException();
-			return qr;
+		fetcher.reset();
+		try {
+			ForkJoinPool.managedBlock(fetcher);
+		} catch (InterruptedException e) {
+			//the fetcher does not throw it. nothing fetched, in any case
+			throw new TimeoutException();
 		}
-		throw new MessageThrottledException();
+		if(fetcher.throttled)
+			throw new MessageThrottledException();
+		QRecord qr = fetcher.record;
+		fetcher.record = null;
+		if(qr == null)
+			throw new TimeoutException();
+		return qr;
 	}
 	
 }
@@ -0,0 +1,376 @@
+/**
+ * Copyright 2017 esutdal
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+package com.reactivetechnologies.blaze.core;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.reactivetechnologies.blaze.ops.QueueWakeup;
+import com.reactivetechnologies.blaze.struct.QRecord;
+import com.reactivetechnologies.mq.ops.ConsumerOperations;
+/**
+ * Fetches the messages of a queue in batches into a bounded local buffer, from where the worker loops of a listener
+ * take them. The fetcher threads hold the Redis connections for the listener, instead of one per worker loop, so the
+ * processing concurrency is decoupled from the connection count, and the round trips overlap with the processing.
+ * <p>
+ * The buffer is bounded by count, and by payload bytes. The byte bound can be exceeded by at most a batch.
+ * Buffered messages are already in the INPROC queue, so they are recovered as any message in process if the instance
+ * dies. On a stop, the messages not yet dispatched are requeued. A visibility timeout counts from the fetch, and
+ * hence includes the time spent in the buffer. A message whose visibility deadline passes while buffered is dropped
+ * from the buffer instead of being dispatched, and is left to the visibility reaper. On a pause, the fetchers wait
+ * and the buffer is requeued as well.
+ * <p>
+ * With parking enabled, a fetcher that finds the queue empty parks till the queue is woken, instead of fetching again.
+ * <p>
+ * For a listener on several routes, the batches are fetched through its {@linkplain QueueRoutes}.
+ * @author esutdal
+ *
+ */
+class QueuePrefetcher {
+
+	private static final Logger log = LoggerFactory.getLogger(QueuePrefetcher.class);
+
+	private final ConsumerOperations redisOps;
+	private final String exchange;
+	private final String routing;
+	private final int maxCount;
+	private final long maxBytes;
+	private final int batchSize;
+	private final long pollMillis;
+
+	private final ArrayDeque<QRecord> buffer = new ArrayDeque<>();
+	/**
+	 * Visibility deadline of each buffered message, in the buffer order. Empty if visibility is not tracked.
+	 */
+	private final ArrayDeque<Long> deadlines = new ArrayDeque<>();
+	private long visibilityTimeout;
+	private long bytes;
+	private final ReentrantLock lock = new ReentrantLock();
+	private final Condition notEmpty = lock.newCondition();
+	private final Condition notFull = lock.newCondition();
+
+	private volatile boolean running;
+	private volatile boolean paused;
+	private final List<Thread> fetchers = new ArrayList<>();
+	private Runnable onReady;
+	private QueueRoutes routes;
+	private QueueWakeup wakeup;
+	private String queue;
+	private long parkMillis;
+	/**
+	 *
+	 * @param redisOps
+	 * @param exchange
+	 * @param routing
+	 * @param maxCount max messages buffered
+	 * @param maxBytes max payload bytes buffered
+	 * @param batchSize max messages fetched in a round trip
+	 * @param pollMillis blocking wait for a fetch on an empty queue
+	 */
+	QueuePrefetcher(ConsumerOperations redisOps, String exchange, String routing, int maxCount, long maxBytes, int batchSize, long pollMillis) {
+		this.redisOps = redisOps;
+		this.exchange = exchange;
+		this.routing = routing;
+		this.maxCount = Math.max(maxCount, 1);
+		this.maxBytes = maxBytes > 0 ? maxBytes : Long.MAX_VALUE;
+		this.batchSize = Math.max(Math.min(batchSize, this.maxCount), 1);
+		this.pollMillis = pollMillis;
+	}
+	/**
+	 * A callback on messages being buffered, invoked from a fetcher thread. To be set before the start.
+	 * @param onReady
+	 */
+	void setOnReady(Runnable onReady) {
+		this.onReady = onReady;
+	}
+	/**
+	 * Fetch through the routes of a listener on several routes, which park on their own. To be set before the start.
+	 * @param routes
+	 */
+	void setRoutes(QueueRoutes routes) {
+		this.routes = routes;
+	}
+	/**
+	 * Park the fetchers on an empty queue till it is woken, or the given max time elapses. To be set before the start.
+	 * @param wakeup
+	 * @param maxMillis
+	 */
+	void setParking(QueueWakeup wakeup, long maxMillis) {
+		this.wakeup = wakeup;
+		this.queue = redisOps.prepareListKey(exchange, routing);
+		this.parkMillis = maxMillis;
+	}
+	/**
+	 * Drop the buffered messages past the visibility timeout from the fetch, instead of dispatching them. The
+	 * visibility reaper would have expired them already, or would expire them, from the INPROC queue. To be set before the start.
+	 * @param timeoutMillis
+	 */
+	void setVisibilityTimeout(long timeoutMillis) {
+		this.visibilityTimeout = timeoutMillis;
+	}
+	private static long sizeOf(QRecord qr)
+	{
+		ByteBuffer payload = qr.getPayload();
+		return payload != null ? payload.remaining() : 0;
+	}
+	/**
+	 * Start the given number of fetcher threads.
+	 * @param threads
+	 * @param name thread name prefix
+	 */
+	void start(int threads, String name)
+	{
+		running = true;
+		for (int i = 0; i < Math.max(threads, 1); i++) {
+			Thread t = new Thread(new Runnable() {
+
+				@Override
+				public void run() {
+					fetch();
+				}
+			}, name + ".Fetcher." + i);
+			t.setDaemon(true);
+			fetchers.add(t);
+			t.start();
+		}
+	}
+	/**
+	 * Stop the fetchers, and requeue the messages not yet dispatched.
+	 */
+	void stop()
+	{
+		running = false;
+		lock.lock();
+		try {
+			notFull.signalAll();
+		} finally {
+			lock.unlock();
+		}
+		if(wakeup != null)
+			wakeup.wake(queue);
+		if(routes != null)
+			routes.wake();
+		for(Thread t : fetchers)
+		{
+			try {
+				//a fetch in progress completes within the poll wait
+				t.join(pollMillis + TimeUnit.SECONDS.toMillis(1));
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				break;
+			}
+		}
+		int n = requeue();
+		if(n > 0)
+			log.info("["+routing+"] Requeued "+n+" prefetched messages on stop");
+	}
+	/**
+	 * Stop fetching, and requeue the messages not yet dispatched. A fetch in progress is requeued on completion.
+	 */
+	void pause()
+	{
+		paused = true;
+		int n = requeue();
+		if(n > 0)
+			log.info("["+routing+"] Requeued "+n+" prefetched messages on pause");
+	}
+	/**
+	 * Restart fetching after a pause.
+	 */
+	void resume()
+	{
+		lock.lock();
+		try {
+			paused = false;
+			notFull.signalAll();
+		} finally {
+			lock.unlock();
+		}
+	}
+	boolean isPaused() {
+		return paused;
+	}
+	private int requeue()
+	{
+		List<QRecord> pending;
+		lock.lock();
+		try {
+			pending = new ArrayList<>(buffer);
+			buffer.clear();
+			deadlines.clear();
+			bytes = 0;
+			notFull.signalAll();
+		} finally {
+			lock.unlock();
+		}
+		requeue(pending);
+		return pending.size();
+	}
+	private void requeue(List<QRecord> pending)
+	{
+		if(pending.isEmpty())
+			return;
+		//each is requeued at the tail, to be fetched next. so the last first, to keep the order
+		for (int i = pending.size() - 1; i >= 0; i--) {
+			QRecord qr = pending.get(i);
+			//to its own queue, if fetched through several routes
+			redisOps.endCommit(qr, redisOps.prepareListKey(qr.getKey().getExchange(), qr.getKey().getRoutingKey()), true);
+		}
+	}
+	/**
+	 * Take the next buffered message, waiting up to the given time. Messages past their visibility deadline are skipped.
+	 * @param timeout
+	 * @param unit
+	 * @return message, or null on timeout
+	 * @throws InterruptedException
+	 */
+	QRecord poll(long timeout, TimeUnit unit) throws InterruptedException
+	{
+		long nanos = unit.toNanos(timeout);
+		lock.lockInterruptibly();
+		try {
+			while(true)
+			{
+				while(buffer.isEmpty())
+				{
+					if(nanos <= 0)
+						return null;
+					nanos = notEmpty.awaitNanos(nanos);
+				}
+				QRecord qr = buffer.pollFirst();
+				Long deadline = deadlines.pollFirst();
+				bytes -= sizeOf(qr);
+				notFull.signal();
+				if(deadline == null || System.currentTimeMillis() < deadline)
+					return qr;
+				log.debug("["+routing+"] Dropped prefetched message "+qr.getKey().getTimeuid()+" past its visibility deadline");
+			}
+		} finally {
+			lock.unlock();
+		}
+	}
+	/**
+	 * Messages buffered currently.
+	 * @return
+	 */
+	int size()
+	{
+		lock.lock();
+		try {
+			return buffer.size();
+		} finally {
+			lock.unlock();
+		}
+	}
+	/**
+	 * Wait till the buffer has room.
+	 * @return the number of messages to fetch next, or 0 if stopped
+	 * @throws InterruptedException
+	 */
+	private int awaitRoom() throws InterruptedException
+	{
+		lock.lock();
+		try {
+			while(running && (paused || buffer.size() >= maxCount || bytes >= maxBytes))
+			{
+				notFull.await();
+			}
+			return running ? Math.min(batchSize, maxCount - buffer.size()) : 0;
+		} finally {
+			lock.unlock();
+		}
+	}
+	/**
+	 * Buffer a fetched batch.
+	 * @param batch
+	 * @return false if paused while fetching
+	 */
+	private boolean offer(List<QRecord> batch, long fetchedAt)
+	{
+		lock.lock();
+		try {
+			if(paused)
+				return false;
+			for(QRecord qr : batch)
+			{
+				buffer.offerLast(qr);
+				if(visibilityTimeout > 0)
+					deadlines.offerLast(fetchedAt + visibilityTimeout);
+				bytes += sizeOf(qr);
+			}
+			if(batch.size() > 1)
+				notEmpty.signalAll();
+			else
+				notEmpty.signal();
+			return true;
+		} finally {
+			lock.unlock();
+		}
+	}
+	private void fetch()
+	{
+		while(running)
+		{
+			try
+			{
+				int max = awaitRoom();
+				if(max == 0)
+					break;
+				List<QRecord> batch;
+				//no later than the deadline stamped by the dequeue
+				long fetchedAt = System.currentTimeMillis();
+				if(routes != null)
+					batch = routes.fetch(max, pollMillis);
+				else
+				{
+					long generation = wakeup != null ? wakeup.generation(queue) : 0;
+					batch = redisOps.dequeue(exchange, routing, max, pollMillis, TimeUnit.MILLISECONDS);
+					if(batch.isEmpty() && wakeup != null && running)
+						wakeup.await(queue, generation, parkMillis, TimeUnit.MILLISECONDS);
+				}
+				if(batch.isEmpty())
+					continue;
+				if(!offer(batch, fetchedAt))
+					requeue(batch);
+				else if(onReady != null)
+					onReady.run();
+			}
+			catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				break;
+			}
+			catch (Exception e) {
+				log.error("["+routing+"] Prefetch failed. Error => "+e.getMessage());
+				log.debug("", e);
+				//back off, rather than spin on a failing connection
+				try {
+					Thread.sleep(pollMillis);
+				} catch (InterruptedException ie) {
+					Thread.currentThread().interrupt();
+					break;
+				}
+			}
+		}
+	}
+}
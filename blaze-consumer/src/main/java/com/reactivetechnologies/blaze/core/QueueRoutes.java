@@ -0,0 +1,273 @@
+/**
+ * Copyright 2017 esutdal
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+package com.reactivetechnologies.blaze.core;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.reactivetechnologies.blaze.ops.QueueWakeup;
+import com.reactivetechnologies.blaze.struct.QRecord;
+import com.reactivetechnologies.mq.Data;
+import com.reactivetechnologies.mq.consume.AbstractQueueListener;
+import com.reactivetechnologies.mq.ops.ConsumerOperations;
+/**
+ * The routes a listener consumes from. This is the single routing of the listener, unless it lists
+ * {@linkplain AbstractQueueListener#routes() routes}, or has a {@linkplain AbstractQueueListener#routePattern() route pattern}.
+ * A pattern is resolved against the queues known to exist on the exchange, and re-resolved periodically, so that a
+ * queue created later is joined as well.
+ * <p>
+ * The queues of a listener on several routes are fetched through a single path. A fetch dequeues from the first queue
+ * with items, trying them in turn from the one after the last served, in a single round trip. If all are empty, the
+ * fetch parks till any of them is woken, if parking is enabled. Else it waits on the next queue in turn for the poll
+ * interval, so that a message on that queue is fetched at once, and on the others by the next fetch.
+ * @author esutdal
+ *
+ */
+class QueueRoutes {
+
+	private static final Logger log = LoggerFactory.getLogger(QueueRoutes.class);
+	/**
+	 * Callback on a route being joined, before it is fetched from.
+	 */
+	interface JoinHandler
+	{
+		void joined(String route);
+	}
+	/**
+	 * The member routes, and their prepared list keys, replaced together on a resolution.
+	 */
+	private static final class Members
+	{
+		private final List<String> routes;
+		private final List<String> queues;
+		private Members(List<String> routes, List<String> queues) {
+			this.routes = routes;
+			this.queues = queues;
+		}
+	}
+
+	private final ConsumerOperations redisOps;
+	private final String identifier;
+	private final String exchange;
+	private final String glob;
+	private final Pattern pattern;
+	private final boolean multiple;
+	private final long resolveMillis;
+	private volatile Members members;
+	private volatile long resolvedAt;
+	private volatile int cursor;
+	private JoinHandler onJoin;
+	private QueueWakeup wakeup;
+	private long parkMillis;
+	/**
+	 *
+	 * @param listener
+	 * @param redisOps
+	 * @param resolveMillis interval to re-resolve a route pattern at
+	 */
+	QueueRoutes(AbstractQueueListener<? extends Data> listener, ConsumerOperations redisOps, long resolveMillis) {
+		this.redisOps = redisOps;
+		this.identifier = listener.identifier();
+		this.exchange = listener.exchange();
+		this.resolveMillis = resolveMillis;
+		this.glob = listener.routePattern();
+		String[] routes = listener.routes();
+		this.pattern = glob != null ? toRegex(glob) : null;
+		this.multiple = glob != null || (routes != null && routes.length > 0);
+		List<String> fixed = new ArrayList<>();
+		if(glob == null)
+			fixed.addAll(multiple ? new TreeSet<>(Arrays.asList(routes)) : Collections.singletonList(listener.routing()));
+		this.members = membersOf(fixed);
+	}
+	/**
+	 * A glob with '*' and '?' wildcards, as a regex.
+	 * @param glob
+	 * @return
+	 */
+	static Pattern toRegex(String glob)
+	{
+		StringBuilder regex = new StringBuilder();
+		StringBuilder literal = new StringBuilder();
+		for(char c : glob.toCharArray())
+		{
+			if(c == '*' || c == '?')
+			{
+				if(literal.length() > 0)
+				{
+					regex.append(Pattern.quote(literal.toString()));
+					literal.setLength(0);
+				}
+				regex.append(c == '*' ? ".*" : ".");
+			}
+			else
+				literal.append(c);
+		}
+		if(literal.length() > 0)
+			regex.append(Pattern.quote(literal.toString()));
+		return Pattern.compile(regex.toString());
+	}
+	private Members membersOf(List<String> routes)
+	{
+		List<String> queues = new ArrayList<>(routes.size());
+		for(String route : routes)
+		{
+			queues.add(redisOps.prepareListKey(exchange, route));
+		}
+		return new Members(Collections.unmodifiableList(routes), Collections.unmodifiableList(queues));
+	}
+	/**
+	 * Park on empty queues till any of them is woken, or the given max time elapses. To be set before the start.
+	 * @param wakeup
+	 * @param maxMillis
+	 */
+	void setParking(QueueWakeup wakeup, long maxMillis) {
+		this.wakeup = wakeup;
+		this.parkMillis = maxMillis;
+	}
+	/**
+	 * Join the initial routes, resolving the pattern if any. Later routes are joined on being resolved.
+	 * @param onJoin
+	 */
+	void start(JoinHandler onJoin)
+	{
+		this.onJoin = onJoin;
+		if(pattern != null)
+			resolve();
+		else
+		{
+			for(String route : members.routes)
+			{
+				onJoin.joined(route);
+			}
+		}
+		if(multiple)
+			log.info("["+identifier+"] Consuming from routes "+members.routes+(glob != null ? " matching '"+glob+"'" : ""));
+	}
+	/**
+	 * If the listener consumes from several routes, or a pattern, through {@link #fetch(int, long)}.
+	 * @return
+	 */
+	boolean isMultiple() {
+		return multiple;
+	}
+	/**
+	 * The current member routes.
+	 * @return
+	 */
+	List<String> routes() {
+		return members.routes;
+	}
+	/**
+	 * Resolve the pattern against the queues on the exchange, and join the new ones.
+	 */
+	private synchronized void resolve()
+	{
+		resolvedAt = System.currentTimeMillis();
+		String prefix = redisOps.prepareListKey(exchange, "");
+		Set<String> resolved = new TreeSet<>();
+		for(String queue : redisOps.findQueueNames())
+		{
+			if(queue.startsWith(prefix) && pattern.matcher(queue.substring(prefix.length())).matches())
+				resolved.add(queue.substring(prefix.length()));
+		}
+		List<String> current = members.routes;
+		if(resolved.equals(new TreeSet<>(current)))
+			return;
+		for(String route : resolved)
+		{
+			if(!current.contains(route))
+			{
+				onJoin.joined(route);
+				log.info("["+identifier+"] Joined route '"+route+"'");
+			}
+		}
+		members = membersOf(new ArrayList<>(resolved));
+	}
+	/**
+	 * Wake the fetchers parked on the queues, as on a stop.
+	 */
+	void wake()
+	{
+		if(wakeup == null)
+			return;
+		for(String queue : members.queues)
+		{
+			wakeup.wake(queue);
+		}
+	}
+	/**
+	 * The total backlog of the queues.
+	 * @return
+	 */
+	long depth()
+	{
+		long depth = 0;
+		for(String route : members.routes)
+		{
+			depth += redisOps.size(exchange, route);
+		}
+		return depth;
+	}
+	/**
+	 * Fetch a batch from the next queue with items, waiting as described if all are empty.
+	 * @param max
+	 * @param await wait on an empty queue, in millis
+	 * @return dequeued items, all from the same route, or an empty list
+	 * @throws InterruptedException
+	 */
+	List<QRecord> fetch(int max, long await) throws InterruptedException
+	{
+		if(pattern != null && System.currentTimeMillis() - resolvedAt >= resolveMillis)
+			resolve();
+		Members current = members;
+		int n = current.routes.size();
+		if(n == 0)
+		{
+			//nothing matched yet
+			Thread.sleep(await);
+			return Collections.emptyList();
+		}
+		int start = Math.floorMod(cursor, n);
+		List<String> order = new ArrayList<>(n);
+		order.addAll(current.routes.subList(start, n));
+		order.addAll(current.routes.subList(0, start));
+		long generation = wakeup != null ? wakeup.generation(current.queues) : 0;
+		List<QRecord> batch = redisOps.dequeueAny(exchange, order, max);
+		if(!batch.isEmpty())
+		{
+			cursor = current.routes.indexOf(batch.get(0).getKey().getRoutingKey()) + 1;
+			return batch;
+		}
+		if(wakeup != null)
+		{
+			//a queue created meanwhile does not wake, till it is resolved
+			wakeup.awaitAny(current.queues, generation, pattern != null ? Math.min(parkMillis, resolveMillis) : parkMillis,
+					TimeUnit.MILLISECONDS);
+			return batch;
+		}
+		cursor = start + 1;
+		return redisOps.dequeue(exchange, current.routes.get(start), max, await, TimeUnit.MILLISECONDS);
+	}
+}
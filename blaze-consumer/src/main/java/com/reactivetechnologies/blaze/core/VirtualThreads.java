@@ -0,0 +1,58 @@
+/**
+ * Copyright 2017 esutdal
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+package com.reactivetechnologies.blaze.core;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+/**
+ * Creates virtual thread executors, if the runtime supports them (JDK 21+). The framework is built for Java 8, hence
+ * the JDK API is looked up reflectively.
+ * @author esutdal
+ *
+ */
+final class VirtualThreads {
+
+	private static final Logger log = LoggerFactory.getLogger(VirtualThreads.class);
+	private VirtualThreads() {
+	}
+	/**
+	 * An executor that starts a new virtual thread for each task, named with the given prefix and a counter.
+	 * @param namePrefix
+	 * @return the executor, or null if virtual threads are not available in this runtime
+	 */
+	static ExecutorService newThreadPerTaskExecutor(String namePrefix)
+	{
+		try
+		{
+			Class<?> builderType = Class.forName("java.lang.Thread$Builder");
+			Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+			builder = builderType.getMethod("name", String.class, long.class).invoke(builder, namePrefix, 0L);
+			ThreadFactory factory = (ThreadFactory) builderType.getMethod("factory").invoke(builder);
+			Method newExecutor = Executors.class.getMethod("newThreadPerTaskExecutor", ThreadFactory.class);
+			return (ExecutorService) newExecutor.invoke(null, factory);
+		}
+		catch (Exception e) {
+			//not available, or a preview feature not enabled
+			log.debug("Virtual threads not available", e);
+			return null;
+		}
+	}
+}
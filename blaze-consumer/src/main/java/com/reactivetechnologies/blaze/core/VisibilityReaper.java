@@ -0,0 +1,139 @@
+/**
+ * Copyright 2017 esutdal
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+package com.reactivetechnologies.blaze.core;
+
+import java.io.IOException;
+import java.util.List;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.reactivetechnologies.blaze.metrics.ListenerMetrics;
+import com.reactivetechnologies.blaze.struct.QRecord;
+import com.reactivetechnologies.mq.Data;
+import com.reactivetechnologies.mq.consume.AbstractQueueListener;
+import com.reactivetechnologies.mq.ops.ConsumerOperations;
+/**
+ * Periodic task to expire messages of a consumer that have been in process beyond the visibility timeout.
+ * An expired message is requeued at tail of its source queue with an incremented delivery count, or dead lettered
+ * if the consumer does not allow a redelivery. The worker still processing the message, if any, is then
+ * handled as per the {@linkplain HungWorkerPolicy}.
+ * <p>
+ * Only the messages with a deadline are expired. A message is moved to process along with its deadline in a script,
+ * except when it is fetched by the blocking pop on an empty queue, and its deadline is added by the following call. A
+ * message left without a deadline by a crash in between is recovered by the lease reclaim of the instance instead.
+ * @author esutdal
+ *
+ */
+class VisibilityReaper implements Runnable {
+
+	private static final Logger log = LoggerFactory.getLogger(VisibilityReaper.class);
+	private static final int FETCH_SIZE = 100;
+
+	private final AbstractQueueListener<? extends Data> consumer;
+	private final QueueRoutes routes;
+	private final InflightTracker tracker;
+	private final ConsumerOperations redisOps;
+	private final QueueContainerImpl container;
+	private final HungWorkerPolicy policy;
+	private final ListenerMetrics metrics;
+
+	VisibilityReaper(AbstractQueueListener<? extends Data> consumer, QueueRoutes routes, InflightTracker tracker,
+			ConsumerOperations redisOps, QueueContainerImpl container, HungWorkerPolicy policy, ListenerMetrics metrics) {
+		this.consumer = consumer;
+		this.routes = routes;
+		this.tracker = tracker;
+		this.redisOps = redisOps;
+		this.container = container;
+		this.policy = policy;
+		this.metrics = metrics;
+	}
+
+	@Override
+	public void run() {
+		try
+		{
+			for(String route : routes.routes())
+			{
+				List<QRecord> expired;
+				do
+				{
+					expired = redisOps.fetchExpired(consumer.exchange(), route, FETCH_SIZE);
+					for(QRecord qr : expired)
+					{
+						expire(qr);
+					}
+				}
+				while (expired.size() == FETCH_SIZE);
+			}
+		}
+		catch (Exception e) {
+			log.warn("["+consumer.identifier()+"] Visibility reaper run failed", e);
+		}
+	}
+
+	private void expire(QRecord qr)
+	{
+		boolean redeliver;
+		try {
+			redeliver = consumer.allowRedelivery(qr.isExpired(), (short) (qr.getRedeliveryCount()+1), consumer.decode(qr));
+		} catch (IOException e) {
+			//it would fail to be read again on a redelivery
+			log.error("["+consumer.identifier()+"] Unable to read expired message "+qr.getKey().getTimeuid()+". Error => "+e.getMessage());
+			redeliver = false;
+		}
+		if(!redisOps.expireInproc(qr, redeliver))
+		{
+			//committed meanwhile
+			return;
+		}
+		log.warn("["+consumer.identifier()+"] Message "+qr.getKey().getTimeuid()+" exceeded visibility timeout. "
+				+ (redeliver ? "Message will be redelivered" : "Message being discarded"));
+		metrics.onExpired();
+		if(!redeliver)
+		{
+			container.scheduleDeadLetter(qr);
+		}
+
+		InflightTracker.Inflight inflight = tracker.get(qr);
+		if(inflight != null)
+		{
+			inflight.reaped = true;
+			handleHungWorker(inflight);
+		}
+	}
+
+	private void handleHungWorker(InflightTracker.Inflight inflight)
+	{
+		switch(policy)
+		{
+			case INTERRUPT:
+				log.info("["+consumer.identifier()+"] Interrupting worker "+inflight.worker.getName());
+				inflight.worker.interrupt();
+				break;
+			case ABANDON:
+				if(inflight.executor != null)
+				{
+					log.info("["+consumer.identifier()+"] Abandoning worker "+inflight.worker.getName());
+					inflight.abandoned = true;
+					inflight.executor.execute(inflight.task.newLoop());
+				}
+				break;
+			default:
+				break;
+		}
+	}
+}
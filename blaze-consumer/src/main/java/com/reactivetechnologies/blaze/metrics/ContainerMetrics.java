@@ -0,0 +1,251 @@
+/**
+ * Copyright 2017 esutdal
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+package com.reactivetechnologies.blaze.metrics;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.management.MBeanServer;
+import javax.management.MalformedObjectNameException;
+import javax.management.ObjectName;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.connection.RedisConnectionFactory;
+import org.springframework.stereotype.Component;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import io.micrometer.core.instrument.Clock;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.Tags;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.composite.CompositeMeterRegistry;
+import io.micrometer.jmx.JmxConfig;
+import io.micrometer.jmx.JmxMeterRegistry;
+import io.micrometer.prometheus.PrometheusConfig;
+import io.micrometer.prometheus.PrometheusMeterRegistry;
+/**
+ * Micrometer meters for the container internals. The meters are exported over JMX, and as a text scrape
+ * over http if a port is configured. All gauges are sampled on read, and the counters and timers are lock-free,
+ * so the metrics can be left enabled in production. When disabled, the meters are no-op.
+ * <p>
+ * Meters exposed:
+ * <pre>
+ * blaze.pool.*                    fork-join pool parallelism, size, active and queued tasks, steals (tag pool)
+ * blaze.consumer.messages         messages by outcome (tags listener, queue, outcome)
+ * blaze.consumer.inflight         messages being processed
+ * blaze.consumer.throttled        fetches rejected by throttling
+ * blaze.consumer.dedupe           dedupe filter lookups (tag result: local_hit, redis_hit, miss)
+ * blaze.consumer.concurrency      worker loops running
+ * blaze.consumer.paused           1 if fetching is paused by the control api
+ * blaze.container.rollbacks.pending   rollbacks scheduled after a backoff delay
+ * blaze.redis.acks                commit/rollback latency (tag command). The dequeue is not timed, since it
+ *                                 blocks awaiting messages
+ * blaze.redis.pool.*              connection pool active, idle, waiters, mean borrow wait (tag pool)
+ * </pre>
+ * @author esutdal
+ *
+ */
+@Component
+public class ContainerMetrics {
+
+	private static final Logger log = LoggerFactory.getLogger(ContainerMetrics.class);
+	private static final String POOL_MBEANS = "org.apache.commons.pool2:type=GenericObjectPool,*";
+
+	@Value("${consumer.metrics.enable:true}")
+	private boolean enabled;
+	@Value("${consumer.metrics.jmx.domain:blaze}")
+	private String jmxDomain;
+	@Value("${consumer.metrics.scrape.port:0}")
+	private int scrapePort;
+	//ensure the connection pool is initialized before binding its metrics
+	@Autowired
+	private RedisConnectionFactory connectionFactory;
+
+	private final CompositeMeterRegistry registry = new CompositeMeterRegistry();
+	private PrometheusMeterRegistry prometheus;
+	private JmxMeterRegistry jmx;
+	private HttpServer scrapeServer;
+	private final AtomicInteger pendingRollbacks = new AtomicInteger();
+	private Timer commitTimer;
+	private Timer rollbackTimer;
+
+	@PostConstruct
+	private void init() throws IOException
+	{
+		if(enabled)
+		{
+			prometheus = new PrometheusMeterRegistry(PrometheusConfig.DEFAULT);
+			jmx = new JmxMeterRegistry(new JmxConfig() {
+
+				@Override
+				public String get(String key) {
+					return null;
+				}
+				@Override
+				public String domain() {
+					return jmxDomain;
+				}
+			}, Clock.SYSTEM);
+			registry.add(prometheus);
+			registry.add(jmx);
+			bindRedisPool();
+			if(scrapePort > 0)
+			{
+				startScrapeEndpoint();
+			}
+			log.info("Container metrics enabled. JMX domain '"+jmxDomain+"'" + (scrapePort > 0 ? ", scrape port "+scrapePort : ""));
+		}
+		Gauge.builder("blaze.container.rollbacks.pending", pendingRollbacks, AtomicInteger::get)
+		.description("Rollbacks scheduled after a backoff delay").register(registry);
+		commitTimer = Timer.builder("blaze.redis.acks").tag("command", "commit").register(registry);
+		rollbackTimer = Timer.builder("blaze.redis.acks").tag("command", "rollback").register(registry);
+	}
+	@PreDestroy
+	private void destroy()
+	{
+		if(scrapeServer != null)
+			scrapeServer.stop(0);
+		registry.close();
+	}
+	private void startScrapeEndpoint() throws IOException
+	{
+		scrapeServer = HttpServer.create(new InetSocketAddress(scrapePort), 0);
+		scrapeServer.createContext("/metrics", new HttpHandler() {
+
+			@Override
+			public void handle(HttpExchange exchange) throws IOException {
+				byte[] body = scrape().getBytes(StandardCharsets.UTF_8);
+				exchange.getResponseHeaders().set("Content-Type", "text/plain; version=0.0.4; charset=utf-8");
+				exchange.sendResponseHeaders(200, body.length);
+				try(OutputStream out = exchange.getResponseBody())
+				{
+					out.write(body);
+				}
+			}
+		});
+		scrapeServer.start();
+	}
+	/**
+	 * The meters in the text exposition format.
+	 * @return
+	 */
+	public String scrape()
+	{
+		return prometheus != null ? prometheus.scrape() : "";
+	}
+	/**
+	 * Bind gauges to the connection pool MBeans, which commons-pool registers by default.
+	 */
+	private void bindRedisPool()
+	{
+		MBeanServer mbs = ManagementFactory.getPlatformMBeanServer();
+		Set<ObjectName> pools;
+		try {
+			pools = mbs.queryNames(new ObjectName(POOL_MBEANS), null);
+		} catch (MalformedObjectNameException e) {
+			throw new IllegalStateException(e);
+		}
+		if(pools.isEmpty())
+		{
+			log.info("No connection pool MBean found. Redis pool metrics will not be available");
+			return;
+		}
+		for(ObjectName pool : pools)
+		{
+			Tags tags = Tags.of("pool", pool.getKeyProperty("name"));
+			poolGauge(mbs, pool, "NumActive", "blaze.redis.pool.active", tags);
+			poolGauge(mbs, pool, "NumIdle", "blaze.redis.pool.idle", tags);
+			poolGauge(mbs, pool, "NumWaiters", "blaze.redis.pool.waiters", tags);
+			poolGauge(mbs, pool, "MeanBorrowWaitTimeMillis", "blaze.redis.pool.borrow.wait.millis", tags);
+		}
+	}
+	private void poolGauge(MBeanServer mbs, ObjectName pool, String attribute, String name, Tags tags)
+	{
+		Gauge.builder(name, mbs, s -> {
+			try {
+				return ((Number) s.getAttribute(pool, attribute)).doubleValue();
+			} catch (Exception e) {
+				return Double.NaN;
+			}
+		}).tags(tags).register(registry);
+	}
+	/**
+	 * Bind gauges to a fork-join pool of the container.
+	 * @param pool
+	 * @param name
+	 */
+	public void bindPool(ForkJoinPool pool, String name)
+	{
+		Tags tags = Tags.of("pool", name);
+		Gauge.builder("blaze.pool.parallelism", pool, ForkJoinPool::getParallelism).tags(tags).register(registry);
+		Gauge.builder("blaze.pool.size", pool, ForkJoinPool::getPoolSize).tags(tags).register(registry);
+		Gauge.builder("blaze.pool.active", pool, ForkJoinPool::getActiveThreadCount).tags(tags).register(registry);
+		Gauge.builder("blaze.pool.running", pool, ForkJoinPool::getRunningThreadCount).tags(tags).register(registry);
+		Gauge.builder("blaze.pool.queued.tasks", pool, ForkJoinPool::getQueuedTaskCount).tags(tags).register(registry);
+		Gauge.builder("blaze.pool.queued.submissions", pool, ForkJoinPool::getQueuedSubmissionCount).tags(tags).register(registry);
+		Gauge.builder("blaze.pool.steals", pool, ForkJoinPool::getStealCount).tags(tags).register(registry);
+	}
+	/**
+	 * Register the meters for a listener.
+	 * @param listener identifier
+	 * @param queue
+	 * @param throttleTps
+	 * @return
+	 */
+	public ListenerMetrics forListener(String listener, String queue, int throttleTps)
+	{
+		return new ListenerMetrics(registry, listener, queue, throttleTps);
+	}
+	/**
+	 * Remove the meters of a listener.
+	 * @param metrics
+	 */
+	public void remove(ListenerMetrics metrics)
+	{
+		metrics.remove();
+	}
+	public void recordCommit(long nanos)
+	{
+		commitTimer.record(nanos, TimeUnit.NANOSECONDS);
+	}
+	public void recordRollback(long nanos)
+	{
+		rollbackTimer.record(nanos, TimeUnit.NANOSECONDS);
+	}
+	public void rollbackScheduled()
+	{
+		pendingRollbacks.incrementAndGet();
+	}
+	public void rollbackExecuted()
+	{
+		pendingRollbacks.decrementAndGet();
+	}
+}
@@ -0,0 +1,167 @@
+/**
+ * Copyright 2017 esutdal
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+package com.reactivetechnologies.blaze.metrics;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.Meter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tags;
+/**
+ * The meters of a registered listener, tagged by listener and queue. An instance is to be held by the
+ * container task, so that recording is a plain counter increment on the hot path.
+ * @author esutdal
+ *
+ */
+public final class ListenerMetrics {
+
+	static final String OUTCOME_COMMIT = "commit";
+	static final String OUTCOME_REDELIVERY = "redelivery";
+	static final String OUTCOME_DEADLETTER = "deadletter";
+	static final String OUTCOME_EXPIRED = "expired";
+	static final String OUTCOME_DUPLICATE = "duplicate";
+	static final String DEDUPE_LOCAL_HIT = "local_hit";
+	static final String DEDUPE_REDIS_HIT = "redis_hit";
+	static final String DEDUPE_MISS = "miss";
+
+	private final MeterRegistry registry;
+	private final List<Meter> meters = new ArrayList<>();
+	private final AtomicInteger inflight = new AtomicInteger();
+	private final AtomicInteger concurrency = new AtomicInteger();
+	private final AtomicInteger throttleTps = new AtomicInteger();
+	private final AtomicInteger paused = new AtomicInteger();
+	private final Counter committed;
+	private final Counter redelivered;
+	private final Counter deadLettered;
+	private final Counter expired;
+	private final Counter duplicated;
+	private final Counter throttled;
+	private final Counter dedupeLocalHits;
+	private final Counter dedupeRedisHits;
+	private final Counter dedupeMisses;
+
+	ListenerMetrics(MeterRegistry registry, String listener, String queue, int throttleTps)
+	{
+		this.registry = registry;
+		Tags tags = Tags.of("listener", listener, "queue", queue);
+		committed = counter("blaze.consumer.messages", tags.and("outcome", OUTCOME_COMMIT));
+		redelivered = counter("blaze.consumer.messages", tags.and("outcome", OUTCOME_REDELIVERY));
+		deadLettered = counter("blaze.consumer.messages", tags.and("outcome", OUTCOME_DEADLETTER));
+		expired = counter("blaze.consumer.messages", tags.and("outcome", OUTCOME_EXPIRED));
+		duplicated = counter("blaze.consumer.messages", tags.and("outcome", OUTCOME_DUPLICATE));
+		throttled = counter("blaze.consumer.throttled", tags);
+		dedupeLocalHits = counter("blaze.consumer.dedupe", tags.and("result", DEDUPE_LOCAL_HIT));
+		dedupeRedisHits = counter("blaze.consumer.dedupe", tags.and("result", DEDUPE_REDIS_HIT));
+		dedupeMisses = counter("blaze.consumer.dedupe", tags.and("result", DEDUPE_MISS));
+		meters.add(Gauge.builder("blaze.consumer.inflight", inflight, AtomicInteger::get).tags(tags)
+				.description("Messages being processed").register(registry));
+		meters.add(Gauge.builder("blaze.consumer.concurrency", concurrency, AtomicInteger::get).tags(tags)
+				.description("Worker loops running").register(registry));
+		this.throttleTps.set(throttleTps);
+		meters.add(Gauge.builder("blaze.consumer.throttle.tps", this.throttleTps, AtomicInteger::get).tags(tags)
+				.description("Configured throttle threshold, if enabled").register(registry));
+		meters.add(Gauge.builder("blaze.consumer.paused", paused, AtomicInteger::get).tags(tags)
+				.description("1 if fetching is paused").register(registry));
+	}
+	private Counter counter(String name, Tags tags)
+	{
+		Counter c = Counter.builder(name).tags(tags).register(registry);
+		meters.add(c);
+		return c;
+	}
+	/**
+	 * Remove the meters of this listener from the registry.
+	 */
+	void remove()
+	{
+		for(Meter m : meters)
+		{
+			registry.remove(m);
+		}
+		meters.clear();
+	}
+	public void onMessageStart()
+	{
+		inflight.incrementAndGet();
+	}
+	public void onMessageEnd()
+	{
+		inflight.decrementAndGet();
+	}
+	/**
+	 * Messages being processed.
+	 * @return
+	 */
+	public int inflight()
+	{
+		return inflight.get();
+	}
+	public void onConcurrency(int loops)
+	{
+		concurrency.set(loops);
+	}
+	public void onThrottleTps(int tps)
+	{
+		throttleTps.set(tps);
+	}
+	public void onPaused(boolean isPaused)
+	{
+		paused.set(isPaused ? 1 : 0);
+	}
+	public void onCommit()
+	{
+		committed.increment();
+	}
+	public void onRedelivery()
+	{
+		redelivered.increment();
+	}
+	public void onDeadLetter()
+	{
+		deadLettered.increment();
+	}
+	public void onExpired()
+	{
+		expired.increment();
+	}
+	public void onThrottled()
+	{
+		throttled.increment();
+	}
+	/**
+	 * A redelivery of a processed message, found by the dedupe filter and committed without processing.
+	 * @param remote if found in Redis, rather than the local cache
+	 */
+	public void onDuplicate(boolean remote)
+	{
+		duplicated.increment();
+		if(remote)
+			dedupeRedisHits.increment();
+		else
+			dedupeLocalHits.increment();
+	}
+	/**
+	 * A message not found by the dedupe filter.
+	 */
+	public void onUnique()
+	{
+		dedupeMisses.increment();
+	}
+}
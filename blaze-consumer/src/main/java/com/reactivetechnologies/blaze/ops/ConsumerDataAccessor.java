@@ -15,24 +15,104 @@
  */
 package com.reactivetechnologies.blaze.ops;
 
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.TimeUnit;
 
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.context.annotation.Profile;
 import org.springframework.dao.DataAccessException;
 import org.springframework.data.redis.core.RedisOperations;
 import org.springframework.data.redis.core.SessionCallback;
+import org.springframework.data.redis.core.script.RedisScript;
+import org.springframework.data.redis.serializer.RedisSerializer;
 import org.springframework.stereotype.Component;
 
+import com.reactivetechnologies.blaze.jfr.BlazeEvents;
+import com.reactivetechnologies.blaze.struct.MessageTrace.Hop;
 import com.reactivetechnologies.blaze.struct.QRecord;
+import com.reactivetechnologies.blaze.struct.QRecordSerializer;
 import com.reactivetechnologies.mq.ops.ConsumerOperations;
 @Component
+@Profile("!" + InMemoryDataAccessor.PROFILE)
 public class ConsumerDataAccessor extends BaseDataAccessor implements ConsumerOperations {
 
 	private static final Logger log = LoggerFactory.getLogger(ConsumerDataAccessor.class);
+	private static final RedisScript<Long> INPROC_COMMIT = RedisScripts.load("inproc_commit", Long.class);
+	private static final RedisScript<Long> INPROC_EXPIRE = RedisScripts.load("inproc_expire", Long.class);
+	@SuppressWarnings("rawtypes")
+	private static final RedisScript<List> INPROC_DEQUEUE = RedisScripts.load("inproc_dequeue", List.class);
+	@SuppressWarnings("rawtypes")
+	private static final RedisScript<List> INPROC_DEQUEUE_ANY = RedisScripts.load("inproc_dequeue_any", List.class);
+	
+	private final ScriptArgsSerializer scriptArgs = new ScriptArgsSerializer();
+	/**
+	 * Deserializes each element of a multi-bulk script reply.
+	 */
+	@SuppressWarnings("rawtypes")
+	private final RedisSerializer recordSerializer = new QRecordSerializer();
+	/**
+	 * Visibility timeout, keyed by source queue.
+	 */
+	private final Map<String, Long> visibilityTimeouts = new ConcurrentHashMap<>();
+	
+	@PostConstruct
+	private void init()
+	{
+		doInit();
+	}
+	@PreDestroy
+	private void destroy()
+	{
+		doDestroy();
+	}
+	private String prepareDeadlineKey(String preparedKey)
+	{
+		return prepareInProcKey(preparedKey) + DEADLINE_SUFFIX;
+	}
+	/**
+	 * Remove the message from inproc, and clear its visibility deadline, in a script. The message is
+	 * requeued only if it was still in process, so that a message already expired by the reaper does not
+	 * get enqueued twice.
+	 * @param qr
+	 * @param key
+	 * @param enqueueAgain
+	 */
+	private void endCommitTracked(QRecord qr, String key, boolean enqueueAgain)
+	{
+		Long c = redisTemplate.execute(INPROC_COMMIT, scriptArgs, null,
+				Arrays.asList(prepareDeadlineKey(key), prepareInProcKey(key), key), qr.asStored(),
+				enqueueAgain ? qr : "", QueueWakeup.CHANNEL);
+		if (c == null || c != 1) {
+			log.warn("Message was not removed from inproc on endCommit. count="+c+". Was it expired by visibility timeout?");
+		}
+		else if(!enqueueAgain)
+		{
+			statsRecorder.recordDequeu(key);
+		}
+	}
 	@Override
 	public void endCommit(QRecord qr, String key, boolean enqueueAgain) {
+		Object event = BlazeEvents.beginCommit();
+		if(visibilityTimeouts.containsKey(key))
+		{
+			endCommitTracked(qr, key, enqueueAgain);
+		}
+		else
+		{
+			endCommitInTransaction(qr, key, enqueueAgain);
+		}
+		BlazeEvents.endCommit(event, key, qr, enqueueAgain);
+	}
+	private void endCommitInTransaction(QRecord qr, String key, boolean enqueueAgain) {
 		List<Object> results = redisTemplate.execute(new SessionCallback<List<Object>>() {
 
 			@Override
@@ -48,8 +128,7 @@ public class ConsumerDataAccessor extends BaseDataAccessor implements ConsumerOp
 				//the QRecord has been incremented now. So to make the 'remove'
 				//operation fire, we will decrement the count to make it equal
 				//to the state saved in the inproc queue
-				redisTemplate.boundListOps(prepareInProcKey(key)).remove(-1,
-						qr.getRedeliveryCount() > 0 ? qr.decrDeliveryCount() : qr);
+				redisTemplate.boundListOps(prepareInProcKey(key)).remove(-1, qr.asStored());
 				
 				if(enqueueAgain)
 				{
@@ -73,6 +152,11 @@ public class ConsumerDataAccessor extends BaseDataAccessor implements ConsumerOp
 		if (c != 1) {
 			log.warn("Message was not removed from inproc on endCommit. count="+c);
 		}
+		//RPUSH returns the length of list. wake the parked consumers if it was empty
+		if(enqueueAgain && results.size() > 1 && Long.valueOf(1).equals(results.get(1)))
+		{
+			stringRedis.convertAndSend(QueueWakeup.CHANNEL, key);
+		}
 	}
 
 	@Override
@@ -83,7 +167,94 @@ public class ConsumerDataAccessor extends BaseDataAccessor implements ConsumerOp
 		String inprocKey = prepareInProcKey(preparedKey);
 		
 		log.debug("dequeue: RPOP "+preparedKey+" LPUSH "+inprocKey);
-		return redisTemplate.opsForList().rightPopAndLeftPush(preparedKey, inprocKey, await, unit);
+		Long timeout = visibilityTimeouts.get(preparedKey);
+		Object event = BlazeEvents.beginDequeue();
+		QRecord qr = timeout != null ? dequeueTracked(preparedKey, inprocKey, timeout) : null;
+		if(qr == null)
+		{
+			qr = redisTemplate.opsForList().rightPopAndLeftPush(preparedKey, inprocKey, await, unit);
+			//a script cannot block. a message moved by the blocking pop has no deadline till it is added next, so
+			//on a crash in between, it is recovered by the lease reclaim and not the visibility reaper
+			if(qr != null && timeout != null)
+				redisTemplate.opsForZSet().add(prepareDeadlineKey(preparedKey), qr, System.currentTimeMillis() + timeout);
+		}
+		BlazeEvents.endDequeue(event, preparedKey, qr);
+		if(qr != null && qr.getTrace() != null)
+			qr.getTrace().stamp(Hop.DEQUEUED);
+		return qr;
+	}
+	/**
+	 * Move the tail of the queue to inproc along with its visibility deadline, atomically in a script, without blocking.
+	 * @param preparedKey
+	 * @param inprocKey
+	 * @param timeout
+	 * @return the message, or null if the queue is empty
+	 */
+	@SuppressWarnings("unchecked")
+	private QRecord dequeueTracked(String preparedKey, String inprocKey, long timeout)
+	{
+		List<QRecord> moved = redisTemplate.execute(INPROC_DEQUEUE, scriptArgs, recordSerializer,
+				Arrays.asList(preparedKey, inprocKey, prepareDeadlineKey(preparedKey)), 1, System.currentTimeMillis() + timeout);
+		return moved == null || moved.isEmpty() ? null : moved.get(0);
+	}
+
+	@SuppressWarnings("unchecked")
+	@Override
+	public List<QRecord> dequeue(String xchng, String route, int max, long await, TimeUnit unit) {
+		String preparedKey = prepareListKey(xchng, route);
+		Long timeout = visibilityTimeouts.get(preparedKey);
+		Object event = BlazeEvents.beginDequeue();
+		List<QRecord> batch = redisTemplate.execute(INPROC_DEQUEUE, scriptArgs, recordSerializer,
+				Arrays.asList(preparedKey, prepareInProcKey(preparedKey), prepareDeadlineKey(preparedKey)), max,
+				timeout != null ? System.currentTimeMillis() + timeout : 0);
+		if(batch == null || batch.isEmpty())
+		{
+			BlazeEvents.endDequeue(event, preparedKey, null);
+			//nothing available. wait for the next one
+			batch = new ArrayList<>(1);
+			QRecord qr = dequeue(xchng, route, await, unit);
+			if(qr != null)
+				batch.add(qr);
+			return batch;
+		}
+		BlazeEvents.endDequeue(event, preparedKey, batch.get(0));
+		for(QRecord qr : batch)
+		{
+			if(qr.getTrace() != null)
+				qr.getTrace().stamp(Hop.DEQUEUED);
+		}
+		return batch;
+	}
+
+	@SuppressWarnings("unchecked")
+	@Override
+	public List<QRecord> dequeueAny(String xchng, List<String> routes, int max) {
+		List<String> keys = new ArrayList<>(routes.size() * 3);
+		Object[] args = new Object[routes.size() + 1];
+		args[0] = max;
+		long now = System.currentTimeMillis();
+		for (int i = 0; i < routes.size(); i++) {
+			String preparedKey = prepareListKey(xchng, routes.get(i));
+			keys.add(preparedKey);
+			keys.add(prepareInProcKey(preparedKey));
+			keys.add(prepareDeadlineKey(preparedKey));
+			Long timeout = visibilityTimeouts.get(preparedKey);
+			args[i + 1] = timeout != null ? now + timeout : 0;
+		}
+		Object event = BlazeEvents.beginDequeue();
+		List<QRecord> batch = redisTemplate.execute(INPROC_DEQUEUE_ANY, scriptArgs, recordSerializer, keys, args);
+		if(batch == null || batch.isEmpty())
+		{
+			BlazeEvents.endDequeue(event, keys.isEmpty() ? null : keys.get(0), null);
+			return new ArrayList<>(0);
+		}
+		BlazeEvents.endDequeue(event, prepareListKey(xchng, batch.get(0).getKey().getRoutingKey()), batch.get(0));
+		for(QRecord qr : batch)
+		{
+			if(qr.getTrace() != null)
+				qr.getTrace().stamp(Hop.DEQUEUED);
+		}
+		return batch;
 	}
 
 	@Override
@@ -110,10 +281,61 @@ public class ConsumerDataAccessor extends BaseDataAccessor implements ConsumerOp
 	public boolean clearInproc(String xchangeKey, String routeKey) {
 		final String listKey = prepareInProcKey(xchangeKey, routeKey);
 
-		List<Object> removed = invokeClearInTransaction(listKey);
-		log.debug("Removed items: "+removed);
-		log.info("Removed items count: "+removed.size());
-		return sizeOf(listKey) == 0;
+		long removed = invokeClearInScript(listKey, null);
+		invokeClearInScript(listKey + DEADLINE_SUFFIX, null);
+		log.info("Removed items count: "+removed);
+		return true;
+	}
+
+	@Override
+	public void registerInproc(String xchangeKey, String routeKey) {
+		instanceService.registerInProcKey(prepareInProcKey(xchangeKey, routeKey));
+	}
+	@Override
+	public void trackVisibility(String xchangeKey, String routeKey, long timeoutMillis) {
+		String preparedKey = prepareListKey(xchangeKey, routeKey);
+		if(timeoutMillis > 0)
+			visibilityTimeouts.put(preparedKey, timeoutMillis);
+		else
+			visibilityTimeouts.remove(preparedKey);
+	}
+
+	@Override
+	public List<QRecord> fetchExpired(String xchangeKey, String routeKey, int max) {
+		String deadlineKey = prepareDeadlineKey(prepareListKey(xchangeKey, routeKey));
+		Set<QRecord> expired = redisTemplate.opsForZSet().rangeByScore(deadlineKey, Double.NEGATIVE_INFINITY, System.currentTimeMillis(), 0, max);
+		return expired == null ? new ArrayList<>() : new ArrayList<>(expired);
+	}
+
+	@Override
+	public boolean expireInproc(QRecord qr, boolean requeue) {
+		String preparedKey = prepareListKey(qr.getKey().getExchange(), qr.getKey().getRoutingKey());
+		//serialize the stored state before the record is incremented
+		byte[] stored = scriptArgs.serialize(qr.asStored());
+		if(requeue)
+		{
+			qr.incrDeliveryCount();
+			qr.setRedelivered(true);
+		}
+		Long c = redisTemplate.execute(INPROC_EXPIRE, scriptArgs, null,
+				Arrays.asList(prepareDeadlineKey(preparedKey), prepareInProcKey(preparedKey), preparedKey), stored,
+				requeue ? qr : "", QueueWakeup.CHANNEL);
+		boolean expired = c != null && c == 1;
+		if(expired && !requeue)
+		{
+			statsRecorder.recordDequeu(preparedKey);
+		}
+		return expired;
+	}
+
+	@Override
+	public void markProcessed(QRecord qr, long ttlMillis) {
+		stringRedis.opsForValue().set(PROCESSED_PREFIX + qr.getKey().getTimeuid(), "1", ttlMillis, TimeUnit.MILLISECONDS);
+	}
+
+	@Override
+	public boolean isProcessed(QRecord qr) {
+		return Boolean.TRUE.equals(stringRedis.hasKey(PROCESSED_PREFIX + qr.getKey().getTimeuid()));
 	}
 
 }
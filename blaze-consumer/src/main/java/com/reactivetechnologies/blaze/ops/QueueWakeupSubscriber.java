@@ -0,0 +1,66 @@
+/**
+ * Copyright 2017 esutdal
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+package com.reactivetechnologies.blaze.ops;
+
+import java.nio.charset.StandardCharsets;
+
+import javax.annotation.PostConstruct;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Profile;
+import org.springframework.data.redis.connection.Message;
+import org.springframework.data.redis.connection.MessageListener;
+import org.springframework.data.redis.listener.ChannelTopic;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
+import org.springframework.stereotype.Component;
+/**
+ * Subscribes to the {@linkplain QueueWakeup#CHANNEL wakeup channel}, if idle parking is enabled, and wakes the listeners
+ * parked on the queue published. This is a single subscription connection for all the listeners of the instance,
+ * so the idle cost does not grow with the listener count.
+ * <p>
+ * A pub/sub notification can be missed, for instance on a reconnect. A parked listener hence fetches again
+ * after the max park time regardless.
+ * @author esutdal
+ *
+ */
+@Component
+@Profile("!" + InMemoryDataAccessor.PROFILE)
+public class QueueWakeupSubscriber implements MessageListener {
+
+	private static final Logger log = LoggerFactory.getLogger(QueueWakeupSubscriber.class);
+	@Autowired
+	private RedisMessageListenerContainer listenerContainer;
+	@Autowired
+	private QueueWakeup wakeup;
+	@Value("${consumer.idle.park.enable:false}")
+	private boolean enabled;
+
+	@PostConstruct
+	private void init()
+	{
+		if(enabled)
+			listenerContainer.addMessageListener(this, new ChannelTopic(QueueWakeup.CHANNEL));
+	}
+	@Override
+	public void onMessage(Message message, byte[] pattern) {
+		String queue = new String(message.getBody(), StandardCharsets.UTF_8);
+		log.debug("Wakeup notification: "+queue);
+		wakeup.wake(queue);
+	}
+}
@@ -0,0 +1,15 @@
+-- Commit a message being processed under a visibility timeout. The message is removed from the INPROC
+-- queue and its deadline is cleared. If a record to requeue is given, it is appended to the tail of the
+-- SOURCE queue, but only if the message was still in process. A requeue to an empty queue is published
+-- over the wakeup channel.
+-- KEYS[1] deadline zset, KEYS[2] INPROC queue, KEYS[3] SOURCE queue
+-- ARGV[1] the message as stored in process, ARGV[2] the message to requeue, or empty, ARGV[3] wakeup channel
+-- Returns the number of items removed from the INPROC queue.
+redis.call('ZREM', KEYS[1], ARGV[1])
+local removed = redis.call('LREM', KEYS[2], -1, ARGV[1])
+if removed == 1 and ARGV[2] ~= '' then
+  if redis.call('RPUSH', KEYS[3], ARGV[2]) == 1 then
+    redis.call('PUBLISH', ARGV[3], KEYS[3])
+  end
+end
+return removed
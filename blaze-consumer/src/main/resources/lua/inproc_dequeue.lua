@@ -0,0 +1,18 @@
+-- Move a batch of messages from the tail of the SOURCE queue to the head of the INPROC queue, as repeated
+-- RPOPLPUSH would. If a visibility deadline is given, the moved messages are added to the deadline zset as well.
+-- KEYS[1] SOURCE queue, KEYS[2] INPROC queue, KEYS[3] deadline zset
+-- ARGV[1] max messages to move, ARGV[2] deadline in epoch millis, or 0 if visibility is not tracked
+-- Returns the moved messages, in the order popped. Empty if the SOURCE queue is empty.
+local moved = {}
+local deadline = tonumber(ARGV[2])
+for i = 1, tonumber(ARGV[1]) do
+  local m = redis.call('RPOPLPUSH', KEYS[1], KEYS[2])
+  if not m then
+    break
+  end
+  if deadline > 0 then
+    redis.call('ZADD', KEYS[3], deadline, m)
+  end
+  moved[i] = m
+end
+return moved
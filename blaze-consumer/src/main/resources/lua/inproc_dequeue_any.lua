@@ -0,0 +1,24 @@
+-- Move a batch of messages from the first non-empty of several SOURCE queues to its INPROC queue, as inproc_dequeue
+-- would for that queue. The queues are tried in the order given, so the caller rotates the order for fairness.
+-- KEYS[3i-2] SOURCE queue, KEYS[3i-1] INPROC queue, KEYS[3i] deadline zset, for each queue i
+-- ARGV[1] max messages to move, ARGV[i+1] deadline in epoch millis for queue i, or 0 if visibility is not tracked
+-- Returns the moved messages, in the order popped. Empty if all the SOURCE queues are empty.
+local max = tonumber(ARGV[1])
+for q = 1, #KEYS / 3 do
+  local deadline = tonumber(ARGV[q + 1])
+  local moved = {}
+  for i = 1, max do
+    local m = redis.call('RPOPLPUSH', KEYS[3 * q - 2], KEYS[3 * q - 1])
+    if not m then
+      break
+    end
+    if deadline > 0 then
+      redis.call('ZADD', KEYS[3 * q], deadline, m)
+    end
+    moved[i] = m
+  end
+  if #moved > 0 then
+    return moved
+  end
+end
+return {}
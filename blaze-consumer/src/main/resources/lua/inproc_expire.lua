@@ -0,0 +1,19 @@
+-- Expire an in-process message whose visibility deadline has passed. The message is removed from the
+-- INPROC queue and, if a record to requeue is given, appended to the tail of the SOURCE queue. A requeue
+-- to an empty queue is published over the wakeup channel.
+-- KEYS[1] deadline zset, KEYS[2] INPROC queue, KEYS[3] SOURCE queue
+-- ARGV[1] the message as stored in process, ARGV[2] the message to requeue, or empty to discard,
+-- ARGV[3] wakeup channel
+-- Returns 0 if the message was no longer in process (it was committed meanwhile), else 1.
+if redis.call('ZREM', KEYS[1], ARGV[1]) == 0 then
+  return 0
+end
+if redis.call('LREM', KEYS[2], -1, ARGV[1]) == 0 then
+  return 0
+end
+if ARGV[2] ~= '' then
+  if redis.call('RPUSH', KEYS[3], ARGV[2]) == 1 then
+    redis.call('PUBLISH', ARGV[3], KEYS[3])
+  end
+end
+return 1
@@ -0,0 +1,180 @@
+package com.reactivetech.messaging;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Map;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.reactivetechnologies.mq.Data;
+import com.reactivetechnologies.mq.DataCodec;
+import com.reactivetechnologies.mq.DataSerializable;
+import com.reactivetechnologies.mq.data.ByteData;
+import com.reactivetechnologies.mq.data.ObjectData;
+import com.reactivetechnologies.mq.data.TextData;
+/**
+ * The payloads written by a DataOutputStream, as read by the codec directly off the buffer.
+ */
+public class DataCodecTest {
+
+	/**
+	 * A private type with a private constructor, as a listener can declare its message type.
+	 */
+	private static final class Nested extends Data
+	{
+		private static final long serialVersionUID = 1L;
+		private int count;
+		private long total;
+		private double ratio;
+		private char mark;
+		private short flags;
+		private float score;
+		private Nested() {
+		}
+		@Override
+		public void writeData(DataOutput out) throws IOException {
+			super.writeData(out);
+			out.writeInt(count);
+			out.writeLong(total);
+			out.writeDouble(ratio);
+			out.writeChar(mark);
+			out.writeShort(flags);
+			out.writeFloat(score);
+		}
+		@Override
+		public void readData(DataInput in) throws IOException {
+			super.readData(in);
+			count = in.readInt();
+			total = in.readLong();
+			ratio = in.readDouble();
+			mark = in.readChar();
+			flags = in.readShort();
+			score = in.readFloat();
+		}
+	}
+
+	private static byte[] write(DataSerializable data) throws IOException
+	{
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		data.writeData(new DataOutputStream(out));
+		return out.toByteArray();
+	}
+	private static void assertHeader(Data expected, Data actual)
+	{
+		Assert.assertEquals(expected.getCorrelationID(), actual.getCorrelationID());
+		Assert.assertEquals(expected.getDestination(), actual.getDestination());
+		Assert.assertEquals(expected.getReplyTo(), actual.getReplyTo());
+		Assert.assertEquals(expected.getExpiryMillis(), actual.getExpiryMillis());
+		Assert.assertEquals(expected.getTimestamp(), actual.getTimestamp());
+		Assert.assertEquals(expected.isRedelivered(), actual.isRedelivered());
+	}
+	private static <T extends Data> T header(T data)
+	{
+		data.setReplyTo("codec.reply");
+		data.setExpiryMillis(60000);
+		data.setTimestamp(1500000000123L);
+		data.setRedelivered(true);
+		return data;
+	}
+
+	@Test
+	public void testTextData() throws IOException
+	{
+		//multi byte characters, and a surrogate pair
+		TextData data = header(new TextData("text \u00e9\u4e2d\ud83d\ude00 \u0000", "codec.text", "corr-1"));
+		TextData read = DataCodec.of(TextData.class).read(ByteBuffer.wrap(write(data)));
+		assertHeader(data, read);
+		Assert.assertEquals(data.getPayload(), read.getPayload());
+	}
+	@Test
+	public void testByteData() throws IOException
+	{
+		byte[] payload = new byte[1000];
+		for (int i = 0; i < payload.length; i++) {
+			payload[i] = (byte) i;
+		}
+		ByteData data = header(new ByteData(payload, "codec.bytes", "corr-2"));
+		ByteData read = DataCodec.of(ByteData.class).read(ByteBuffer.wrap(write(data)));
+		assertHeader(data, read);
+		Assert.assertArrayEquals(payload, read.getPayload());
+	}
+	@Test
+	public void testObjectData() throws IOException
+	{
+		ObjectData<Map<String, Integer>> data = header(new ObjectData<Map<String, Integer>>(Collections.singletonMap("count", 3), "codec.object"));
+		@SuppressWarnings("unchecked")
+		ObjectData<Map<String, Integer>> read = DataCodec.of(ObjectData.class).read(ByteBuffer.wrap(write(data)));
+		assertHeader(data, read);
+		Assert.assertEquals(data.getPayload(), read.getPayload());
+		Assert.assertEquals("{\"count\":3}", read.getPayload());
+	}
+	@Test
+	public void testNestedPrivateType() throws IOException
+	{
+		Nested data = header(new Nested());
+		data.count = -7;
+		data.total = Long.MIN_VALUE + 1;
+		data.ratio = 0.25;
+		data.mark = '\u4e2d';
+		data.flags = (short) 0xfffe;
+		data.score = 1.5f;
+		Nested read = DataCodec.of(Nested.class).read(ByteBuffer.wrap(write(data)));
+		assertHeader(data, read);
+		Assert.assertEquals(data.count, read.count);
+		Assert.assertEquals(data.total, read.total);
+		Assert.assertEquals(data.ratio, read.ratio, 0);
+		Assert.assertEquals(data.mark, read.mark);
+		Assert.assertEquals(data.flags, read.flags);
+		Assert.assertEquals(data.score, read.score, 0);
+	}
+	@Test
+	public void testBufferWithPosition() throws IOException
+	{
+		//a payload following a record header, as in a queue record
+		TextData data = header(new TextData("positioned", "codec.position", "corr-3"));
+		byte[] bytes = write(data);
+		byte[] framed = new byte[bytes.length + 13];
+		Arrays.fill(framed, (byte) 0x7f);
+		System.arraycopy(bytes, 0, framed, 5, bytes.length);
+		ByteBuffer buffer = ByteBuffer.wrap(framed, 5, bytes.length);
+		TextData read = DataCodec.of(TextData.class).read(buffer);
+		assertHeader(data, read);
+		Assert.assertEquals(data.getPayload(), read.getPayload());
+		//not moved by the read
+		Assert.assertEquals(5, buffer.position());
+		Assert.assertEquals(5 + bytes.length, buffer.limit());
+
+		//a slice, with an offset in its backing array
+		read = DataCodec.of(TextData.class).read(ByteBuffer.wrap(framed, 5, bytes.length).slice());
+		Assert.assertEquals(data.getPayload(), read.getPayload());
+	}
+	@Test
+	public void testTruncated() throws IOException
+	{
+		byte[] bytes = write(header(new ByteData(new byte[64], "codec.truncated")));
+		for (int len : new int[]{0, 1, 10, bytes.length - 1}) {
+			try {
+				DataCodec.of(ByteData.class).read(ByteBuffer.wrap(bytes, 0, len));
+				Assert.fail("Read a payload truncated to " + len);
+			} catch (EOFException e) {
+				//expected
+			}
+		}
+		//a truncated payload followed by other bytes, beyond the limit
+		bytes = write(header(new TextData("truncated", "codec.truncated")));
+		try {
+			DataCodec.of(TextData.class).read(ByteBuffer.wrap(bytes, 0, bytes.length - 2));
+			Assert.fail("Read a truncated string");
+		} catch (EOFException e) {
+			//expected
+		}
+	}
+}
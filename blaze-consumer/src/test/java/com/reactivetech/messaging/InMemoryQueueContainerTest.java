@@ -0,0 +1,196 @@
+package com.reactivetech.messaging;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.context.SpringBootTest.WebEnvironment;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.test.context.junit4.SpringJUnit4ClassRunner;
+
+import com.reactivetechnologies.blaze.BlazeConsumer;
+import com.reactivetechnologies.blaze.ops.InMemoryDataAccessor;
+import com.reactivetechnologies.blaze.struct.QRecord;
+import com.reactivetechnologies.mq.QueueService;
+import com.reactivetechnologies.mq.consume.Consumer;
+import com.reactivetechnologies.mq.consume.QueueListener;
+import com.reactivetechnologies.mq.consume.QueueListenerBuilder;
+import com.reactivetechnologies.mq.container.QueueContainer;
+import com.reactivetechnologies.mq.data.TextData;
+/**
+ * The container over the in-memory backend, so that it runs without a Redis server.
+ */
+@RunWith(SpringJUnit4ClassRunner.class)
+@SpringBootTest(classes = {BlazeConsumer.class}, webEnvironment = WebEnvironment.NONE, properties = {
+		"blaze.instance.id=inmemory-test", "consumer.throttle.enable=false", "consumer.redelivery.delay.millis=0",
+		"consumer.poll.await.millis=100", "consumer.visibility.reaper.millis=50"})
+@ActiveProfiles(InMemoryDataAccessor.PROFILE)
+public class InMemoryQueueContainerTest {
+
+	@Autowired
+	InMemoryDataAccessor ops;
+	@Autowired
+	QueueContainer container;
+
+	private void enqueue(String route, String... payloads)
+	{
+		enqueueKeyed(route, null, payloads);
+	}
+	private void enqueueKeyed(String route, String groupKey, String... payloads)
+	{
+		QRecord[] records = new QRecord[payloads.length];
+		for (int i = 0; i < payloads.length; i++) {
+			TextData data = new TextData(payloads[i], route);
+			data.setGroupKey(groupKey);
+			records[i] = QRecord.transformData(data, QueueService.DEFAULT_XCHANGE, route);
+		}
+		ops.enqueue(ops.prepareListKey(QueueService.DEFAULT_XCHANGE, route), records);
+	}
+	/**
+	 * Wait for the queue and its INPROC queue to be drained, which is after the commit (or dead lettering) of the last message.
+	 * @param route
+	 * @throws InterruptedException
+	 */
+	private void assertDrained(String route) throws InterruptedException
+	{
+		long until = System.currentTimeMillis() + 5000;
+		long size, inproc;
+		do {
+			size = ops.size(QueueService.DEFAULT_XCHANGE, route);
+			inproc = ops.sizeOf(ops.prepareInProcKey(QueueService.DEFAULT_XCHANGE, route));
+			if(size == 0 && inproc == 0)
+				return;
+			Thread.sleep(50);
+		} while (System.currentTimeMillis() < until);
+		Assert.fail("Not drained. size=" + size + ", inproc=" + inproc);
+	}
+	private static QueueListener<TextData> listener(String route, short maxDelivery, Consumer<TextData> consumer)
+	{
+		return new QueueListenerBuilder()
+		.concurrency(1)
+		.maxDelivery(maxDelivery)
+		.consumer(consumer)
+		.route(route)
+		.dataType(TextData.class)
+		.build();
+	}
+	private static abstract class TestConsumer implements Consumer<TextData>
+	{
+		@Override
+		public void destroy() {
+		}
+		@Override
+		public void init() {
+		}
+	}
+
+	@Test
+	public void testCommit() throws InterruptedException
+	{
+		final String route = "inmemory.commit";
+		final CountDownLatch latch = new CountDownLatch(3);
+		final AtomicInteger deliveries = new AtomicInteger();
+		enqueue(route, "m1", "m2", "m3");
+		Assert.assertEquals(3, ops.size(QueueService.DEFAULT_XCHANGE, route));
+
+		container.register(listener(route, (short) 3, new TestConsumer() {
+
+			@Override
+			public void onMessage(TextData m) throws Exception {
+				deliveries.incrementAndGet();
+				latch.countDown();
+			}
+		}));
+		Assert.assertTrue(latch.await(10, TimeUnit.SECONDS));
+		assertDrained(route);
+		Assert.assertEquals(3, deliveries.get());
+	}
+	@Test
+	public void testRollbackAndRedelivery() throws InterruptedException
+	{
+		final String route = "inmemory.redelivery";
+		final CountDownLatch latch = new CountDownLatch(1);
+		final AtomicInteger deliveries = new AtomicInteger();
+		final String[] received = new String[1];
+		enqueue(route, "m1");
+
+		container.register(listener(route, (short) 3, new TestConsumer() {
+
+			@Override
+			public void onMessage(TextData m) throws Exception {
+				if(deliveries.incrementAndGet() == 1)
+					throw new IllegalArgumentException("Dummy exception raised");
+				received[0] = m.getPayload();
+				latch.countDown();
+			}
+		}));
+		Assert.assertTrue(latch.await(10, TimeUnit.SECONDS));
+		assertDrained(route);
+		Assert.assertEquals(2, deliveries.get());
+		Assert.assertEquals("m1", received[0]);
+	}
+	@Test
+	public void testDeadLetterOnMaxDelivery() throws InterruptedException
+	{
+		final String route = "inmemory.deadletter";
+		final CountDownLatch latch = new CountDownLatch(2);
+		final AtomicInteger deliveries = new AtomicInteger();
+		enqueue(route, "m1");
+
+		container.register(listener(route, (short) 2, new TestConsumer() {
+
+			@Override
+			public void onMessage(TextData m) throws Exception {
+				deliveries.incrementAndGet();
+				latch.countDown();
+				throw new IllegalArgumentException("Dummy exception raised");
+			}
+		}));
+		Assert.assertTrue(latch.await(10, TimeUnit.SECONDS));
+		assertDrained(route);
+		//no further delivery after being dead lettered
+		Thread.sleep(500);
+		Assert.assertEquals(2, deliveries.get());
+	}
+	@Test
+	public void testOrderedKeepsOrderPastVisibilityTimeout() throws InterruptedException
+	{
+		final String route = "inmemory.ordered";
+		final CountDownLatch latch = new CountDownLatch(2);
+		final List<String> received = Collections.synchronizedList(new ArrayList<String>());
+		enqueueKeyed(route, "k1", "m1", "m2");
+
+		container.register(new QueueListenerBuilder()
+		.concurrency(2)
+		.orderedByKey(true)
+		.visibilityTimeout(100)
+		.consumer(new TestConsumer() {
+
+			@Override
+			public void onMessage(TextData m) throws Exception {
+				received.add(m.getPayload());
+				//well beyond the visibility timeout, and a few reaper runs
+				if("m1".equals(m.getPayload()))
+					Thread.sleep(500);
+				latch.countDown();
+			}
+		})
+		.route(route)
+		.dataType(TextData.class)
+		.<TextData>build());
+		Assert.assertTrue(latch.await(10, TimeUnit.SECONDS));
+		assertDrained(route);
+		Thread.sleep(300);
+		//not expired and requeued behind the later message of its key
+		Assert.assertEquals(Arrays.asList("m1", "m2"), received);
+	}
+}
@@ -0,0 +1,229 @@
+package com.reactivetechnologies.blaze.core;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mockito;
+
+import com.reactivetechnologies.blaze.metrics.ContainerMetrics;
+import com.reactivetechnologies.blaze.ops.InMemoryDataAccessor;
+import com.reactivetechnologies.mq.consume.AbstractQueueListener;
+import com.reactivetechnologies.mq.consume.Consumer;
+import com.reactivetechnologies.mq.consume.QueueListenerBuilder;
+import com.reactivetechnologies.mq.data.TextData;
+/**
+ * The AIMD rules of the adaptive concurrency, with the queue depth and the onMessage latency fed in for each period.
+ */
+public class ConcurrencyControllerTest {
+
+	private static final double TOLERANCE = 2.0;
+	private static final double BACKOFF = 0.5;
+	private static final long LATENCY = TimeUnit.MILLISECONDS.toNanos(10);
+
+	private volatile long depth;
+	private AbstractQueueListener<TextData> listener;
+	private QueueRoutes routes;
+
+	@Before
+	public void setUp()
+	{
+		listener = listener(1, 4);
+		routes = new QueueRoutes(listener, new InMemoryDataAccessor() {
+			@Override
+			public long size(String xchangeKey, String routeKey) {
+				return depth;
+			}
+		}, 0);
+	}
+	@SuppressWarnings("unchecked")
+	private static AbstractQueueListener<TextData> listener(int min, int max)
+	{
+		return (AbstractQueueListener<TextData>) new QueueListenerBuilder()
+		.concurrency(max)
+		.minConcurrency(min)
+		.consumer(new Consumer<TextData>() {
+
+			@Override
+			public void onMessage(TextData m) throws Exception {
+			}
+			@Override
+			public void destroy() {
+			}
+			@Override
+			public void init() {
+			}
+		})
+		.route("concurrency.test")
+		.dataType(TextData.class)
+		.<TextData>build();
+	}
+	private ConcurrencyController controller(double backoff)
+	{
+		ConcurrencyController c = new ConcurrencyController(listener, routes, new ContainerMetrics().forListener("test", "concurrency.test", 0), TOLERANCE, backoff);
+		c.startScheduled();
+		return c;
+	}
+	/**
+	 * Run a period in which a message was processed with the given latency.
+	 */
+	private static void period(ConcurrencyController c, long latencyNanos)
+	{
+		c.onProcessed(latencyNanos);
+		c.run();
+	}
+
+	@Test
+	public void testIncreaseOnBacklog()
+	{
+		ConcurrencyController c = controller(BACKOFF);
+		Assert.assertTrue(c.isAdaptive());
+		Assert.assertEquals(1, c.getLimit());
+		//a backlog larger than the concurrency
+		depth = 100;
+		period(c, LATENCY);
+		Assert.assertEquals(2, c.getLimit());
+		period(c, LATENCY);
+		Assert.assertEquals(3, c.getLimit());
+	}
+	@Test
+	public void testIncreaseOnGrowingBacklog()
+	{
+		ConcurrencyController c = controller(BACKOFF);
+		depth = 1;
+		period(c, LATENCY);
+		Assert.assertEquals(2, c.getLimit());
+		//neither growing, nor larger than the concurrency
+		period(c, LATENCY);
+		Assert.assertEquals(2, c.getLimit());
+		depth = 2;
+		period(c, LATENCY);
+		Assert.assertEquals(3, c.getLimit());
+	}
+	@Test
+	public void testClampToMax()
+	{
+		ConcurrencyController c = controller(BACKOFF);
+		depth = 100;
+		for (int i = 0; i < 10; i++) {
+			period(c, LATENCY);
+		}
+		Assert.assertEquals(4, c.getLimit());
+	}
+	@Test
+	public void testDecreaseOnEmpty()
+	{
+		ConcurrencyController c = controller(BACKOFF);
+		depth = 100;
+		for (int i = 0; i < 3; i++) {
+			period(c, LATENCY);
+		}
+		Assert.assertEquals(4, c.getLimit());
+		depth = 0;
+		c.run();
+		Assert.assertEquals(3, c.getLimit());
+		//clamped to min
+		for (int i = 0; i < 10; i++) {
+			c.run();
+		}
+		Assert.assertEquals(1, c.getLimit());
+	}
+	@Test
+	public void testBackoffOnLatency()
+	{
+		ConcurrencyController c = controller(BACKOFF);
+		depth = 100;
+		for (int i = 0; i < 3; i++) {
+			period(c, LATENCY);
+		}
+		Assert.assertEquals(4, c.getLimit());
+		//within the tolerance over the baseline. still growing on the backlog
+		period(c, (long) (LATENCY * TOLERANCE) - 1);
+		Assert.assertEquals(4, c.getLimit());
+		//beyond it, cut by the backoff factor, in spite of the backlog
+		period(c, (long) (LATENCY * TOLERANCE * 2));
+		Assert.assertEquals(2, c.getLimit());
+	}
+	@Test
+	public void testBackoffClampToMin()
+	{
+		ConcurrencyController c = controller(0.1);
+		depth = 100;
+		for (int i = 0; i < 3; i++) {
+			period(c, LATENCY);
+		}
+		Assert.assertEquals(4, c.getLimit());
+		period(c, LATENCY * 10);
+		Assert.assertEquals(1, c.getLimit());
+	}
+	@Test
+	public void testSetBoundsClamps()
+	{
+		ConcurrencyController c = controller(BACKOFF);
+		c.setBounds(3, 6);
+		Assert.assertEquals(3, c.getLimit());
+		c.setBounds(1, 2);
+		Assert.assertEquals(2, c.getLimit());
+		//a fixed concurrency
+		c.setBounds(2, 2);
+		Assert.assertFalse(c.isAdaptive());
+		depth = 100;
+		c.run();
+		Assert.assertEquals(2, c.getLimit());
+	}
+	@Test
+	public void testNoChangeWhenPaused()
+	{
+		ConcurrencyController c = controller(BACKOFF);
+		c.setPaused(true);
+		depth = 100;
+		period(c, LATENCY);
+		Assert.assertEquals(1, c.getLimit());
+	}
+	@Test
+	public void testRetireExcessLoops() throws InterruptedException
+	{
+		listener = listener(1, 8);
+		final ConcurrencyController c = controller(BACKOFF);
+		final List<Runnable> started = new ArrayList<>();
+		QueueContainerTaskImpl<?> task = Mockito.mock(QueueContainerTaskImpl.class);
+		Mockito.when(task.newLoop()).thenReturn(Mockito.mock(Runnable.class));
+		c.setBounds(8, 8);
+		c.start(task, new Executor() {
+
+			@Override
+			public void execute(Runnable command) {
+				started.add(command);
+			}
+		});
+		Assert.assertEquals(8, started.size());
+		//lower the limit to 3. 5 loops are to be retired
+		c.setBounds(1, 3);
+		Assert.assertEquals(3, c.getLimit());
+
+		final AtomicInteger retired = new AtomicInteger();
+		final CountDownLatch done = new CountDownLatch(8);
+		for (int i = 0; i < 8; i++) {
+			new Thread(new Runnable() {
+
+				@Override
+				public void run() {
+					if(!c.keepLoop())
+						retired.incrementAndGet();
+					done.countDown();
+				}
+			}).start();
+		}
+		Assert.assertTrue(done.await(10, TimeUnit.SECONDS));
+		Assert.assertEquals(5, retired.get());
+		//the rest keep running
+		Assert.assertTrue(c.keepLoop());
+		Assert.assertEquals(8, started.size());
+	}
+}
@@ -0,0 +1,274 @@
+package com.reactivetechnologies.blaze.core;
+
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Matchers;
+import org.mockito.Mockito;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+import com.reactivetechnologies.blaze.struct.QRecord;
+/**
+ * The dispatch order of the fair scheduler, with the listener tasks stubbed to count the messages dispatched,
+ * and optionally hold them in process.
+ */
+public class FairSchedulerTest {
+
+	/**
+	 * A scheduled listener, with a backlog in its prefetch buffer. The buffers are read once the gate is open.
+	 */
+	private final class Listener
+	{
+		private final ConcurrentLinkedQueue<QRecord> buffer = new ConcurrentLinkedQueue<>();
+		private final AtomicInteger dispatched = new AtomicInteger();
+		private final AtomicInteger running = new AtomicInteger();
+		private final AtomicInteger maxRunning = new AtomicInteger();
+		private final Semaphore release = new Semaphore(0);
+		private volatile boolean hold;
+		private volatile boolean paused;
+		private volatile boolean throttled;
+		private volatile int limit = Integer.MAX_VALUE;
+		private final QueueContainerTaskImpl<?> task = Mockito.mock(QueueContainerTaskImpl.class);
+		private final QueuePrefetcher prefetcher = Mockito.mock(QueuePrefetcher.class);
+		private final BlazeQueueIterator iterator = Mockito.mock(BlazeQueueIterator.class);
+		private final ConcurrencyController controller = Mockito.mock(ConcurrencyController.class);
+
+		private Listener(int backlog) throws InterruptedException
+		{
+			for (int i = 0; i < backlog; i++) {
+				buffer.add(new QRecord());
+			}
+			QueueContainerTaskImpl<?> copy = Mockito.mock(QueueContainerTaskImpl.class);
+			Mockito.doReturn(copy).when(task).copy();
+			Mockito.when(copy.dispatch(Matchers.any(QRecord.class))).thenAnswer(new Answer<Boolean>() {
+
+				@Override
+				public Boolean answer(InvocationOnMock invocation) throws Throwable {
+					int n = running.incrementAndGet();
+					while(true)
+					{
+						int m = maxRunning.get();
+						if(n <= m || maxRunning.compareAndSet(m, n))
+							break;
+					}
+					dispatched.incrementAndGet();
+					if(hold)
+						release.acquire();
+					running.decrementAndGet();
+					return true;
+				}
+			});
+			Mockito.when(prefetcher.poll(Matchers.anyLong(), Matchers.any(TimeUnit.class))).thenAnswer(new Answer<QRecord>() {
+
+				@Override
+				public QRecord answer(InvocationOnMock invocation) throws Throwable {
+					return open ? buffer.poll() : null;
+				}
+			});
+			Mockito.when(iterator.getPrefetcher()).thenReturn(prefetcher);
+			Mockito.when(iterator.hasNext()).thenAnswer(new Answer<Boolean>() {
+
+				@Override
+				public Boolean answer(InvocationOnMock invocation) throws Throwable {
+					return !throttled;
+				}
+			});
+			Mockito.when(controller.isPaused()).thenAnswer(new Answer<Boolean>() {
+
+				@Override
+				public Boolean answer(InvocationOnMock invocation) throws Throwable {
+					return paused;
+				}
+			});
+			Mockito.when(controller.getLimit()).thenAnswer(new Answer<Integer>() {
+
+				@Override
+				public Integer answer(InvocationOnMock invocation) throws Throwable {
+					return limit;
+				}
+			});
+		}
+	}
+
+	private volatile boolean running;
+	private volatile boolean open;
+	private FairScheduler scheduler;
+
+	@Before
+	public void setUp()
+	{
+		running = true;
+		QueueContainerImpl container = Mockito.mock(QueueContainerImpl.class);
+		Mockito.when(container.isRunning()).thenAnswer(new Answer<Boolean>() {
+
+			@Override
+			public Boolean answer(InvocationOnMock invocation) throws Throwable {
+				return running;
+			}
+		});
+		scheduler = new FairScheduler(container, new Executor() {
+
+			@Override
+			public void execute(Runnable command) {
+				Thread t = new Thread(command, "FairSchedulerTest.Worker");
+				t.setDaemon(true);
+				t.start();
+			}
+		});
+	}
+	@After
+	public void tearDown()
+	{
+		running = false;
+	}
+	private void add(Listener l, int weight, int minShare)
+	{
+		scheduler.add(l.task, l.iterator, l.controller, weight, minShare);
+	}
+	/**
+	 * Make the backlogs of the listeners available together, as the workers would otherwise start on the first
+	 * listener added.
+	 */
+	private void openGate()
+	{
+		open = true;
+		scheduler.signal();
+	}
+	/**
+	 * Wait till the given number of messages are dispatched across the listeners.
+	 */
+	private static void awaitDispatched(int count, Listener... listeners) throws InterruptedException
+	{
+		long until = System.currentTimeMillis() + 5000;
+		while(System.currentTimeMillis() < until)
+		{
+			int n = 0;
+			for(Listener l : listeners)
+			{
+				n += l.dispatched.get();
+			}
+			if(n >= count)
+				return;
+			Thread.sleep(10);
+		}
+		Assert.fail("Dispatched less than " + count);
+	}
+
+	@Test
+	public void testWeightedShares() throws InterruptedException
+	{
+		Listener heavy = new Listener(300);
+		Listener light = new Listener(300);
+		//a single worker serves the turns in sequence
+		scheduler.start(1);
+		add(heavy, 3, 0);
+		add(light, 1, 0);
+		openGate();
+		awaitDispatched(200, heavy, light);
+		running = false;
+		int h = heavy.dispatched.get();
+		int l = light.dispatched.get();
+		//within a turn of the 3:1 split
+		Assert.assertTrue("heavy=" + h + ", light=" + l, Math.abs(h - 3 * l) <= 4);
+	}
+	@Test
+	public void testIdleListenerHoldsNoWorker() throws InterruptedException
+	{
+		Listener busy = new Listener(100);
+		Listener idle = new Listener(0);
+		scheduler.start(1);
+		add(idle, 5, 0);
+		add(busy, 1, 0);
+		openGate();
+		awaitDispatched(100, busy);
+		Assert.assertEquals(0, idle.dispatched.get());
+	}
+	@Test
+	public void testMinShareWins() throws InterruptedException
+	{
+		Listener heavy = new Listener(100);
+		Listener reserved = new Listener(100);
+		heavy.hold = true;
+		reserved.hold = true;
+		scheduler.start(2);
+		add(heavy, 10, 0);
+		add(reserved, 1, 1);
+		openGate();
+		//by weight alone, both workers would be taken by the heavy listener in its turn
+		awaitDispatched(2, heavy, reserved);
+		Thread.sleep(100);
+		Assert.assertEquals(1, reserved.running.get());
+		Assert.assertEquals(1, heavy.running.get());
+		heavy.release.release(100);
+		reserved.release.release(100);
+	}
+	@Test
+	public void testConcurrencyCap() throws InterruptedException
+	{
+		Listener capped = new Listener(100);
+		Listener other = new Listener(100);
+		capped.hold = true;
+		other.hold = true;
+		capped.limit = 2;
+		scheduler.start(4);
+		add(capped, 10, 0);
+		add(other, 1, 0);
+		openGate();
+		awaitDispatched(4, capped, other);
+		Thread.sleep(100);
+		Assert.assertEquals(2, capped.running.get());
+		Assert.assertEquals(2, other.running.get());
+		//released messages are replaced within the cap
+		capped.release.release(10);
+		awaitDispatched(14, capped, other);
+		Assert.assertEquals(2, capped.maxRunning.get());
+		capped.release.release(100);
+		other.release.release(100);
+	}
+	@Test
+	public void testPausedSkipped() throws InterruptedException
+	{
+		Listener paused = new Listener(50);
+		Listener other = new Listener(50);
+		paused.paused = true;
+		scheduler.start(2);
+		add(paused, 10, 1);
+		add(other, 1, 0);
+		openGate();
+		awaitDispatched(50, other);
+		Assert.assertEquals(0, paused.dispatched.get());
+		Assert.assertEquals(50, paused.buffer.size());
+		//served again on resume
+		paused.paused = false;
+		scheduler.signal();
+		awaitDispatched(50, paused);
+	}
+	@Test
+	public void testThrottledSkipped() throws InterruptedException
+	{
+		Listener throttled = new Listener(50);
+		Listener other = new Listener(50);
+		throttled.throttled = true;
+		scheduler.start(2);
+		add(throttled, 10, 1);
+		add(other, 1, 0);
+		openGate();
+		awaitDispatched(50, other);
+		Assert.assertEquals(0, throttled.dispatched.get());
+		Assert.assertEquals(50, throttled.buffer.size());
+		Mockito.verify(throttled.task, Mockito.atLeastOnce()).fireOnThrottled();
+		//served again once allowed, with each message counted against the throttle
+		throttled.throttled = false;
+		scheduler.signal();
+		awaitDispatched(50, throttled);
+		Mockito.verify(throttled.iterator, Mockito.times(50)).countConsumed();
+	}
+}
@@ -0,0 +1,60 @@
+package com.reactivetechnologies.blaze.core;
+
+import java.util.regex.Pattern;
+
+import org.junit.Assert;
+import org.junit.Test;
+/**
+ * Route patterns as globs, with the regex metacharacters in a route matched literally.
+ */
+public class QueueRoutesTest {
+
+	private static boolean matches(String glob, String route)
+	{
+		return QueueRoutes.toRegex(glob).matcher(route).matches();
+	}
+	@Test
+	public void testWildcards()
+	{
+		Assert.assertTrue(matches("orders.*", "orders.eu"));
+		Assert.assertTrue(matches("orders.*", "orders."));
+		Assert.assertTrue(matches("orders.*.high", "orders.eu.west.high"));
+		Assert.assertFalse(matches("orders.*", "order.eu"));
+		Assert.assertTrue(matches("orders.?", "orders.1"));
+		Assert.assertFalse(matches("orders.?", "orders.12"));
+		Assert.assertFalse(matches("orders.?", "orders."));
+		Assert.assertTrue(matches("*", "anything"));
+		Assert.assertTrue(matches("orders", "orders"));
+		Assert.assertFalse(matches("orders", "orders.eu"));
+	}
+	@Test
+	public void testDotIsLiteral()
+	{
+		Assert.assertFalse(matches("orders.eu", "ordersXeu"));
+		Assert.assertFalse(matches("a.*", "ab"));
+	}
+	@Test
+	public void testMetacharactersAreLiteral()
+	{
+		String[] routes = {"a+b", "a|b", "(a)", "[ab]", "{1,2}", "a^b", "a$b", "a\\b", "a\\Eb", "a\\Q"};
+		for(String route : routes)
+		{
+			Assert.assertTrue(route, matches(route, route));
+			Assert.assertTrue(route, matches(route + "*", route + ".suffix"));
+			Assert.assertTrue(route, matches("?" + route, "x" + route));
+		}
+		Assert.assertFalse(matches("a+b", "aab"));
+		Assert.assertFalse(matches("a|b", "a"));
+		Assert.assertFalse(matches("[ab]", "a"));
+		Assert.assertFalse(matches("(a)", "a"));
+		Assert.assertFalse(matches("a\\b", "ab"));
+	}
+	@Test
+	public void testQuoting()
+	{
+		//the quote terminator within a literal must not end the quoting
+		Pattern p = QueueRoutes.toRegex("x\\E.*y");
+		Assert.assertTrue(p.matcher("x\\E.zzy").matches());
+		Assert.assertFalse(p.matcher("x\\Eanyy").matches());
+	}
+}
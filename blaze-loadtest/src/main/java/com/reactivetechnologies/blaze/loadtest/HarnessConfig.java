@@ -0,0 +1,72 @@
+/**
+ * Copyright 2017 esutdal
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+package com.reactivetechnologies.blaze.loadtest;
+
+import java.util.Collections;
+import java.util.List;
+
+import org.springframework.boot.autoconfigure.EnableAutoConfiguration;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.ComponentScan;
+import org.springframework.context.annotation.ComponentScan.Filter;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.FilterType;
+import org.springframework.context.annotation.Import;
+
+import com.reactivetechnologies.blaze.RedisConfig;
+import com.reactivetechnologies.blaze.core.DefaultConsumerRecoveryHandler;
+import com.reactivetechnologies.blaze.core.DefaultDeadLetterHandler;
+import com.reactivetechnologies.blaze.handlers.ConsumerRecoveryHandler;
+import com.reactivetechnologies.blaze.handlers.DeadLetterHandler;
+import com.reactivetechnologies.blaze.handlers.ThrottlingCommandHandler;
+import com.reactivetechnologies.blaze.handlers.ThrottlingCommandHandlerFactory;
+/**
+ * Runs the producer (web) and consumer components in a single context. The application configurations of
+ * the two modules share the same class name, so both are excluded from the scan, and the beans needed are declared here.
+ * The consumer deployment runner and the admin console are left out as well.
+ * @author esutdal
+ *
+ */
+@Configuration
+@EnableAutoConfiguration
+@ComponentScan(basePackages = "com.reactivetechnologies.blaze", excludeFilters = @Filter(type = FilterType.REGEX, pattern = {
+		"com\\.reactivetechnologies\\.blaze\\.(Config|BlazeConsumer|BlazeWeb)",
+		"com\\.reactivetechnologies\\.blaze\\.(cfg|web|loadtest)\\..*" }))
+@Import(RedisConfig.class)
+class HarnessConfig {
+
+	@Bean
+	ThrottlingCommandHandlerFactory throttlingHandlerFactory()
+	{
+		return new ThrottlingCommandHandlerFactory() {
+
+			@Override
+			public List<ThrottlingCommandHandler> getCommands() {
+				return Collections.emptyList();
+			}
+		};
+	}
+	@Bean
+	DeadLetterHandler deadLetterHandler()
+	{
+		return new DefaultDeadLetterHandler();
+	}
+	@Bean
+	ConsumerRecoveryHandler recoveryHandler()
+	{
+		return new DefaultConsumerRecoveryHandler();
+	}
+}
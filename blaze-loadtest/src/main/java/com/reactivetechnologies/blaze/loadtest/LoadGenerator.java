@@ -0,0 +1,176 @@
+/**
+ * Copyright 2017 esutdal
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+package com.reactivetechnologies.blaze.loadtest;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+import org.springframework.http.HttpEntity;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
+import org.springframework.web.client.RestTemplate;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.reactivetechnologies.mq.QueueService;
+import com.reactivetechnologies.mq.data.TextData;
+/**
+ * Producer threads for a run, sending batches either through {@linkplain QueueService} or the REST ingest endpoint.
+ * The messages are split evenly across the threads. With a target rate, each thread sends its batches on a fixed
+ * schedule, and stamps the scheduled time instead of the actual one.
+ * @author esutdal
+ *
+ */
+class LoadGenerator {
+
+	private final LoadProfile profile;
+	private final String queue;
+	private final QueueService queueService;
+	private final String ingestUrl;
+	private final RestTemplate rest = new RestTemplate();
+	private final ObjectMapper om = new ObjectMapper();
+	private final String padding;
+
+	/**
+	 * 
+	 * @param profile
+	 * @param queue
+	 * @param queueService
+	 * @param serverPort web server port, for the rest mode
+	 */
+	LoadGenerator(LoadProfile profile, String queue, QueueService queueService, int serverPort) {
+		this.profile = profile;
+		this.queue = queue;
+		this.queueService = queueService;
+		this.ingestUrl = "http://localhost:" + serverPort + "/api/ingest/" + queue;
+		char[] pad = new char[profile.messageSize];
+		Arrays.fill(pad, 'x');
+		this.padding = new String(pad);
+	}
+	/**
+	 * A payload of the configured size, prefixed by the send time.
+	 * @param sentNanos
+	 * @return
+	 */
+	private String payload(long sentNanos)
+	{
+		String stamp = sentNanos + String.valueOf(ProbeListener.STAMP_SEPARATOR);
+		return stamp + padding.substring(Math.min(stamp.length(), padding.length()));
+	}
+	private void send(long sentNanos, int count) throws JsonProcessingException
+	{
+		if(LoadProfile.MODE_REST.equals(profile.mode))
+		{
+			List<String> batch = new ArrayList<>(count);
+			for (int i = 0; i < count; i++) {
+				batch.add(payload(sentNanos));
+			}
+			HttpHeaders headers = new HttpHeaders();
+			headers.setContentType(MediaType.APPLICATION_JSON);
+			rest.postForObject(ingestUrl, new HttpEntity<>(om.writeValueAsString(batch), headers), Void.class);
+		}
+		else
+		{
+			List<TextData> batch = new ArrayList<>(count);
+			for (int i = 0; i < count; i++) {
+				batch.add(new TextData(payload(sentNanos), queue));
+			}
+			queueService.ingest(batch);
+		}
+	}
+	/**
+	 * Push messages before any consumer is registered, to measure the Redis memory.
+	 * @param count
+	 */
+	void fill(int count) throws JsonProcessingException
+	{
+		for (int sent = 0; sent < count; sent += profile.batchSize) {
+			send(System.nanoTime(), Math.min(profile.batchSize, count - sent));
+		}
+	}
+	/**
+	 * Produce the total messages of the profile across the producer threads, and wait till all are sent.
+	 * @throws Exception
+	 */
+	void run() throws Exception
+	{
+		final AtomicInteger threadId = new AtomicInteger();
+		ExecutorService producers = Executors.newFixedThreadPool(profile.producers, new ThreadFactory() {
+
+			@Override
+			public Thread newThread(Runnable r) {
+				Thread t = new Thread(r, "LoadTest.Producer-" + threadId.incrementAndGet());
+				t.setDaemon(true);
+				return t;
+			}
+		});
+		try
+		{
+			int total = profile.total();
+			List<Future<?>> results = new ArrayList<>();
+			for (int i = 0; i < profile.producers; i++) {
+				final int share = total / profile.producers + (i < total % profile.producers ? 1 : 0);
+				results.add(producers.submit(new Runnable() {
+
+					@Override
+					public void run() {
+						try {
+							produce(share);
+						} catch (JsonProcessingException e) {
+							throw new IllegalStateException(e);
+						}
+					}
+				}));
+			}
+			for(Future<?> f : results)
+			{
+				f.get();
+			}
+		}
+		finally
+		{
+			producers.shutdownNow();
+		}
+	}
+	private void produce(int share) throws JsonProcessingException
+	{
+		//interval between batches of this thread, for the target rate
+		long intervalNanos = profile.rate > 0 ? TimeUnit.SECONDS.toNanos(1) * profile.batchSize * profile.producers / profile.rate : 0;
+		long next = System.nanoTime();
+		for (int sent = 0; sent < share; sent += profile.batchSize) {
+			long stamp = System.nanoTime();
+			if(intervalNanos > 0)
+			{
+				while(stamp < next)
+				{
+					LockSupport.parkNanos(next - stamp);
+					stamp = System.nanoTime();
+				}
+				stamp = next;
+				next += intervalNanos;
+			}
+			send(stamp, Math.min(profile.batchSize, share - sent));
+		}
+	}
+}
@@ -0,0 +1,91 @@
+/**
+ * Copyright 2017 esutdal
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+package com.reactivetechnologies.blaze.loadtest;
+
+import java.util.ArrayList;
+import java.util.List;
+/**
+ * The parameters of a single load test run. A sweep over the comma separated settings is expanded
+ * into a profile per combination.
+ * @author esutdal
+ *
+ */
+class LoadProfile {
+
+	static final String MODE_API = "api";
+	static final String MODE_REST = "rest";
+
+	final String mode;
+	final int producers;
+	final int rate;
+	final int messages;
+	final int warmup;
+	final int messageSize;
+	final int concurrency;
+	final int pollMillis;
+	final int batchSize;
+
+	private LoadProfile(LoadTestSettings s, int messageSize, int concurrency, int pollMillis, int batchSize) {
+		this.mode = s.get("producer.mode");
+		this.producers = s.getInt("producers");
+		this.rate = s.getInt("rate");
+		this.messages = s.getInt("messages");
+		this.warmup = s.getInt("warmup.messages");
+		this.messageSize = messageSize;
+		this.concurrency = concurrency;
+		this.pollMillis = pollMillis;
+		this.batchSize = batchSize;
+		if(!MODE_API.equals(mode) && !MODE_REST.equals(mode))
+			throw new IllegalArgumentException("Unknown producer mode '"+mode+"'. Expecting "+MODE_API+" or "+MODE_REST);
+	}
+	/**
+	 * Total messages to be produced in the run.
+	 * @return
+	 */
+	int total()
+	{
+		return warmup + messages;
+	}
+	/**
+	 * Expand the sweep settings to a profile per combination.
+	 * @param s
+	 * @return
+	 */
+	static List<LoadProfile> sweep(LoadTestSettings s)
+	{
+		List<LoadProfile> profiles = new ArrayList<>();
+		for(int size : s.getSweep("message.size"))
+		{
+			for(int concurrency : s.getSweep("concurrency"))
+			{
+				for(int poll : s.getSweep("poll.millis"))
+				{
+					for(int batch : s.getSweep("batch.size"))
+					{
+						profiles.add(new LoadProfile(s, size, concurrency, poll, batch));
+					}
+				}
+			}
+		}
+		return profiles;
+	}
+	@Override
+	public String toString() {
+		return "[mode=" + mode + ", producers=" + producers + ", rate=" + rate + ", messages=" + messages
+				+ ", messageSize=" + messageSize + ", concurrency=" + concurrency + ", pollMillis=" + pollMillis
+				+ ", batchSize=" + batchSize + "]";
+	}
+}
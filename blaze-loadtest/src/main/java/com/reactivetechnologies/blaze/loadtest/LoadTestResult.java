@@ -0,0 +1,110 @@
+/**
+ * Copyright 2017 esutdal
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+package com.reactivetechnologies.blaze.loadtest;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+
+import org.HdrHistogram.Histogram;
+/**
+ * Outcome of a run, reported as a table row and a csv line.
+ * @author esutdal
+ *
+ */
+class LoadTestResult {
+
+	private static final String[] COLUMNS = {"mode", "producers", "rate", "msg_size", "concurrency", "poll_ms", "batch",
+			"measured", "secs", "msg_per_sec", "p50_ms", "p90_ms", "p99_ms", "p999_ms", "max_ms", "redis_cpu_us_per_msg",
+			"redis_bytes_per_msg", "complete"};
+
+	final LoadProfile profile;
+	int measured;
+	long measuredNanos;
+	Histogram latencyMicros;
+	double redisCpuSeconds;
+	long redisBytesPerMessage;
+	boolean complete;
+
+	LoadTestResult(LoadProfile profile) {
+		this.profile = profile;
+	}
+	double throughput()
+	{
+		return measuredNanos > 0 ? measured * (double) TimeUnit.SECONDS.toNanos(1) / measuredNanos : 0;
+	}
+	private static double millis(Histogram h, double percentile)
+	{
+		return h.getTotalCount() == 0 ? 0 : h.getValueAtPercentile(percentile) / 1000.0;
+	}
+	private Object[] values()
+	{
+		return new Object[] { profile.mode, profile.producers, profile.rate, profile.messageSize, profile.concurrency,
+				profile.pollMillis, profile.batchSize, measured, measuredNanos / 1e9, throughput(),
+				millis(latencyMicros, 50), millis(latencyMicros, 90), millis(latencyMicros, 99), millis(latencyMicros, 99.9),
+				latencyMicros.getMaxValue() / 1000.0, measured > 0 ? redisCpuSeconds * 1e6 / measured : 0,
+				redisBytesPerMessage, complete };
+	}
+	private static String format(Object v)
+	{
+		return v instanceof Double ? String.format(Locale.ROOT, "%.2f", v) : String.valueOf(v);
+	}
+	static String header()
+	{
+		StringBuilder s = new StringBuilder();
+		for(String c : COLUMNS)
+		{
+			s.append(String.format("%-14s", c));
+		}
+		return s.toString();
+	}
+	String row()
+	{
+		StringBuilder s = new StringBuilder();
+		for(Object v : values())
+		{
+			s.append(String.format("%-14s", format(v)));
+		}
+		return s.toString();
+	}
+	/**
+	 * Append as a csv line, writing the header if the file is new.
+	 * @param csv
+	 * @throws IOException
+	 */
+	void appendTo(File csv) throws IOException
+	{
+		boolean isNew = !csv.exists();
+		if(csv.getParentFile() != null)
+			csv.getParentFile().mkdirs();
+		try(PrintWriter out = new PrintWriter(new FileWriter(csv, true)))
+		{
+			if(isNew)
+				out.println(String.join(",", COLUMNS));
+			StringBuilder s = new StringBuilder();
+			for(Object v : values())
+			{
+				if(s.length() > 0)
+					s.append(',');
+				s.append(format(v));
+			}
+			out.println(s);
+		}
+	}
+}
@@ -0,0 +1,158 @@
+/**
+ * Copyright 2017 esutdal
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+package com.reactivetechnologies.blaze.loadtest;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.boot.Banner;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import com.reactivetechnologies.mq.QueueService;
+import com.reactivetechnologies.mq.container.QueueContainer;
+/**
+ * End to end load test of producers and consumers against a local Redis. Each profile of the parameter sweep
+ * runs in a fresh application context on an empty Redis, as follows:
+ * <ol>
+ * <li>Messages are pushed with no consumer registered, and the Redis memory increase per message noted. The queue is then cleared.</li>
+ * <li>A listener is registered, and the producers send the warmup and the measured messages.</li>
+ * <li>The run completes when all messages are consumed, and reports the throughput from end of warmup to the last message,
+ * the percentiles of end to end latency, and the Redis CPU time per message.</li>
+ * </ol>
+ * The results are printed, and appended to a csv report. See 'loadtest.properties' for the settings.
+ * <p>
+ * Producers, consumers and the load generator share the JVM, so its CPU is shared as well. The figures are thus
+ * conservative for a deployment with separate producer and consumer instances.
+ * @author esutdal
+ *
+ */
+public class LoadTestRunner {
+
+	private static final Logger log = LoggerFactory.getLogger(LoadTestRunner.class);
+
+	private final LoadTestSettings settings;
+	private final LocalRedisServer redis;
+	private int runs;
+
+	private LoadTestRunner(LoadTestSettings settings, LocalRedisServer redis) {
+		this.settings = settings;
+		this.redis = redis;
+	}
+
+	public static void main(String[] args) throws Exception {
+		LoadTestSettings settings = new LoadTestSettings(args);
+		List<LoadProfile> profiles = LoadProfile.sweep(settings);
+		new File("build").mkdirs();
+		try(LocalRedisServer redis = settings.getBoolean("redis.external")
+				? LocalRedisServer.external(settings.get("redis.host"), settings.getInt("redis.port"))
+				: LocalRedisServer.start(settings.get("redis.server"), settings.getInt("redis.port")))
+		{
+			LoadTestRunner runner = new LoadTestRunner(settings, redis);
+			List<LoadTestResult> results = new ArrayList<>();
+			File report = new File(settings.get("report"));
+			for(LoadProfile profile : profiles)
+			{
+				log.info("Running profile "+(results.size()+1)+"/"+profiles.size()+" "+profile);
+				LoadTestResult result = runner.run(profile);
+				result.appendTo(report);
+				results.add(result);
+			}
+			System.out.println();
+			System.out.println(LoadTestResult.header());
+			for(LoadTestResult r : results)
+			{
+				System.out.println(r.row());
+			}
+			System.out.println();
+			System.out.println("Report appended to "+report.getAbsolutePath());
+		}
+	}
+	private Map<String, Object> contextProperties(LoadProfile profile)
+	{
+		Map<String, Object> props = new HashMap<>();
+		props.put("spring.redis.host", redis.host);
+		props.put("spring.redis.port", redis.port);
+		props.put("spring.redis.pool.maxActive", Math.max(8, profile.concurrency + profile.producers + 4));
+		props.put("blaze.instance.id", "loadtest-" + runs);
+		props.put("consumer.poll.await.millis", profile.pollMillis);
+		props.put("consumer.throttle.enable", false);
+		props.put("consumer.metrics.enable", false);
+		props.put("server.port", 0);
+		props.put("logging.level.com.reactivetechnologies", "WARN");
+		return props;
+	}
+	private LoadTestResult run(LoadProfile profile) throws Exception
+	{
+		runs++;
+		redis.flushAll();
+		ConfigurableApplicationContext ctx = new SpringApplicationBuilder(HarnessConfig.class)
+				.bannerMode(Banner.Mode.OFF)
+				.web(LoadProfile.MODE_REST.equals(profile.mode))
+				.properties(contextProperties(profile))
+				.run();
+		try
+		{
+			String queue = "loadtest-" + runs;
+			QueueService queueService = ctx.getBean(QueueService.class);
+			int serverPort = ctx.getEnvironment().getProperty("local.server.port", Integer.class, 0);
+			LoadGenerator generator = new LoadGenerator(profile, queue, queueService, serverPort);
+			LoadTestResult result = new LoadTestResult(profile);
+
+			result.redisBytesPerMessage = measureMemory(generator, queueService, queue);
+
+			ProbeListener probe = new ProbeListener(queue, profile);
+			ctx.getBean(QueueContainer.class).register(probe);
+
+			double cpuBefore = redis.cpuSeconds();
+			probe.start();
+			generator.run();
+			result.complete = probe.await(settings.getInt("timeout.secs"), TimeUnit.SECONDS);
+			result.redisCpuSeconds = redis.cpuSeconds() - cpuBefore;
+			result.measured = probe.measured();
+			result.measuredNanos = probe.measuredNanos();
+			result.latencyMicros = probe.latencyMicros();
+			if(!result.complete)
+				log.warn("Run did not complete in time. Measured "+result.measured+" of "+profile.messages);
+			return result;
+		}
+		finally
+		{
+			ctx.close();
+		}
+	}
+	/**
+	 * Redis memory increase per message of the profile size, with the messages at rest in the queue.
+	 * @return bytes per message
+	 */
+	private long measureMemory(LoadGenerator generator, QueueService queueService, String queue) throws Exception
+	{
+		int sample = settings.getInt("memory.sample");
+		if(sample <= 0)
+			return 0;
+		long before = redis.usedMemory();
+		generator.fill(sample);
+		long after = redis.usedMemory();
+		queueService.clear(queue);
+		return (after - before) / sample;
+	}
+}
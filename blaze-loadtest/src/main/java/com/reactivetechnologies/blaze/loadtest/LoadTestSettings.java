@@ -0,0 +1,87 @@
+/**
+ * Copyright 2017 esutdal
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+package com.reactivetechnologies.blaze.loadtest;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+
+import org.springframework.util.StringUtils;
+/**
+ * Load test settings, read from 'loadtest.properties' in classpath, and overridden by system properties
+ * and then by 'key=value' program arguments.
+ * @author esutdal
+ *
+ */
+class LoadTestSettings {
+
+	private static final String RESOURCE = "loadtest.properties";
+	static final String PREFIX = "loadtest.";
+
+	private final Properties props = new Properties();
+
+	LoadTestSettings(String[] args) throws IOException {
+		try(InputStream in = LoadTestSettings.class.getClassLoader().getResourceAsStream(RESOURCE))
+		{
+			if(in != null)
+				props.load(in);
+		}
+		for(String key : System.getProperties().stringPropertyNames())
+		{
+			if(key.startsWith(PREFIX))
+				props.setProperty(key, System.getProperty(key));
+		}
+		for(String arg : args)
+		{
+			int i = arg.indexOf('=');
+			if(i <= 0)
+				throw new IllegalArgumentException("Expecting key=value. Found '"+arg+"'");
+			String key = arg.substring(0, i).trim();
+			props.setProperty(key.startsWith(PREFIX) ? key : PREFIX + key, arg.substring(i+1).trim());
+		}
+	}
+	String get(String key)
+	{
+		String value = props.getProperty(PREFIX + key);
+		if(!StringUtils.hasText(value))
+			throw new IllegalArgumentException("Setting not found: "+PREFIX+key);
+		return value.trim();
+	}
+	int getInt(String key)
+	{
+		return Integer.parseInt(get(key));
+	}
+	boolean getBoolean(String key)
+	{
+		return Boolean.parseBoolean(get(key));
+	}
+	/**
+	 * A comma separated sweep setting.
+	 * @param key
+	 * @return
+	 */
+	List<Integer> getSweep(String key)
+	{
+		List<Integer> values = new ArrayList<>();
+		for(String s : StringUtils.commaDelimitedListToStringArray(get(key)))
+		{
+			values.add(Integer.valueOf(s.trim()));
+		}
+		return values;
+	}
+}
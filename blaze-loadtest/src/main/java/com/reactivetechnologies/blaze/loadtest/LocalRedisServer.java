@@ -0,0 +1,156 @@
+/**
+ * Copyright 2017 esutdal
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+package com.reactivetechnologies.blaze.loadtest;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.exceptions.JedisConnectionException;
+/**
+ * A Redis server for the load test. Either a redis-server process started on the given port, without persistence,
+ * or an already running server. Also reads the server CPU and memory figures from INFO.
+ * @author esutdal
+ *
+ */
+class LocalRedisServer implements Closeable {
+
+	private static final Logger log = LoggerFactory.getLogger(LocalRedisServer.class);
+	private static final long STARTUP_WAIT_MILLIS = 10000;
+
+	final String host;
+	final int port;
+	private Process process;
+	private Jedis jedis;
+
+	private LocalRedisServer(String host, int port) {
+		this.host = host;
+		this.port = port;
+	}
+	/**
+	 * Start a redis-server process.
+	 * @param executable
+	 * @param port
+	 * @return
+	 * @throws IOException
+	 */
+	static LocalRedisServer start(String executable, int port) throws IOException
+	{
+		LocalRedisServer server = new LocalRedisServer("localhost", port);
+		List<String> cmd = Arrays.asList(executable, "--port", String.valueOf(port), "--bind", "127.0.0.1",
+				"--save", "", "--appendonly", "no");
+		log.info("Starting "+cmd);
+		server.process = new ProcessBuilder(cmd)
+				.redirectErrorStream(true)
+				.redirectOutput(new File("build", "redis-server.log"))
+				.start();
+		server.awaitReady();
+		return server;
+	}
+	/**
+	 * Use a running server.
+	 * @param host
+	 * @param port
+	 * @return
+	 */
+	static LocalRedisServer external(String host, int port)
+	{
+		LocalRedisServer server = new LocalRedisServer(host, port);
+		server.jedis = new Jedis(host, port);
+		server.jedis.ping();
+		return server;
+	}
+	private void awaitReady() throws IOException
+	{
+		long deadline = System.currentTimeMillis() + STARTUP_WAIT_MILLIS;
+		while(true)
+		{
+			try
+			{
+				jedis = new Jedis(host, port);
+				jedis.ping();
+				return;
+			}
+			catch (JedisConnectionException e) {
+				jedis.close();
+				if(!process.isAlive())
+					throw new IOException("redis-server exited with code "+process.exitValue()+". See build/redis-server.log");
+				if(System.currentTimeMillis() > deadline)
+					throw new IOException("redis-server not reachable on port "+port, e);
+				try {
+					TimeUnit.MILLISECONDS.sleep(100);
+				} catch (InterruptedException ie) {
+					Thread.currentThread().interrupt();
+					throw new IOException(ie);
+				}
+			}
+		}
+	}
+	void flushAll()
+	{
+		jedis.flushAll();
+	}
+	/**
+	 * Total CPU seconds used by the server, system and user.
+	 * @return
+	 */
+	double cpuSeconds()
+	{
+		return infoValue(jedis.info("cpu"), "used_cpu_sys") + infoValue(jedis.info("cpu"), "used_cpu_user");
+	}
+	/**
+	 * Bytes allocated by the server.
+	 * @return
+	 */
+	long usedMemory()
+	{
+		return (long) infoValue(jedis.info("memory"), "used_memory");
+	}
+	long llen(String key)
+	{
+		return jedis.llen(key);
+	}
+	private static double infoValue(String info, String field)
+	{
+		for(String line : info.split("\r?\n"))
+		{
+			if(line.startsWith(field + ":"))
+				return Double.parseDouble(line.substring(field.length()+1).trim());
+		}
+		throw new IllegalStateException("'"+field+"' not found in INFO");
+	}
+	@Override
+	public void close() {
+		if(jedis != null)
+			jedis.close();
+		if(process != null)
+		{
+			process.destroy();
+			try {
+				process.waitFor(5, TimeUnit.SECONDS);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+	}
+}
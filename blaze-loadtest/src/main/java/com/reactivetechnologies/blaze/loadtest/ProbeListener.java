@@ -0,0 +1,130 @@
+/**
+ * Copyright 2017 esutdal
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+package com.reactivetechnologies.blaze.loadtest;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.HdrHistogram.Histogram;
+import org.HdrHistogram.Recorder;
+
+import com.reactivetechnologies.mq.consume.AbstractQueueListener;
+import com.reactivetechnologies.mq.data.TextData;
+/**
+ * Listener recording the end to end latency of the load test messages. Each payload starts with the
+ * nano time at which it was (or was intended to be) sent, which is comparable since the producers run in the
+ * same process. The first messages up to the warmup count are consumed without being measured.
+ * @author esutdal
+ *
+ */
+class ProbeListener extends AbstractQueueListener<TextData> {
+
+	static final char STAMP_SEPARATOR = '|';
+	private static final long HIGHEST_MICROS = TimeUnit.MINUTES.toMicros(10);
+
+	private final String queue;
+	private final String identifier;
+	private final int concurrency;
+	private final int warmup;
+	private final AtomicInteger received = new AtomicInteger();
+	private final CountDownLatch done;
+	private final Recorder latency = new Recorder(HIGHEST_MICROS, 3);
+	private volatile long measureStartNanos;
+	private volatile long lastNanos;
+
+	ProbeListener(String queue, LoadProfile profile) {
+		this.queue = queue;
+		this.identifier = "probe-" + queue;
+		this.concurrency = profile.concurrency;
+		this.warmup = profile.warmup;
+		this.done = new CountDownLatch(profile.total());
+	}
+	/**
+	 * The send time stamped at the start of a payload. The REST ingest keeps the payload as a JSON string, so
+	 * a leading quote is skipped.
+	 * @param payload
+	 * @return
+	 */
+	static long sentNanos(String payload)
+	{
+		int start = payload.charAt(0) == '"' ? 1 : 0;
+		return Long.parseLong(payload.substring(start, payload.indexOf(STAMP_SEPARATOR)));
+	}
+	@Override
+	public void onMessage(TextData m) throws Exception {
+		long now = System.nanoTime();
+		int n = received.incrementAndGet();
+		if(n == warmup)
+		{
+			measureStartNanos = now;
+		}
+		else if(n > warmup)
+		{
+			latency.recordValue(Math.min(TimeUnit.NANOSECONDS.toMicros(now - sentNanos(m.getPayload())), HIGHEST_MICROS));
+			lastNanos = now;
+		}
+		done.countDown();
+	}
+	/**
+	 * Mark the start of production. The measurement starts here if there is no warmup.
+	 */
+	void start()
+	{
+		if(warmup == 0)
+			measureStartNanos = System.nanoTime();
+	}
+	boolean await(long timeout, TimeUnit unit) throws InterruptedException
+	{
+		return done.await(timeout, unit);
+	}
+	int measured()
+	{
+		return Math.max(0, received.get() - warmup);
+	}
+	/**
+	 * Nanos from the end of warmup to the last message received.
+	 * @return
+	 */
+	long measuredNanos()
+	{
+		return lastNanos - measureStartNanos;
+	}
+	Histogram latencyMicros()
+	{
+		return latency.getIntervalHistogram();
+	}
+	@Override
+	public Class<TextData> dataType() {
+		return TextData.class;
+	}
+	@Override
+	public String routing() {
+		return queue;
+	}
+	@Override
+	public String identifier() {
+		return identifier;
+	}
+	@Override
+	public int concurrency() {
+		return concurrency;
+	}
+	@Override
+	public void init() {
+		//noop
+	}
+}
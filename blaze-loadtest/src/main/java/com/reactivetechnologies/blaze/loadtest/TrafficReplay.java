@@ -0,0 +1,202 @@
+/**
+ * Copyright 2017 esutdal
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+package com.reactivetechnologies.blaze.loadtest;
+
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+import org.HdrHistogram.Histogram;
+import org.HdrHistogram.Recorder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.http.HttpEntity;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
+import org.springframework.web.client.RestTemplate;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.TextNode;
+import com.reactivetechnologies.blaze.capture.TrafficCapture;
+import com.reactivetechnologies.mq.QueueService;
+import com.reactivetechnologies.mq.data.TextData;
+/**
+ * Replays a traffic capture against a running deployment, reproducing the recorded arrival process at a speed factor.
+ * Each batch is posted to the ingest endpoint of its route at its recorded offset (divided by the speed), by a pool of
+ * sender threads, so that a slow request does not hold back the arrivals behind it. The lag of each send behind its
+ * schedule is reported; a growing lag means the target (or this driver) could not keep up with the recorded rate.
+ * <p>
+ * With payloads captured, text messages are replayed as is. Otherwise each message is a string of the recorded size.
+ * The ingest endpoint is on the default exchange, so batches recorded on other exchanges are sent to the same route
+ * on the default exchange.
+ * <pre>
+ *   gradlew replay -Pargs="replay.file=/path/to/blaze-capture.bin replay.url=http://host:8081/blaze replay.speed=2"
+ * </pre>
+ * @author esutdal
+ *
+ */
+public class TrafficReplay {
+
+	private static final Logger log = LoggerFactory.getLogger(TrafficReplay.class);
+	private static final long HIGHEST_MICROS = TimeUnit.HOURS.toMicros(1);
+
+	private final String baseUrl;
+	private final double speed;
+	private final RestTemplate rest = new RestTemplate();
+	private final ObjectMapper om = new ObjectMapper();
+	private final ConcurrentMap<Integer, String> fillers = new ConcurrentHashMap<>();
+	private final Recorder lag = new Recorder(HIGHEST_MICROS, 2);
+	private final AtomicLong messages = new AtomicLong();
+	private final AtomicLong errors = new AtomicLong();
+	private boolean otherExchangeWarned;
+
+	private TrafficReplay(String baseUrl, double speed) {
+		this.baseUrl = baseUrl.endsWith("/") ? baseUrl.substring(0, baseUrl.length()-1) : baseUrl;
+		this.speed = speed;
+	}
+
+	public static void main(String[] args) throws Exception {
+		LoadTestSettings settings = new LoadTestSettings(args);
+		double speed = Double.parseDouble(settings.get("replay.speed"));
+		if(speed <= 0)
+			throw new IllegalArgumentException("Replay speed should be positive. Found "+speed);
+		new TrafficReplay(settings.get("replay.url"), speed).replay(new File(settings.get("replay.file")), settings.getInt("replay.threads"));
+	}
+	private String filler(int size)
+	{
+		String s = fillers.get(size);
+		if(s == null)
+		{
+			char[] pad = new char[size];
+			Arrays.fill(pad, 'x');
+			fillers.putIfAbsent(size, new String(pad));
+			s = fillers.get(size);
+		}
+		return s;
+	}
+	/**
+	 * The recorded text, as json if it is one (as ingested by the json endpoints), else as a json string.
+	 * @param payload
+	 * @return
+	 */
+	private JsonNode decode(byte[] payload)
+	{
+		TextData text = new TextData();
+		try {
+			text.readData(new DataInputStream(new ByteArrayInputStream(payload)));
+		} catch (IOException e) {
+			//not a text message
+			return new TextNode(filler(payload.length));
+		}
+		try {
+			return om.readTree(text.getPayload());
+		} catch (IOException e) {
+			return new TextNode(text.getPayload());
+		}
+	}
+	private void send(TrafficCapture.Batch batch, long dueNanos)
+	{
+		lag.recordValue(Math.min(Math.max(0, TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - dueNanos)), HIGHEST_MICROS));
+		ArrayNode array = om.createArrayNode();
+		for (int i = 0; i < batch.size(); i++) {
+			array.add(batch.getPayload(i) != null ? decode(batch.getPayload(i)) : new TextNode(filler(batch.getSize(i))));
+		}
+		HttpHeaders headers = new HttpHeaders();
+		headers.setContentType(MediaType.APPLICATION_JSON);
+		try {
+			rest.postForLocation(baseUrl + "/api/ingest/" + batch.getRoute(), new HttpEntity<>(array.toString(), headers));
+			messages.addAndGet(batch.size());
+		} catch (Exception e) {
+			if(errors.incrementAndGet() == 1)
+				log.error("Ingest failed. Further failures will only be counted", e);
+		}
+	}
+	private void replay(File file, int threads) throws IOException, InterruptedException
+	{
+		final AtomicInteger threadId = new AtomicInteger();
+		ExecutorService senders = Executors.newFixedThreadPool(threads, new ThreadFactory() {
+
+			@Override
+			public Thread newThread(Runnable r) {
+				Thread t = new Thread(r, "Replay.Sender-" + threadId.incrementAndGet());
+				t.setDaemon(true);
+				return t;
+			}
+		});
+		long batches = 0;
+		long lastOffsetMicros = 0;
+		long start = System.nanoTime();
+		try(TrafficCapture.Reader reader = new TrafficCapture.Reader(file))
+		{
+			log.info("Replaying capture started at "+new Date(reader.getStartEpochMillis())+" to "+baseUrl
+					+ " at "+speed+"x" + (reader.hasPayloads() ? ", with payloads" : ""));
+			TrafficCapture.Batch batch;
+			while((batch = reader.next()) != null)
+			{
+				if(!QueueService.DEFAULT_XCHANGE.equals(batch.getExchange()) && !otherExchangeWarned)
+				{
+					otherExchangeWarned = true;
+					log.warn("Batches on exchange '"+batch.getExchange()+"' will be sent on the default exchange");
+				}
+				final long due = start + (long) (TimeUnit.MICROSECONDS.toNanos(batch.getOffsetMicros()) / speed);
+				long now;
+				while((now = System.nanoTime()) < due)
+				{
+					LockSupport.parkNanos(due - now);
+				}
+				final TrafficCapture.Batch toSend = batch;
+				senders.execute(new Runnable() {
+
+					@Override
+					public void run() {
+						send(toSend, due);
+					}
+				});
+				batches++;
+				lastOffsetMicros = batch.getOffsetMicros();
+			}
+		}
+		finally
+		{
+			senders.shutdown();
+			senders.awaitTermination(1, TimeUnit.HOURS);
+		}
+		long elapsedMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+		Histogram h = lag.getIntervalHistogram();
+		System.out.println();
+		System.out.println("Batches sent        : "+batches);
+		System.out.println("Messages ingested   : "+messages.get());
+		System.out.println("Failed batches      : "+errors.get());
+		System.out.println("Recorded duration ms: "+TimeUnit.MICROSECONDS.toMillis(lastOffsetMicros));
+		System.out.println("Replay duration ms  : "+elapsedMillis+" (speed "+speed+"x)");
+		System.out.println("Send lag ms         : p50="+h.getValueAtPercentile(50)/1000.0+" p99="+h.getValueAtPercentile(99)/1000.0
+				+ " max="+h.getMaxValue()/1000.0);
+	}
+}
@@ -11,13 +11,16 @@ import org.springframework.stereotype.Service;
 import org.springframework.util.Assert;
 import org.springframework.util.StringUtils;
 
-import com.reactivetechnologies.blaze.ops.ProducerDataAccessor;
 //import com.reactivetechnologies.blaze.ops.RedisDataAccessor;
+import com.reactivetechnologies.blaze.capture.TrafficRecorder;
+import com.reactivetechnologies.blaze.ops.RedisLatencyRecorder;
 import com.reactivetechnologies.blaze.ops.RedisStatsRecorder;
 import com.reactivetechnologies.blaze.struct.QRecord;
 import com.reactivetechnologies.mq.Data;
+import com.reactivetechnologies.mq.LatencySnapshot;
 import com.reactivetechnologies.mq.MetricService;
 import com.reactivetechnologies.mq.QueueService;
+import com.reactivetechnologies.mq.ops.ProducerOperations;
 
 @Service
 @Qualifier("RMQ")
@@ -26,9 +29,13 @@ public class QueueServiceImpl implements QueueService, MetricService{
 	private static final Logger log = LoggerFactory.getLogger(QueueServiceImpl.class);
 	
 	@Autowired
-	private ProducerDataAccessor producerOps;
+	private ProducerOperations producerOps;
 	@Autowired
 	private RedisStatsRecorder metrics;
+	@Autowired
+	private RedisLatencyRecorder latencies;
+	@Autowired
+	private TrafficRecorder recorder;
 	
 	@Override
 	public long size(String q) {
@@ -67,6 +74,7 @@ public class QueueServiceImpl implements QueueService, MetricService{
 			qr = QRecord.transformData(t, xchangeKey, routeKey);
 			records[i++] = qr;
 		}
+		recorder.record(xchangeKey, routeKey, records);
 		producerOps.enqueue(prepareKey(xchangeKey, routeKey), records);
 		
 		long time = System.currentTimeMillis() - start;
@@ -81,20 +89,9 @@ public class QueueServiceImpl implements QueueService, MetricService{
 		return producerOps.size(xchangeKey, routeKey);
 	}
 
-	public static final int MAX_COMPARE_ON_CLEAR = 5;
 	@Override
 	public void clear(String xchangeKey, String routeKey) {
-		log.info("'clear' is an expensive operation since Redis does not provide an explicit operation");
-		boolean cleared = false;
-		int iter = 0;
-		do {
-			cleared = producerOps.clear(xchangeKey, routeKey);
-		} while (++iter < MAX_COMPARE_ON_CLEAR && !cleared);
-		
-		if(!cleared)
-		{
-			log.warn("clear: Breaking circuit after iterating for max "+MAX_COMPARE_ON_CLEAR+" times");
-		}
+		producerOps.clear(xchangeKey, routeKey);
 	}
 
 	@Override
@@ -134,6 +131,11 @@ public class QueueServiceImpl implements QueueService, MetricService{
 		return metrics.getEnqueuStats(prepareKey(exchange, route));
 	}
 
+	@Override
+	public long getDuplicateCount(String exchange, String route) {
+		return metrics.getDuplicateStats(prepareKey(exchange, route));
+	}
+
 	@Override
 	public void resetCounts(String exchange, String route) {
 		metrics.reset(prepareKey(exchange, route));
@@ -149,9 +151,24 @@ public class QueueServiceImpl implements QueueService, MetricService{
 		return getEnqueueCount(DEFAULT_XCHANGE, route);
 	}
 
+	@Override
+	public long getDuplicateCount(String route) {
+		return getDuplicateCount(DEFAULT_XCHANGE, route);
+	}
+
 	@Override
 	public void resetCounts(String route) {
 		resetCounts(DEFAULT_XCHANGE, route);
 	}
 
+	@Override
+	public List<LatencySnapshot> getLatencies(String exchange, String route) {
+		return latencies.read(prepareKey(exchange, route));
+	}
+
+	@Override
+	public List<LatencySnapshot> getLatencies(String route) {
+		return getLatencies(DEFAULT_XCHANGE, route);
+	}
+
 }
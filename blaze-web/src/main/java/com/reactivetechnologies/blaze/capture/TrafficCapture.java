@@ -0,0 +1,269 @@
+/**
+ * Copyright 2017 esutdal
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+package com.reactivetechnologies.blaze.capture;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+/**
+ * The capture file format. A header, followed by entries till the end of file.
+ * <pre>
+ * header:  magic(int) version(byte) payloads(boolean) startEpochMillis(long)
+ * route:   0(byte) id(int) exchange(utf) route(utf)                  -- on first use of a route
+ * batch:   1(byte) offsetMicros(long) routeId(int) count(int) { size(int) [payload(byte[size])] }*count
+ * </pre>
+ * The batch offset is from the capture start. Routes are written once, and referred to by id thereafter, to keep
+ * the file compact. The payload bytes are the serialized message, as pushed to Redis.
+ * @author esutdal
+ *
+ */
+public final class TrafficCapture {
+
+	private TrafficCapture() {
+	}
+	static final int MAGIC = 0xB1A2EC01;
+	static final byte VERSION = 1;
+	private static final byte ENTRY_ROUTE = 0;
+	private static final byte ENTRY_BATCH = 1;
+
+	/**
+	 * A captured batch of messages.
+	 */
+	public static final class Batch
+	{
+		private final long offsetMicros;
+		private final String exchange;
+		private final String route;
+		private final int[] sizes;
+		private final byte[][] payloads;
+		private Batch(long offsetMicros, String exchange, String route, int[] sizes, byte[][] payloads) {
+			this.offsetMicros = offsetMicros;
+			this.exchange = exchange;
+			this.route = route;
+			this.sizes = sizes;
+			this.payloads = payloads;
+		}
+		/**
+		 * Arrival time, from the start of capture.
+		 * @return
+		 */
+		public long getOffsetMicros() {
+			return offsetMicros;
+		}
+		public String getExchange() {
+			return exchange;
+		}
+		public String getRoute() {
+			return route;
+		}
+		public int size() {
+			return sizes.length;
+		}
+		/**
+		 * Serialized size of the i-th message.
+		 * @param i
+		 * @return
+		 */
+		public int getSize(int i) {
+			return sizes[i];
+		}
+		/**
+		 * Serialized bytes of the i-th message.
+		 * @param i
+		 * @return payload, or null if payloads were not captured
+		 */
+		public byte[] getPayload(int i) {
+			return payloads != null ? payloads[i] : null;
+		}
+	}
+	/**
+	 * Appends entries to a capture file. Not thread safe.
+	 */
+	static final class Writer implements Closeable
+	{
+		private final DataOutputStream out;
+		private final boolean payloads;
+		private final long startNanos;
+		private final Map<String, Integer> routeIds = new HashMap<>();
+		private long written;
+		Writer(File file, boolean payloads) throws IOException {
+			this.out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file), 64 * 1024));
+			this.payloads = payloads;
+			this.startNanos = System.nanoTime();
+			out.writeInt(MAGIC);
+			out.writeByte(VERSION);
+			out.writeBoolean(payloads);
+			out.writeLong(System.currentTimeMillis());
+		}
+		/**
+		 * Time from the capture start.
+		 * @param nanoTime
+		 * @return
+		 */
+		long offsetMicros(long nanoTime)
+		{
+			return (nanoTime - startNanos) / 1000;
+		}
+		/**
+		 * 
+		 * @param offsetMicros
+		 * @param exchange
+		 * @param route
+		 * @param sizes
+		 * @param messages payloads, to be written only if payloads are being captured
+		 * @throws IOException
+		 */
+		void write(long offsetMicros, String exchange, String route, int[] sizes, byte[][] messages) throws IOException
+		{
+			String routeKey = exchange + '\u0000' + route;
+			Integer id = routeIds.get(routeKey);
+			if(id == null)
+			{
+				id = routeIds.size();
+				routeIds.put(routeKey, id);
+				out.writeByte(ENTRY_ROUTE);
+				out.writeInt(id);
+				out.writeUTF(exchange);
+				out.writeUTF(route);
+			}
+			out.writeByte(ENTRY_BATCH);
+			out.writeLong(offsetMicros);
+			out.writeInt(id);
+			out.writeInt(sizes.length);
+			for (int i = 0; i < sizes.length; i++) {
+				out.writeInt(sizes[i]);
+				if(payloads)
+				{
+					out.write(messages[i]);
+					written += sizes[i];
+				}
+			}
+			written += 17 + 4 * sizes.length;
+		}
+		/**
+		 * Approximate bytes written.
+		 * @return
+		 */
+		long written()
+		{
+			return written;
+		}
+		void flush() throws IOException
+		{
+			out.flush();
+		}
+		@Override
+		public void close() throws IOException {
+			out.close();
+		}
+	}
+	/**
+	 * Reads the batches of a capture file, in order.
+	 */
+	public static final class Reader implements Closeable
+	{
+		private final DataInputStream in;
+		private final boolean payloads;
+		private final long startEpochMillis;
+		private final List<String[]> routes = new ArrayList<>();
+		public Reader(File file) throws IOException {
+			this.in = new DataInputStream(new BufferedInputStream(new FileInputStream(file), 64 * 1024));
+			if(in.readInt() != MAGIC)
+			{
+				in.close();
+				throw new IOException("Not a capture file: "+file);
+			}
+			byte version = in.readByte();
+			if(version != VERSION)
+			{
+				in.close();
+				throw new IOException("Unsupported capture file version "+version);
+			}
+			this.payloads = in.readBoolean();
+			this.startEpochMillis = in.readLong();
+		}
+		/**
+		 * If the payloads were captured.
+		 * @return
+		 */
+		public boolean hasPayloads() {
+			return payloads;
+		}
+		public long getStartEpochMillis() {
+			return startEpochMillis;
+		}
+		/**
+		 * The next batch. A batch truncated by an abrupt stop of the capture is discarded.
+		 * @return next batch, or null at end of file
+		 * @throws IOException
+		 */
+		public Batch next() throws IOException
+		{
+			try
+			{
+				while(true)
+				{
+					byte type = in.readByte();
+					if(type == ENTRY_ROUTE)
+					{
+						int id = in.readInt();
+						String[] route = new String[]{in.readUTF(), in.readUTF()};
+						if(id != routes.size())
+							throw new IOException("Corrupt capture file. Unexpected route id "+id);
+						routes.add(route);
+					}
+					else if(type == ENTRY_BATCH)
+					{
+						long offset = in.readLong();
+						String[] route = routes.get(in.readInt());
+						int count = in.readInt();
+						int[] sizes = new int[count];
+						byte[][] bytes = payloads ? new byte[count][] : null;
+						for (int i = 0; i < count; i++) {
+							sizes[i] = in.readInt();
+							if(payloads)
+							{
+								bytes[i] = new byte[sizes[i]];
+								in.readFully(bytes[i]);
+							}
+						}
+						return new Batch(offset, route[0], route[1], sizes, bytes);
+					}
+					else
+						throw new IOException("Corrupt capture file. Unexpected entry type "+type);
+				}
+			}
+			catch (EOFException e) {
+				return null;
+			}
+		}
+		@Override
+		public void close() throws IOException {
+			in.close();
+		}
+	}
+}
@@ -0,0 +1,192 @@
+/**
+ * Copyright 2017 esutdal
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+package com.reactivetechnologies.blaze.capture;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import com.reactivetechnologies.blaze.struct.QRecord;
+/**
+ * Captures the ingested traffic to a local file, for a later replay of the arrival process against a test deployment.
+ * The arrival time, exchange, route and message sizes of each batch are recorded, and optionally the payloads as well.
+ * <p>
+ * Recording is off the request path. A batch is handed over to a writer thread through a bounded buffer, and is dropped
+ * if the buffer is full, so a slow disk does not slow down the ingestion. The capture stops once the file reaches
+ * the configured size.
+ * @author esutdal
+ *
+ */
+@Component
+public class TrafficRecorder {
+
+	private static final Logger log = LoggerFactory.getLogger(TrafficRecorder.class);
+	private static final int BUFFER_SIZE = 8192;
+
+	private static final class Entry
+	{
+		private final long offsetMicros;
+		private final String exchange;
+		private final String route;
+		private final int[] sizes;
+		private final byte[][] payloads;
+		private Entry(long offsetMicros, String exchange, String route, int[] sizes, byte[][] payloads) {
+			this.offsetMicros = offsetMicros;
+			this.exchange = exchange;
+			this.route = route;
+			this.sizes = sizes;
+			this.payloads = payloads;
+		}
+	}
+
+	@Value("${producer.capture.enable:false}")
+	private boolean enabled;
+	@Value("${producer.capture.file:blaze-capture.bin}")
+	private String fileName;
+	@Value("${producer.capture.sample.every:1}")
+	private int sampleEvery;
+	@Value("${producer.capture.payload:false}")
+	private boolean capturePayload;
+	@Value("${producer.capture.max.mb:512}")
+	private long maxMb;
+
+	private final BlockingQueue<Entry> buffer = new ArrayBlockingQueue<>(BUFFER_SIZE);
+	private final AtomicLong dropped = new AtomicLong();
+	private volatile boolean running;
+	private TrafficCapture.Writer writer;
+	private Thread writerThread;
+
+	@PostConstruct
+	private void init() throws IOException
+	{
+		if(!enabled)
+			return;
+		File file = new File(fileName);
+		writer = new TrafficCapture.Writer(file, capturePayload);
+		running = true;
+		writerThread = new Thread(new Runnable() {
+
+			@Override
+			public void run() {
+				drain();
+			}
+		}, "Blaze.TrafficRecorder");
+		writerThread.setDaemon(true);
+		writerThread.start();
+		log.info("Capturing traffic to "+file.getAbsolutePath()+", sampling 1 in "+Math.max(sampleEvery, 1)+" batches"
+				+ (capturePayload ? ", with payloads" : ""));
+	}
+	@PreDestroy
+	private void destroy() throws InterruptedException
+	{
+		if(writerThread != null)
+		{
+			running = false;
+			writerThread.join(TimeUnit.SECONDS.toMillis(5));
+		}
+	}
+	/**
+	 * Record a batch being enqueued. This is a no-op if capture is disabled or stopped.
+	 * @param exchange
+	 * @param route
+	 * @param records
+	 */
+	public void record(String exchange, String route, QRecord[] records)
+	{
+		if(!running)
+			return;
+		long now = System.nanoTime();
+		if(sampleEvery > 1 && ThreadLocalRandom.current().nextInt(sampleEvery) != 0)
+			return;
+		int[] sizes = new int[records.length];
+		byte[][] payloads = capturePayload ? new byte[records.length][] : null;
+		for (int i = 0; i < records.length; i++) {
+			ByteBuffer payload = records[i].getPayload();
+			sizes[i] = payload != null ? payload.remaining() : 0;
+			if(payloads != null)
+			{
+				payloads[i] = new byte[sizes[i]];
+				if(payload != null)
+					payload.duplicate().get(payloads[i]);
+			}
+		}
+		if(!buffer.offer(new Entry(writer.offsetMicros(now), exchange, route, sizes, payloads)))
+		{
+			dropped.incrementAndGet();
+		}
+	}
+	private void drain()
+	{
+		long maxBytes = maxMb * 1024 * 1024;
+		List<Entry> batch = new ArrayList<>();
+		try
+		{
+			while(running || !buffer.isEmpty())
+			{
+				Entry e = buffer.poll(100, TimeUnit.MILLISECONDS);
+				if(e == null)
+				{
+					writer.flush();
+					continue;
+				}
+				batch.add(e);
+				buffer.drainTo(batch);
+				for(Entry each : batch)
+				{
+					writer.write(each.offsetMicros, each.exchange, each.route, each.sizes, each.payloads);
+				}
+				batch.clear();
+				if(writer.written() >= maxBytes)
+				{
+					log.warn("Traffic capture reached the max size of "+maxMb+" MB. Stopping capture");
+					running = false;
+					buffer.clear();
+				}
+			}
+		}
+		catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		catch (IOException e) {
+			log.error("Traffic capture failed. Stopping capture", e);
+			running = false;
+		}
+		finally
+		{
+			try {
+				writer.close();
+			} catch (IOException e) {
+				log.warn("Unable to close capture file. Error => "+e.getMessage());
+			}
+			log.info("Traffic capture closed. Batches dropped on a full buffer: "+dropped.get());
+		}
+	}
+}
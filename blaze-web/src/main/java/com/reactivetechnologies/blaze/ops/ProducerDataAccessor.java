@@ -16,11 +16,15 @@
 package com.reactivetechnologies.blaze.ops;
 
 import java.io.IOException;
+import java.util.Arrays;
+import java.util.ArrayList;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Set;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadLocalRandom;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
 
@@ -31,14 +35,18 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Profile;
 import org.springframework.data.redis.RedisConnectionFailureException;
 import org.springframework.data.redis.core.BoundListOperations;
 import org.springframework.stereotype.Component;
+import org.springframework.util.StringUtils;
 
+import com.reactivetechnologies.blaze.jfr.BlazeEvents;
 import com.reactivetechnologies.blaze.struct.QRecord;
 import com.reactivetechnologies.mq.exceptions.RedisUnavailableException;
 import com.reactivetechnologies.mq.ops.ProducerOperations;
 @Component
+@Profile("!" + InMemoryDataAccessor.PROFILE)
 public class ProducerDataAccessor extends BaseDataAccessor implements ProducerOperations {
 
 	private final AtomicBoolean initReady = new AtomicBoolean();
@@ -49,8 +57,32 @@ public class ProducerDataAccessor extends BaseDataAccessor implements ProducerOp
 	
 	@Value("${producer.connChecker.rejectOnUnavailable:true}")
 	private boolean isRejectOnRedisDown;
+	
+	@Value("${producer.trace.sample.every:0}")
+	private int traceSampleEvery;
+	@Value("${producer.wakeup.enable:true}")
+	private boolean publishWakeup;
+	@Value("${producer.group.key.enable:false}")
+	private boolean groupKeys;
+	@Value("${producer.dedupe.enable:false}")
+	private boolean dedupe;
+	@Value("${producer.dedupe.window.millis:300000}")
+	private long dedupeWindowMillis;
+	@Value("${producer.dedupe.local.size:100000}")
+	private int dedupeLocalSize;
+	/**
+	 * The idempotency keys enqueued recently from this instance, if dedupe is enabled. A best effort pre-filter, timed
+	 * by the clock of this instance, so it is held for a margin less than the window in Redis.
+	 */
+	private IdempotencyWindow idempotencyWindow;
+	/**
+	 * Max margin by which the local window is shorter than the window in Redis, for the local window to lapse first.
+	 */
+	private static final long LOCAL_WINDOW_MARGIN_MILLIS = 1000;
 		
+	private final AtomicBoolean groupKeyWarned = new AtomicBoolean();
 	private final Set<String> queueNames = new HashSet<>();
+	private final ScriptArgsSerializer scriptArgs = new ScriptArgsSerializer();
 	@Autowired
 	private LocalDataAccessorFactoryBean localDataFactory;
 	
@@ -69,6 +101,9 @@ public class ProducerDataAccessor extends BaseDataAccessor implements ProducerOp
 	@PostConstruct
 	private void init()
 	{
+		if(dedupe)
+			idempotencyWindow = new IdempotencyWindow(dedupeLocalSize,
+					dedupeWindowMillis - Math.min(LOCAL_WINDOW_MARGIN_MILLIS, dedupeWindowMillis / 2));
 		if(isRedisAvailable())
 		{
 			log.info("Verified Redis is available..");
@@ -150,7 +185,9 @@ public class ProducerDataAccessor extends BaseDataAccessor implements ProducerOp
 		try 
 		{
 			if (initReady.get()) {
+				Object event = BlazeEvents.beginEnqueue();
 				lpushAll(preparedKey, values);
+				BlazeEvents.endEnqueue(event, preparedKey, values);
 			}
 			else
 			{
@@ -167,6 +204,20 @@ public class ProducerDataAccessor extends BaseDataAccessor implements ProducerOp
 		}
 	}
 
+	/**
+	 * Mark 1-in-N of the records to be traced.
+	 * @param values
+	 */
+	private void sampleTrace(QRecord[] values)
+	{
+		if(traceSampleEvery <= 0)
+			return;
+		for(QRecord qr : values)
+		{
+			if(ThreadLocalRandom.current().nextInt(traceSampleEvery) == 0)
+				qr.traceEnqueue();
+		}
+	}
 	private void enqueueLocally(String preparedKey, QRecord[] values) {
 		if(isRejectOnRedisDown)
 			throw new RedisUnavailableException();
@@ -181,9 +232,125 @@ public class ProducerDataAccessor extends BaseDataAccessor implements ProducerOp
 	@Override
 	public void lpushAll(String preparedKey, QRecord[] values)
 	{
-		BoundListOperations<String, QRecord> listOps = redisTemplate.boundListOps(preparedKey);
-		long c = listOps.leftPushAll(values);
-		statsRecorder.recordEnqueu(preparedKey, c);
+		if(!groupKeys)
+			dropGroupKeys(values);
+		sampleTrace(values);
+		if(idempotencyWindow != null && hasIdempotencyKey(values))
+		{
+			lpushDeduped(preparedKey, values);
+			return;
+		}
+		if(queueCatalog.isRegistered(preparedKey))
+		{
+			BoundListOperations<String, QRecord> listOps = redisTemplate.boundListOps(preparedKey);
+			Long length = listOps.leftPushAll(values);
+			//the queue was empty
+			if(length != null && length == values.length)
+				publishWakeup(preparedKey);
+		}
+		else
+		{
+			lpushAndRegister(preparedKey, values);
+			//a queue being registered is likely empty
+			publishWakeup(preparedKey);
+		}
+		//LPUSH returns the length of list, not the count pushed
+		statsRecorder.recordEnqueu(preparedKey, values.length);
+	}
+	/**
+	 * Drop the group keys, unless enabled. A record with a group key is not readable by a consumer of the
+	 * earlier record format, so the consumers are to be upgraded before the group keys are enabled.
+	 * @param values
+	 */
+	private void dropGroupKeys(QRecord[] values)
+	{
+		for(QRecord qr : values)
+		{
+			if(qr.getGroupKey() != null)
+			{
+				qr.setGroupKey(null);
+				if(groupKeyWarned.compareAndSet(false, true))
+					log.warn("Group keys are not enqueued, as 'producer.group.key.enable' is not set. Messages will not be ordered by key");
+			}
+		}
+	}
+	private static boolean hasIdempotencyKey(QRecord[] values)
+	{
+		for(QRecord qr : values)
+		{
+			if(StringUtils.hasText(qr.getIdempotencyKey()))
+				return true;
+		}
+		return false;
+	}
+	/**
+	 * Push the items in a script that skips those whose idempotency key was enqueued to the queue within the dedupe
+	 * window, atomically with the push. The window is timed by the Redis server clock, and not of the producers. The
+	 * keys enqueued from this instance recently are skipped without a round trip, as a best effort pre-filter timed by
+	 * the clock of this instance. It is held for a little less than the window, so a key it skips is still within the
+	 * window in Redis, but for a jump in either clock. The queue is registered in the catalog, if not already.
+	 * @param preparedKey
+	 * @param values
+	 */
+	private void lpushDeduped(String preparedKey, QRecord[] values)
+	{
+		long now = System.currentTimeMillis();
+		List<Object> args = new ArrayList<>(values.length * 2 + 3);
+		args.add(QueueCatalog.CATALOG_CHANNEL);
+		args.add(dedupeWindowMillis);
+		args.add(publishWakeup ? QueueWakeup.CHANNEL : "");
+		int sent = 0;
+		for(QRecord qr : values)
+		{
+			String key = StringUtils.hasText(qr.getIdempotencyKey()) ? qr.getIdempotencyKey() : "";
+			if(!key.isEmpty() && idempotencyWindow.contains(preparedKey, key, now))
+				continue;
+			args.add(key);
+			args.add(qr);
+			sent++;
+		}
+		long pushed = 0;
+		if(sent > 0)
+		{
+			Long c = redisTemplate.execute(RedisScripts.QUEUE_ENQUEUE_DEDUPE, scriptArgs, null,
+					Arrays.asList(preparedKey, QueueCatalog.CATALOG_KEY, preparedKey + DEDUPE_SUFFIX), args.toArray());
+			pushed = c != null ? c : 0;
+			queueCatalog.registered(preparedKey);
+			for(QRecord qr : values)
+			{
+				if(StringUtils.hasText(qr.getIdempotencyKey()))
+					idempotencyWindow.add(preparedKey, qr.getIdempotencyKey(), now);
+			}
+		}
+		statsRecorder.recordEnqueu(preparedKey, pushed);
+		if(pushed < values.length)
+		{
+			statsRecorder.recordDuplicate(preparedKey, values.length - pushed);
+			log.debug("Skipped "+(values.length - pushed)+" duplicate items to "+preparedKey);
+		}
+	}
+	/**
+	 * Wake the consumers parked on the queue, which has become non-empty.
+	 * @param preparedKey
+	 */
+	private void publishWakeup(String preparedKey)
+	{
+		if(publishWakeup)
+			stringRedis.convertAndSend(QueueWakeup.CHANNEL, preparedKey);
+	}
+	/**
+	 * Push the items in a script that registers the queue in catalog, if not already. 
+	 * @param preparedKey
+	 * @param values
+	 */
+	private void lpushAndRegister(String preparedKey, QRecord[] values)
+	{
+		Object[] args = new Object[values.length + 2];
+		args[0] = System.currentTimeMillis();
+		args[1] = QueueCatalog.CATALOG_CHANNEL;
+		System.arraycopy(values, 0, args, 2, values.length);
+		redisTemplate.execute(RedisScripts.QUEUE_ENQUEUE, scriptArgs, null, Arrays.asList(preparedKey, QueueCatalog.CATALOG_KEY), args);
+		queueCatalog.registered(preparedKey);
 	}
 	//NOTE: Redis keys are data structure specific. So you cannot use the same key for hash and list.
 	/*
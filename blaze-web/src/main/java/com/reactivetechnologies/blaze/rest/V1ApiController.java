@@ -19,6 +19,7 @@ import org.springframework.util.StringUtils;
 import org.springframework.web.bind.annotation.ExceptionHandler;
 import org.springframework.web.bind.annotation.PathVariable;
 import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RequestHeader;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RequestMethod;
 import org.springframework.web.bind.annotation.ResponseStatus;
@@ -28,6 +29,8 @@ import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.databind.ObjectWriter;
+import com.reactivetechnologies.mq.LatencySnapshot;
+import com.reactivetechnologies.mq.MetricService;
 import com.reactivetechnologies.mq.QueueService;
 import com.reactivetechnologies.mq.data.TextData;
 import com.reactivetechnologies.mq.exceptions.BlazeMessagingException;
@@ -40,10 +43,17 @@ public class V1ApiController {
 	public static final String BADREQ_INV_JSON = "Not a valid json";
 	public static final String BADREQ_INV_TEXT = "Not a valid text";
 	public static final String BADREQ_INV_JSONARR = "Expecting a json array";
+	/**
+	 * Header for a key identifying a message across the retries of a client. If dedupe is enabled on the producer, a message
+	 * with a key already enqueued within the dedupe window is dropped. The key is carried apart from the correlation id.
+	 */
+	public static final String IDEMPOTENCY_KEY_HEADER = "Idempotency-Key";
 	private static final Logger log = LoggerFactory.getLogger(V1ApiController.class);
 	
 	@Autowired
 	private QueueService service;
+	@Autowired
+	private MetricService metrics;
 	
 	private ObjectMapper om;
 	@PostConstruct
@@ -62,22 +72,31 @@ public class V1ApiController {
 			} 
 		}
 	}
+	private static TextData newTextData(String text, String queue, String idempotencyKey)
+	{
+		TextData data = new TextData(text, queue);
+		if(StringUtils.hasText(idempotencyKey))
+			data.setIdempotencyKey(idempotencyKey);
+		return data;
+	}
 	/**
-	 * Add a json object to queue.
+	 * Add a json object to queue. A retry can be deduplicated by the {@value #IDEMPOTENCY_KEY_HEADER} header.
 	 * @param queue
 	 * @param json
+	 * @param idempotencyKey optional
 	 * @return
 	 * @throws IOException 
 	 * @throws JsonProcessingException 
 	 * @throws BlazeMessagingException 
 	 */
 	@RequestMapping(method = {RequestMethod.POST}, path = "/add/{queue}")
-	public int addJsonToQueue(@PathVariable("queue") String queue, @RequestBody String json) throws JsonProcessingException, IOException, BlazeMessagingException
+	public int addJsonToQueue(@PathVariable("queue") String queue, @RequestBody String json,
+			@RequestHeader(value = IDEMPOTENCY_KEY_HEADER, required = false) String idempotencyKey) throws JsonProcessingException, IOException, BlazeMessagingException
 	{
 		om.reader().readTree(json);
 		log.info("Adding to queue - ["+queue+"] "+json);
 		try {
-			return service.add(Arrays.asList(new TextData(json, queue)));
+			return service.add(Arrays.asList(newTextData(json, queue, idempotencyKey)));
 		} 
 		catch(RedisUnavailableException re){
 			throw re;
@@ -87,21 +106,23 @@ public class V1ApiController {
 		}
 	}
 	/**
-	 * Add a plain text message to queue.
+	 * Add a plain text message to queue. A retry can be deduplicated by the {@value #IDEMPOTENCY_KEY_HEADER} header.
 	 * @param queue
 	 * @param text
+	 * @param idempotencyKey optional
 	 * @return
 	 * @throws BlazeMessagingException 
 	 * @throws JsonProcessingException
 	 * @throws IOException
 	 */
 	@RequestMapping(method = {RequestMethod.POST}, path = "/append/{queue}")
-	public int addTextToQueue(@PathVariable("queue") String queue, @RequestBody String text) throws BlazeMessagingException 
+	public int addTextToQueue(@PathVariable("queue") String queue, @RequestBody String text,
+			@RequestHeader(value = IDEMPOTENCY_KEY_HEADER, required = false) String idempotencyKey) throws BlazeMessagingException 
 	{
 		Assert.isTrue(StringUtils.hasText(text));
 		log.info("Adding to queue - ["+queue+"] "+text);
 		try {
-			return service.add(Arrays.asList(new TextData(text, queue)));
+			return service.add(Arrays.asList(newTextData(text, queue, idempotencyKey)));
 		} 
 		catch(RedisUnavailableException re){
 			throw re;
@@ -143,6 +164,28 @@ public class V1ApiController {
 		}
 	}
 	
+	/**
+	 * Latency percentiles (in micros) of the listeners on a queue, per processing stage.
+	 * @param queue
+	 * @return
+	 */
+	@RequestMapping(method = {RequestMethod.GET}, path = "/latency/{queue}")
+	public List<LatencySnapshot> getLatencies(@PathVariable("queue") String queue)
+	{
+		return metrics.getLatencies(queue);
+	}
+	
+	/**
+	 * Messages not enqueued to a queue, being duplicates by idempotency key.
+	 * @param queue
+	 * @return
+	 */
+	@RequestMapping(method = {RequestMethod.GET}, path = "/duplicates/{queue}")
+	public long getDuplicates(@PathVariable("queue") String queue)
+	{
+		return metrics.getDuplicateCount(queue);
+	}
+	
 	@ResponseStatus(value=HttpStatus.BAD_REQUEST, reason=BADREQ_INV_JSON)
 	@ExceptionHandler({JsonProcessingException.class, IOException.class})
 	public void onMalformedJson(Throwable e){